@@ -17,16 +17,43 @@ package com.google.bitcoin.core;
 
 import java.io.File;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 import com.google.bitcoin.store.BlockStore;
 import com.google.bitcoin.store.BlockStoreException;
 import com.google.bitcoin.store.SPVBlockStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Extension of bitcoinj BlockChain for use with block chain replay.
  */
 public class MultiBitBlockChain extends BlockChain {
 
+    private static final Logger log = LoggerFactory.getLogger(MultiBitBlockChain.class);
+
+    /**
+     * How far back from the chainhead a filtered block that arrives again can be to have its transactions merged.
+     */
+    public static final int MAXIMUM_MERGE_DEPTH = 2016;
+
+    /**
+     * Told of each filtered block that has been added to the chain (with the transactions that came with it).
+     */
+    public interface FilteredBlockListener {
+        void onFilteredBlockAdded(FilteredBlock filteredBlock);
+    }
+
+    private final CopyOnWriteArrayList<FilteredBlockListener> filteredBlockListeners = new CopyOnWriteArrayList<FilteredBlockListener>();
+
+    /**
+     * The listeners (wallets) the transactions of merged filtered blocks are given to.
+     * (Not initialised where it is declared as listeners are added whilst the superclass is constructed).
+     */
+    private CopyOnWriteArrayList<BlockChainListener> mergeListeners;
+
     public MultiBitBlockChain(NetworkParameters params, Wallet wallet, BlockStore blockStore) throws BlockStoreException {
         super(params, wallet, blockStore);
     }
@@ -39,6 +66,134 @@ public class MultiBitBlockChain extends BlockChain {
         super(params, wallets, blockStore);
     }
     
+    public void addFilteredBlockListener(FilteredBlockListener filteredBlockListener) {
+        filteredBlockListeners.add(filteredBlockListener);
+    }
+
+    public void removeFilteredBlockListener(FilteredBlockListener filteredBlockListener) {
+        filteredBlockListeners.remove(filteredBlockListener);
+    }
+
+    @Override
+    public void addListener(BlockChainListener listener, Executor executor) {
+        super.addListener(listener, executor);
+        getMergeListeners().add(listener);
+    }
+
+    @Override
+    public void removeListener(BlockChainListener listener) {
+        super.removeListener(listener);
+        getMergeListeners().remove(listener);
+    }
+
+    private synchronized CopyOnWriteArrayList<BlockChainListener> getMergeListeners() {
+        if (mergeListeners == null) {
+            mergeListeners = new CopyOnWriteArrayList<BlockChainListener>();
+        }
+        return mergeListeners;
+    }
+
+    @Override
+    public boolean add(FilteredBlock block) throws VerificationException, PrunedException {
+        // A block already on the best chain that arrives again through another bloom filter
+        // has its transactions passed on rather than being taken as a fork.
+        boolean added = mergeFilteredBlock(block) || super.add(block);
+        if (added) {
+            for (FilteredBlockListener filteredBlockListener : filteredBlockListeners) {
+                filteredBlockListener.onFilteredBlockAdded(block);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Give the transactions of a filtered block that is already on the best chain to the listeners that
+     * have not seen them in that block. As the block can be below the chainhead the transactions are given the
+     * depth they have in the chain (rather than the depth of a new best block).
+     *
+     * @return true if the block was already on the best chain (so has been dealt with)
+     */
+    boolean mergeFilteredBlock(FilteredBlock block) throws VerificationException {
+        lock.lock();
+        try {
+            StoredBlock storedBlock = findInBestChain(block.getHash());
+            if (storedBlock == null) {
+                return false;
+            }
+            Map<Sha256Hash, Transaction> transactions = block.getAssociatedTransactions();
+            if (transactions.isEmpty()) {
+                return true;
+            }
+            List<Sha256Hash> transactionHashes = block.getTransactionHashes();
+            int depthInBlocks = getChainHead().getHeight() - storedBlock.getHeight() + 1;
+            int numberOfTransactionsMerged = 0;
+            for (BlockChainListener listener : getMergeListeners()) {
+                for (int relativityOffset = 0; relativityOffset < transactionHashes.size(); relativityOffset++) {
+                    Transaction transaction = transactions.get(transactionHashes.get(relativityOffset));
+                    if (transaction == null || isAlreadyInBlock(listener, transaction, block.getHash())) {
+                        continue;
+                    }
+                    try {
+                        if (listener.isTransactionRelevant(transaction)) {
+                            listener.receiveFromBlock(transaction, storedBlock, NewBlockType.BEST_CHAIN, relativityOffset);
+                            setDepthInBlocks(listener, transaction, depthInBlocks);
+                            numberOfTransactionsMerged++;
+                        }
+                    } catch (ScriptException e) {
+                        log.warn("Failed to parse a script: " + e.toString());
+                    }
+                }
+            }
+            if (numberOfTransactionsMerged > 0) {
+                log.debug("Merged " + numberOfTransactionsMerged + " transactions from filtered block " + block.getHash());
+            }
+            return true;
+        } catch (BlockStoreException e) {
+            log.error("Could not merge filtered block " + block.getHash() + ". " + e.getMessage());
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void setDepthInBlocks(BlockChainListener listener, Transaction transaction, int depthInBlocks) {
+        if (!(listener instanceof Wallet)) {
+            return;
+        }
+        Transaction walletTransaction = ((Wallet) listener).getTransaction(transaction.getHash());
+        if (walletTransaction != null
+                && walletTransaction.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING) {
+            walletTransaction.getConfidence().setDepthInBlocks(depthInBlocks);
+        }
+    }
+
+    private boolean isAlreadyInBlock(BlockChainListener listener, Transaction transaction, Sha256Hash blockHash) {
+        if (!(listener instanceof Wallet)) {
+            return false;
+        }
+        Transaction walletTransaction = ((Wallet) listener).getTransaction(transaction.getHash());
+        return walletTransaction != null && walletTransaction.getAppearsInHashes() != null
+                && walletTransaction.getAppearsInHashes().containsKey(blockHash);
+    }
+
+    /**
+     * @return The block if it is on the best chain no more than MAXIMUM_MERGE_DEPTH below the chainhead, otherwise null
+     */
+    private StoredBlock findInBestChain(Sha256Hash blockHash) throws BlockStoreException {
+        StoredBlock storedBlock = blockStore.get(blockHash);
+        if (storedBlock == null) {
+            return null;
+        }
+        StoredBlock cursor = getChainHead();
+        if (storedBlock.getHeight() > cursor.getHeight() || cursor.getHeight() - storedBlock.getHeight() > MAXIMUM_MERGE_DEPTH) {
+            return null;
+        }
+        while (cursor != null && cursor.getHeight() > storedBlock.getHeight()) {
+            cursor = cursor.getPrev(blockStore);
+        }
+        return cursor != null && cursor.getHeader().getHash().equals(blockHash) ? storedBlock : null;
+    }
+
     /**
      * Set the chainhead, clear any cached blocks and truncate the blockchain .
      * (Used for blockchain replay).
@@ -57,4 +212,35 @@ public class MultiBitBlockChain extends BlockChain {
             super.setChainHead(chainHead);
         }
     }
+
+    /**
+     * Move the chainhead back along the headers already in the block store, keeping them on disk.
+     * (Used for blockchain replay so that the headers do not need to be downloaded again).
+     *
+     * @param targetHeight The height to move back to or below, or -1 for no height limit
+     * @param targetTimeSecs The block time to move back to or before, or -1 for no time limit
+     * @return The new chainhead, or null if the block store does not go back far enough (the chainhead is unchanged)
+     * @throws BlockStoreException
+     */
+    public StoredBlock rewindChainHead(int targetHeight, long targetTimeSecs) throws BlockStoreException {
+        lock.lock();
+        try {
+            StoredBlock cursor = getChainHead();
+            while (cursor != null
+                    && ((targetHeight >= 0 && cursor.getHeight() > targetHeight)
+                    || (targetTimeSecs >= 0 && cursor.getHeader().getTimeSeconds() > targetTimeSecs))) {
+                // A header older than those retained is not found.
+                cursor = cursor.getPrev(blockStore);
+            }
+            if (cursor == null) {
+                return null;
+            }
+            if (!cursor.equals(getChainHead())) {
+                setChainHead(cursor);
+            }
+            return cursor;
+        } finally {
+            lock.unlock();
+        }
+    }
 }
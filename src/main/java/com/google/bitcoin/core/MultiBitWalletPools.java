@@ -0,0 +1,165 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.bitcoin.core;
+
+import java.util.Map;
+
+import com.google.bitcoin.wallet.WalletTransaction;
+
+/**
+ * Access to the transaction pools of a bitcoinj Wallet.
+ * (Used when replaying the wallet journal onto a wallet loaded from disk).
+ */
+public class MultiBitWalletPools {
+
+    /**
+     * Utility class should not have a public constructor
+     */
+    private MultiBitWalletPools() {
+    }
+
+    /**
+     * Get the pool the transaction with the given hash is currently in.
+     * @param wallet The wallet to look in
+     * @param hash The hash of the transaction
+     * @return The pool, or null if the transaction is not in the wallet
+     */
+    public static WalletTransaction.Pool getPool(Wallet wallet, Sha256Hash hash) {
+        wallet.lock.lock();
+        try {
+            if (wallet.unspent.containsKey(hash)) {
+                return WalletTransaction.Pool.UNSPENT;
+            } else if (wallet.spent.containsKey(hash)) {
+                return WalletTransaction.Pool.SPENT;
+            } else if (wallet.pending.containsKey(hash)) {
+                return WalletTransaction.Pool.PENDING;
+            } else if (wallet.dead.containsKey(hash)) {
+                return WalletTransaction.Pool.DEAD;
+            } else {
+                return null;
+            }
+        } finally {
+            wallet.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the wallet's copy of the transaction with the given hash.
+     * @param wallet The wallet to look in
+     * @param hash The hash of the transaction
+     * @return The transaction, or null if the transaction is not in the wallet
+     */
+    public static Transaction getTransaction(Wallet wallet, Sha256Hash hash) {
+        wallet.lock.lock();
+        try {
+            return wallet.transactions.get(hash);
+        } finally {
+            wallet.lock.unlock();
+        }
+    }
+
+    /**
+     * Put a transaction into the given pool, moving it out of any pool it is currently in.
+     * A transaction that is new to the wallet is connected to the wallet transactions it spends
+     * and is spent by, so that the spent flags on the outputs match those of a wallet that
+     * received the transaction from the network.
+     *
+     * @param wallet The wallet to update
+     * @param transaction The transaction. If the wallet already contains a transaction with this hash the wallet's copy is moved.
+     * @param pool The pool the transaction should end up in
+     * @return The wallet's copy of the transaction
+     */
+    public static Transaction putInPool(Wallet wallet, Transaction transaction, WalletTransaction.Pool pool) {
+        wallet.lock.lock();
+        try {
+            Sha256Hash hash = transaction.getHash();
+            Transaction existing = wallet.transactions.get(hash);
+            if (existing == null) {
+                wallet.addWalletTransaction(new WalletTransaction(pool, transaction));
+                if (pool != WalletTransaction.Pool.DEAD) {
+                    connectInputs(wallet, transaction);
+                    connectSpendingTransactions(wallet, transaction);
+                }
+                return transaction;
+            }
+
+            WalletTransaction.Pool currentPool = getPool(wallet, hash);
+            if (currentPool == pool) {
+                return existing;
+            }
+            if (currentPool != null) {
+                poolFor(wallet, currentPool).remove(hash);
+            }
+            poolFor(wallet, pool).put(hash, existing);
+
+            if (pool == WalletTransaction.Pool.DEAD) {
+                // Dead transactions do not spend anything.
+                for (TransactionInput input : existing.getInputs()) {
+                    input.disconnect();
+                }
+            } else if (currentPool == WalletTransaction.Pool.DEAD) {
+                connectInputs(wallet, existing);
+            }
+            return existing;
+        } finally {
+            wallet.lock.unlock();
+        }
+    }
+
+    private static void connectInputs(Wallet wallet, Transaction transaction) {
+        for (TransactionInput input : transaction.getInputs()) {
+            if (input.getConnectedOutput() != null) {
+                continue;
+            }
+            if (input.connect(wallet.unspent, TransactionInput.ConnectMode.ABORT_ON_CONFLICT) == TransactionInput.ConnectionResult.SUCCESS) {
+                continue;
+            }
+            if (input.connect(wallet.spent, TransactionInput.ConnectMode.ABORT_ON_CONFLICT) == TransactionInput.ConnectionResult.SUCCESS) {
+                continue;
+            }
+            input.connect(wallet.pending, TransactionInput.ConnectMode.ABORT_ON_CONFLICT);
+        }
+    }
+
+    private static void connectSpendingTransactions(Wallet wallet, Transaction transaction) {
+        Sha256Hash hash = transaction.getHash();
+        for (Transaction loopTransaction : wallet.transactions.values()) {
+            if (loopTransaction == transaction || wallet.dead.containsKey(loopTransaction.getHash())) {
+                continue;
+            }
+            for (TransactionInput input : loopTransaction.getInputs()) {
+                if (input.getConnectedOutput() == null && hash.equals(input.getOutpoint().getHash())) {
+                    input.connect(transaction, TransactionInput.ConnectMode.ABORT_ON_CONFLICT);
+                }
+            }
+        }
+    }
+
+    private static Map<Sha256Hash, Transaction> poolFor(Wallet wallet, WalletTransaction.Pool pool) {
+        switch (pool) {
+            case UNSPENT:
+                return wallet.unspent;
+            case SPENT:
+                return wallet.spent;
+            case PENDING:
+                return wallet.pending;
+            case DEAD:
+                return wallet.dead;
+            default:
+                throw new IllegalArgumentException("Unknown pool " + pool);
+        }
+    }
+}
@@ -15,7 +15,6 @@
  */
 package org.multibit;
 
-import com.google.bitcoin.core.StoredBlock;
 import com.google.bitcoin.core.Wallet;
 import org.multibit.controller.Controller;
 import org.multibit.controller.bitcoin.BitcoinController;
@@ -24,11 +23,13 @@ import org.multibit.controller.exchange.ExchangeController;
 import org.multibit.exchange.CurrencyConverter;
 import org.multibit.file.BackupManager;
 import org.multibit.file.FileHandler;
+import org.multibit.file.LoadedWallet;
 import org.multibit.message.Message;
 import org.multibit.message.MessageManager;
 import org.multibit.model.bitcoin.BitcoinModel;
 import org.multibit.model.bitcoin.WalletData;
 import org.multibit.model.bitcoin.WalletInfoData;
+import org.multibit.model.bitcoin.WalletSummary;
 import org.multibit.model.core.CoreModel;
 import org.multibit.model.exchange.ConnectHttps;
 import org.multibit.model.exchange.ExchangeModel;
@@ -57,6 +58,8 @@ import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Main MultiBit entry class.
@@ -414,26 +417,71 @@ public final class MultiBit {
                     }
 
                     if (actualOrderToLoad.size() > 0) {
-                        boolean thereWasAnErrorLoadingTheWallet = false;
-
                         ((MultiBitFrame) swingViewSystem).setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+
+                        // Check if this is the first time each wallet has been opened post addition of data directories.
+                        // (Reading a wallet creates its data directories).
+                        List<Boolean> firstUsageSinceWalletDirectoriesIntroduced = new ArrayList<Boolean>();
                         for (String actualOrder : actualOrderToLoad) {
                             log.debug("Loading wallet from '{}'", actualOrder);
                             Message message = new Message(controller.getLocaliser().getString("multiBit.openingWallet",
                                     new Object[] { actualOrder }));
                             message.setShowInStatusBar(false);
                             MessageManager.INSTANCE.addMessage(message);
+
+                            String topLevelWalletDirectory = BackupManager.INSTANCE.calculateTopLevelBackupDirectoryName(new File(actualOrder));
+                            firstUsageSinceWalletDirectoriesIntroduced.add(!(new File(topLevelWalletDirectory).exists()));
+                        }
+
+                        // With lazy wallet loading only the active wallet is read in full - the others are opened
+                        // from their summaries (if they are up to date).
+                        Map<String, WalletSummary> walletSummaries = new HashMap<String, WalletSummary>();
+                        if (bitcoinController.getFileHandler().isLazyWalletLoadingEnabled()) {
+                            String walletToReadInFull = actualOrderToLoad.contains(activeWalletFilename) ? activeWalletFilename : actualOrderToLoad.get(0);
+                            for (int i = 0; i < actualOrderToLoad.size(); i++) {
+                                String actualOrder = actualOrderToLoad.get(i);
+                                if (!actualOrder.equals(walletToReadInFull) && !firstUsageSinceWalletDirectoriesIntroduced.get(i)) {
+                                    WalletSummary walletSummary = bitcoinController.getFileHandler().readWalletSummary(new File(actualOrder));
+                                    if (walletSummary != null) {
+                                        walletSummaries.put(actualOrder, walletSummary);
+                                    }
+                                }
+                            }
+                            log.debug("{} of {} wallets will be opened from their summaries", walletSummaries.size(), actualOrderToLoad.size());
+                        }
+
+                        // Read all the other wallets at once, then add them to the model in the order they are to be shown.
+                        List<String> walletFilenamesToRead = new ArrayList<String>();
+                        for (String actualOrder : actualOrderToLoad) {
+                            if (!walletSummaries.containsKey(actualOrder)) {
+                                walletFilenamesToRead.add(actualOrder);
+                            }
+                        }
+                        List<Future<LoadedWallet>> loadedWallets = bitcoinController.getFileHandler().readWalletsFromFiles(walletFilenamesToRead);
+
+                        for (int i = 0; i < actualOrderToLoad.size(); i++) {
+                            String actualOrder = actualOrderToLoad.get(i);
+                            boolean thereWasAnErrorLoadingTheWallet = false;
                             try {
-                                // Check if this is the first time this wallet has been opened post addition of data directories.
-                                String topLevelWalletDirectory = BackupManager.INSTANCE.calculateTopLevelBackupDirectoryName(new File(actualOrder));
-                                boolean firstUsageSinceWalletDirectoriesIntroduced = !(new File(topLevelWalletDirectory).exists());
+                                WalletSummary walletSummary = walletSummaries.get(actualOrder);
+                                if (walletSummary != null) {
+                                    bitcoinController.getFileHandler().addWalletSummaryToModel(new File(actualOrder), walletSummary);
+                                    Message message2 = new Message(controller.getLocaliser().getString("multiBit.openingWalletIsDone",
+                                            new Object[] { actualOrder }));
+                                    message2.setShowInStatusBar(false);
+                                    MessageManager.INSTANCE.addMessage(message2);
+                                    continue;
+                                }
 
-                                WalletData perWalletModelData;
+                                WalletData perWalletModelData = bitcoinController.addLoadedWallet(
+                                        loadedWallets.get(walletFilenamesToRead.indexOf(actualOrder)).get());
+                                if (perWalletModelData == null) {
+                                    // The FileHandler has already told the user why.
+                                    thereWasAnErrorLoadingTheWallet = true;
+                                    continue;
+                                }
                                 if (activeWalletFilename != null && activeWalletFilename.equals(actualOrder)) {
-                                    perWalletModelData = bitcoinController.addWalletFromFilename(actualOrder);
                                     bitcoinController.getModel().setActiveWalletByFilename(actualOrder);
-                                } else {
-                                    perWalletModelData = bitcoinController.addWalletFromFilename(actualOrder);
                                 }
                                 Message message2 = new Message(controller.getLocaliser().getString("multiBit.openingWalletIsDone",
                                         new Object[] { actualOrder }));
@@ -444,15 +492,18 @@ public final class MultiBit {
                                 WalletInfoData walletInfo = perWalletModelData.getWalletInfo();
                                 String walletCleanedOfSpam = walletInfo.getProperty(BitcoinModel.WALLET_CLEANED_OF_SPAM);
                                 if (!Boolean.TRUE.toString().equalsIgnoreCase(walletCleanedOfSpam)) {
-                                    log.debug("Cleaning wallet '" + activeWalletFilename + "' of spam ...");
+                                    log.debug("Cleaning wallet '" + actualOrder + "' of spam ...");
                                     perWalletModelData.getWallet().cleanup();
                                     walletInfo.put(BitcoinModel.WALLET_CLEANED_OF_SPAM, Boolean.TRUE.toString());
-                                    bitcoinController.getFileHandler().savePerWalletModelData(perWalletModelData, false);
+                                    synchronized (walletInfo) {
+                                        // Saved in the background.
+                                        perWalletModelData.setDirty(true);
+                                    }
                                     log.debug("done.");
                                 }
 
-                                if (firstUsageSinceWalletDirectoriesIntroduced) {
-                                    if (perWalletModelData != null && perWalletModelData.getWallet() != null) {
+                                if (firstUsageSinceWalletDirectoriesIntroduced.get(i)) {
+                                    if (perWalletModelData.getWallet() != null) {
                                         // Backup the wallet and wallet info.
                                         BackupManager.INSTANCE.backupPerWalletModelData(bitcoinController.getFileHandler(), perWalletModelData);
 
@@ -461,24 +512,32 @@ public final class MultiBit {
                                     }
                                 }
                             } catch (Exception e) {
-                                message = new Message(controller.getLocaliser().getString("openWalletSubmitAction.walletNotLoaded",
-                                        new Object[] { actualOrder, e.getMessage() }));
+                                // A wallet that could not be read fails its own future only.
+                                Throwable cause = e;
+                                if (e instanceof ExecutionException && e.getCause() != null) {
+                                    cause = e.getCause();
+                                }
+                                Message message = new Message(controller.getLocaliser().getString("openWalletSubmitAction.walletNotLoaded",
+                                        new Object[] { actualOrder, cause.getMessage() }));
                                 MessageManager.INSTANCE.addMessage(message);
                                 log.error(message.getText());
                                 thereWasAnErrorLoadingTheWallet = true;
-                            }
-
-                            if (thereWasAnErrorLoadingTheWallet) {
-                                WalletData loopData = bitcoinController.getModel().getPerWalletModelDataByWalletFilename(actualOrder);
-                                if (loopData != null) {
-                                    // Clear the backup wallet filename - this prevents it being automatically overwritten.
-                                    if (loopData.getWalletInfo() != null) {
-                                        loopData.getWalletInfo().put(BitcoinModel.WALLET_BACKUP_FILE, "");
+                            } finally {
+                                if (thereWasAnErrorLoadingTheWallet) {
+                                    WalletData loopData = bitcoinController.getModel().getPerWalletModelDataByWalletFilename(actualOrder);
+                                    if (loopData != null) {
+                                        // Clear the backup wallet filename - this prevents it being automatically overwritten.
+                                        if (loopData.getWalletInfo() != null) {
+                                            loopData.getWalletInfo().put(BitcoinModel.WALLET_BACKUP_FILE, "");
+                                        }
                                     }
                                 }
                             }
                         }
                     }
+                    // The active wallet is always loaded in full (it might have been opened from its summary
+                    // if the wallet that was active last time could not be loaded).
+                    bitcoinController.promoteWallet(bitcoinController.getModel().getActivePerWalletModelData());
                 } catch (NumberFormatException nfe) {
                     // Carry on.
                 } finally {
@@ -527,6 +586,10 @@ public final class MultiBit {
 
             log.debug("The current chain height is " + currentChainHeight);
 
+            // Carry on with any replay that had not finished when MultiBit last ran.
+            int numberOfReplayTasksResumed = ReplayManager.INSTANCE.resumePersistedReplayTasks();
+            log.debug("Resumed " + numberOfReplayTasksResumed + " replay tasks");
+
             List<WalletData> perWalletModelDataList = bitcoinController.getModel().getPerWalletModelDataList();
             boolean needToSync = false;
             int syncFromHeight = -1;
@@ -535,7 +598,7 @@ public final class MultiBit {
             if (perWalletModelDataList != null) {
                 for (WalletData perWalletModelData : perWalletModelDataList) {
                     Wallet wallet = perWalletModelData.getWallet();
-                    if (wallet != null) {
+                    if (wallet != null && ReplayManager.INSTANCE.getWaitingReplayTask(perWalletModelData) == null) {
                         int lastBlockSeenHeight = wallet.getLastBlockSeenHeight();
                         log.debug("For wallet '" + perWalletModelData.getWalletFilename() + " the lastBlockSeenHeight was "
                                 + lastBlockSeenHeight);
@@ -563,26 +626,9 @@ public final class MultiBit {
             log.debug("needToSync = " + needToSync);
 
             if (needToSync) {
-                StoredBlock syncFromStoredBlock = null;
-
-                MultiBitCheckpointManager checkpointManager = bitcoinController.getMultiBitService().getCheckpointManager();
-                if (checkpointManager != null) {
-                    syncFromStoredBlock = checkpointManager.getCheckpointBeforeOrAtHeight(syncFromHeight);
-                }
-
-                ReplayTask replayTask;
-                if (syncFromStoredBlock == null) {
-                    // Sync from genesis block.
-                    replayTask = new ReplayTask(replayPerWalletModelList, null, 0);
-                } else {
-                    Date syncDate = null;
-                    if (syncFromStoredBlock.getHeader() != null) {
-                        syncDate = new Date(syncFromStoredBlock.getHeader().getTimeSeconds() * 1000);
-                    }
-                    replayTask = new ReplayTask(replayPerWalletModelList, syncDate, syncFromStoredBlock.getHeight());
-                }
+                ReplayTask replayTask = bitcoinController.getMultiBitService().createSyncReplayTask(replayPerWalletModelList, syncFromHeight);
                 ReplayManager.INSTANCE.offerReplayTask(replayTask);
-            } else {
+            } else if (numberOfReplayTasksResumed == 0) {
                 // Just sync the blockchain without a replay task being involved.
                 ReplayManager.INSTANCE.downloadBlockChain();
             }
@@ -30,6 +30,7 @@ import org.multibit.model.bitcoin.BitcoinModel;
 import org.multibit.model.core.StatusEnum;
 import org.multibit.viewsystem.View;
 import org.multibit.viewsystem.ViewSystem;
+import org.multibit.viewsystem.ViewSystemEventBus;
 
 /**
  *
@@ -52,6 +53,11 @@ public abstract class AbstractController<C extends BaseController<C>> implements
         return this.baseController.getViewSystem();
     }
 
+    @Override
+    public final ViewSystemEventBus getViewSystemEventBus() {
+        return this.baseController.getViewSystemEventBus();
+    }
+
     @Override
     public final Localiser getLocaliser() {
         return this.baseController.getLocaliser();
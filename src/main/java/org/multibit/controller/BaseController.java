@@ -33,6 +33,8 @@ import org.multibit.model.core.StatusEnum;
 import org.multibit.viewsystem.DisplayHint;
 import org.multibit.viewsystem.View;
 import org.multibit.viewsystem.ViewSystem;
+import org.multibit.viewsystem.ViewSystemEvent;
+import org.multibit.viewsystem.ViewSystemEventBus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,6 +51,11 @@ public abstract class BaseController<C extends BaseController<C>> implements Con
      */
     private final Collection<ViewSystem> viewSystems;
     
+    /**
+     * Batches the events from the network threads for the view systems.
+     */
+    private final ViewSystemEventBus viewSystemEventBus;
+    
     /**
      * The localiser used to localise everything.
      */
@@ -70,6 +77,7 @@ public abstract class BaseController<C extends BaseController<C>> implements Con
         this.applicationDataDirectoryLocator = applicationDataDirectoryLocator;
         
         viewSystems = new CopyOnWriteArrayList<ViewSystem>();
+        viewSystemEventBus = new ViewSystemEventBus(viewSystems);
         
         // By default localise to English.
         localiser = new Localiser(Locale.ENGLISH);
@@ -81,6 +89,11 @@ public abstract class BaseController<C extends BaseController<C>> implements Con
         return viewSystems;
     }
     
+    @Override
+    public final ViewSystemEventBus getViewSystemEventBus() {
+        return viewSystemEventBus;
+    }
+    
     /**
      * Register a new MultiBitViewSystem from the list of views that are managed.
      * 
@@ -138,9 +151,7 @@ public abstract class BaseController<C extends BaseController<C>> implements Con
      */
     @Override
     public final void fireDataChangedUpdateLater() {
-        for (ViewSystem viewSystem : this.getViewSystem()) {
-            viewSystem.fireDataChangedUpdateLater(DisplayHint.WALLET_TRANSACTIONS_HAVE_CHANGED);
-        }
+        viewSystemEventBus.post(ViewSystemEvent.dataChanged(DisplayHint.WALLET_TRANSACTIONS_HAVE_CHANGED));
     }
     
     /**
@@ -31,6 +31,7 @@ import org.multibit.model.bitcoin.BitcoinModel;
 import org.multibit.model.core.StatusEnum;
 import org.multibit.viewsystem.View;
 import org.multibit.viewsystem.ViewSystem;
+import org.multibit.viewsystem.ViewSystemEventBus;
 
 /**
  *
@@ -40,6 +41,8 @@ public interface Controller {
     
     Collection<ViewSystem> getViewSystem();
     
+    ViewSystemEventBus getViewSystemEventBus();
+    
     Model getModel();
     
     Localiser getLocaliser();
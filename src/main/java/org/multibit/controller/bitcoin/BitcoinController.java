@@ -23,13 +23,16 @@ import org.multibit.controller.AbstractController;
 import org.multibit.controller.AbstractEventHandler;
 import org.multibit.controller.core.CoreController;
 import org.multibit.file.FileHandler;
+import org.multibit.file.LastBlockSeenTracker;
+import org.multibit.file.LoadedWallet;
+import org.multibit.file.WalletSaveScheduler;
 import org.multibit.message.MessageManager;
 import org.multibit.model.bitcoin.BitcoinModel;
 import org.multibit.model.bitcoin.WalletBusyListener;
 import org.multibit.model.bitcoin.WalletData;
 import org.multibit.network.MultiBitService;
 import org.multibit.viewsystem.View;
-import org.multibit.viewsystem.ViewSystem;
+import org.multibit.viewsystem.ViewSystemEvent;
 import org.multibit.viewsystem.swing.action.ExitAction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -69,6 +72,16 @@ public class BitcoinController extends AbstractController<CoreController> implem
      * Class encapsulating File IO.
      */
     private final FileHandler fileHandler;
+
+    /**
+     * Saves changed wallets in the background.
+     */
+    private final WalletSaveScheduler walletSaveScheduler;
+
+    /**
+     * Keeps the wallets' last block seen on disk as blocks arrive.
+     */
+    private final LastBlockSeenTracker lastBlockSeenTracker;
     
     /**
      * The listener handling Peer events.
@@ -88,6 +101,8 @@ public class BitcoinController extends AbstractController<CoreController> implem
 
         this.walletBusyListeners = new ArrayList<WalletBusyListener>();
         this.fileHandler = new FileHandler(this);
+        this.walletSaveScheduler = new WalletSaveScheduler(this);
+        this.lastBlockSeenTracker = new LastBlockSeenTracker(this);
         this.eventHandler = new EventHandler(this);
         this.peerEventListener = new BitcoinPeerEventListener(this);
         
@@ -138,6 +153,30 @@ public class BitcoinController extends AbstractController<CoreController> implem
         }
         return perWalletModelDataToReturn;
     }
+
+    /**
+     * Add a wallet that has already been read from disk to the model and the network.
+     */
+    public WalletData addLoadedWallet(LoadedWallet loadedWallet) {
+        WalletData perWalletModelDataToReturn = null;
+        if (multiBitService != null) {
+            perWalletModelDataToReturn = multiBitService.addLoadedWallet(loadedWallet);
+        }
+        return perWalletModelDataToReturn;
+    }
+
+    /**
+     * Make sure a wallet that was opened from its summary is loaded in full, e.g. before it is selected.
+     * This waits for the wallet to be read so is not for the Swing thread (see PromoteWalletWorker).
+     *
+     * @return true if the wallet is loaded in full
+     */
+    public boolean promoteWallet(WalletData perWalletModelData) {
+        if (multiBitService == null) {
+            return perWalletModelData != null && perWalletModelData.getWallet() != null;
+        }
+        return multiBitService.promoteWallet(perWalletModelData);
+    }
        
     /**
      * Fire that a wallet has changed its busy state.
@@ -155,56 +194,51 @@ public class BitcoinController extends AbstractController<CoreController> implem
      */
     public void fireBlockDownloaded() {
         //log.debug("Fire blockdownloaded");
-        for (ViewSystem viewSystem : super.getViewSystem()) {
-            viewSystem.blockDownloaded();
-        }
+        getViewSystemEventBus().post(ViewSystemEvent.blockDownloaded());
         
-        // Mark all the wallets as dirty as their lastBlockSeenHeight will need changing.
-        if (getModel() != null) {
-            List<WalletData> perWalletModelDataList = getModel().getPerWalletModelDataList();
-            if (perWalletModelDataList != null) {
-                for (WalletData loopPerWalletModelData : perWalletModelDataList) {
-                    if (loopPerWalletModelData.getWalletInfo() != null) {
-                        synchronized(loopPerWalletModelData.getWalletInfo()) {
-                            loopPerWalletModelData.setDirty(true);
-                        }
-                    } else {
-                        loopPerWalletModelData.setDirty(true);                        
-                    }
-                }
-            }
-        }
+        // The wallets' lastBlockSeenHeight has changed - it is written without saving the wallets.
+        lastBlockSeenTracker.blockDownloaded();
+
+        // Wallets that are being replayed are checkpointed every so many blocks.
+        walletSaveScheduler.blockDownloaded();
     }
 
     @Override
     public void onCoinsReceived(Wallet wallet, Transaction transaction, BigInteger prevBalance, BigInteger newBalance) {
         //log.debug("onCoinsReceived called");
-        for (ViewSystem viewSystem : super.getViewSystem()) {
-            viewSystem.onCoinsReceived(wallet, transaction, prevBalance, newBalance);
-        }
+        getModel().updateWalletTableData(this, wallet, transaction);
+        indexTransaction(wallet, transaction);
+        getViewSystemEventBus().post(ViewSystemEvent.coinsReceived(wallet, transaction, prevBalance, newBalance));
     }
 
     @Override
     public void onCoinsSent(Wallet wallet, Transaction transaction, BigInteger prevBalance, BigInteger newBalance) {
         //log.debug("onCoinsSent called");
-        for (ViewSystem viewSystem : super.getViewSystem()) {
-            viewSystem.onCoinsSent(wallet, transaction, prevBalance, newBalance);
-        }
+        getModel().updateWalletTableData(this, wallet, transaction);
+        indexTransaction(wallet, transaction);
+        getViewSystemEventBus().post(ViewSystemEvent.coinsSent(wallet, transaction, prevBalance, newBalance));
     }
     
+    /**
+     * Add the outpoints of a transaction the wallet has just received or sent to the wallet relevance index.
+     */
+    private void indexTransaction(Wallet wallet, Transaction transaction) {
+        WalletData perWalletModelData = getModel().getPerWalletModelDataByWallet(wallet);
+        if (perWalletModelData != null) {
+            getModel().getWalletRelevanceIndex().transactionAdded(perWalletModelData, transaction);
+        }
+    }
+
     @Override
     public void onWalletChanged(Wallet wallet) {
         if (wallet == null) {
             return;
         }
         // log.debug("onWalletChanged called");
-        final int walletIdentityHashCode = System.identityHashCode(wallet);
-        for (WalletData loopPerWalletModelData : getModel().getPerWalletModelDataList()) {
-            // Find the wallet object and mark as dirty.
-            if (System.identityHashCode(loopPerWalletModelData.getWallet()) == walletIdentityHashCode) {
-                loopPerWalletModelData.setDirty(true);
-                break;
-            }
+        // Find the wallet object and mark as dirty.
+        WalletData perWalletModelData = getModel().getPerWalletModelDataByWallet(wallet);
+        if (perWalletModelData != null) {
+            perWalletModelData.setDirty(true);
         }
 
         fireDataChangedUpdateLater();
@@ -213,9 +247,8 @@ public class BitcoinController extends AbstractController<CoreController> implem
     @Override
     public void onTransactionConfidenceChanged(Wallet wallet, Transaction transaction) {
         //log.debug("onTransactionConfidenceChanged called");
-        for (ViewSystem viewSystem : super.getViewSystem()) {
-            viewSystem.onTransactionConfidenceChanged(wallet, transaction);
-        }
+        getModel().updateWalletTableDataConfidence(this, wallet, transaction);
+        getViewSystemEventBus().post(ViewSystemEvent.transactionConfidenceChanged(wallet, transaction));
     }
     
     @Override
@@ -232,16 +265,13 @@ public class BitcoinController extends AbstractController<CoreController> implem
   @Override
     public void onReorganize(Wallet wallet) {
         log.debug("onReorganize called");
-        List<WalletData> perWalletModelDataList = getModel().getPerWalletModelDataList();
-        for (WalletData loopPerWalletModelData : perWalletModelDataList) {
-            if (loopPerWalletModelData.getWallet().equals(wallet)) {
-                loopPerWalletModelData.setDirty(true);
-                log.debug("Marking wallet '" + loopPerWalletModelData.getWalletFilename() + "' as dirty.");
-            }
-        }
-        for (ViewSystem viewSystem : super.getViewSystem()) {
-            viewSystem.onReorganize(wallet);
+        WalletData perWalletModelData = getModel().getPerWalletModelDataByWallet(wallet);
+        if (perWalletModelData != null) {
+            perWalletModelData.setDirty(true);
+            log.debug("Marking wallet '" + perWalletModelData.getWalletFilename() + "' as dirty.");
         }
+        getModel().reorganizeWalletTableData(this, wallet);
+        getViewSystemEventBus().post(ViewSystemEvent.reorganize(wallet));
     }
 
     public MultiBitService getMultiBitService() {
@@ -256,6 +286,14 @@ public class BitcoinController extends AbstractController<CoreController> implem
         return fileHandler;
     }
 
+    public WalletSaveScheduler getWalletSaveScheduler() {
+        return walletSaveScheduler;
+    }
+
+    public LastBlockSeenTracker getLastBlockSeenTracker() {
+        return lastBlockSeenTracker;
+    }
+
     public synchronized void handleOpenURI() {
         log.debug("handleOpenURI.1 called and rawBitcoinURI ='" + eventHandler.rawBitcoinURI + "'");
         if (eventHandler.rawBitcoinURI != null) {
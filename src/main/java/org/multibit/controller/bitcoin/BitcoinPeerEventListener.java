@@ -75,15 +75,22 @@ public class BitcoinPeerEventListener implements PeerEventListener {
 
   @Override
   public void onTransaction(Peer peer, Transaction transaction) {
-    // Loop through all the wallets, seeing if the transaction is relevant and adding them as pending if so.
+    // Loop through the wallets the transaction may be for, seeing if the transaction is relevant and adding them as pending if so.
     if (transaction != null) {
       try {
-        java.util.List<WalletData> perWalletModelDataList = bitcoinController.getModel().getPerWalletModelDataList();
+        java.util.List<WalletData> perWalletModelDataList = bitcoinController.getModel().getPerWalletModelDataForTransaction(transaction);
 
         if (perWalletModelDataList != null) {
           for (WalletData perWalletModelData : perWalletModelDataList) {
             Wallet loopWallet = perWalletModelData.getWallet();
-            if (loopWallet != null) {
+            if (loopWallet == null) {
+              // A wallet opened from its summary is read in full when a transaction for it arrives.
+              if (perWalletModelData.isSummaryOnly() && perWalletModelData.getWalletSummary().isTransactionRelevant(transaction)) {
+                log.debug("Transaction " + transaction.getHashAsString() + " is for the wallet '"
+                        + perWalletModelData.getWalletDescription() + "' which is not loaded yet");
+                bitcoinController.getMultiBitService().promoteWalletForTransaction(perWalletModelData, transaction);
+              }
+            } else {
               if (loopWallet.isTransactionRelevant(transaction)) {
                 if (!(transaction.isTimeLocked()
                         && transaction.getConfidence().getSource() != TransactionConfidence.Source.SELF)
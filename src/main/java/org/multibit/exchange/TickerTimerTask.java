@@ -36,18 +36,23 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.Collection;
 import java.util.List;
-import java.util.TimerTask;
 
 /**
  * TimerTask to poll currency exchanges for ticker data process
  */
-public class TickerTimerTask extends TimerTask {
+public class TickerTimerTask implements Runnable {
 
     public static final int DEFAULT_REPEAT_RATE = 600000; // milliseconds
 
     public static final int INITIAL_DELAY = 0; // milliseconds
     public static final int TASK_SEPARATION = 1000; // milliseconds
 
+    /**
+     * The names the tickers are scheduled under (see {@link org.multibit.scheduler.TaskScheduler}).
+     */
+    public static final String FIRST_ROW_TASK_NAME = "Ticker1";
+    public static final String SECOND_ROW_TASK_NAME = "Ticker2";
+
     public static final int NUMBER_OF_SIGNIFICANT_DIGITS = 20;
 
     private static Logger log = LoggerFactory.getLogger(TickerTimerTask.class);
@@ -20,6 +20,9 @@ import com.google.bitcoin.core.ECKey;
 import com.google.bitcoin.core.Utils;
 import com.google.bitcoin.core.Wallet;
 import com.google.bitcoin.crypto.KeyCrypterException;
+import com.google.bitcoin.store.WalletProtobufSerializer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bitcoinj.wallet.Protos;
 import org.multibit.ApplicationDataDirectoryLocator;
 import org.multibit.controller.Controller;
 import org.multibit.controller.bitcoin.BitcoinController;
@@ -28,7 +31,9 @@ import org.multibit.message.MessageManager;
 import org.multibit.model.bitcoin.BitcoinModel;
 import org.multibit.model.bitcoin.WalletData;
 import org.multibit.model.bitcoin.WalletInfoData;
+import org.multibit.model.bitcoin.WalletSummary;
 import org.multibit.model.core.CoreModel;
+import org.multibit.network.LastBlockSeen;
 import org.multibit.network.MultiBitService;
 import org.multibit.store.MultiBitWalletProtobufSerializer;
 import org.multibit.store.MultiBitWalletVersion;
@@ -40,6 +45,11 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class consolidating the File IO in MultiBit for wallets and wallet infos.
@@ -58,8 +68,16 @@ public class FileHandler {
     
     private static final int MAX_FILE_SIZE = 1024 * 1024 * 1024; // Dont read files greater than 1 gigabyte.
 
+    private static final int MAXIMUM_TIME_TO_WAIT_FOR_WALLET_JOURNAL_COMPACTION = 30; // seconds
+
     private MultiBitWalletProtobufSerializer walletProtobufSerializer;
 
+    /**
+     * Folds wallet journals back into their wallet files off the calling thread.
+     */
+    private ExecutorService walletJournalCompactionExecutor;
+    private boolean walletJournalCompactionStopped = false;
+
     public FileHandler(BitcoinController bitcoinController) {
         this.bitcoinController = bitcoinController;
         this.controller = this.bitcoinController;
@@ -78,6 +96,21 @@ public class FileHandler {
      * @throws WalletVersionException
      */
     public WalletData loadFromFile(File walletFile) throws WalletLoadException, WalletVersionException {
+        return addLoadedWalletToModel(readWalletFromFile(walletFile));
+    }
+
+    /**
+     * Read a wallet and its wallet info from a specified wallet file without adding it to the model.
+     * If the main wallet cannot be read, the most recent backup is tried,
+     * followed by the next recent.
+     * (This can be called from any thread and for several wallets at once).
+     *
+     * @param walletFile the file of the wallet to read
+     * @return LoadedWallet - the wallet that was read, or null if neither it nor any of its backups could be read
+     * @throws WalletLoadException
+     * @throws WalletVersionException
+     */
+    public LoadedWallet readWalletFromFile(File walletFile) throws WalletLoadException, WalletVersionException {
         if (walletFile == null) {
             return null;
         }
@@ -167,7 +200,7 @@ public class FileHandler {
                 }
             }
 
-            WalletData perWalletModelData = null;
+            LoadedWallet loadedWallet = null;
 
             if (walletWasLoadedSuccessfully) {
                 if (walletInfo != null) {
@@ -189,32 +222,23 @@ public class FileHandler {
                     walletInfo.setWalletVersion(wallet.getVersion());
                 }
 
+                // Replay any changes journalled since the wallet was last written in full.
+                // (The journal does not apply to a backup wallet).
+                WalletJournal walletJournal = null;
+                if (!useBackupWallets && walletInfo != null) {
+                    walletJournal = replayWalletJournal(walletFilenameToUseInModel, wallet, walletInfo);
+
+                    // The wallet may have seen blocks since it was last saved.
+                    LastBlockSeenTracker.applyLastBlockSeen(walletFilenameToUseInModel, wallet);
+                }
+
                 // Ensure that the directories for the backups of the private
                 // keys, rolling backups and regular backups exist.
                 BackupManager.INSTANCE.createBackupDirectories(walletFile);
 
-                // Add the new wallet into the model.
                 wallet.setNetworkParameters(bitcoinController.getModel().getNetworkParameters());
 
-                perWalletModelData = bitcoinController.getModel().addWallet(this.bitcoinController, wallet,
-                        walletFilenameToUseInModel);
-
-                perWalletModelData.setWalletInfo(walletInfo);
-
-                // If the backup files were used save them immediately and don't
-                // delete any rolling backups.
-                if (useBackupWallets) {
-                    // Wipe the wallet backup property so that the rolling
-                    // backup file will not be overwritten
-                    walletInfo.put(BitcoinModel.WALLET_BACKUP_FILE, "");
-
-                    // Save the wallet immediately just to be on the safe side.
-                    savePerWalletModelData(perWalletModelData, true);
-                }
-
-                synchronized (walletInfo) {
-                    perWalletModelData.setDirty(false);
-                }
+                loadedWallet = new LoadedWallet(walletFile, wallet, walletInfo, walletJournal, useBackupWallets);
             } else {
                 // No wallet was loaded successfully.
                 // Wipe the rolling backup property to ensure that file wont be deleted.
@@ -236,7 +260,7 @@ public class FileHandler {
                 }
                 MessageManager.INSTANCE.addMessage(new Message(messageText));
             }
-            return perWalletModelData;
+            return loadedWallet;
         } catch (WalletVersionException wve) {
             // We want this to propagate out.
             throw wve;
@@ -247,6 +271,79 @@ public class FileHandler {
         }
     }
 
+    /**
+     * Add a wallet that has been read from disk into the model.
+     *
+     * @param loadedWallet the wallet read by readWalletFromFile
+     * @return WalletData - the walletData for the wallet, or null if loadedWallet is null
+     */
+    public WalletData addLoadedWalletToModel(LoadedWallet loadedWallet) {
+        if (loadedWallet == null) {
+            return null;
+        }
+
+        WalletInfoData walletInfo = loadedWallet.getWalletInfo();
+
+        // Add the new wallet into the model.
+        WalletData perWalletModelData = bitcoinController.getModel().addWallet(this.bitcoinController, loadedWallet.getWallet(),
+                loadedWallet.getWalletFilename());
+
+        perWalletModelData.setWalletInfo(walletInfo);
+        perWalletModelData.setWalletJournal(loadedWallet.getWalletJournal());
+
+        // If the backup files were used save them immediately and don't
+        // delete any rolling backups.
+        if (loadedWallet.isLoadedFromBackup()) {
+            // Wipe the wallet backup property so that the rolling
+            // backup file will not be overwritten
+            walletInfo.put(BitcoinModel.WALLET_BACKUP_FILE, "");
+
+            // Save the wallet immediately just to be on the safe side.
+            savePerWalletModelData(perWalletModelData, true);
+        }
+
+        synchronized (walletInfo) {
+            perWalletModelData.setDirty(false);
+        }
+        return perWalletModelData;
+    }
+
+    /**
+     * Read several wallets from disk at once on a bounded pool of threads.
+     * The wallets are not added to the model - see addLoadedWalletToModel.
+     *
+     * @param walletFilenames the wallets to read
+     * @return one future per wallet filename, in the same order. Each future gives the LoadedWallet
+     *         (or null) or fails with the reason that wallet could not be read.
+     */
+    public List<Future<LoadedWallet>> readWalletsFromFiles(List<String> walletFilenames) {
+        List<Future<LoadedWallet>> loadedWallets = new ArrayList<Future<LoadedWallet>>();
+        if (walletFilenames == null || walletFilenames.isEmpty()) {
+            return loadedWallets;
+        }
+
+        int numberOfThreads = Math.max(1, Math.min(walletFilenames.size(), Runtime.getRuntime().availableProcessors()));
+        log.debug("Reading {} wallets using {} threads", walletFilenames.size(), numberOfThreads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads, new ThreadFactoryBuilder()
+                .setNameFormat("WalletLoader-%d").setDaemon(true).build());
+        try {
+            for (final String walletFilename : walletFilenames) {
+                loadedWallets.add(executor.submit(new Callable<LoadedWallet>() {
+                    @Override
+                    public LoadedWallet call() throws Exception {
+                        log.debug("Reading wallet from '{}'", walletFilename);
+                        return readWalletFromFile(new File(walletFilename));
+                    }
+                }));
+            }
+        } finally {
+            // The submitted reads carry on - no more can be added.
+            executor.shutdown();
+        }
+        return loadedWallets;
+    }
+
     private boolean isWalletSerialised(File walletFile) {
         boolean isWalletSerialised = false;
         InputStream stream = null;
@@ -287,14 +384,353 @@ public class FileHandler {
             synchronized (walletInfo) {
                 // Save the perWalletModelData if it is dirty or if forceWrite is true.
                 if (perWalletModelData.isDirty() || forceWrite) {
-                    // Normal write of data.
-                    String walletInfoFilename = WalletInfoData.createWalletInfoFilename(perWalletModelData.getWalletFilename());
-                    saveWalletAndWalletInfo(perWalletModelData, perWalletModelData.getWalletFilename(), walletInfoFilename);
-
-                    // The perWalletModelData is no longer dirty.
+                    // Clear the dirty flag before the wallet is serialised so that a change made whilst it is
+                    // being written (on another thread) marks it dirty again and is saved next time.
                     perWalletModelData.setDirty(false);
+                    boolean saved = false;
+                    try {
+                        saveDirtyPerWalletModelData(perWalletModelData, walletInfo, forceWrite);
+                        saved = true;
+                    } finally {
+                        if (!saved) {
+                            // Not setDirty(true), which would schedule the failed save again straight away.
+                            perWalletModelData.setDirtyWithoutScheduling();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a wallet that has been marked as no longer dirty (the lock on its wallet info is held).
+     */
+    private void saveDirtyPerWalletModelData(WalletData perWalletModelData, WalletInfoData walletInfo, boolean forceWrite) {
+        String walletInfoFilename = WalletInfoData.createWalletInfoFilename(perWalletModelData.getWalletFilename());
+
+        // If the changes can be journalled only the wallet info needs writing in full.
+        boolean changesWereJournalled = false;
+        LastBlockSeen lastBlockSeen = null;
+        if (!forceWrite && isWalletJournalEnabled() && perWalletModelData.getWallet() != null) {
+            lastBlockSeen = getLastBlockSeenToWrite(perWalletModelData.getWallet());
+            changesWereJournalled = appendToWalletJournal(perWalletModelData, lastBlockSeen);
+        }
+
+        if (perWalletModelData.isSummaryOnly()) {
+            // The wallet itself has not been loaded so only the wallet info can have changed.
+            walletInfo.writeToFile(walletInfoFilename, walletInfo.getWalletVersion());
+        } else if (changesWereJournalled) {
+            walletInfo.writeToFile(walletInfoFilename, walletInfo.getWalletVersion());
+            bitcoinController.getLastBlockSeenTracker().walletSaved(perWalletModelData);
+            scheduleWalletJournalCompaction(perWalletModelData);
+            writeWalletSummary(perWalletModelData, lastBlockSeen);
+        } else {
+            // Normal write of data.
+            saveWalletInFull(perWalletModelData, walletInfoFilename);
+        }
+    }
+
+    /**
+     * @return true if the user has switched on the wallet journal in multibit.properties
+     */
+    public boolean isWalletJournalEnabled() {
+        return Boolean.TRUE.toString().equalsIgnoreCase(controller.getModel().getUserPreference(BitcoinModel.WALLET_JOURNAL_ENABLED));
+    }
+
+    /**
+     * @return true if the user has switched on lazy wallet loading in multibit.properties
+     */
+    public boolean isLazyWalletLoadingEnabled() {
+        return Boolean.TRUE.toString().equalsIgnoreCase(controller.getModel().getUserPreference(BitcoinModel.LAZY_WALLET_LOADING));
+    }
+
+    /**
+     * Read the summary of a wallet, for opening the wallet without reading it in full.
+     *
+     * @param walletFile the file of the wallet
+     * @return The wallet summary, or null if there is no summary that is up to date with the wallet
+     */
+    public WalletSummary readWalletSummary(File walletFile) {
+        String walletFilename = walletFile.getAbsolutePath();
+        WalletSummary walletSummary = WalletSummary.loadFromFile(WalletSummary.createWalletSummaryFilename(walletFilename));
+        if (walletSummary == null) {
+            return null;
+        }
+        if (!walletSummary.isCurrent(walletFile, new File(WalletJournal.createWalletJournalFilename(walletFilename)))) {
+            log.debug("The wallet summary for '{}' is out of date", walletFilename);
+            return null;
+        }
+        return walletSummary;
+    }
+
+    /**
+     * Add a wallet to the model from its summary. The wallet itself is read later (see MultiBitService#promoteWallet).
+     *
+     * @param walletFile the file of the wallet
+     * @param walletSummary the summary read by readWalletSummary
+     * @return WalletData - the walletData for the wallet
+     */
+    public WalletData addWalletSummaryToModel(File walletFile, WalletSummary walletSummary) {
+        String walletFilename = walletFile.getAbsolutePath();
+        WalletInfoData walletInfo = new WalletInfoData(walletFilename, null, MultiBitWalletVersion.PROTOBUF_ENCRYPTED);
+
+        WalletData perWalletModelData = bitcoinController.getModel().addWallet(this.bitcoinController, null, walletFilename);
+        perWalletModelData.setWalletSummary(walletSummary);
+        perWalletModelData.setWalletInfo(walletInfo);
+
+        synchronized (walletInfo) {
+            perWalletModelData.setDirty(false);
+        }
+        return perWalletModelData;
+    }
+
+    /**
+     * Write the summary of a wallet that has just been saved, if lazy wallet loading is in use.
+     * A summary that cannot be written is deleted so that the wallet is read in full next time.
+     */
+    private void writeWalletSummary(WalletData perWalletModelData, LastBlockSeen lastBlockSeen) {
+        File walletSummaryFile = new File(WalletSummary.createWalletSummaryFilename(perWalletModelData.getWalletFilename()));
+        if (!isLazyWalletLoadingEnabled() || perWalletModelData.getWallet() == null) {
+            if (walletSummaryFile.exists() && !walletSummaryFile.delete()) {
+                log.error("Could not delete the wallet summary '" + walletSummaryFile.getAbsolutePath() + "'");
+            }
+            return;
+        }
+
+        try {
+            WalletSummary walletSummary = new WalletSummary(perWalletModelData.getWallet(), lastBlockSeen,
+                    new File(perWalletModelData.getWalletFilename()),
+                    new File(WalletJournal.createWalletJournalFilename(perWalletModelData.getWalletFilename())));
+            walletSummary.writeToFile(walletSummaryFile.getAbsolutePath());
+        } catch (WalletSaveException wse) {
+            log.error(wse.getClass().getCanonicalName() + " " + wse.getMessage());
+            if (walletSummaryFile.exists() && !walletSummaryFile.delete()) {
+                log.error("Could not delete the wallet summary '" + walletSummaryFile.getAbsolutePath() + "'");
+            }
+        }
+    }
+
+    /**
+     * Replay the wallet journal (if there is one) onto a freshly loaded wallet.
+     *
+     * @return The wallet journal to append subsequent changes to, or null if there is none
+     */
+    private WalletJournal replayWalletJournal(String walletFilename, Wallet wallet, WalletInfoData walletInfo) {
+        File walletJournalFile = new File(WalletJournal.createWalletJournalFilename(walletFilename));
+        if (!walletJournalFile.exists() && !isWalletJournalEnabled()) {
+            return null;
+        }
+
+        WalletJournal walletJournal = new WalletJournal(walletJournalFile);
+        try {
+            long generation = WalletJournal.parseGeneration(walletInfo.getProperty(WalletJournal.JOURNAL_GENERATION_PROPERTY));
+            walletJournal.replay(wallet, bitcoinController.getModel().getNetworkParameters(), generation);
+            return walletJournal;
+        } catch (IOException ioe) {
+            log.error("Could not replay wallet journal '" + walletJournalFile.getAbsolutePath() + "'. "
+                    + ioe.getClass().getCanonicalName() + " " + ioe.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Append the changes to the wallet since it was last saved to its journal.
+     *
+     * @return true if the changes were journalled, false if a full save is needed
+     */
+    private boolean appendToWalletJournal(WalletData perWalletModelData, LastBlockSeen lastBlockSeen) {
+        WalletJournal walletJournal = perWalletModelData.getWalletJournal();
+        if (walletJournal == null) {
+            return false;
+        }
+
+        try {
+            return walletJournal.append(perWalletModelData.getWallet(), lastBlockSeen);
+        } catch (IOException ioe) {
+            log.error("Could not append to wallet journal '" + walletJournal.getJournalFile().getAbsolutePath() + "'. "
+                    + ioe.getClass().getCanonicalName() + " " + ioe.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Write the wallet and wallet info in full and start a new wallet journal.
+     * Each full save increments the journal generation stored in the wallet info so that a journal
+     * left over from before the save is never replayed onto the newer wallet.
+     */
+    private void saveWalletInFull(WalletData perWalletModelData, String walletInfoFilename) {
+        WalletInfoData walletInfo = perWalletModelData.getWalletInfo();
+        boolean walletJournalEnabled = isWalletJournalEnabled();
+
+        String previousGeneration = walletInfo.getProperty(WalletJournal.JOURNAL_GENERATION_PROPERTY);
+        long generation = WalletJournal.parseGeneration(previousGeneration) + 1;
+        if (walletJournalEnabled) {
+            walletInfo.put(WalletJournal.JOURNAL_GENERATION_PROPERTY, Long.toString(generation));
+        }
+
+        // Everything written by this save records the same last block seen.
+        LastBlockSeen lastBlockSeen = perWalletModelData.getWallet() == null ? null : getLastBlockSeenToWrite(perWalletModelData.getWallet());
+        try {
+            saveWalletAndWalletInfo(perWalletModelData, lastBlockSeen, perWalletModelData.getWalletFilename(), walletInfoFilename);
+        } catch (WalletSaveException | WalletVersionException e) {
+            // The journal is still on the old generation, so the wallet info must be too (or the journal would be
+            // discarded the next time the wallet info is written and the wallet loaded).
+            if (walletJournalEnabled) {
+                if (previousGeneration == null) {
+                    walletInfo.remove(WalletJournal.JOURNAL_GENERATION_PROPERTY);
+                } else {
+                    walletInfo.put(WalletJournal.JOURNAL_GENERATION_PROPERTY, previousGeneration);
+                }
+            }
+            throw e;
+        }
+        bitcoinController.getLastBlockSeenTracker().walletSaved(perWalletModelData);
+
+        WalletJournal walletJournal = perWalletModelData.getWalletJournal();
+        if (walletJournalEnabled && perWalletModelData.getWallet() != null) {
+            if (walletJournal == null) {
+                walletJournal = new WalletJournal(new File(WalletJournal.createWalletJournalFilename(perWalletModelData.getWalletFilename())));
+                perWalletModelData.setWalletJournal(walletJournal);
+            }
+            try {
+                walletJournal.reset(perWalletModelData.getWallet(), lastBlockSeen, generation);
+            } catch (IOException ioe) {
+                // The journal is left on the old generation so it will not be replayed.
+                log.error("Could not start a new wallet journal '" + walletJournal.getJournalFile().getAbsolutePath() + "'. "
+                        + ioe.getClass().getCanonicalName() + " " + ioe.getMessage());
+                perWalletModelData.setWalletJournal(null);
+            }
+        } else {
+            if (walletJournal == null) {
+                walletJournal = new WalletJournal(new File(WalletJournal.createWalletJournalFilename(perWalletModelData.getWalletFilename())));
+            }
+            walletJournal.delete();
+            perWalletModelData.setWalletJournal(null);
+        }
+
+        writeWalletSummary(perWalletModelData, lastBlockSeen);
+    }
+
+    /**
+     * The last block seen to write for a wallet, held back before any block that not every bloom filter partition
+     * has delivered yet. The wallet itself is never changed.
+     */
+    private LastBlockSeen getLastBlockSeenToWrite(Wallet wallet) {
+        LastBlockSeen lastBlockSeen = LastBlockSeen.of(wallet);
+        MultiBitService multiBitService = bitcoinController.getMultiBitService();
+        return multiBitService == null ? lastBlockSeen : multiBitService.holdBackLastBlockSeen(lastBlockSeen);
+    }
+
+    /**
+     * Write a wallet as a Wallet message, with the last block seen given in place of the wallet's own.
+     */
+    private void writeWallet(WalletProtobufSerializer serializer, Wallet wallet, LastBlockSeen lastBlockSeen,
+                             OutputStream outputStream) throws IOException {
+        Protos.Wallet.Builder walletProto = serializer.walletToProto(wallet).toBuilder()
+                .clearLastSeenBlockHash()
+                .clearLastSeenBlockHeight()
+                .clearLastSeenBlockTimeSecs();
+        if (lastBlockSeen.getHash() != null) {
+            walletProto.setLastSeenBlockHash(WalletProtobufSerializer.hashToByteString(lastBlockSeen.getHash()));
+            walletProto.setLastSeenBlockHeight(lastBlockSeen.getHeight());
+        }
+        if (lastBlockSeen.getTimeSecs() > 0) {
+            walletProto.setLastSeenBlockTimeSecs(lastBlockSeen.getTimeSecs());
+        }
+        walletProto.build().writeTo(outputStream);
+    }
+
+    /**
+     * Write an unencrypted wallet to a temporary file and rename it over the wallet file
+     * (as Wallet.saveToFile does) so that a failed write never leaves a partial wallet.
+     */
+    private void saveWalletToFile(Wallet wallet, LastBlockSeen lastBlockSeen, File walletFile) throws IOException {
+        File tempFile = File.createTempFile("wallet", null, walletFile.getAbsoluteFile().getParentFile());
+        FileOutputStream tempOutputStream = new FileOutputStream(tempFile);
+        try {
+            writeWallet(new WalletProtobufSerializer(), wallet, lastBlockSeen, tempOutputStream);
+            tempOutputStream.flush();
+            tempOutputStream.getFD().sync();
+        } finally {
+            tempOutputStream.close();
+        }
+        if (!rename(tempFile, walletFile)) {
+            tempFile.delete();
+            throw new IOException("Could not rename " + tempFile + " to " + walletFile);
+        }
+    }
+
+    /**
+     * If the wallet journal has grown large, fold it into the wallet file on the compaction thread.
+     */
+    private void scheduleWalletJournalCompaction(final WalletData perWalletModelData) {
+        final WalletJournal walletJournal = perWalletModelData.getWalletJournal();
+        if (walletJournal == null || !walletJournal.needsCompaction() || !walletJournal.markCompactionScheduled()) {
+            return;
+        }
+
+        log.debug("Scheduling compaction of wallet journal '{}' ({} records, {} bytes)",
+                new Object[]{walletJournal.getJournalFile().getAbsolutePath(), walletJournal.getRecordCount(), walletJournal.getLength()});
+        ExecutorService executor = getWalletJournalCompactionExecutor();
+        if (executor == null) {
+            // Shutting down - the journal will be compacted the next time it is needed.
+            walletJournal.clearCompactionScheduled();
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                WalletInfoData walletInfo = perWalletModelData.getWalletInfo();
+                if (walletInfo == null) {
+                    return;
+                }
+                synchronized (walletInfo) {
+                    if (walletInfo.isDeleted() || perWalletModelData.getWalletJournal() != walletJournal) {
+                        // Deleted or saved in full since the compaction was scheduled.
+                        return;
+                    }
+                    try {
+                        saveWalletInFull(perWalletModelData, WalletInfoData.createWalletInfoFilename(perWalletModelData.getWalletFilename()));
+                        log.debug("Compacted wallet journal '{}'", walletJournal.getJournalFile().getAbsolutePath());
+                    } catch (WalletSaveException | WalletVersionException e) {
+                        log.error("Could not compact wallet journal '" + walletJournal.getJournalFile().getAbsolutePath() + "'. "
+                                + e.getClass().getCanonicalName() + " " + e.getMessage());
+                        walletJournal.clearCompactionScheduled();
+                    }
                 }
             }
+        });
+    }
+
+    private synchronized ExecutorService getWalletJournalCompactionExecutor() {
+        if (walletJournalCompactionExecutor == null && !walletJournalCompactionStopped) {
+            walletJournalCompactionExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("WalletJournalCompaction-%d").setDaemon(true).build());
+        }
+        return walletJournalCompactionExecutor;
+    }
+
+    /**
+     * Stop compacting wallet journals and wait for any compaction that is in progress to finish.
+     * (Used on exit so that a wallet is not left half written).
+     */
+    public void stopWalletJournalCompaction() {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = walletJournalCompactionExecutor;
+            walletJournalCompactionExecutor = null;
+            walletJournalCompactionStopped = true;
+        }
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(MAXIMUM_TIME_TO_WAIT_FOR_WALLET_JOURNAL_COMPACTION, TimeUnit.SECONDS)) {
+                log.error("Wallet journal compaction did not finish in " + MAXIMUM_TIME_TO_WAIT_FOR_WALLET_JOURNAL_COMPACTION + " seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -348,15 +784,16 @@ public class FileHandler {
                         walletInfo.setWalletVersion(MultiBitWalletVersion.PROTOBUF_ENCRYPTED);
                     }
 
+                    LastBlockSeen lastBlockSeen = getLastBlockSeenToWrite(wallet);
                     if (MultiBitWalletVersion.PROTOBUF == walletInfo.getWalletVersion()) {
                         // Save as a Wallet message.
-                        perWalletModelData.getWallet().saveToFile(walletFile);
+                        saveWalletToFile(wallet, lastBlockSeen, walletFile);
                     } else if (MultiBitWalletVersion.PROTOBUF_ENCRYPTED == walletInfo.getWalletVersion()) {
                         fileOutputStream = new FileOutputStream(walletFile);
 
                         // Save as a Wallet message with a mandatory extension
                         // to prevent loading by older versions of multibit.
-                        walletProtobufSerializer.writeWallet(perWalletModelData.getWallet(), fileOutputStream);
+                        writeWallet(walletProtobufSerializer, wallet, lastBlockSeen, fileOutputStream);
                     } else {
                         throw new WalletVersionException("Cannot save wallet '" + perWalletModelData.getWalletFilename()
                                 + "'. Its wallet version is '" + walletInfo.getWalletVersion().toString()
@@ -390,7 +827,7 @@ public class FileHandler {
      * backup file
      * 
      **/
-    private void saveWalletAndWalletInfo(WalletData perWalletModelData, String walletFilename, String walletInfoFilename) {
+    private void saveWalletAndWalletInfo(WalletData perWalletModelData, LastBlockSeen lastBlockSeen, String walletFilename, String walletInfoFilename) {
         File walletFile = new File(walletFilename);
         WalletInfoData walletInfo = perWalletModelData.getWalletInfo();
 
@@ -454,7 +891,7 @@ public class FileHandler {
 
                     if (walletInfo != null && MultiBitWalletVersion.PROTOBUF == walletInfo.getWalletVersion()) {
                         // Save as a Wallet message.
-                        perWalletModelData.getWallet().saveToFile(walletFile);
+                        saveWalletToFile(wallet, lastBlockSeen, walletFile);
                     } else if (walletInfo != null && MultiBitWalletVersion.PROTOBUF_ENCRYPTED == walletInfo.getWalletVersion()) {
                         // Create wallet output file if it does not exist
                         if (!walletFile.exists()) {
@@ -467,7 +904,7 @@ public class FileHandler {
 
                         // Save as a Wallet message with a mandatory extension
                         // to prevent loading by older versions of multibit.
-                        walletProtobufSerializer.writeWallet(perWalletModelData.getWallet(), fileOutputStream);
+                        writeWallet(walletProtobufSerializer, wallet, lastBlockSeen, fileOutputStream);
                     } else {
                         throw new WalletVersionException("Cannot save wallet '" + perWalletModelData.getWalletFilename()
                                 + "'. Its wallet version is '" + (walletInfo == null ? "UNKNOWN" : walletInfo.getWalletVersion().toString())
@@ -641,6 +1078,20 @@ public class FileHandler {
             try {
                 SecureFiles.secureDelete(walletInfoFile);
                 SecureFiles.secureDelete(walletFile);
+
+                File walletJournalFile = new File(WalletJournal.createWalletJournalFilename(perWalletModelData.getWalletFilename()));
+                if (walletJournalFile.exists()) {
+                    SecureFiles.secureDelete(walletJournalFile);
+                }
+                File walletSummaryFile = new File(WalletSummary.createWalletSummaryFilename(perWalletModelData.getWalletFilename()));
+                if (walletSummaryFile.exists()) {
+                    SecureFiles.secureDelete(walletSummaryFile);
+                }
+                File lastBlockSeenFile = new File(LastBlockSeenTracker.createLastBlockSeenFilename(perWalletModelData.getWalletFilename()));
+                if (lastBlockSeenFile.exists()) {
+                    SecureFiles.secureDelete(lastBlockSeenFile);
+                }
+                perWalletModelData.setWalletJournal(null);
                 walletInfo.setDeleted(true);
             } catch (IOException ioe) {
                 log.error(ioe.getClass().getCanonicalName() + " " + ioe.getMessage());
@@ -0,0 +1,385 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.utils.Threading;
+import org.multibit.controller.bitcoin.BitcoinController;
+import org.multibit.model.bitcoin.BitcoinModel;
+import org.multibit.model.bitcoin.WalletData;
+import org.multibit.model.bitcoin.WalletInfoData;
+import org.multibit.network.LastBlockSeen;
+import org.multibit.scheduler.TaskScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the last block seen by each wallet on disk without rewriting the wallet for every block.
+ * <p/>
+ * The last block seen is written to a small fixed size file next to the wallet, e.g. 'mywallet.wallet' has the
+ * file 'mywallet.lastblock', with a single positional write every {@link #WRITE_INTERVAL} milliseconds whilst
+ * blocks are arriving. The wallet itself is only saved when its contents change.
+ * <p/>
+ * The record is only ever ahead of the wallet file when the wallet has nothing unsaved: it is written only for
+ * wallets that are not dirty and have not been saved since the last block seen was read, and only once the wallet
+ * events queued before it was read have been handled (so a transaction in a block the record covers has already
+ * marked its wallet dirty). The record also holds the length and modification time of the wallet and its journal
+ * and is ignored if either has changed since, so a record is never applied to a different version of the wallet.
+ */
+public class LastBlockSeenTracker {
+
+    private static final Logger log = LoggerFactory.getLogger(LastBlockSeenTracker.class);
+
+    public static final String LAST_BLOCK_SEEN_FILE_EXTENSION = "lastblock";
+
+    public static final String TASK_NAME = "LastBlockSeen";
+
+    public static final long WRITE_INTERVAL = 10000; // milliseconds
+
+    /**
+     * How long a flush waits for the wallet events queued before the last block seen was read to be handled.
+     */
+    private static final int MAXIMUM_TIME_TO_WAIT_FOR_WALLET_EVENTS = 5; // seconds
+
+    private static final int MAGIC = 0x4d424c42;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HASH_LENGTH = 32;
+
+    /**
+     * magic, version, wallet length, wallet last modified, journal length, height, hash, time, crc.
+     */
+    static final int RECORD_LENGTH = 4 + 4 + 8 + 8 + 8 + 4 + HASH_LENGTH + 8 + 4;
+
+    private final BitcoinController bitcoinController;
+
+    /**
+     * What has been written for each wallet, and how many times it has been saved.
+     */
+    private final Map<WalletData, WalletState> walletStates = new IdentityHashMap<WalletData, WalletState>();
+
+    private volatile boolean blockDownloadedSinceLastWrite = false;
+    private boolean taskScheduled = false;
+
+    public LastBlockSeenTracker(BitcoinController bitcoinController) {
+        this.bitcoinController = bitcoinController;
+    }
+
+    /**
+     * Create the last block seen filename for a wallet, e.g. 'mywallet.wallet' has the file 'mywallet.lastblock'.
+     */
+    public static String createLastBlockSeenFilename(String walletFilename) {
+        String lastBlockSeenFilename = walletFilename;
+        if (walletFilename.endsWith("." + BitcoinModel.WALLET_FILE_EXTENSION)) {
+            lastBlockSeenFilename = walletFilename.substring(0,
+                    walletFilename.length() - BitcoinModel.WALLET_FILE_EXTENSION.length() - 1);
+        }
+        return lastBlockSeenFilename + "." + LAST_BLOCK_SEEN_FILE_EXTENSION;
+    }
+
+    /**
+     * Note that a block has been downloaded. The wallets' last blocks seen are written the next time the task runs.
+     */
+    public void blockDownloaded() {
+        blockDownloadedSinceLastWrite = true;
+        synchronized (this) {
+            if (taskScheduled) {
+                return;
+            }
+            taskScheduled = true;
+        }
+        TaskScheduler.INSTANCE.schedule(TASK_NAME, new Runnable() {
+            @Override
+            public void run() {
+                if (blockDownloadedSinceLastWrite) {
+                    blockDownloadedSinceLastWrite = false;
+                    writeLastBlocksSeen(false);
+                }
+            }
+        }, WRITE_INTERVAL, WRITE_INTERVAL);
+    }
+
+    /**
+     * Note that a wallet has been written to disk (called with the lock on its wallet info held).
+     * A last block seen read before the save is not written afterwards, as the wallet may have changed in between.
+     */
+    public synchronized void walletSaved(WalletData perWalletModelData) {
+        getWalletState(perWalletModelData).numberOfSaves++;
+    }
+
+    /**
+     * Write the last block seen of all the wallets now (used on exit, after the wallets have been saved).
+     */
+    public void flush() {
+        blockDownloadedSinceLastWrite = false;
+        writeLastBlocksSeen(true);
+    }
+
+    /**
+     * Apply the last block seen recorded for a wallet that has just been read, if it is for the wallet file
+     * (and journal) as they are on disk.
+     *
+     * @return true if the wallet's last block seen was updated
+     */
+    public static boolean applyLastBlockSeen(String walletFilename, Wallet wallet) {
+        File lastBlockSeenFile = new File(createLastBlockSeenFilename(walletFilename));
+        if (!lastBlockSeenFile.exists()) {
+            return false;
+        }
+        try {
+            ByteBuffer record = readRecord(lastBlockSeenFile);
+            if (record == null) {
+                log.debug("The last block seen file '{}' is not valid - ignoring", lastBlockSeenFile.getAbsolutePath());
+                return false;
+            }
+            long walletLength = record.getLong();
+            long walletLastModified = record.getLong();
+            long journalLength = record.getLong();
+            File walletFile = new File(walletFilename);
+            File journalFile = new File(WalletJournal.createWalletJournalFilename(walletFilename));
+            if (walletLength != walletFile.length() || walletLastModified != walletFile.lastModified()
+                    || journalLength != (journalFile.exists() ? journalFile.length() : -1)) {
+                log.debug("The last block seen file '{}' is out of date - ignoring", lastBlockSeenFile.getAbsolutePath());
+                return false;
+            }
+            int height = record.getInt();
+            byte[] hashBytes = new byte[HASH_LENGTH];
+            record.get(hashBytes);
+            long timeSecs = record.getLong();
+
+            wallet.setLastBlockSeenHeight(height);
+            wallet.setLastBlockSeenHash(Arrays.equals(hashBytes, new byte[HASH_LENGTH]) ? null : new Sha256Hash(hashBytes));
+            wallet.setLastBlockSeenTimeSecs(timeSecs);
+            WalletJournal.updateDepths(wallet);
+            return true;
+        } catch (IOException ioe) {
+            log.error("Could not read the last block seen file '" + lastBlockSeenFile.getAbsolutePath() + "'. "
+                    + ioe.getClass().getCanonicalName() + " " + ioe.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Write the last block seen of a wallet, tied to the wallet file (and journal) as they are now.
+     */
+    static void writeLastBlockSeen(String walletFilename, int height, Sha256Hash hash, long timeSecs) throws IOException {
+        File walletFile = new File(walletFilename);
+        File journalFile = new File(WalletJournal.createWalletJournalFilename(walletFilename));
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_LENGTH);
+        record.putInt(MAGIC);
+        record.putInt(FORMAT_VERSION);
+        record.putLong(walletFile.length());
+        record.putLong(walletFile.lastModified());
+        record.putLong(journalFile.exists() ? journalFile.length() : -1);
+        record.putInt(height);
+        record.put(hash == null ? new byte[HASH_LENGTH] : hash.getBytes());
+        record.putLong(timeSecs);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, RECORD_LENGTH - 4);
+        record.putInt((int) crc.getValue());
+        record.flip();
+
+        RandomAccessFile file = new RandomAccessFile(createLastBlockSeenFilename(walletFilename), "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            while (record.hasRemaining()) {
+                channel.write(record, record.position());
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return The record positioned after its version, or null if it is not a valid record
+     */
+    private static ByteBuffer readRecord(File lastBlockSeenFile) throws IOException {
+        if (lastBlockSeenFile.length() != RECORD_LENGTH) {
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_LENGTH);
+        RandomAccessFile file = new RandomAccessFile(lastBlockSeenFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            while (record.hasRemaining()) {
+                if (channel.read(record, record.position()) < 0) {
+                    return null;
+                }
+            }
+        } finally {
+            file.close();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, RECORD_LENGTH - 4);
+        record.flip();
+        if (record.getInt(RECORD_LENGTH - 4) != (int) crc.getValue() || record.getInt() != MAGIC
+                || record.getInt() != FORMAT_VERSION) {
+            return null;
+        }
+        return record;
+    }
+
+    /**
+     * @param wait true to wait for the wallet events queued so far and write on the calling thread, false to write
+     *             on the wallet event thread once they have been handled (so that a shared scheduler thread is
+     *             never held up waiting for them)
+     */
+    private void writeLastBlocksSeen(boolean wait) {
+        if (bitcoinController.getModel() == null) {
+            return;
+        }
+
+        // Read the last block seen of every wallet that has moved on since it was last written.
+        List<WalletData> perWalletModelDataList = new ArrayList<WalletData>(bitcoinController.getModel().getPerWalletModelDataList());
+        List<PendingWrite> pendingWrites = new ArrayList<PendingWrite>();
+        synchronized (this) {
+            // Forget the wallets that have been closed.
+            Map<WalletData, WalletState> openWalletStates = new IdentityHashMap<WalletData, WalletState>();
+            for (WalletData perWalletModelData : perWalletModelDataList) {
+                openWalletStates.put(perWalletModelData, getWalletState(perWalletModelData));
+            }
+            walletStates.clear();
+            walletStates.putAll(openWalletStates);
+
+            for (WalletData perWalletModelData : perWalletModelDataList) {
+                Wallet wallet = perWalletModelData.getWallet();
+                if (wallet == null || perWalletModelData.isSummaryOnly() || perWalletModelData.getWalletFilename() == null) {
+                    continue;
+                }
+                WalletState walletState = getWalletState(perWalletModelData);
+                LastBlockSeen lastBlockSeen = LastBlockSeen.of(wallet);
+                if (bitcoinController.getMultiBitService() != null) {
+                    lastBlockSeen = bitcoinController.getMultiBitService().holdBackLastBlockSeen(lastBlockSeen);
+                }
+                int height = lastBlockSeen.getHeight();
+                Sha256Hash hash = lastBlockSeen.getHash();
+                if (height == walletState.writtenHeight && (hash == null ? walletState.writtenHash == null : hash.equals(walletState.writtenHash))) {
+                    continue;
+                }
+                pendingWrites.add(new PendingWrite(perWalletModelData, height, hash, lastBlockSeen.getTimeSecs(),
+                        walletState.numberOfSaves));
+            }
+        }
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+
+        // Let the wallet events queued so far (which mark wallets dirty) be handled first.
+        if (!wait) {
+            final List<PendingWrite> finalPendingWrites = pendingWrites;
+            Threading.USER_THREAD.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(finalPendingWrites);
+                }
+            });
+            return;
+        }
+        final CountDownLatch walletEventsHandled = new CountDownLatch(1);
+        Threading.USER_THREAD.execute(new Runnable() {
+            @Override
+            public void run() {
+                walletEventsHandled.countDown();
+            }
+        });
+        try {
+            if (!walletEventsHandled.await(MAXIMUM_TIME_TO_WAIT_FOR_WALLET_EVENTS, TimeUnit.SECONDS)) {
+                log.debug("Wallet events were not handled in {} seconds - not writing the last blocks seen", MAXIMUM_TIME_TO_WAIT_FOR_WALLET_EVENTS);
+                blockDownloadedSinceLastWrite = true;
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        write(pendingWrites);
+    }
+
+    private void write(List<PendingWrite> pendingWrites) {
+        for (PendingWrite pendingWrite : pendingWrites) {
+            WalletData perWalletModelData = pendingWrite.perWalletModelData;
+            WalletInfoData walletInfo = perWalletModelData.getWalletInfo();
+            if (walletInfo == null) {
+                continue;
+            }
+            synchronized (walletInfo) {
+                synchronized (this) {
+                    WalletState walletState = getWalletState(perWalletModelData);
+                    if (walletInfo.isDeleted() || perWalletModelData.isDirty() || walletState.numberOfSaves != pendingWrite.numberOfSaves) {
+                        // The wallet will be saved (or has been) with a later last block seen.
+                        continue;
+                    }
+                    try {
+                        writeLastBlockSeen(perWalletModelData.getWalletFilename(), pendingWrite.height, pendingWrite.hash,
+                                pendingWrite.timeSecs);
+                        walletState.writtenHeight = pendingWrite.height;
+                        walletState.writtenHash = pendingWrite.hash;
+                    } catch (IOException ioe) {
+                        log.error("Could not write the last block seen for '" + perWalletModelData.getWalletFilename() + "'. "
+                                + ioe.getClass().getCanonicalName() + " " + ioe.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private WalletState getWalletState(WalletData perWalletModelData) {
+        WalletState walletState = walletStates.get(perWalletModelData);
+        if (walletState == null) {
+            walletState = new WalletState();
+            walletStates.put(perWalletModelData, walletState);
+        }
+        return walletState;
+    }
+
+    private static class WalletState {
+        private long numberOfSaves = 0;
+        private int writtenHeight = -1;
+        private Sha256Hash writtenHash = null;
+    }
+
+    private static class PendingWrite {
+        private final WalletData perWalletModelData;
+        private final int height;
+        private final Sha256Hash hash;
+        private final long timeSecs;
+        private final long numberOfSaves;
+
+        private PendingWrite(WalletData perWalletModelData, int height, Sha256Hash hash, long timeSecs, long numberOfSaves) {
+            this.perWalletModelData = perWalletModelData;
+            this.height = height;
+            this.hash = hash;
+            this.timeSecs = timeSecs;
+            this.numberOfSaves = numberOfSaves;
+        }
+    }
+}
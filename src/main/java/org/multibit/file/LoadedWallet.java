@@ -0,0 +1,68 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import com.google.bitcoin.core.Wallet;
+import org.multibit.model.bitcoin.WalletInfoData;
+
+import java.io.File;
+
+/**
+ * A wallet and its wallet info that have been read from disk but not yet added to the model.
+ * (Reading can be done on any thread, adding to the model is done one wallet at a time).
+ */
+public class LoadedWallet {
+    private final File walletFile;
+    private final Wallet wallet;
+    private final WalletInfoData walletInfo;
+    private final WalletJournal walletJournal;
+    private final boolean loadedFromBackup;
+
+    LoadedWallet(File walletFile, Wallet wallet, WalletInfoData walletInfo, WalletJournal walletJournal, boolean loadedFromBackup) {
+        this.walletFile = walletFile;
+        this.wallet = wallet;
+        this.walletInfo = walletInfo;
+        this.walletJournal = walletJournal;
+        this.loadedFromBackup = loadedFromBackup;
+    }
+
+    public File getWalletFile() {
+        return walletFile;
+    }
+
+    public String getWalletFilename() {
+        return walletFile.getAbsolutePath();
+    }
+
+    public Wallet getWallet() {
+        return wallet;
+    }
+
+    public WalletInfoData getWalletInfo() {
+        return walletInfo;
+    }
+
+    public WalletJournal getWalletJournal() {
+        return walletJournal;
+    }
+
+    /**
+     * @return true if the wallet could not be read and one of its backups was used instead
+     */
+    public boolean isLoadedFromBackup() {
+        return loadedFromBackup;
+    }
+}
@@ -0,0 +1,599 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import com.google.bitcoin.core.MultiBitWalletPools;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.ProtocolException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionConfidence;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.wallet.WalletTransaction;
+import org.multibit.model.bitcoin.BitcoinModel;
+import org.multibit.network.LastBlockSeen;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the transaction changes made to a wallet since it was last written in full.
+ * <p/>
+ * Writing the whole wallet every time a transaction arrives or changes confidence costs time proportional
+ * to the size of the wallet. When journalling is switched on only the transactions that changed are
+ * appended to the journal file next to the wallet. The journal is replayed onto the wallet when it is
+ * loaded and is folded back into the wallet file (compacted) by a full save once it gets large.
+ * <p/>
+ * Private keys are never written to the journal - any change to the keychain needs a full save.
+ * <p/>
+ * Each record is written as: payload length (4 bytes), payload starting with the record type, CRC32 of the payload (8 bytes).
+ * A record that is cut short or fails its checksum (e.g. power loss during the write) ends the replay.
+ */
+public class WalletJournal {
+    private static final Logger log = LoggerFactory.getLogger(WalletJournal.class);
+
+    public static final String JOURNAL_FILE_EXTENSION = "journal";
+
+    /**
+     * Wallet info property holding the generation of the last full save.
+     * A journal is only replayed onto a wallet of the same generation.
+     */
+    public static final String JOURNAL_GENERATION_PROPERTY = "journalGeneration";
+
+    /**
+     * Compact the journal once it holds this many records.
+     */
+    public static final int COMPACTION_RECORD_THRESHOLD = 500;
+
+    /**
+     * Compact the journal once it is this many bytes long.
+     */
+    public static final long COMPACTION_LENGTH_THRESHOLD = 1024 * 1024;
+
+    private static final int MAGIC = 0x4d424a4c;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 16;
+    private static final int MAXIMUM_RECORD_LENGTH = 1024 * 1024;
+
+    private static final byte NEW_TRANSACTION_RECORD = 1;
+    private static final byte TRANSACTION_STATE_RECORD = 2;
+    private static final byte LAST_BLOCK_SEEN_RECORD = 3;
+
+    private final File journalFile;
+
+    private long generation;
+    private int recordCount;
+    private long length;
+    private boolean compactionScheduled;
+
+    /**
+     * The state of the wallet as it was when it was last saved or journalled.
+     */
+    private Map<Sha256Hash, TransactionState> journalledTransactions;
+    private int journalledNumberOfKeys;
+    private int journalledLastBlockSeenHeight;
+    private Sha256Hash journalledLastBlockSeenHash;
+
+    public WalletJournal(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Create the journal filename for a wallet, e.g. 'mywallet.wallet' has the journal 'mywallet.journal'.
+     */
+    public static String createWalletJournalFilename(String walletFilename) {
+        String walletJournalFilename = walletFilename;
+        if (walletFilename.endsWith("." + BitcoinModel.WALLET_FILE_EXTENSION)) {
+            walletJournalFilename = walletFilename.substring(0,
+                    walletFilename.length() - BitcoinModel.WALLET_FILE_EXTENSION.length() - 1);
+        }
+        return walletJournalFilename + "." + JOURNAL_FILE_EXTENSION;
+    }
+
+    /**
+     * Parse the journal generation stored in a wallet info file.
+     * @return The generation, or 0 if none has been stored
+     */
+    public static long parseGeneration(String generationProperty) {
+        if (generationProperty == null || generationProperty.trim().length() == 0) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(generationProperty.trim());
+        } catch (NumberFormatException nfe) {
+            log.error("Wallet journal generation '" + generationProperty + "' is not a number");
+            return 0;
+        }
+    }
+
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    public synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * @return true if the journal is big enough that it should be folded into the wallet file
+     */
+    public synchronized boolean needsCompaction() {
+        return recordCount >= COMPACTION_RECORD_THRESHOLD || length >= COMPACTION_LENGTH_THRESHOLD;
+    }
+
+    /**
+     * Mark that a compaction has been queued for this journal.
+     * @return true if a compaction was not already queued
+     */
+    public synchronized boolean markCompactionScheduled() {
+        if (compactionScheduled) {
+            return false;
+        }
+        compactionScheduled = true;
+        return true;
+    }
+
+    /**
+     * Allow a compaction to be queued again (after a compaction failed).
+     */
+    public synchronized void clearCompactionScheduled() {
+        compactionScheduled = false;
+    }
+
+    /**
+     * Start a new, empty journal after the wallet has been written in full.
+     *
+     * @param wallet The wallet as it was written
+     * @param generation The generation written to the wallet info file with the wallet
+     */
+    public void reset(Wallet wallet, long generation) throws IOException {
+        reset(wallet, LastBlockSeen.of(wallet), generation);
+    }
+
+    /**
+     * Start a new, empty journal after the wallet has been written in full.
+     *
+     * @param wallet The wallet as it was written
+     * @param lastBlockSeen The last block seen that was written with the wallet (which may be behind the wallet's own)
+     * @param generation The generation written to the wallet info file with the wallet
+     */
+    public synchronized void reset(Wallet wallet, LastBlockSeen lastBlockSeen, long generation) throws IOException {
+        writeHeader(generation);
+        this.generation = generation;
+        recordCount = 0;
+        compactionScheduled = false;
+        captureWallet(wallet, lastBlockSeen);
+    }
+
+    /**
+     * Replay the journal onto a wallet that has just been loaded and get the journal ready for appending.
+     * If the journal belongs to a different generation of the wallet it is discarded.
+     *
+     * @param wallet The wallet, as loaded from the wallet file
+     * @param networkParameters The network parameters to parse transactions with
+     * @param walletGeneration The generation read from the wallet info file
+     * @return The number of records that were replayed onto the wallet
+     */
+    public synchronized int replay(Wallet wallet, NetworkParameters networkParameters, long walletGeneration) throws IOException {
+        int replayedCount = 0;
+        long validLength = 0;
+
+        if (journalFile.exists() && journalFile.length() >= HEADER_LENGTH) {
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+            try {
+                int magic = inputStream.readInt();
+                int formatVersion = inputStream.readInt();
+                long journalGeneration = inputStream.readLong();
+                if (magic != MAGIC || formatVersion != FORMAT_VERSION) {
+                    log.error("Wallet journal '" + journalFile.getAbsolutePath() + "' is not in a known format - discarding it");
+                } else if (journalGeneration != walletGeneration) {
+                    log.debug("Wallet journal '{}' is for generation {} but the wallet is generation {} - discarding it",
+                            new Object[]{journalFile.getAbsolutePath(), journalGeneration, walletGeneration});
+                } else {
+                    validLength = HEADER_LENGTH;
+                    boolean lastBlockSeenWasReplayed = false;
+                    byte[] payload;
+                    while ((payload = readRecord(inputStream)) != null) {
+                        byte type = payload[0];
+                        DataInputStream recordStream = new DataInputStream(new ByteArrayInputStream(payload, 1, payload.length - 1));
+                        try {
+                            if (type == NEW_TRANSACTION_RECORD) {
+                                replayNewTransaction(wallet, networkParameters, recordStream);
+                            } else if (type == TRANSACTION_STATE_RECORD) {
+                                replayTransactionState(wallet, recordStream);
+                            } else if (type == LAST_BLOCK_SEEN_RECORD) {
+                                replayLastBlockSeen(wallet, recordStream);
+                                lastBlockSeenWasReplayed = true;
+                            } else {
+                                log.error("Unknown wallet journal record type " + type + " - stopping replay");
+                                break;
+                            }
+                        } catch (ProtocolException | IllegalArgumentException e) {
+                            log.error("Wallet journal record could not be replayed - stopping replay. "
+                                    + e.getClass().getCanonicalName() + " " + e.getMessage());
+                            break;
+                        }
+                        replayedCount++;
+                        validLength = validLength + payload.length + 12;
+                    }
+                    if (lastBlockSeenWasReplayed) {
+                        updateDepths(wallet);
+                    }
+                }
+            } finally {
+                inputStream.close();
+            }
+        }
+
+        if (validLength == 0) {
+            writeHeader(walletGeneration);
+        } else if (validLength < journalFile.length()) {
+            // Drop the partially written tail so that new records follow on from the last good one.
+            log.debug("Truncating wallet journal '{}' to {} bytes", journalFile.getAbsolutePath(), validLength);
+            RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+            length = validLength;
+        } else {
+            length = validLength;
+        }
+
+        generation = walletGeneration;
+        recordCount = replayedCount;
+        compactionScheduled = false;
+        captureWallet(wallet, LastBlockSeen.of(wallet));
+
+        log.debug("Replayed {} records from wallet journal '{}'", replayedCount, journalFile.getAbsolutePath());
+        return replayedCount;
+    }
+
+    /**
+     * Append the changes made to the wallet since it was last saved or journalled.
+     *
+     * @param wallet The wallet
+     * @return true if the changes were journalled, false if they cannot be journalled and a full save is needed
+     */
+    public boolean append(Wallet wallet) throws IOException {
+        return append(wallet, LastBlockSeen.of(wallet));
+    }
+
+    /**
+     * Append the changes made to the wallet since it was last saved or journalled.
+     *
+     * @param wallet The wallet
+     * @param lastBlockSeen The last block seen to journal (which may be behind the wallet's own)
+     * @return true if the changes were journalled, false if they cannot be journalled and a full save is needed
+     */
+    public synchronized boolean append(Wallet wallet, LastBlockSeen lastBlockSeen) throws IOException {
+        if (journalledTransactions == null || !journalFile.exists()) {
+            return false;
+        }
+
+        // Keys are never journalled.
+        if (wallet.getKeychain().size() != journalledNumberOfKeys) {
+            return false;
+        }
+
+        Map<Sha256Hash, TransactionState> currentTransactions = new HashMap<Sha256Hash, TransactionState>();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int newRecordCount = 0;
+
+        for (WalletTransaction walletTransaction : wallet.getWalletTransactions()) {
+            Transaction transaction = walletTransaction.getTransaction();
+            TransactionState state = new TransactionState(walletTransaction.getPool(), transaction);
+            currentTransactions.put(transaction.getHash(), state);
+
+            TransactionState journalledState = journalledTransactions.get(transaction.getHash());
+            if (journalledState == null) {
+                writeRecord(records, NEW_TRANSACTION_RECORD, transaction, state);
+                newRecordCount++;
+            } else if (!journalledState.equals(state)) {
+                writeRecord(records, TRANSACTION_STATE_RECORD, transaction, state);
+                newRecordCount++;
+            }
+        }
+
+        // Transactions that have been removed from the wallet (e.g. by a reset) need a full save.
+        if (!currentTransactions.keySet().containsAll(journalledTransactions.keySet())) {
+            return false;
+        }
+
+        int lastBlockSeenHeight = lastBlockSeen.getHeight();
+        Sha256Hash lastBlockSeenHash = lastBlockSeen.getHash();
+        if (lastBlockSeenHeight != journalledLastBlockSeenHeight || !equal(lastBlockSeenHash, journalledLastBlockSeenHash)) {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream payloadStream = new DataOutputStream(payload);
+            payloadStream.writeByte(LAST_BLOCK_SEEN_RECORD);
+            payloadStream.writeInt(lastBlockSeenHeight);
+            writeHash(payloadStream, lastBlockSeenHash);
+            payloadStream.writeLong(lastBlockSeen.getTimeSecs());
+            writeFramed(records, payload.toByteArray());
+            newRecordCount++;
+        }
+
+        if (newRecordCount > 0) {
+            FileOutputStream fileOutputStream = new FileOutputStream(journalFile, true);
+            try {
+                fileOutputStream.write(records.toByteArray());
+                fileOutputStream.flush();
+                fileOutputStream.getFD().sync();
+            } finally {
+                fileOutputStream.close();
+            }
+            length = length + records.size();
+            recordCount = recordCount + newRecordCount;
+        }
+
+        journalledTransactions = currentTransactions;
+        journalledLastBlockSeenHeight = lastBlockSeenHeight;
+        journalledLastBlockSeenHash = lastBlockSeenHash;
+        return true;
+    }
+
+    /**
+     * Delete the journal file.
+     */
+    public synchronized void delete() {
+        if (journalFile.exists() && !journalFile.delete()) {
+            log.error("Could not delete wallet journal '" + journalFile.getAbsolutePath() + "'");
+        }
+        journalledTransactions = null;
+        recordCount = 0;
+        length = 0;
+    }
+
+    private void writeHeader(long generation) throws IOException {
+        FileOutputStream fileOutputStream = new FileOutputStream(journalFile, false);
+        try {
+            DataOutputStream outputStream = new DataOutputStream(fileOutputStream);
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(FORMAT_VERSION);
+            outputStream.writeLong(generation);
+            outputStream.flush();
+            fileOutputStream.getFD().sync();
+        } finally {
+            fileOutputStream.close();
+        }
+        length = HEADER_LENGTH;
+    }
+
+    private void captureWallet(Wallet wallet, LastBlockSeen lastBlockSeen) {
+        journalledTransactions = new HashMap<Sha256Hash, TransactionState>();
+        for (WalletTransaction walletTransaction : wallet.getWalletTransactions()) {
+            Transaction transaction = walletTransaction.getTransaction();
+            journalledTransactions.put(transaction.getHash(), new TransactionState(walletTransaction.getPool(), transaction));
+        }
+        journalledNumberOfKeys = wallet.getKeychain().size();
+        journalledLastBlockSeenHeight = lastBlockSeen.getHeight();
+        journalledLastBlockSeenHash = lastBlockSeen.getHash();
+    }
+
+    private static void writeRecord(ByteArrayOutputStream records, byte type, Transaction transaction, TransactionState state) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream payloadStream = new DataOutputStream(payload);
+        payloadStream.writeByte(type);
+        if (type == NEW_TRANSACTION_RECORD) {
+            byte[] transactionBytes = transaction.bitcoinSerialize();
+            payloadStream.writeInt(transactionBytes.length);
+            payloadStream.write(transactionBytes);
+        } else {
+            writeHash(payloadStream, transaction.getHash());
+        }
+        payloadStream.writeUTF(state.pool.name());
+        payloadStream.writeUTF(state.confidenceType.name());
+        payloadStream.writeInt(state.appearedAtChainHeight);
+        Date updateTime = transaction.getUpdateTime();
+        payloadStream.writeLong(updateTime == null ? -1 : updateTime.getTime());
+        Map<Sha256Hash, Integer> appearsInHashes = transaction.getAppearsInHashes();
+        if (appearsInHashes == null) {
+            payloadStream.writeInt(0);
+        } else {
+            payloadStream.writeInt(appearsInHashes.size());
+            for (Map.Entry<Sha256Hash, Integer> entry : appearsInHashes.entrySet()) {
+                writeHash(payloadStream, entry.getKey());
+                payloadStream.writeInt(entry.getValue());
+            }
+        }
+        writeFramed(records, payload.toByteArray());
+    }
+
+    private static void writeFramed(ByteArrayOutputStream records, byte[] payload) throws IOException {
+        DataOutputStream recordStream = new DataOutputStream(records);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        recordStream.writeInt(payload.length);
+        recordStream.write(payload);
+        recordStream.writeLong(crc.getValue());
+        recordStream.flush();
+    }
+
+    /**
+     * Read the next record.
+     * @return The record payload (starting with the record type) or null if there are no more good records
+     */
+    private byte[] readRecord(DataInputStream inputStream) throws IOException {
+        try {
+            int payloadLength = inputStream.readInt();
+            if (payloadLength <= 0 || payloadLength > MAXIMUM_RECORD_LENGTH) {
+                log.error("Wallet journal '" + journalFile.getAbsolutePath() + "' has a bad record length " + payloadLength);
+                return null;
+            }
+            byte[] payload = new byte[payloadLength];
+            inputStream.readFully(payload);
+            long storedCrc = inputStream.readLong();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if (crc.getValue() != storedCrc) {
+                log.error("Wallet journal '" + journalFile.getAbsolutePath() + "' has a record with a bad checksum");
+                return null;
+            }
+            return payload;
+        } catch (EOFException eofe) {
+            // End of the journal, or a record that was only partly written.
+            return null;
+        }
+    }
+
+    private static void replayNewTransaction(Wallet wallet, NetworkParameters networkParameters, DataInputStream recordStream)
+            throws IOException, ProtocolException {
+        byte[] transactionBytes = new byte[recordStream.readInt()];
+        recordStream.readFully(transactionBytes);
+        Transaction transaction = new Transaction(networkParameters, transactionBytes);
+        replayState(wallet, transaction, recordStream);
+    }
+
+    private static void replayTransactionState(Wallet wallet, DataInputStream recordStream) throws IOException {
+        Sha256Hash hash = readHash(recordStream);
+        Transaction transaction = MultiBitWalletPools.getTransaction(wallet, hash);
+        if (transaction == null) {
+            log.error("Wallet journal refers to transaction " + hash + " which is not in the wallet - skipping");
+            return;
+        }
+        replayState(wallet, transaction, recordStream);
+    }
+
+    private static void replayState(Wallet wallet, Transaction transaction, DataInputStream recordStream) throws IOException {
+        WalletTransaction.Pool pool = WalletTransaction.Pool.valueOf(recordStream.readUTF());
+        TransactionConfidence.ConfidenceType confidenceType = TransactionConfidence.ConfidenceType.valueOf(recordStream.readUTF());
+        int appearedAtChainHeight = recordStream.readInt();
+        long updateTime = recordStream.readLong();
+        int numberOfAppearsInHashes = recordStream.readInt();
+
+        Transaction walletTransaction = MultiBitWalletPools.putInPool(wallet, transaction, pool);
+        if (updateTime >= 0) {
+            walletTransaction.setUpdateTime(new Date(updateTime));
+        }
+        for (int i = 0; i < numberOfAppearsInHashes; i++) {
+            Sha256Hash blockHash = readHash(recordStream);
+            int relativityOffset = recordStream.readInt();
+            Map<Sha256Hash, Integer> appearsInHashes = walletTransaction.getAppearsInHashes();
+            if (appearsInHashes == null || !appearsInHashes.containsKey(blockHash)) {
+                walletTransaction.addBlockAppearance(blockHash, relativityOffset);
+            }
+        }
+
+        TransactionConfidence confidence = walletTransaction.getConfidence();
+        confidence.setConfidenceType(confidenceType);
+        if (confidenceType == TransactionConfidence.ConfidenceType.BUILDING && appearedAtChainHeight >= 0) {
+            confidence.setAppearedAtChainHeight(appearedAtChainHeight);
+        }
+    }
+
+    private static void replayLastBlockSeen(Wallet wallet, DataInputStream recordStream) throws IOException {
+        wallet.setLastBlockSeenHeight(recordStream.readInt());
+        wallet.setLastBlockSeenHash(readHash(recordStream));
+        wallet.setLastBlockSeenTimeSecs(recordStream.readLong());
+    }
+
+    /**
+     * Depths are not journalled as they change with every block - work them out from the last block seen.
+     */
+    static void updateDepths(Wallet wallet) {
+        int lastBlockSeenHeight = wallet.getLastBlockSeenHeight();
+        if (lastBlockSeenHeight <= 0) {
+            return;
+        }
+        for (WalletTransaction walletTransaction : wallet.getWalletTransactions()) {
+            TransactionConfidence confidence = walletTransaction.getTransaction().getConfidence();
+            if (confidence.getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING) {
+                int appearedAtChainHeight = confidence.getAppearedAtChainHeight();
+                if (appearedAtChainHeight >= 0 && appearedAtChainHeight <= lastBlockSeenHeight) {
+                    confidence.setDepthInBlocks(lastBlockSeenHeight - appearedAtChainHeight + 1);
+                }
+            }
+        }
+    }
+
+    private static void writeHash(DataOutputStream outputStream, Sha256Hash hash) throws IOException {
+        if (hash == null) {
+            outputStream.writeBoolean(false);
+        } else {
+            outputStream.writeBoolean(true);
+            outputStream.write(hash.getBytes());
+        }
+    }
+
+    private static Sha256Hash readHash(DataInputStream inputStream) throws IOException {
+        if (!inputStream.readBoolean()) {
+            return null;
+        }
+        byte[] hashBytes = new byte[32];
+        inputStream.readFully(hashBytes);
+        return new Sha256Hash(hashBytes);
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * The parts of a wallet transaction that are journalled when they change.
+     */
+    private static class TransactionState {
+        private final WalletTransaction.Pool pool;
+        private final TransactionConfidence.ConfidenceType confidenceType;
+        private final int appearedAtChainHeight;
+        private final int numberOfAppearsInHashes;
+
+        TransactionState(WalletTransaction.Pool pool, Transaction transaction) {
+            this.pool = pool;
+            TransactionConfidence confidence = transaction.getConfidence();
+            this.confidenceType = confidence.getConfidenceType();
+            this.appearedAtChainHeight = confidenceType == TransactionConfidence.ConfidenceType.BUILDING ? confidence.getAppearedAtChainHeight() : -1;
+            Map<Sha256Hash, Integer> appearsInHashes = transaction.getAppearsInHashes();
+            this.numberOfAppearsInHashes = appearsInHashes == null ? 0 : appearsInHashes.size();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TransactionState)) {
+                return false;
+            }
+            TransactionState other = (TransactionState) o;
+            return pool == other.pool && confidenceType == other.confidenceType
+                    && appearedAtChainHeight == other.appearedAtChainHeight
+                    && numberOfAppearsInHashes == other.numberOfAppearsInHashes;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = pool.hashCode();
+            result = 31 * result + confidenceType.hashCode();
+            result = 31 * result + appearedAtChainHeight;
+            result = 31 * result + numberOfAppearsInHashes;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.multibit.controller.bitcoin.BitcoinController;
+import org.multibit.message.Message;
+import org.multibit.message.MessageManager;
+import org.multibit.model.bitcoin.BitcoinModel;
+import org.multibit.model.bitcoin.WalletData;
+import org.multibit.network.LastBlockSeen;
+import org.multibit.network.ReplayManager;
+import org.multibit.network.ReplayTask;
+import org.multibit.store.WalletVersionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.EventQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves wallets in the background shortly after they change.
+ * <p/>
+ * Changes to a wallet tend to arrive in bursts (a block with several transactions, a send followed by its
+ * confidence updates) so the saves are coalesced: a changed wallet is saved once it has been quiet for the
+ * save window, but never later than the maximum staleness after its first unsaved change.
+ * All the saves are done on a single I/O thread so that the Swing and network threads never wait on the disk.
+ * <p/>
+ * Wallets tell the scheduler they have changed by being marked dirty (see {@link WalletData#setDirty(boolean)}).
+ * <p/>
+ * Whilst a wallet is being replayed nearly every block changes it, so it is only checkpointed: saved once every
+ * replay checkpoint interval or every so many blocks, whichever comes first, and once more when the replay
+ * completes. A checkpointed wallet is never ahead of the blockchain so, after a crash, the replay resumes from
+ * the last checkpoint when MultiBit is next started.
+ */
+public class WalletSaveScheduler {
+    private static final Logger log = LoggerFactory.getLogger(WalletSaveScheduler.class);
+
+    public static final long DEFAULT_SAVE_WINDOW = 2000; // milliseconds
+    public static final long DEFAULT_MAXIMUM_STALENESS = 30000; // milliseconds
+
+    public static final long DEFAULT_REPLAY_CHECKPOINT_INTERVAL = 60000; // milliseconds
+    public static final long DEFAULT_REPLAY_CHECKPOINT_BLOCKS = 5000;
+
+    private static final int MAXIMUM_TIME_TO_WAIT_ON_STOP = 30; // seconds
+
+    private final BitcoinController bitcoinController;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * The saves that have been scheduled but not started, by wallet.
+     */
+    private final Map<WalletData, PendingSave> pendingSaves = new IdentityHashMap<WalletData, PendingSave>();
+
+    /**
+     * The wallets that are being replayed, which are only saved at checkpoints.
+     */
+    private final Set<WalletData> replayingWallets = Collections.newSetFromMap(new IdentityHashMap<WalletData, Boolean>());
+    private long nextReplayCheckpointTime;
+    private long blocksSinceReplayCheckpoint;
+
+    private boolean stopped = false;
+
+    public WalletSaveScheduler(BitcoinController bitcoinController) {
+        this.bitcoinController = bitcoinController;
+    }
+
+    /**
+     * Note that a wallet has changed and should be saved once the save window has passed.
+     *
+     * @param perWalletModelData The wallet that changed
+     */
+    public void walletChanged(WalletData perWalletModelData) {
+        schedule(perWalletModelData, false);
+    }
+
+    /**
+     * Save a wallet as soon as possible, e.g. after a send.
+     * Any save already scheduled for the wallet is brought forward rather than repeated.
+     *
+     * @param perWalletModelData The wallet to save
+     * @return A future that completes with true once the wallet is on disk (false if the save failed).
+     *         Callers that need the wallet to be durable can wait on it - but never on the Swing thread.
+     */
+    public Future<Boolean> saveNow(WalletData perWalletModelData) {
+        // Not setDirty(true), which would schedule another save.
+        if (perWalletModelData.getWalletInfo() != null) {
+            synchronized (perWalletModelData.getWalletInfo()) {
+                perWalletModelData.setDirtyWithoutScheduling();
+            }
+        } else {
+            perWalletModelData.setDirtyWithoutScheduling();
+        }
+        return schedule(perWalletModelData, true);
+    }
+
+    /**
+     * Only checkpoint these wallets until {@link #replayCompleted(List)} is called.
+     * Any save already due (e.g. of the last block seen being reset to the start of the replay) is done first
+     * and waited for, so that the wallets on disk are never ahead of the truncated blockchain.
+     * (On the Swing thread the saves are not waited for - they are still done before any checkpoint).
+     *
+     * @param perWalletModelDataList The wallets that are about to be replayed
+     */
+    public void replayStarted(List<WalletData> perWalletModelDataList) {
+        List<WalletData> walletsToSave = new ArrayList<WalletData>();
+        synchronized (this) {
+            for (WalletData perWalletModelData : perWalletModelDataList) {
+                if (pendingSaves.containsKey(perWalletModelData) || perWalletModelData.isDirty()) {
+                    walletsToSave.add(perWalletModelData);
+                }
+            }
+        }
+
+        List<Future<Boolean>> saves = new ArrayList<Future<Boolean>>();
+        for (WalletData perWalletModelData : walletsToSave) {
+            saves.add(saveNow(perWalletModelData));
+        }
+
+        synchronized (this) {
+            replayingWallets.addAll(perWalletModelDataList);
+            startReplayCheckpoint(System.currentTimeMillis());
+        }
+
+        if (EventQueue.isDispatchThread()) {
+            return;
+        }
+        for (Future<Boolean> save : saves) {
+            try {
+                save.get(MAXIMUM_TIME_TO_WAIT_ON_STOP, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                log.error("Wallet save before replay did not finish. " + e.getClass().getCanonicalName() + " " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Note that a block has been downloaded. The wallets being replayed are checkpointed every so many blocks
+     * (see {@link ReplayTask#getProcessedHeight()}).
+     */
+    public void blockDownloaded() {
+        List<WalletData> walletsToCheckpoint;
+        synchronized (this) {
+            if (replayingWallets.isEmpty()) {
+                return;
+            }
+            blocksSinceReplayCheckpoint++;
+            if (blocksSinceReplayCheckpoint < getReplayCheckpointBlocks()) {
+                return;
+            }
+            startReplayCheckpoint(System.currentTimeMillis());
+            walletsToCheckpoint = new ArrayList<WalletData>(replayingWallets);
+        }
+
+        // Every wallet is saved, changed or not, so that the replay can be resumed from here.
+        for (WalletData perWalletModelData : walletsToCheckpoint) {
+            log.debug("Checkpointing replayed wallet '{}'", perWalletModelData.getWalletFilename());
+            saveNow(perWalletModelData);
+        }
+    }
+
+    /**
+     * Go back to saving these wallets shortly after they change, and save them now.
+     *
+     * @param perWalletModelDataList The wallets that have been replayed
+     */
+    public void replayCompleted(List<WalletData> perWalletModelDataList) {
+        synchronized (this) {
+            replayingWallets.removeAll(perWalletModelDataList);
+        }
+        for (WalletData perWalletModelData : perWalletModelDataList) {
+            saveNow(perWalletModelData);
+        }
+    }
+
+    /**
+     * @return true if the wallet is being replayed, so is only saved at checkpoints
+     */
+    public synchronized boolean isReplaying(WalletData perWalletModelData) {
+        return replayingWallets.contains(perWalletModelData);
+    }
+
+    /**
+     * Stop scheduling saves. Any saves that are still waiting are done immediately on the calling thread.
+     * (Used on exit).
+     */
+    public void stop() {
+        List<Map.Entry<WalletData, PendingSave>> savesToFlush = new ArrayList<Map.Entry<WalletData, PendingSave>>();
+        ScheduledExecutorService executorToStop;
+        synchronized (this) {
+            stopped = true;
+            for (Map.Entry<WalletData, PendingSave> entry : pendingSaves.entrySet()) {
+                if (entry.getValue().task.cancel(false)) {
+                    savesToFlush.add(entry);
+                }
+            }
+            pendingSaves.clear();
+            replayingWallets.clear();
+            executorToStop = executor;
+            executor = null;
+        }
+
+        if (executorToStop != null) {
+            // Let a save that is in progress finish.
+            executorToStop.shutdown();
+            try {
+                if (!executorToStop.awaitTermination(MAXIMUM_TIME_TO_WAIT_ON_STOP, TimeUnit.SECONDS)) {
+                    log.error("Wallet save did not finish in " + MAXIMUM_TIME_TO_WAIT_ON_STOP + " seconds");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (Map.Entry<WalletData, PendingSave> entry : savesToFlush) {
+            save(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private synchronized Future<Boolean> schedule(WalletData perWalletModelData, boolean immediately) {
+        if (stopped) {
+            // The ExitAction saves any dirty wallets itself.
+            SettableFuture<Boolean> result = SettableFuture.create();
+            result.set(Boolean.FALSE);
+            return result;
+        }
+
+        long now = System.currentTimeMillis();
+        PendingSave pendingSave = pendingSaves.get(perWalletModelData);
+        if (pendingSave != null && pendingSave.immediate) {
+            // Not started yet (it leaves pendingSaves when it starts), so the save will include this change.
+            return pendingSave.result;
+        }
+        if (pendingSave != null && !pendingSave.task.cancel(false)) {
+            // The save has just started - schedule another one for this change.
+            pendingSave = null;
+        }
+        if (pendingSave == null) {
+            pendingSave = new PendingSave(now);
+            pendingSaves.put(perWalletModelData, pendingSave);
+        }
+
+        long dueTime;
+        if (immediately) {
+            pendingSave.immediate = true;
+            dueTime = now;
+        } else if (replayingWallets.contains(perWalletModelData)) {
+            if (nextReplayCheckpointTime <= now) {
+                // Not checkpointed for a whole interval.
+                startReplayCheckpoint(now);
+                dueTime = now;
+            } else {
+                dueTime = nextReplayCheckpointTime;
+            }
+        } else {
+            dueTime = Math.min(now + getSaveWindow(), pendingSave.firstChangeTime + getMaximumStaleness());
+        }
+        final WalletData finalPerWalletModelData = perWalletModelData;
+        final PendingSave finalPendingSave = pendingSave;
+        pendingSave.task = getExecutor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (WalletSaveScheduler.this) {
+                    if (pendingSaves.get(finalPerWalletModelData) == finalPendingSave) {
+                        pendingSaves.remove(finalPerWalletModelData);
+                    }
+                }
+                save(finalPerWalletModelData, finalPendingSave);
+            }
+        }, Math.max(0, dueTime - now), TimeUnit.MILLISECONDS);
+
+        return pendingSave.result;
+    }
+
+    private void save(WalletData perWalletModelData, PendingSave pendingSave) {
+        try {
+            if (perWalletModelData.getWalletInfo() != null && perWalletModelData.getWalletInfo().isDeleted()) {
+                pendingSave.result.set(Boolean.FALSE);
+                return;
+            }
+            log.debug("Saving wallet '{}' ({} ms after its first change)", perWalletModelData.getWalletFilename(),
+                    System.currentTimeMillis() - pendingSave.firstChangeTime);
+
+            // The wallet on disk has at least the last block seen from before the save (as held back for writing).
+            boolean checkpoint = isReplaying(perWalletModelData) && perWalletModelData.isDirty();
+            int lastBlockSeenHeight = -1;
+            if (perWalletModelData.getWallet() != null) {
+                LastBlockSeen lastBlockSeen = LastBlockSeen.of(perWalletModelData.getWallet());
+                if (bitcoinController.getMultiBitService() != null) {
+                    lastBlockSeen = bitcoinController.getMultiBitService().holdBackLastBlockSeen(lastBlockSeen);
+                }
+                lastBlockSeenHeight = lastBlockSeen.getHeight();
+            }
+
+            bitcoinController.getFileHandler().savePerWalletModelData(perWalletModelData, false);
+            if (checkpoint && lastBlockSeenHeight >= 0) {
+                ReplayManager.INSTANCE.walletCheckpointed(perWalletModelData, lastBlockSeenHeight);
+            }
+            pendingSave.result.set(Boolean.TRUE);
+        } catch (WalletSaveException | WalletVersionException e) {
+            String message = bitcoinController.getLocaliser().getString(
+                    "createNewWalletAction.walletCouldNotBeCreated",
+                    new Object[]{perWalletModelData.getWalletFilename(), e.getMessage()});
+            log.error(message);
+            MessageManager.INSTANCE.addMessage(new Message(message));
+            pendingSave.result.set(Boolean.FALSE);
+        } catch (RuntimeException e) {
+            log.error("Unexpected error saving wallet '" + perWalletModelData.getWalletFilename() + "'. "
+                    + e.getClass().getCanonicalName() + " " + e.getMessage());
+            pendingSave.result.setException(e);
+        }
+    }
+
+    /**
+     * Start counting towards the next replay checkpoint (the lock on this is held).
+     */
+    private void startReplayCheckpoint(long now) {
+        nextReplayCheckpointTime = now + getReplayCheckpointInterval();
+        blocksSinceReplayCheckpoint = 0;
+    }
+
+    private synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("WalletSaveScheduler-%d").setDaemon(true).build());
+        }
+        return executor;
+    }
+
+    long getSaveWindow() {
+        return getPreferenceAsLong(BitcoinModel.WALLET_SAVE_WINDOW, DEFAULT_SAVE_WINDOW);
+    }
+
+    long getMaximumStaleness() {
+        return getPreferenceAsLong(BitcoinModel.WALLET_SAVE_MAXIMUM_STALENESS, DEFAULT_MAXIMUM_STALENESS);
+    }
+
+    long getReplayCheckpointInterval() {
+        return getPreferenceAsLong(BitcoinModel.WALLET_REPLAY_CHECKPOINT_INTERVAL, DEFAULT_REPLAY_CHECKPOINT_INTERVAL);
+    }
+
+    long getReplayCheckpointBlocks() {
+        return getPreferenceAsLong(BitcoinModel.WALLET_REPLAY_CHECKPOINT_BLOCKS, DEFAULT_REPLAY_CHECKPOINT_BLOCKS);
+    }
+
+    private long getPreferenceAsLong(String key, long defaultValue) {
+        if (bitcoinController.getModel() == null) {
+            return defaultValue;
+        }
+        String value = bitcoinController.getModel().getUserPreference(key);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException nfe) {
+            log.error("User preference '" + key + "' is not a number: '" + value + "'");
+            return defaultValue;
+        }
+    }
+
+    /**
+     * A save that has been scheduled for a wallet.
+     */
+    private static class PendingSave {
+        private final long firstChangeTime;
+        private final SettableFuture<Boolean> result = SettableFuture.create();
+        private ScheduledFuture<?> task;
+        private boolean immediate;
+
+        PendingSave(long firstChangeTime) {
+            this.firstChangeTime = firstChangeTime;
+        }
+    }
+}
@@ -17,7 +17,7 @@ package org.multibit.model.bitcoin;
 
 import com.google.bitcoin.core.*;
 import com.google.bitcoin.core.Wallet.BalanceType;
-import com.google.bitcoin.store.BlockStoreException;
+import com.google.common.collect.MapMaker;
 import org.multibit.controller.Controller;
 import org.multibit.controller.bitcoin.BitcoinController;
 import org.multibit.model.AbstractModel;
@@ -28,6 +28,9 @@ import org.slf4j.LoggerFactory;
 
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Model containing the MultiBit data.
@@ -129,6 +132,24 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
     // Wallet backup.
     public static final String WALLET_BACKUP_FILE = "walletBackupFile";
 
+    // Wallet journal.
+    public static final String WALLET_JOURNAL_ENABLED = "walletJournalEnabled";
+
+    // Background wallet saves.
+    public static final String WALLET_SAVE_WINDOW = "walletSaveWindow";
+    public static final String WALLET_SAVE_MAXIMUM_STALENESS = "walletSaveMaximumStaleness";
+    public static final String WALLET_REPLAY_CHECKPOINT_INTERVAL = "walletReplayCheckpointInterval";
+    public static final String WALLET_REPLAY_CHECKPOINT_BLOCKS = "walletReplayCheckpointBlocks";
+
+    // Keep the filtered blocks received so that replays can be served from disk.
+    public static final String FILTERED_BLOCK_CACHE_ENABLED = "filteredBlockCacheEnabled";
+
+    // The false positive rate of the bloom filter sent to peers (the network id can be appended to set it for one network).
+    public static final String BLOOM_FILTER_FALSE_POSITIVE_RATE = "bloomFilterFalsePositiveRate";
+
+    // Wallets that are not selected are loaded when they are first needed.
+    public static final String LAZY_WALLET_LOADING = "lazyWalletLoading";
+
     // AlertManager and versions
     public static final String ALERT_MANAGER_NEW_VERSION_VALUE = "alertManagerNewVersionValue";
     public static final String ALERT_MANAGER_NEW_VERSION_SEEN_COUNT = "alertManagerNewVersionSeenCount";
@@ -139,6 +160,21 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
      */
     private List<WalletData> perWalletModelDataList;
 
+    /**
+     * The wallets in perWalletModelDataList by wallet filename.
+     */
+    private final ConcurrentMap<String, WalletData> perWalletModelDataByWalletFilename = new ConcurrentHashMap<String, WalletData>();
+
+    /**
+     * The wallets in perWalletModelDataList by wallet object (compared by identity).
+     */
+    private final ConcurrentMap<Wallet, WalletData> perWalletModelDataByWallet = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * The wallets in perWalletModelDataList by the keys and outpoints that transactions from the network can use.
+     */
+    private final WalletRelevanceIndex walletRelevanceIndex = new WalletRelevanceIndex();
+
     /**
      * The current active wallet.
      */
@@ -158,6 +194,11 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
      */
     private boolean blinkEnabled = true;
 
+    /**
+     * Listeners told about changes to the rows of the Transactions table of each wallet.
+     */
+    private final List<WalletTableDataListener> walletTableDataListeners = new CopyOnWriteArrayList<WalletTableDataListener>();
+
     @SuppressWarnings("deprecation")
     public BitcoinModel(CoreModel coreModel) {
         super(coreModel);
@@ -262,13 +303,9 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
         if (walletFilename == null) {
             return;
         }
-        if (perWalletModelDataList != null) {
-            for (WalletData loopPerWalletModelData : perWalletModelDataList) {
-                if (walletFilename.equals(loopPerWalletModelData.getWalletFilename())) {
-                    activeWalletModelData = loopPerWalletModelData;
-                    break;
-                }
-            }
+        WalletData perWalletModelData = getPerWalletModelDataByWalletFilename(walletFilename);
+        if (perWalletModelData != null) {
+            activeWalletModelData = perWalletModelData;
         }
     }
 
@@ -285,12 +322,12 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
         if (perWalletModelDataToRemove == null) {
             return;
         }
-        if (perWalletModelDataList != null) {
-            for (WalletData loopPerWalletModelData : perWalletModelDataList) {
-                if (perWalletModelDataToRemove.getWalletFilename().equals(loopPerWalletModelData.getWalletFilename())) {
-                    perWalletModelDataList.remove(loopPerWalletModelData);
-                    break;
-                }
+        WalletData perWalletModelData = getPerWalletModelDataByWalletFilename(perWalletModelDataToRemove.getWalletFilename());
+        if (perWalletModelData != null) {
+            perWalletModelDataList.remove(perWalletModelData);
+            perWalletModelDataByWalletFilename.remove(perWalletModelData.getWalletFilename());
+            if (perWalletModelData.getWallet() != null) {
+                perWalletModelDataByWallet.remove(perWalletModelData.getWallet());
             }
         }
         
@@ -309,14 +346,10 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
         if (walletFilename == null) {
             return;
         }
-        if (perWalletModelDataList != null) {
-            for (WalletData loopPerWalletModelData : perWalletModelDataList) {
-                if (walletFilename.equals(loopPerWalletModelData.getWalletFilename())) {
-                    loopPerWalletModelData.setWalletDescription(walletDescription);
-                    loopPerWalletModelData.setDirty(true);
-                    break;
-                }
-            }
+        WalletData perWalletModelData = getPerWalletModelDataByWalletFilename(walletFilename);
+        if (perWalletModelData != null) {
+            perWalletModelData.setWalletDescription(walletDescription);
+            perWalletModelData.setDirty(true);
         }
     }
 
@@ -330,10 +363,19 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
 
         // Check to see if it is already in the managed list - no need to add it
         // again if so.
-        for (WalletData loopModelData : perWalletModelDataList) {
-            if (walletFilename.equals(loopModelData.getWalletFilename())) {
-                return loopModelData;
+        WalletData existingPerWalletModelData = getPerWalletModelDataByWalletFilename(walletFilename);
+        if (existingPerWalletModelData != null) {
+            if (existingPerWalletModelData.isSummaryOnly() && wallet != null) {
+                // The wallet was opened from its summary and has now been read in full.
+                existingPerWalletModelData.setWallet(wallet);
+                existingPerWalletModelData.setWalletSummary(null);
+                perWalletModelDataByWallet.put(wallet, existingPerWalletModelData);
+                wallet.addEventListener(bitcoinController);
+
+                createWalletTableData(bitcoinController, walletFilename);
+                createAddressBookReceivingAddresses(walletFilename);
             }
+            return existingPerWalletModelData;
         }
 
         WalletData newPerWalletModelData = new WalletData();
@@ -350,12 +392,19 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
         }
 
         perWalletModelDataList.add(newPerWalletModelData);
+        perWalletModelDataByWalletFilename.put(walletFilename, newPerWalletModelData);
+        if (wallet != null) {
+            perWalletModelDataByWallet.put(wallet, newPerWalletModelData);
+        }
 
         // Wire up the controller as a wallet event listener.
         if (wallet != null) {
             wallet.addEventListener(bitcoinController);
         }
 
+        // Changes to the wallet are saved in the background.
+        newPerWalletModelData.setWalletSaveScheduler(bitcoinController.getWalletSaveScheduler());
+
         createWalletTableData(bitcoinController, walletFilename);
         createAddressBookReceivingAddresses(walletFilename);
 
@@ -391,19 +440,15 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
             return walletData;
         }
 
-        WalletData perWalletModelData = null;
-        if (perWalletModelDataList != null) {
-            for (WalletData loopPerWalletModelData : perWalletModelDataList) {
-                if (walletFilename.equals(loopPerWalletModelData.getWalletFilename())) {
-                    perWalletModelData = loopPerWalletModelData;
-                    break;
-                }
-            }
-        }
+        WalletData perWalletModelData = getPerWalletModelDataByWalletFilename(walletFilename);
         
         return createWalletTableData(bitcoinController, perWalletModelData);
     }
 
+    /**
+     * Create the walletdata records for all the transactions in a wallet.
+     * The rows kept for the wallet are replaced by the new records.
+     */
     public ArrayList<WalletTableData> createWalletTableData(final BitcoinController bitcoinController, WalletData perWalletModelData) {
         ArrayList<WalletTableData> walletData = new ArrayList<WalletTableData>();
 
@@ -411,50 +456,184 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
             return walletData;
         }
         
-        Set<Transaction> transactions = perWalletModelData.getWallet().getTransactions(false);
-
-        if (transactions != null) {
-            for (Transaction loopTransaction : transactions) {
-                WalletTableData walletDataRow = new WalletTableData(loopTransaction);
-                walletData.add(walletDataRow);
-                walletDataRow.setCredit(loopTransaction.getValueSentToMe(perWalletModelData.getWallet()));
-                try {
-                    walletDataRow.setDebit(loopTransaction.getValueSentFromMe(perWalletModelData.getWallet()));
-                } catch (ScriptException e) {
-                    log.error(e.getMessage(), e);
+        // The rows are worked out and seeded under the lock of the store so that a row put or removed
+        // for a change to the wallet meanwhile is not replaced by one worked out before the change.
+        WalletTableDataStore walletTableDataStore = perWalletModelData.getWalletTableDataStore();
+        long generation;
+        synchronized (walletTableDataStore) {
+            Set<Transaction> transactions = perWalletModelData.getWallet().getTransactions(false);
+
+            if (transactions != null) {
+                for (Transaction loopTransaction : transactions) {
+                    walletData.add(createWalletTableDataRow(bitcoinController, perWalletModelData, loopTransaction));
+                }
+            }
+
+            walletTableDataStore.seed(walletData);
+            generation = walletTableDataStore.getGeneration();
+        }
+        List<WalletTableData> snapshot = Collections.unmodifiableList(new ArrayList<WalletTableData>(walletData));
+        for (WalletTableDataListener walletTableDataListener : walletTableDataListeners) {
+            walletTableDataListener.walletTableDataReset(perWalletModelData, snapshot, generation);
+        }
+
+        return walletData;
+    }
+
+    /**
+     * Get the walletdata records of a wallet, creating them only if they have not been created before.
+     */
+    public List<WalletTableData> getWalletTableData(final BitcoinController bitcoinController, WalletData perWalletModelData) {
+        if (perWalletModelData == null || perWalletModelData.getWallet() == null) {
+            return new ArrayList<WalletTableData>();
+        }
+
+        WalletTableDataStore walletTableDataStore = perWalletModelData.getWalletTableDataStore();
+        if (!walletTableDataStore.isSeeded()) {
+            return createWalletTableData(bitcoinController, perWalletModelData);
+        }
+        return walletTableDataStore.getRows();
+    }
 
+    /**
+     * Create, replace or remove the walletdata record of one transaction after it has changed.
+     * Only the record for the transaction is worked out.
+     */
+    public void updateWalletTableData(final BitcoinController bitcoinController, Wallet wallet, Transaction transaction) {
+        WalletData perWalletModelData = getPerWalletModelDataByWallet(wallet);
+        if (perWalletModelData == null || transaction == null || !perWalletModelData.getWalletTableDataStore().isSeeded()) {
+            // The rows are all created when they are first needed.
+            return;
+        }
+
+        if (wallet.getTransaction(transaction.getHash()) == null) {
+            WalletTableData removedRow = perWalletModelData.getWalletTableDataStore().removeRow(transaction.getHash());
+            if (removedRow != null) {
+                for (WalletTableDataListener walletTableDataListener : walletTableDataListeners) {
+                    walletTableDataListener.walletTableDataDeleted(perWalletModelData, removedRow);
                 }
-                List<TransactionInput> transactionInputs = loopTransaction.getInputs();
-                List<TransactionOutput> transactionOutputs = loopTransaction.getOutputs();
-                if (transactionInputs != null) {
-                    TransactionInput firstInput = transactionInputs.get(0);
-                    if (firstInput != null) {
-                        walletDataRow.setDescription(createDescription(bitcoinController, perWalletModelData.getWallet(), transactionInputs,
-                                transactionOutputs, walletDataRow.getCredit(), walletDataRow.getDebit()));
+            }
+            return;
+        }
+
+        WalletTableData walletDataRow = createWalletTableDataRow(bitcoinController, perWalletModelData, transaction);
+        putWalletTableDataRow(perWalletModelData, walletDataRow);
+    }
+
+    /**
+     * Update the walletdata record of a transaction whose confidence has changed.
+     * Only the date and height depend on the confidence so the amounts and description are kept.
+     */
+    public void updateWalletTableDataConfidence(final BitcoinController bitcoinController, Wallet wallet, Transaction transaction) {
+        WalletData perWalletModelData = getPerWalletModelDataByWallet(wallet);
+        if (perWalletModelData == null || transaction == null || !perWalletModelData.getWalletTableDataStore().isSeeded()) {
+            return;
+        }
+
+        WalletTableData existingRow = perWalletModelData.getWalletTableDataStore().getRow(transaction.getHash());
+        if (existingRow == null) {
+            updateWalletTableData(bitcoinController, wallet, transaction);
+            return;
+        }
+
+        WalletTableData walletDataRow = new WalletTableData(transaction);
+        walletDataRow.setCredit(existingRow.getCredit());
+        walletDataRow.setDebit(existingRow.getDebit());
+        walletDataRow.setDescription(existingRow.getDescription());
+        walletDataRow.setDate(createDate(bitcoinController, transaction));
+        walletDataRow.setHeight(workOutHeight(transaction));
+        putWalletTableDataRow(perWalletModelData, walletDataRow);
+    }
+
+    /**
+     * Bring the walletdata records of a wallet up to date after a reorganise.
+     * Every record is worked out again but the listeners are only told about the rows that have been added,
+     * replaced or removed.
+     */
+    public void reorganizeWalletTableData(final BitcoinController bitcoinController, Wallet wallet) {
+        WalletData perWalletModelData = getPerWalletModelDataByWallet(wallet);
+        if (perWalletModelData == null || !perWalletModelData.getWalletTableDataStore().isSeeded()) {
+            return;
+        }
+
+        Set<Sha256Hash> transactionHashes = new HashSet<Sha256Hash>();
+        for (Transaction loopTransaction : wallet.getTransactions(false)) {
+            transactionHashes.add(loopTransaction.getHash());
+            putWalletTableDataRow(perWalletModelData, createWalletTableDataRow(bitcoinController, perWalletModelData, loopTransaction));
+        }
+
+        WalletTableDataStore walletTableDataStore = perWalletModelData.getWalletTableDataStore();
+        for (WalletTableData loopRow : walletTableDataStore.getRows()) {
+            Sha256Hash hash = WalletTableDataStore.getHash(loopRow);
+            if (hash != null && !transactionHashes.contains(hash)) {
+                WalletTableData removedRow = walletTableDataStore.removeRow(hash);
+                if (removedRow != null) {
+                    for (WalletTableDataListener walletTableDataListener : walletTableDataListeners) {
+                        walletTableDataListener.walletTableDataDeleted(perWalletModelData, removedRow);
                     }
                 }
-                walletDataRow.setDate(createDate(bitcoinController, loopTransaction));
-                walletDataRow.setHeight(workOutHeight(loopTransaction));
             }
         }
+    }
 
-        // Run through all the walletdata to see if both credit and debit are
-        // set (this means change was received).
-        for (WalletTableData walletDataRow : walletData) {
-            if (walletDataRow.getCredit() != null && (walletDataRow.getCredit().compareTo(BigInteger.ZERO) > 0)
-                    && (walletDataRow.getDebit() != null) && walletDataRow.getDebit().compareTo(BigInteger.ZERO) > 0) {
-                BigInteger net = walletDataRow.getCredit().subtract(walletDataRow.getDebit());
-                if (net.compareTo(BigInteger.ZERO) >= 0) {
-                    walletDataRow.setCredit(net);
-                    walletDataRow.setDebit(BigInteger.ZERO);
-                } else {
-                    walletDataRow.setCredit(BigInteger.ZERO);
-                    walletDataRow.setDebit(net.negate());
-                }
+    public void addWalletTableDataListener(WalletTableDataListener walletTableDataListener) {
+        walletTableDataListeners.add(walletTableDataListener);
+    }
+
+    public void removeWalletTableDataListener(WalletTableDataListener walletTableDataListener) {
+        walletTableDataListeners.remove(walletTableDataListener);
+    }
+
+    public void clearWalletTableDataListeners() {
+        walletTableDataListeners.clear();
+    }
+
+    private void putWalletTableDataRow(WalletData perWalletModelData, WalletTableData walletDataRow) {
+        boolean inserted = perWalletModelData.getWalletTableDataStore().putRow(walletDataRow);
+        for (WalletTableDataListener walletTableDataListener : walletTableDataListeners) {
+            if (inserted) {
+                walletTableDataListener.walletTableDataInserted(perWalletModelData, walletDataRow);
+            } else {
+                walletTableDataListener.walletTableDataUpdated(perWalletModelData, walletDataRow);
+            }
+        }
+    }
+
+    private WalletTableData createWalletTableDataRow(final BitcoinController bitcoinController, WalletData perWalletModelData, Transaction transaction) {
+        WalletTableData walletDataRow = new WalletTableData(transaction);
+        walletDataRow.setCredit(transaction.getValueSentToMe(perWalletModelData.getWallet()));
+        try {
+            walletDataRow.setDebit(transaction.getValueSentFromMe(perWalletModelData.getWallet()));
+        } catch (ScriptException e) {
+            log.error(e.getMessage(), e);
+
+        }
+        List<TransactionInput> transactionInputs = transaction.getInputs();
+        List<TransactionOutput> transactionOutputs = transaction.getOutputs();
+        if (transactionInputs != null) {
+            TransactionInput firstInput = transactionInputs.get(0);
+            if (firstInput != null) {
+                walletDataRow.setDescription(createDescription(bitcoinController, perWalletModelData.getWallet(), transactionInputs,
+                        transactionOutputs, walletDataRow.getCredit(), walletDataRow.getDebit()));
+            }
+        }
+        walletDataRow.setDate(createDate(bitcoinController, transaction));
+        walletDataRow.setHeight(workOutHeight(transaction));
+
+        // See if both credit and debit are set (this means change was received).
+        if (walletDataRow.getCredit() != null && (walletDataRow.getCredit().compareTo(BigInteger.ZERO) > 0)
+                && (walletDataRow.getDebit() != null) && walletDataRow.getDebit().compareTo(BigInteger.ZERO) > 0) {
+            BigInteger net = walletDataRow.getCredit().subtract(walletDataRow.getDebit());
+            if (net.compareTo(BigInteger.ZERO) >= 0) {
+                walletDataRow.setCredit(net);
+                walletDataRow.setDebit(BigInteger.ZERO);
+            } else {
+                walletDataRow.setCredit(BigInteger.ZERO);
+                walletDataRow.setDebit(net.negate());
             }
         }
 
-        return walletData;
+        return walletDataRow;
     }
 
     /**
@@ -465,24 +644,21 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
             return;
         }
 
-        WalletData perWalletModelData = null;
-        if (perWalletModelDataList != null) {
-            for (WalletData loopPerWalletModelData : perWalletModelDataList) {
-                if (walletFilename.equals(loopPerWalletModelData.getWalletFilename())) {
-                    perWalletModelData = loopPerWalletModelData;
-                    break;
-                }
-            }
-        }
+        WalletData perWalletModelData = getPerWalletModelDataByWalletFilename(walletFilename);
 
-        if (!(perWalletModelData == null)) {
+        if (!(perWalletModelData == null) && perWalletModelData.getWallet() != null) {
             List<ECKey> keyChain = perWalletModelData.getWallet().getKeychain();
             if (keyChain != null) {
                 NetworkParameters networkParameters = getNetworkParameters();
                 if (networkParameters != null) {
                     if (perWalletModelData.getWalletInfo() != null) {
-                        // Keep a copy of the existing receiving addresses - labels will be recycled.
-                        List<WalletAddressBookData> currentReceivingAddresses = perWalletModelData.getWalletInfo().getReceivingAddresses();
+                        // Keep the labels of the existing receiving addresses - they will be recycled.
+                        Map<String, String> currentReceivingAddressLabels = new HashMap<String, String>();
+                        for (WalletAddressBookData loopAddressBookData : perWalletModelData.getWalletInfo().getReceivingAddresses()) {
+                            if (!currentReceivingAddressLabels.containsKey(loopAddressBookData.getAddress())) {
+                                currentReceivingAddressLabels.put(loopAddressBookData.getAddress(), loopAddressBookData.getLabel());
+                            }
+                        }
 
                         // Clear the existing receiving addresses.
                         ArrayList<WalletAddressBookData> newReceivingAddresses = new ArrayList<WalletAddressBookData>();
@@ -494,12 +670,9 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
                             String addressString = address.toString();
                             WalletAddressBookData addressBookData = new WalletAddressBookData(null, addressString);
 
-                            for (WalletAddressBookData loopAddressBookData : currentReceivingAddresses) {
-                                if (loopAddressBookData.getAddress().equals(addressString)) {
-                                    // Recycle label.
-                                    addressBookData.setLabel(loopAddressBookData.getLabel());
-                                    break;
-                                }
+                            if (currentReceivingAddressLabels.containsKey(addressString)) {
+                                // Recycle label.
+                                addressBookData.setLabel(currentReceivingAddressLabels.get(addressString));
                             }
                             perWalletModelData.getWalletInfo().addReceivingAddress(addressBookData, false);
                         }
@@ -522,15 +695,7 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
             List<TransactionOutput> transactionOutputs, BigInteger credit, BigInteger debit) {
         String toReturn = "";
 
-        WalletData perWalletModelData = null;
-        if (perWalletModelDataList != null) {
-            for (WalletData loopPerWalletModelData : perWalletModelDataList) {
-                if (wallet.equals(loopPerWalletModelData.getWallet())) {
-                    perWalletModelData = loopPerWalletModelData;
-                    break;
-                }
-            }
-        }
+        WalletData perWalletModelData = getPerWalletModelDataByWallet(wallet);
         if (perWalletModelData == null) {
             return toReturn;
         }
@@ -608,36 +773,14 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
      * @return Date date of transaction
      */
     private Date createDate(final BitcoinController bitcoinController, Transaction transaction) {
-        // If transaction has altered date - return that.
-        if (transaction.getUpdateTime() != null) {
-            return transaction.getUpdateTime();
-        }
-
-        // Other wise return the date of the block it first appeared in.
-        Map<Sha256Hash, Integer> appearsIn = transaction.getAppearsInHashes();
-        if (appearsIn != null) {
-            if (!appearsIn.isEmpty()) {
-                Iterator<Sha256Hash> iterator = appearsIn.keySet().iterator();
-                // just take the first i.e. ignore impact of side chains
-                if (iterator.hasNext()) {
-                    Sha256Hash appearsInHash = iterator.next();
-                    StoredBlock appearsInStoredBlock;
-                    try {
-                        if (bitcoinController != null && bitcoinController.getMultiBitService() != null
-                                && bitcoinController.getMultiBitService().getBlockStore() != null) {
-                            appearsInStoredBlock = bitcoinController.getMultiBitService().getBlockStore().get(appearsInHash);
-                            Block appearsInBlock = appearsInStoredBlock.getHeader();
-                            // Set the time of the block to be the time of the
-                            // transaction - TODO get transaction time.
-                            return new Date(appearsInBlock.getTimeSeconds() * 1000);
-                        }
-                    } catch (BlockStoreException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
+        if (bitcoinController != null && bitcoinController.getMultiBitService() != null) {
+            // The block times are cached so the block store is only read the first time a block is seen.
+            return bitcoinController.getMultiBitService().getBlockTimestampCache().getTransactionDate(transaction,
+                    bitcoinController.getMultiBitService().getBlockStore());
         }
-        return null;
+
+        // If transaction has altered date - return that.
+        return transaction.getUpdateTime();
     }
 
     /**
@@ -658,14 +801,26 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
         return perWalletModelDataList;
     }
 
+    /**
+     * Wallets added with addWallet are found without looking through the list. Wallets that have been put in the
+     * list some other way are found by looking through the list, and are then remembered.
+     *
+     * @return The WalletData with the wallet filename, or null if there is none
+     */
     public WalletData getPerWalletModelDataByWalletFilename(String walletFilename) {
         if (walletFilename == null) {
             return null;
         }
 
+        WalletData perWalletModelData = perWalletModelDataByWalletFilename.get(walletFilename);
+        if (perWalletModelData != null && walletFilename.equals(perWalletModelData.getWalletFilename())) {
+            return perWalletModelData;
+        }
+
         if (perWalletModelDataList != null) {
             for (WalletData loopPerWalletModelData : perWalletModelDataList) {
                 if (walletFilename.equals(loopPerWalletModelData.getWalletFilename())) {
+                    perWalletModelDataByWalletFilename.put(walletFilename, loopPerWalletModelData);
                     return loopPerWalletModelData;
                 }
             }
@@ -673,6 +828,47 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
         return null;
     }
     
+    /**
+     * @return The WalletData of the wallet object, or null if the wallet is not in the model
+     */
+    public WalletData getPerWalletModelDataByWallet(Wallet wallet) {
+        if (wallet == null) {
+            return null;
+        }
+
+        WalletData perWalletModelData = perWalletModelDataByWallet.get(wallet);
+        if (perWalletModelData != null && perWalletModelData.getWallet() == wallet) {
+            return perWalletModelData;
+        }
+
+        if (perWalletModelDataList != null) {
+            for (WalletData loopPerWalletModelData : perWalletModelDataList) {
+                if (loopPerWalletModelData.getWallet() == wallet) {
+                    perWalletModelDataByWallet.put(wallet, loopPerWalletModelData);
+                    return loopPerWalletModelData;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the wallets that a transaction from the network may be for, using the wallet relevance index rather than
+     * asking every wallet. Each wallet returned should still check that the transaction is relevant to it.
+     *
+     * @return The wallets with a key or an outpoint the transaction uses
+     */
+    public List<WalletData> getPerWalletModelDataForTransaction(Transaction transaction) {
+        if (transaction == null || perWalletModelDataList == null) {
+            return new ArrayList<WalletData>();
+        }
+        return walletRelevanceIndex.getPerWalletModelDataForTransaction(transaction, new ArrayList<WalletData>(perWalletModelDataList));
+    }
+
+    public WalletRelevanceIndex getWalletRelevanceIndex() {
+        return walletRelevanceIndex;
+    }
+
     public NetworkParameters getNetworkParameters() {
         // If test or production is not specified, default to production.
         String testOrProduction = super.getUserPreference(BitcoinModel.TEST_OR_PRODUCTION_NETWORK);
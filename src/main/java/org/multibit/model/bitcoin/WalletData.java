@@ -16,6 +16,8 @@
 package org.multibit.model.bitcoin;
 
 import com.google.bitcoin.core.Wallet;
+import org.multibit.file.WalletJournal;
+import org.multibit.file.WalletSaveScheduler;
 import org.multibit.viewsystem.swing.view.walletlist.SingleWalletPanelDownloadListener;
 
 import java.util.List;
@@ -54,7 +56,7 @@ public class WalletData {
     /**
      * The WalletData has changed since last been written to disk.
      */
-    private transient boolean isDirty;
+    private transient volatile boolean isDirty;
     
     /**
      * This wallet is currently busy with an operation that affects the private keys.
@@ -85,6 +87,25 @@ public class WalletData {
      */
     private transient SingleWalletPanelDownloadListener singleWalletDownloadListener;
 
+    /**
+     * The journal of changes made since the wallet was last written in full (null if journalling is not in use).
+     */
+    private transient WalletJournal walletJournal;
+
+    /**
+     * The scheduler that is told when the WalletData becomes dirty so that it is saved in the background.
+     */
+    private transient WalletSaveScheduler walletSaveScheduler;
+
+    /**
+     * The summary of a wallet that has not been loaded yet (null once the wallet is loaded).
+     */
+    private transient WalletSummary walletSummary;
+
+    /**
+     * The rows of the Transactions table, kept up to date as the wallet changes.
+     */
+    private final transient WalletTableDataStore walletTableDataStore = new WalletTableDataStore();
     
     public WalletData() {
         isDirty = false;
@@ -158,6 +179,16 @@ public class WalletData {
 
     public void setDirty(boolean isDirty) {
         this.isDirty = isDirty;
+        if (isDirty && walletSaveScheduler != null) {
+            walletSaveScheduler.walletChanged(this);
+        }
+    }
+
+    /**
+     * Mark the wallet as changed without scheduling a save (for the WalletSaveScheduler, which is saving it anyway).
+     */
+    public void setDirtyWithoutScheduling() {
+        this.isDirty = true;
     }
 
     public String getWalletBackupFilename() {
@@ -215,4 +246,39 @@ public class WalletData {
     public void setReplayTaskUUID(UUID replayTaskUUID) {
         this.replayTaskUUID = replayTaskUUID;
     }
+
+    public WalletJournal getWalletJournal() {
+        return walletJournal;
+    }
+
+    public void setWalletJournal(WalletJournal walletJournal) {
+        this.walletJournal = walletJournal;
+    }
+
+    public WalletSaveScheduler getWalletSaveScheduler() {
+        return walletSaveScheduler;
+    }
+
+    public void setWalletSaveScheduler(WalletSaveScheduler walletSaveScheduler) {
+        this.walletSaveScheduler = walletSaveScheduler;
+    }
+
+    public WalletSummary getWalletSummary() {
+        return walletSummary;
+    }
+
+    public void setWalletSummary(WalletSummary walletSummary) {
+        this.walletSummary = walletSummary;
+    }
+
+    /**
+     * @return true if only the summary of the wallet has been loaded
+     */
+    public boolean isSummaryOnly() {
+        return wallet == null && walletSummary != null;
+    }
+
+    public WalletTableDataStore getWalletTableDataStore() {
+        return walletTableDataStore;
+    }
 }
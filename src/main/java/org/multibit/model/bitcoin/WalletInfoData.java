@@ -47,9 +47,16 @@ public class WalletInfoData {
     /**
      * The actual receiving addresses exposed for this address book (only keys
      * that occur in this wallet).
+     * Both lists are indexed by address so that looking up a label does not scan the list.
      */
-    private ArrayList<WalletAddressBookData> receivingAddresses;
-    private ArrayList<WalletAddressBookData> sendingAddresses;
+    private AddressBookList receivingAddresses;
+    private AddressBookList sendingAddresses;
+
+    /**
+     * The addresses of the keys in the wallet, and how many keys there were when they were worked out.
+     */
+    private Set<String> keyAddresses;
+    private int keyAddressesKeyCount = -1;
 
     private static final String INFO_FILE_EXTENSION = "info";
     private static final String RECEIVE_ADDRESS_MARKER = "receive";
@@ -87,8 +94,8 @@ public class WalletInfoData {
         this.walletVersion = walletVersion;
         this.wallet = wallet;
 
-        receivingAddresses = new ArrayList<WalletAddressBookData>();
-        sendingAddresses = new ArrayList<WalletAddressBookData>();
+        receivingAddresses = new AddressBookList();
+        sendingAddresses = new AddressBookList();
 
         walletPreferences = new Properties();
 
@@ -142,7 +149,11 @@ public class WalletInfoData {
     }
 
     public void setReceivingAddresses(ArrayList<WalletAddressBookData> receivingAddresses) {
-        this.receivingAddresses = receivingAddresses;
+        if (receivingAddresses instanceof AddressBookList) {
+            this.receivingAddresses = (AddressBookList) receivingAddresses;
+        } else {
+            this.receivingAddresses = new AddressBookList(receivingAddresses);
+        }
     }
 
     /**
@@ -161,25 +172,17 @@ public class WalletInfoData {
 
         if (checkAlreadyPresent) {
             // Check the address is not already in the set.
-            for (WalletAddressBookData addressBookData : receivingAddresses) {
-                if (addressBookData.getAddress().equals(receivingAddress.getAddress())) {
-                    // Just update label.
-                    addressBookData.setLabel(receivingAddress.getLabel());
-                    justUpdateLabel = true;
-                    break;
-                }
+            WalletAddressBookData addressBookData = receivingAddresses.lookup(receivingAddress.getAddress());
+            if (addressBookData != null) {
+                // Just update label.
+                addressBookData.setLabel(receivingAddress.getLabel());
+                justUpdateLabel = true;
             }
         }
 
         boolean addressMatchesKey = false;
         if (wallet != null) {
-            for (ECKey key : wallet.getKeys()) {
-                if (receivingAddress.getAddress().equals(
-                        key.toAddress(MultiBit.getBitcoinController().getModel().getNetworkParameters()).toString())) {
-                    addressMatchesKey = true;
-                    break;
-                }
-            }
+            addressMatchesKey = getKeyAddresses(wallet).contains(receivingAddress.getAddress());
         }
 
         if (!justUpdateLabel && (wallet == null || addressMatchesKey)) {
@@ -194,17 +197,11 @@ public class WalletInfoData {
     public void checkAllReceivingAddressesAppearInWallet(Wallet wallet) {
         List<WalletAddressBookData> toRemove = new ArrayList<WalletAddressBookData>();
         if (wallet != null) {
+            Set<String> walletKeyAddresses = getKeyAddresses(wallet);
             Iterator<WalletAddressBookData> iterator = receivingAddresses.iterator();
             while (iterator.hasNext()) {
-                boolean addressMatchesKey = false;
                 WalletAddressBookData walletAddressBookData = iterator.next();
-                for (ECKey key : wallet.getKeys()) {
-                    if (walletAddressBookData.getAddress().equals(
-                            key.toAddress(MultiBit.getBitcoinController().getModel().getNetworkParameters()).toString())) {
-                        addressMatchesKey = true;
-                        break;
-                    }
-                }
+                boolean addressMatchesKey = walletKeyAddresses.contains(walletAddressBookData.getAddress());
                 
                 if (!addressMatchesKey) {
                     // Remove from receivingAddresses and log.
@@ -217,6 +214,22 @@ public class WalletInfoData {
         }
     }
 
+    /**
+     * The addresses of the keys of a wallet, worked out again only when keys are added.
+     */
+    private Set<String> getKeyAddresses(Wallet wallet) {
+        List<ECKey> keys = wallet.getKeys();
+        if (keyAddresses == null || keyAddressesKeyCount != keys.size()) {
+            Set<String> addresses = new HashSet<String>();
+            for (ECKey key : keys) {
+                addresses.add(key.toAddress(MultiBit.getBitcoinController().getModel().getNetworkParameters()).toString());
+            }
+            keyAddresses = addresses;
+            keyAddressesKeyCount = keys.size();
+        }
+        return keyAddresses;
+    }
+
     /**
      * Add a receiving address that belongs to a key of the current wallet this
      * will always be added and will take the label of any matching address in
@@ -235,17 +248,8 @@ public class WalletInfoData {
     }
 
     public boolean containsReceivingAddress(String receivingAddress) {
-        boolean toReturn = false;
         // see if the receiving address is on the current list
-        for (WalletAddressBookData addressBookData : receivingAddresses) {
-            if (addressBookData.getAddress().equals(receivingAddress.toString())) {
-                // do nothing
-                toReturn = true;
-                break;
-            }
-        }
-
-        return toReturn;
+        return receivingAddresses.lookup(receivingAddress) != null;
     }
 
     public void addSendingAddress(WalletAddressBookData sendingAddress) {
@@ -255,13 +259,11 @@ public class WalletInfoData {
 
         boolean done = false;
         // Check the address is not already in the arraylist.
-        for (WalletAddressBookData addressBookData : sendingAddresses) {
-            if (addressBookData.getAddress() != null && addressBookData.getAddress().equals(sendingAddress.getAddress())) {
-                // Just update label.
-                addressBookData.setLabel(sendingAddress.getLabel());
-                done = true;
-                break;
-            }
+        WalletAddressBookData addressBookData = sendingAddresses.lookup(sendingAddress.getAddress());
+        if (addressBookData != null) {
+            // Just update label.
+            addressBookData.setLabel(sendingAddress.getLabel());
+            done = true;
         }
 
         if (!done) {
@@ -270,20 +272,18 @@ public class WalletInfoData {
     }
 
     public String lookupLabelForReceivingAddress(String address) {
-        for (WalletAddressBookData addressBookData : receivingAddresses) {
-            if (addressBookData.getAddress().equals(address)) {
-                return addressBookData.getLabel();
-            }
+        WalletAddressBookData addressBookData = receivingAddresses.lookup(address);
+        if (addressBookData != null) {
+            return addressBookData.getLabel();
         }
 
         return "";
     }
 
     public String lookupLabelForSendingAddress(String address) {
-        for (WalletAddressBookData addressBookData : sendingAddresses) {
-            if (addressBookData.getAddress().equals(address)) {
-                return addressBookData.getLabel();
-            }
+        WalletAddressBookData addressBookData = sendingAddresses.lookup(address);
+        if (addressBookData != null) {
+            return addressBookData.getLabel();
         }
 
         return "";
@@ -672,4 +672,91 @@ public class WalletInfoData {
     public void setWalletVersion(MultiBitWalletVersion walletVersion) {
         this.walletVersion = walletVersion;
     }
+
+    /**
+     * An address book list that also keeps an index of the entries by address.
+     * <p/>
+     * Entries are only ever looked up by address (labels are changed on the entry itself) so the index stays
+     * correct across relabelling. Additions to the end of the list are indexed as they happen. Any other change
+     * made to the list (removal, insertion, replacement) is noticed through the modification count and the index
+     * is rebuilt on the next lookup.
+     * <p/>
+     * The list is looked up from several threads, so the lookup and the changes made through the list are
+     * synchronized on it (as is the index rebuild, which iterates over the list).
+     */
+    static class AddressBookList extends ArrayList<WalletAddressBookData> {
+        private static final long serialVersionUID = -4436713525016340373L;
+
+        private final Map<String, WalletAddressBookData> index = new HashMap<String, WalletAddressBookData>();
+
+        /**
+         * The modification count the index is up to date with.
+         */
+        private int indexedModCount = -1;
+
+        AddressBookList() {
+            super();
+        }
+
+        AddressBookList(Collection<WalletAddressBookData> addressBookData) {
+            super(addressBookData);
+        }
+
+        /**
+         * @param address The address to look for
+         * @return The first entry with the address, or null if there is none
+         */
+        synchronized WalletAddressBookData lookup(String address) {
+            if (address == null) {
+                return null;
+            }
+            if (indexedModCount != modCount) {
+                index.clear();
+                for (WalletAddressBookData addressBookData : this) {
+                    addToIndex(addressBookData);
+                }
+                indexedModCount = modCount;
+            }
+            return index.get(address);
+        }
+
+        @Override
+        public synchronized boolean add(WalletAddressBookData addressBookData) {
+            boolean indexWasCurrent = indexedModCount == modCount;
+            boolean added = super.add(addressBookData);
+            if (indexWasCurrent) {
+                addToIndex(addressBookData);
+                indexedModCount = modCount;
+            }
+            return added;
+        }
+
+        @Override
+        public synchronized WalletAddressBookData set(int position, WalletAddressBookData addressBookData) {
+            // Replacing an entry is not a structural change so the index is marked out of date explicitly.
+            indexedModCount = -1;
+            return super.set(position, addressBookData);
+        }
+
+        @Override
+        public synchronized WalletAddressBookData remove(int position) {
+            return super.remove(position);
+        }
+
+        @Override
+        public synchronized boolean remove(Object addressBookData) {
+            return super.remove(addressBookData);
+        }
+
+        @Override
+        public synchronized boolean removeAll(Collection<?> addressBookData) {
+            return super.removeAll(addressBookData);
+        }
+
+        private void addToIndex(WalletAddressBookData addressBookData) {
+            if (addressBookData != null && addressBookData.getAddress() != null && !index.containsKey(addressBookData.getAddress())) {
+                index.put(addressBookData.getAddress(), addressBookData);
+            }
+        }
+    }
 }
@@ -0,0 +1,304 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model.bitcoin;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.ScriptException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutPoint;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.script.Script;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index from public key hash, public key and transaction outpoint to the wallets that own them,
+ * used to find the wallets a transaction from the network is for without asking every wallet.
+ * <p/>
+ * A transaction is looked up by the outputs it pays to and the outpoints and public keys of its inputs, so the cost
+ * is a few hash lookups per transaction whatever the number of wallets and keys. The index only narrows down
+ * the wallets - each one found should still be asked whether the transaction is relevant to it.
+ * <p/>
+ * The index is brought up to date with the wallets at each lookup: wallets that have been added, read in full or
+ * removed are indexed again and new keys are picked up by the size of the keychain. The outpoints of the transactions
+ * the wallets receive after they are indexed are added with {@link #transactionAdded(WalletData, Transaction)}.
+ */
+public class WalletRelevanceIndex {
+
+    private final Map<ByteBuffer, Set<WalletData>> byPublicKeyHash = new HashMap<ByteBuffer, Set<WalletData>>();
+    private final Map<ByteBuffer, Set<WalletData>> byPublicKey = new HashMap<ByteBuffer, Set<WalletData>>();
+    private final Map<OutPointKey, Set<WalletData>> byOutPoint = new HashMap<OutPointKey, Set<WalletData>>();
+
+    /**
+     * What has been indexed for each wallet.
+     */
+    private final Map<WalletData, IndexedWallet> indexedWallets = new HashMap<WalletData, IndexedWallet>();
+
+    /**
+     * Find the wallets a transaction may be relevant to.
+     *
+     * @param transaction          The transaction
+     * @param perWalletModelDataList All the wallets (the index is brought up to date with them)
+     * @return The wallets that have a key or an outpoint the transaction uses, in the order of perWalletModelDataList
+     */
+    public synchronized List<WalletData> getPerWalletModelDataForTransaction(Transaction transaction, List<WalletData> perWalletModelDataList) {
+        synchronise(perWalletModelDataList);
+
+        Set<WalletData> candidates = new HashSet<WalletData>();
+        for (TransactionOutput output : transaction.getOutputs()) {
+            try {
+                Script script = output.getScriptPubKey();
+                if (script.isSentToAddress()) {
+                    addAll(candidates, byPublicKeyHash.get(ByteBuffer.wrap(script.getPubKeyHash())));
+                } else if (script.isSentToRawPubKey()) {
+                    addAll(candidates, byPublicKey.get(ByteBuffer.wrap(script.getPubKey())));
+                }
+            } catch (ScriptException e) {
+                // Not a script that can be for a wallet.
+            }
+        }
+        for (TransactionInput input : transaction.getInputs()) {
+            TransactionOutPoint outPoint = input.getOutpoint();
+            addAll(candidates, byOutPoint.get(new OutPointKey(outPoint.getHash(), outPoint.getIndex())));
+            try {
+                addAll(candidates, byPublicKey.get(ByteBuffer.wrap(input.getScriptSig().getPubKey())));
+            } catch (ScriptException e) {
+                // Not a pay to address input.
+            }
+        }
+
+        List<WalletData> perWalletModelDataForTransaction = new ArrayList<WalletData>(candidates.size());
+        if (!candidates.isEmpty()) {
+            for (WalletData perWalletModelData : perWalletModelDataList) {
+                if (candidates.contains(perWalletModelData)) {
+                    perWalletModelDataForTransaction.add(perWalletModelData);
+                }
+            }
+        }
+        return perWalletModelDataForTransaction;
+    }
+
+    /**
+     * A wallet has a new transaction - index the outpoints it spends and the outputs that pay to the wallet.
+     */
+    public synchronized void transactionAdded(WalletData perWalletModelData, Transaction transaction) {
+        IndexedWallet indexedWallet = indexedWallets.get(perWalletModelData);
+        if (indexedWallet != null && indexedWallet.wallet != null && indexedWallet.wallet == perWalletModelData.getWallet()) {
+            indexTransaction(perWalletModelData, indexedWallet, transaction);
+        }
+    }
+
+    /**
+     * @return The number of wallets indexed
+     */
+    public synchronized int size() {
+        return indexedWallets.size();
+    }
+
+    private void synchronise(List<WalletData> perWalletModelDataList) {
+        Set<WalletData> currentWallets = new HashSet<WalletData>(perWalletModelDataList);
+        for (WalletData indexedPerWalletModelData : new ArrayList<WalletData>(indexedWallets.keySet())) {
+            if (!currentWallets.contains(indexedPerWalletModelData)) {
+                unindex(indexedPerWalletModelData);
+            }
+        }
+
+        for (WalletData perWalletModelData : perWalletModelDataList) {
+            Wallet wallet = perWalletModelData.getWallet();
+            WalletSummary walletSummary = perWalletModelData.isSummaryOnly() ? perWalletModelData.getWalletSummary() : null;
+            IndexedWallet indexedWallet = indexedWallets.get(perWalletModelData);
+
+            if (indexedWallet == null || indexedWallet.wallet != wallet || indexedWallet.walletSummary != walletSummary) {
+                if (indexedWallet != null) {
+                    unindex(perWalletModelData);
+                }
+                if (wallet != null) {
+                    indexWallet(perWalletModelData, wallet);
+                } else if (walletSummary != null) {
+                    indexWalletSummary(perWalletModelData, walletSummary);
+                }
+            } else if (wallet != null && wallet.getKeychain().size() != indexedWallet.numberOfKeys) {
+                indexKeys(perWalletModelData, indexedWallet, wallet);
+            }
+        }
+    }
+
+    private void indexWallet(WalletData perWalletModelData, Wallet wallet) {
+        IndexedWallet indexedWallet = new IndexedWallet(wallet, null);
+        indexedWallets.put(perWalletModelData, indexedWallet);
+        indexKeys(perWalletModelData, indexedWallet, wallet);
+        for (Transaction transaction : wallet.getTransactions(true)) {
+            indexTransaction(perWalletModelData, indexedWallet, transaction);
+        }
+    }
+
+    private void indexWalletSummary(WalletData perWalletModelData, WalletSummary walletSummary) {
+        IndexedWallet indexedWallet = new IndexedWallet(null, walletSummary);
+        indexedWallets.put(perWalletModelData, indexedWallet);
+        for (byte[] publicKey : walletSummary.getPublicKeys()) {
+            indexPublicKey(perWalletModelData, indexedWallet, publicKey);
+        }
+    }
+
+    private void indexKeys(WalletData perWalletModelData, IndexedWallet indexedWallet, Wallet wallet) {
+        List<ECKey> keys = wallet.getKeys();
+        for (ECKey key : keys) {
+            indexPublicKey(perWalletModelData, indexedWallet, key.getPubKey());
+        }
+        indexedWallet.numberOfKeys = keys.size();
+    }
+
+    private void indexPublicKey(WalletData perWalletModelData, IndexedWallet indexedWallet, byte[] publicKey) {
+        ByteBuffer publicKeyKey = ByteBuffer.wrap(publicKey);
+        if (indexedWallet.publicKeys.add(publicKeyKey)) {
+            put(byPublicKey, publicKeyKey, perWalletModelData);
+            ByteBuffer publicKeyHashKey = ByteBuffer.wrap(Utils.sha256hash160(publicKey));
+            indexedWallet.publicKeyHashes.add(publicKeyHashKey);
+            put(byPublicKeyHash, publicKeyHashKey, perWalletModelData);
+        }
+    }
+
+    private void indexTransaction(WalletData perWalletModelData, IndexedWallet indexedWallet, Transaction transaction) {
+        // A transaction spending the same outpoints is a spend (or double spend) the wallet needs to see.
+        for (TransactionInput input : transaction.getInputs()) {
+            if (input.isCoinBase()) {
+                continue;
+            }
+            TransactionOutPoint outPoint = input.getOutpoint();
+            indexOutPoint(perWalletModelData, indexedWallet, new OutPointKey(outPoint.getHash(), outPoint.getIndex()));
+        }
+
+        // As is one spending the outputs that pay to the wallet.
+        List<TransactionOutput> outputs = transaction.getOutputs();
+        for (int i = 0; i < outputs.size(); i++) {
+            try {
+                Script script = outputs.get(i).getScriptPubKey();
+                boolean isMine = false;
+                if (script.isSentToAddress()) {
+                    isMine = indexedWallet.publicKeyHashes.contains(ByteBuffer.wrap(script.getPubKeyHash()));
+                } else if (script.isSentToRawPubKey()) {
+                    isMine = indexedWallet.publicKeys.contains(ByteBuffer.wrap(script.getPubKey()));
+                }
+                if (isMine) {
+                    indexOutPoint(perWalletModelData, indexedWallet, new OutPointKey(transaction.getHash(), i));
+                }
+            } catch (ScriptException e) {
+                // Not a script that can be for the wallet.
+            }
+        }
+    }
+
+    private void indexOutPoint(WalletData perWalletModelData, IndexedWallet indexedWallet, OutPointKey outPointKey) {
+        if (indexedWallet.outPoints.add(outPointKey)) {
+            put(byOutPoint, outPointKey, perWalletModelData);
+        }
+    }
+
+    private void unindex(WalletData perWalletModelData) {
+        IndexedWallet indexedWallet = indexedWallets.remove(perWalletModelData);
+        if (indexedWallet == null) {
+            return;
+        }
+        for (ByteBuffer publicKey : indexedWallet.publicKeys) {
+            remove(byPublicKey, publicKey, perWalletModelData);
+        }
+        for (ByteBuffer publicKeyHash : indexedWallet.publicKeyHashes) {
+            remove(byPublicKeyHash, publicKeyHash, perWalletModelData);
+        }
+        for (OutPointKey outPointKey : indexedWallet.outPoints) {
+            remove(byOutPoint, outPointKey, perWalletModelData);
+        }
+    }
+
+    private static <K> void put(Map<K, Set<WalletData>> index, K key, WalletData perWalletModelData) {
+        Set<WalletData> perWalletModelDataSet = index.get(key);
+        if (perWalletModelDataSet == null) {
+            perWalletModelDataSet = new HashSet<WalletData>(2);
+            index.put(key, perWalletModelDataSet);
+        }
+        perWalletModelDataSet.add(perWalletModelData);
+    }
+
+    private static <K> void remove(Map<K, Set<WalletData>> index, K key, WalletData perWalletModelData) {
+        Set<WalletData> perWalletModelDataSet = index.get(key);
+        if (perWalletModelDataSet != null) {
+            perWalletModelDataSet.remove(perWalletModelData);
+            if (perWalletModelDataSet.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static void addAll(Set<WalletData> candidates, Set<WalletData> perWalletModelDataSet) {
+        if (perWalletModelDataSet != null) {
+            candidates.addAll(perWalletModelDataSet);
+        }
+    }
+
+    /**
+     * The keys and outpoints indexed for one wallet, and what they were read from.
+     */
+    private static final class IndexedWallet {
+        private final Wallet wallet;
+        private final WalletSummary walletSummary;
+        private int numberOfKeys = 0;
+        private final Set<ByteBuffer> publicKeys = new HashSet<ByteBuffer>();
+        private final Set<ByteBuffer> publicKeyHashes = new HashSet<ByteBuffer>();
+        private final Set<OutPointKey> outPoints = new HashSet<OutPointKey>();
+
+        private IndexedWallet(Wallet wallet, WalletSummary walletSummary) {
+            this.wallet = wallet;
+            this.walletSummary = walletSummary;
+        }
+    }
+
+    private static final class OutPointKey {
+        private final Sha256Hash hash;
+        private final long index;
+
+        private OutPointKey(Sha256Hash hash, long index) {
+            this.hash = hash;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof OutPointKey)) {
+                return false;
+            }
+            OutPointKey other = (OutPointKey) o;
+            return index == other.index && hash.equals(other.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * hash.hashCode() + (int) index;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model.bitcoin;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.ScriptException;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.core.Wallet.BalanceType;
+import com.google.bitcoin.script.Script;
+import org.bitcoinj.wallet.Protos.Wallet.EncryptionType;
+import org.multibit.file.WalletSaveException;
+import org.multibit.network.LastBlockSeen;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.util.encoders.Hex;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * A wallet summary is a small companion to a wallet that has what the wallet list needs to show
+ * the wallet (balances, encryption type, transaction count) and what is needed to spot a transaction
+ * for the wallet (its public keys) without the wallet being loaded.
+ * <p/>
+ * It is stored in the same directory as the wallet and has the suffix ".summary".
+ * A summary is only current if the wallet (and its journal) are exactly as they were when the summary was written.
+ */
+public class WalletSummary {
+    private static final Logger log = LoggerFactory.getLogger(WalletSummary.class);
+
+    public static final String SUMMARY_FILE_EXTENSION = "summary";
+
+    private static final String SUMMARY_HEADER_TEXT = "multiBit.summary";
+    private static final String SUMMARY_VERSION_TEXT = "1";
+    private static final String PUBLIC_KEY_SEPARATOR = ",";
+
+    private static final String VERSION_PROPERTY = "version";
+    private static final String WALLET_LENGTH_PROPERTY = "walletLength";
+    private static final String WALLET_LAST_MODIFIED_PROPERTY = "walletLastModified";
+    private static final String JOURNAL_LENGTH_PROPERTY = "journalLength";
+    private static final String ESTIMATED_BALANCE_PROPERTY = "estimatedBalance";
+    private static final String AVAILABLE_BALANCE_PROPERTY = "availableBalance";
+    private static final String LAST_BLOCK_SEEN_HEIGHT_PROPERTY = "lastBlockSeenHeight";
+    private static final String LAST_BLOCK_SEEN_HASH_PROPERTY = "lastBlockSeenHash";
+    private static final String NUMBER_OF_TRANSACTIONS_PROPERTY = "numberOfTransactions";
+    private static final String ENCRYPTION_TYPE_PROPERTY = "encryptionType";
+    private static final String EARLIEST_KEY_CREATION_TIME_PROPERTY = "earliestKeyCreationTime";
+    private static final String PUBLIC_KEYS_PROPERTY = "publicKeys";
+
+    private long walletLength;
+    private long walletLastModified;
+    private long journalLength;
+
+    private BigInteger estimatedBalance;
+    private BigInteger availableBalance;
+    private int lastBlockSeenHeight;
+    private String lastBlockSeenHash;
+    private int numberOfTransactions;
+    private EncryptionType encryptionType;
+    private long earliestKeyCreationTime;
+
+    private List<byte[]> publicKeys;
+
+    /**
+     * The hash160s of the public keys, hex encoded, for matching against transactions.
+     */
+    private Set<String> publicKeyHashes;
+
+    private WalletSummary() {
+    }
+
+    /**
+     * Summarise a wallet as it has just been written to disk.
+     *
+     * @param wallet      The wallet
+     * @param walletFile  The file the wallet was written to
+     * @param journalFile The journal of the wallet (which may not exist)
+     */
+    public WalletSummary(Wallet wallet, File walletFile, File journalFile) {
+        this(wallet, LastBlockSeen.of(wallet), walletFile, journalFile);
+    }
+
+    /**
+     * Summarise a wallet as it has just been written to disk.
+     *
+     * @param wallet        The wallet
+     * @param lastBlockSeen The last block seen that was written with the wallet (which may be behind the wallet's own)
+     * @param walletFile    The file the wallet was written to
+     * @param journalFile   The journal of the wallet (which may not exist)
+     */
+    public WalletSummary(Wallet wallet, LastBlockSeen lastBlockSeen, File walletFile, File journalFile) {
+        walletLength = walletFile.length();
+        walletLastModified = walletFile.lastModified();
+        journalLength = journalFile.exists() ? journalFile.length() : -1;
+
+        estimatedBalance = wallet.getBalance(BalanceType.ESTIMATED);
+        availableBalance = wallet.getBalance(BalanceType.AVAILABLE);
+        lastBlockSeenHeight = lastBlockSeen.getHeight();
+        lastBlockSeenHash = lastBlockSeen.getHash() == null ? "" : lastBlockSeen.getHash().toString();
+        numberOfTransactions = wallet.getTransactions(true).size();
+        encryptionType = wallet.getEncryptionType();
+        earliestKeyCreationTime = wallet.getEarliestKeyCreationTime();
+
+        List<byte[]> keys = new ArrayList<byte[]>();
+        for (ECKey key : wallet.getKeychain()) {
+            keys.add(key.getPubKey());
+        }
+        setPublicKeys(keys);
+    }
+
+    /**
+     * Create the wallet summary filename for a wallet.
+     *
+     * @param walletFilename The wallet filename
+     */
+    public static String createWalletSummaryFilename(String walletFilename) {
+        String walletSummaryFilename = walletFilename;
+        if (walletFilename.endsWith("." + BitcoinModel.WALLET_FILE_EXTENSION)) {
+            walletSummaryFilename = walletFilename.substring(0,
+                    walletFilename.length() - BitcoinModel.WALLET_FILE_EXTENSION.length() - 1);
+        }
+        return walletSummaryFilename + "." + SUMMARY_FILE_EXTENSION;
+    }
+
+    /**
+     * Write the summary to file.
+     *
+     * @param walletSummaryFilename The full path of the summary file to write
+     * @throws WalletSaveException Exception if the write is unsuccessful
+     */
+    public void writeToFile(String walletSummaryFilename) throws WalletSaveException {
+        Properties properties = new Properties();
+        properties.setProperty(VERSION_PROPERTY, SUMMARY_VERSION_TEXT);
+        properties.setProperty(WALLET_LENGTH_PROPERTY, Long.toString(walletLength));
+        properties.setProperty(WALLET_LAST_MODIFIED_PROPERTY, Long.toString(walletLastModified));
+        properties.setProperty(JOURNAL_LENGTH_PROPERTY, Long.toString(journalLength));
+        properties.setProperty(ESTIMATED_BALANCE_PROPERTY, estimatedBalance.toString());
+        properties.setProperty(AVAILABLE_BALANCE_PROPERTY, availableBalance.toString());
+        properties.setProperty(LAST_BLOCK_SEEN_HEIGHT_PROPERTY, Integer.toString(lastBlockSeenHeight));
+        properties.setProperty(LAST_BLOCK_SEEN_HASH_PROPERTY, lastBlockSeenHash);
+        properties.setProperty(NUMBER_OF_TRANSACTIONS_PROPERTY, Integer.toString(numberOfTransactions));
+        properties.setProperty(ENCRYPTION_TYPE_PROPERTY, encryptionType == null ? "" : encryptionType.name());
+        properties.setProperty(EARLIEST_KEY_CREATION_TIME_PROPERTY, Long.toString(earliestKeyCreationTime));
+
+        StringBuilder publicKeysText = new StringBuilder();
+        for (byte[] publicKey : publicKeys) {
+            if (publicKeysText.length() > 0) {
+                publicKeysText.append(PUBLIC_KEY_SEPARATOR);
+            }
+            publicKeysText.append(Utils.bytesToHexString(publicKey));
+        }
+        properties.setProperty(PUBLIC_KEYS_PROPERTY, publicKeysText.toString());
+
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(walletSummaryFilename);
+            properties.store(new OutputStreamWriter(outputStream, "UTF8"), SUMMARY_HEADER_TEXT);
+        } catch (IOException ioe) {
+            throw new WalletSaveException("Could not write wallet summary file '" + walletSummaryFilename + "'", ioe);
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException ioe) {
+                    throw new WalletSaveException("Could not close wallet summary file '" + walletSummaryFilename + "'", ioe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a wallet summary from file.
+     *
+     * @param walletSummaryFilename The full path of the summary file to read
+     * @return The wallet summary or null if there is none or it cannot be understood
+     */
+    public static WalletSummary loadFromFile(String walletSummaryFilename) {
+        File walletSummaryFile = new File(walletSummaryFilename);
+        if (!walletSummaryFile.exists()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(walletSummaryFile);
+            properties.load(new InputStreamReader(inputStream, "UTF8"));
+
+            if (!SUMMARY_VERSION_TEXT.equals(properties.getProperty(VERSION_PROPERTY))) {
+                log.debug("Wallet summary '" + walletSummaryFilename + "' is of an unknown version");
+                return null;
+            }
+
+            WalletSummary walletSummary = new WalletSummary();
+            walletSummary.walletLength = Long.parseLong(properties.getProperty(WALLET_LENGTH_PROPERTY));
+            walletSummary.walletLastModified = Long.parseLong(properties.getProperty(WALLET_LAST_MODIFIED_PROPERTY));
+            walletSummary.journalLength = Long.parseLong(properties.getProperty(JOURNAL_LENGTH_PROPERTY));
+            walletSummary.estimatedBalance = new BigInteger(properties.getProperty(ESTIMATED_BALANCE_PROPERTY));
+            walletSummary.availableBalance = new BigInteger(properties.getProperty(AVAILABLE_BALANCE_PROPERTY));
+            walletSummary.lastBlockSeenHeight = Integer.parseInt(properties.getProperty(LAST_BLOCK_SEEN_HEIGHT_PROPERTY));
+            walletSummary.lastBlockSeenHash = properties.getProperty(LAST_BLOCK_SEEN_HASH_PROPERTY, "");
+            walletSummary.numberOfTransactions = Integer.parseInt(properties.getProperty(NUMBER_OF_TRANSACTIONS_PROPERTY));
+            String encryptionTypeText = properties.getProperty(ENCRYPTION_TYPE_PROPERTY, "");
+            walletSummary.encryptionType = "".equals(encryptionTypeText) ? null : EncryptionType.valueOf(encryptionTypeText);
+            walletSummary.earliestKeyCreationTime = Long.parseLong(properties.getProperty(EARLIEST_KEY_CREATION_TIME_PROPERTY));
+
+            List<byte[]> keys = new ArrayList<byte[]>();
+            for (String publicKeyText : properties.getProperty(PUBLIC_KEYS_PROPERTY, "").split(PUBLIC_KEY_SEPARATOR)) {
+                if (publicKeyText.length() > 0) {
+                    keys.add(Hex.decode(publicKeyText));
+                }
+            }
+            walletSummary.setPublicKeys(keys);
+
+            return walletSummary;
+        } catch (IOException | RuntimeException e) {
+            // A summary that cannot be read just means the wallet is read in full.
+            log.error("Could not read wallet summary '" + walletSummaryFilename + "'. "
+                    + e.getClass().getCanonicalName() + " " + e.getMessage());
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException ioe) {
+                    log.error(ioe.getClass().getCanonicalName() + " " + ioe.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param walletFile  The wallet file
+     * @param journalFile The journal of the wallet (which may not exist)
+     * @return true if neither the wallet nor its journal have changed since the summary was written
+     */
+    public boolean isCurrent(File walletFile, File journalFile) {
+        long currentJournalLength = journalFile.exists() ? journalFile.length() : -1;
+        return walletFile.exists() && walletFile.length() == walletLength && walletFile.lastModified() == walletLastModified
+                && currentJournalLength == journalLength;
+    }
+
+    /**
+     * See if a transaction pays to, or spends from, any of the keys of the wallet.
+     * (A transaction that spends from the wallet is recognised by the public key in its input script).
+     *
+     * @param transaction The transaction to check
+     * @return true if the wallet would be interested in the transaction
+     */
+    public boolean isTransactionRelevant(Transaction transaction) {
+        for (TransactionOutput output : transaction.getOutputs()) {
+            try {
+                Script script = output.getScriptPubKey();
+                if (script.isSentToAddress()) {
+                    if (publicKeyHashes.contains(Utils.bytesToHexString(script.getPubKeyHash()))) {
+                        return true;
+                    }
+                } else if (script.isSentToRawPubKey()) {
+                    if (publicKeyHashes.contains(Utils.bytesToHexString(Utils.sha256hash160(script.getPubKey())))) {
+                        return true;
+                    }
+                }
+            } catch (ScriptException e) {
+                // Not a script that can be for the wallet.
+            }
+        }
+        for (TransactionInput input : transaction.getInputs()) {
+            try {
+                if (publicKeyHashes.contains(Utils.bytesToHexString(Utils.sha256hash160(input.getScriptSig().getPubKey())))) {
+                    return true;
+                }
+            } catch (ScriptException e) {
+                // Not a pay to address input.
+            }
+        }
+        return false;
+    }
+
+    private void setPublicKeys(List<byte[]> keys) {
+        publicKeys = Collections.unmodifiableList(keys);
+        Set<String> hashes = new HashSet<String>();
+        for (byte[] publicKey : keys) {
+            hashes.add(Utils.bytesToHexString(Utils.sha256hash160(publicKey)));
+        }
+        publicKeyHashes = Collections.unmodifiableSet(hashes);
+    }
+
+    public BigInteger getEstimatedBalance() {
+        return estimatedBalance;
+    }
+
+    public BigInteger getAvailableBalance() {
+        return availableBalance;
+    }
+
+    public int getLastBlockSeenHeight() {
+        return lastBlockSeenHeight;
+    }
+
+    public String getLastBlockSeenHash() {
+        return lastBlockSeenHash;
+    }
+
+    public int getNumberOfTransactions() {
+        return numberOfTransactions;
+    }
+
+    public EncryptionType getEncryptionType() {
+        return encryptionType;
+    }
+
+    /**
+     * @return the earliest key creation time, in seconds
+     */
+    public long getEarliestKeyCreationTime() {
+        return earliestKeyCreationTime;
+    }
+
+    /**
+     * @return the public keys of the wallet
+     */
+    public List<byte[]> getPublicKeys() {
+        return publicKeys;
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model.bitcoin;
+
+import java.util.List;
+
+/**
+ * Interface to implement if you are interested in hearing about changes to the rows of the Transactions table
+ * of a wallet.
+ * <p/>
+ * The methods are called on the thread that changed the wallet, which is not normally the Swing thread.
+ */
+public interface WalletTableDataListener {
+    /**
+     * A row has been added for a transaction that was not in the table before.
+     */
+    public void walletTableDataInserted(WalletData perWalletModelData, WalletTableData walletTableData);
+
+    /**
+     * The row for a transaction has been replaced by 'walletTableData'.
+     */
+    public void walletTableDataUpdated(WalletData perWalletModelData, WalletTableData walletTableData);
+
+    /**
+     * The row for a transaction has been removed.
+     */
+    public void walletTableDataDeleted(WalletData perWalletModelData, WalletTableData walletTableData);
+
+    /**
+     * All the rows of the wallet have been created again.
+     *
+     * @param generation The generation of the wallet's WalletTableDataStore when the rows were seeded. Rows added,
+     *                   replaced or removed since are at a later generation and are not in walletTableDataList.
+     */
+    public void walletTableDataReset(WalletData perWalletModelData, List<WalletTableData> walletTableDataList, long generation);
+}
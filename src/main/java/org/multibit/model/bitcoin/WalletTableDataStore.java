@@ -0,0 +1,127 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model.bitcoin;
+
+import com.google.bitcoin.core.Sha256Hash;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rows of the Transactions table for one wallet, keyed by transaction hash.
+ * <p/>
+ * The rows are created in full once (when the store is seeded) and after that are kept up to date one
+ * transaction at a time as the wallet tells MultiBit about changes, rather than being recreated from all the
+ * transactions in the wallet.
+ * <p/>
+ * All the methods are synchronized on the store, so the rows can be worked out and seeded as one step by holding
+ * its lock.
+ * <p/>
+ * Every change to the rows moves the store on a generation, so a copy of the rows taken at one generation can be
+ * told apart from the rows after later changes.
+ */
+public class WalletTableDataStore {
+
+    private final Map<Sha256Hash, WalletTableData> rows = new LinkedHashMap<Sha256Hash, WalletTableData>();
+
+    /**
+     * Whether the store has been filled from the wallet yet.
+     */
+    private boolean seeded = false;
+
+    /**
+     * Incremented each time the rows are seeded, added, replaced or removed.
+     */
+    private long generation = 0;
+
+    public synchronized boolean isSeeded() {
+        return seeded;
+    }
+
+    /**
+     * @return The generation of the rows - a copy of the rows taken at an older generation is missing later changes
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Replace all the rows.
+     */
+    public synchronized void seed(List<WalletTableData> walletTableDataList) {
+        rows.clear();
+        for (WalletTableData walletTableData : walletTableDataList) {
+            Sha256Hash hash = getHash(walletTableData);
+            if (hash != null) {
+                rows.put(hash, walletTableData);
+            }
+        }
+        seeded = true;
+        generation++;
+    }
+
+    /**
+     * @return A copy of the rows, in the order they were added
+     */
+    public synchronized List<WalletTableData> getRows() {
+        return new ArrayList<WalletTableData>(rows.values());
+    }
+
+    /**
+     * @return The row for the transaction with the hash, or null if there is none
+     */
+    public synchronized WalletTableData getRow(Sha256Hash hash) {
+        return rows.get(hash);
+    }
+
+    /**
+     * Add a row, or replace the row for the same transaction.
+     *
+     * @return true if the row was added, false if it replaced an existing row
+     */
+    public synchronized boolean putRow(WalletTableData walletTableData) {
+        Sha256Hash hash = getHash(walletTableData);
+        if (hash == null) {
+            return false;
+        }
+        generation++;
+        return rows.put(hash, walletTableData) == null;
+    }
+
+    /**
+     * @return The row that was removed, or null if there was no row for the transaction
+     */
+    public synchronized WalletTableData removeRow(Sha256Hash hash) {
+        WalletTableData removedRow = rows.remove(hash);
+        if (removedRow != null) {
+            generation++;
+        }
+        return removedRow;
+    }
+
+    public synchronized int size() {
+        return rows.size();
+    }
+
+    public static Sha256Hash getHash(WalletTableData walletTableData) {
+        if (walletTableData == null || walletTableData.getTransaction() == null) {
+            return null;
+        }
+        return walletTableData.getTransaction().getHash();
+    }
+}
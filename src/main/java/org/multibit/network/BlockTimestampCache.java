@@ -0,0 +1,293 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import com.google.bitcoin.core.AbstractBlockChain;
+import com.google.bitcoin.core.AbstractBlockChainListener;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.store.BlockStore;
+import com.google.bitcoin.store.BlockStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of the time of the blocks that wallet transactions appear in.
+ * <p/>
+ * Transaction dates are looked up here before going to the block store, and blocks that have rolled out of
+ * the block store keep their time. The cache is kept beside the block store (in the .blocktimes file) so that it
+ * survives restarts and replays. The blocks of a chain that has been reorganised away are removed.
+ */
+public class BlockTimestampCache extends AbstractBlockChainListener {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockTimestampCache.class);
+
+    public static final String BLOCK_TIMESTAMP_CACHE_SUFFIX = ".blocktimes";
+
+    /**
+     * The most block times that are kept. The least recently used block time is removed first.
+     */
+    public static final int MAXIMUM_NUMBER_OF_BLOCK_TIMES = 50000;
+
+    private static final int FILE_VERSION = 1;
+
+    private final int maximumNumberOfBlockTimes;
+
+    /**
+     * The time of each block, in seconds, by block hash, in least recently used order.
+     */
+    private final LinkedHashMap<Sha256Hash, Long> blockTimes;
+
+    /**
+     * The file the cache is kept in (null if it is only in memory).
+     */
+    private File cacheFile;
+
+    /**
+     * Whether there are block times that have not been written to the cache file.
+     */
+    private boolean dirty = false;
+
+    public BlockTimestampCache() {
+        this(MAXIMUM_NUMBER_OF_BLOCK_TIMES);
+    }
+
+    public BlockTimestampCache(final int maximumNumberOfBlockTimes) {
+        this.maximumNumberOfBlockTimes = maximumNumberOfBlockTimes;
+        this.blockTimes = new LinkedHashMap<Sha256Hash, Long>(16, 0.75f, true) {
+            private static final long serialVersionUID = 3275637183742657345L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Sha256Hash, Long> eldest) {
+                return size() > BlockTimestampCache.this.maximumNumberOfBlockTimes;
+            }
+        };
+    }
+
+    /**
+     * @param blockchainFilename The filename of the block store
+     * @return The filename of the block time cache kept beside it
+     */
+    public static String createBlockTimestampCacheFilename(String blockchainFilename) {
+        if (blockchainFilename.endsWith(MultiBitService.SPV_BLOCKCHAIN_SUFFIX)) {
+            blockchainFilename = blockchainFilename.substring(0, blockchainFilename.length() - MultiBitService.SPV_BLOCKCHAIN_SUFFIX.length());
+        }
+        return blockchainFilename + BLOCK_TIMESTAMP_CACHE_SUFFIX;
+    }
+
+    /**
+     * The date of a transaction - the time it was last updated, or otherwise the time of the first block it appeared in.
+     *
+     * @param transaction The transaction
+     * @param blockStore  The block store to read the block from if its time is not in the cache (may be null)
+     * @return The date, or null if it is not known
+     */
+    public Date getTransactionDate(Transaction transaction, BlockStore blockStore) {
+        // If transaction has altered date - return that.
+        if (transaction.getUpdateTime() != null) {
+            return transaction.getUpdateTime();
+        }
+
+        // Other wise return the date of the block it first appeared in.
+        Map<Sha256Hash, Integer> appearsIn = transaction.getAppearsInHashes();
+        if (appearsIn != null && !appearsIn.isEmpty()) {
+            // just take the first i.e. ignore impact of side chains
+            Iterator<Sha256Hash> iterator = appearsIn.keySet().iterator();
+            Long blockTime = getBlockTime(iterator.next(), blockStore);
+            if (blockTime != null) {
+                return new Date(blockTime * 1000);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param blockHash  The hash of the block
+     * @param blockStore The block store to read the block from if its time is not in the cache (may be null)
+     * @return The time of the block in seconds, or null if it is not known
+     */
+    public Long getBlockTime(Sha256Hash blockHash, BlockStore blockStore) {
+        synchronized (blockTimes) {
+            Long blockTime = blockTimes.get(blockHash);
+            if (blockTime != null) {
+                return blockTime;
+            }
+        }
+
+        if (blockStore == null) {
+            return null;
+        }
+        try {
+            StoredBlock storedBlock = blockStore.get(blockHash);
+            if (storedBlock == null) {
+                return null;
+            }
+            putBlockTime(blockHash, storedBlock.getHeader().getTimeSeconds());
+            return storedBlock.getHeader().getTimeSeconds();
+        } catch (BlockStoreException e) {
+            log.error("Could not read block " + blockHash + " from the block store. " + e.getClass().getName() + " " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void putBlockTime(Sha256Hash blockHash, long blockTime) {
+        synchronized (blockTimes) {
+            Long previousBlockTime = blockTimes.put(blockHash, blockTime);
+            if (previousBlockTime == null || previousBlockTime != blockTime) {
+                dirty = true;
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (blockTimes) {
+            return blockTimes.size();
+        }
+    }
+
+    /**
+     * A transaction in the wallets has been seen in a block - remember the time of the block.
+     */
+    @Override
+    public void notifyTransactionIsInBlock(Sha256Hash txHash, StoredBlock block, AbstractBlockChain.NewBlockType blockType,
+            int relativityOffset) {
+        putBlockTime(block.getHeader().getHash(), block.getHeader().getTimeSeconds());
+    }
+
+    /**
+     * The blocks that are no longer on the best chain are forgotten.
+     */
+    @Override
+    public void reorganize(StoredBlock splitPoint, List<StoredBlock> oldBlocks, List<StoredBlock> newBlocks) {
+        synchronized (blockTimes) {
+            for (StoredBlock oldBlock : oldBlocks) {
+                if (blockTimes.remove(oldBlock.getHeader().getHash()) != null) {
+                    dirty = true;
+                }
+            }
+        }
+        log.debug("Removed the times of " + oldBlocks.size() + " blocks after a reorganise.");
+    }
+
+    /**
+     * Read the cache from a file, which is also the file it is saved to.
+     * A missing or unreadable file leaves the cache empty.
+     */
+    public void loadFromFile(File cacheFile) {
+        this.cacheFile = cacheFile;
+        if (!cacheFile.exists()) {
+            return;
+        }
+
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            int version = inputStream.readInt();
+            if (version != FILE_VERSION) {
+                log.debug("Ignoring block time cache '" + cacheFile.getAbsolutePath() + "' with version " + version);
+                return;
+            }
+            int numberOfBlockTimes = inputStream.readInt();
+            List<Map.Entry<Sha256Hash, Long>> entries = new ArrayList<Map.Entry<Sha256Hash, Long>>();
+            byte[] hashBytes = new byte[32];
+            for (int i = 0; i < numberOfBlockTimes; i++) {
+                inputStream.readFully(hashBytes);
+                long blockTime = inputStream.readLong();
+                entries.add(new AbstractMap.SimpleEntry<Sha256Hash, Long>(new Sha256Hash(hashBytes.clone()), blockTime));
+            }
+            synchronized (blockTimes) {
+                for (Map.Entry<Sha256Hash, Long> entry : entries) {
+                    blockTimes.put(entry.getKey(), entry.getValue());
+                }
+                dirty = false;
+            }
+            log.debug("Read " + numberOfBlockTimes + " block times from '" + cacheFile.getAbsolutePath() + "'");
+        } catch (IOException e) {
+            log.error("Could not read block time cache '" + cacheFile.getAbsolutePath() + "'. " + e.getClass().getName() + " " + e.getMessage());
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    log.error(e.getClass().getName() + " " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the cache to the file it was loaded from, if it has changed.
+     */
+    public void save() {
+        if (cacheFile == null) {
+            return;
+        }
+
+        List<Map.Entry<Sha256Hash, Long>> entries;
+        synchronized (blockTimes) {
+            if (!dirty) {
+                return;
+            }
+            entries = new ArrayList<Map.Entry<Sha256Hash, Long>>(blockTimes.entrySet());
+            dirty = false;
+        }
+
+        File temporaryFile = new File(cacheFile.getAbsolutePath() + ".tmp");
+        DataOutputStream outputStream = null;
+        try {
+            outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+            outputStream.writeInt(FILE_VERSION);
+            outputStream.writeInt(entries.size());
+            for (Map.Entry<Sha256Hash, Long> entry : entries) {
+                outputStream.write(entry.getKey().getBytes());
+                outputStream.writeLong(entry.getValue());
+            }
+            outputStream.close();
+            outputStream = null;
+
+            if (cacheFile.exists() && !cacheFile.delete()) {
+                log.error("Could not replace block time cache '" + cacheFile.getAbsolutePath() + "'");
+                return;
+            }
+            if (!temporaryFile.renameTo(cacheFile)) {
+                log.error("Could not rename '" + temporaryFile.getAbsolutePath() + "' to '" + cacheFile.getAbsolutePath() + "'");
+            }
+        } catch (IOException e) {
+            synchronized (blockTimes) {
+                dirty = true;
+            }
+            log.error("Could not write block time cache '" + cacheFile.getAbsolutePath() + "'. " + e.getClass().getName() + " " + e.getMessage());
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    log.error(e.getClass().getName() + " " + e.getMessage());
+                }
+            }
+        }
+    }
+}
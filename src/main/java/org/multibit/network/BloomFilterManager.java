@@ -0,0 +1,302 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import com.google.bitcoin.core.AbstractPeerEventListener;
+import com.google.bitcoin.core.FilteredBlock;
+import com.google.bitcoin.core.MultiBitBlockChain;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Peer;
+import com.google.bitcoin.core.PeerGroup;
+import com.google.bitcoin.core.ScriptException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.multibit.controller.bitcoin.BitcoinController;
+import org.multibit.model.bitcoin.BitcoinModel;
+import org.multibit.model.bitcoin.WalletData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Looks after the bloom filter sent to peers. Requests to recalculate the filter that come in a burst (for instance
+ * whilst many keys are being added) result in one recalculation once the burst is over, which sizes the filter from
+ * the number of elements there are then. The false positive rate can be set per network, and how many of the
+ * transactions that matched the filter were actually for the wallets is counted so that the rate can be tuned.
+ */
+public class BloomFilterManager implements MultiBitBlockChain.FilteredBlockListener {
+
+    private static final Logger log = LoggerFactory.getLogger(BloomFilterManager.class);
+
+    /**
+     * A recalculation is done once there have been no more requests for this long.
+     */
+    public static final long RECALCULATION_DELAY = 500; // ms
+
+    /**
+     * However many requests come in, a recalculation is never put off for longer than this.
+     */
+    public static final long MAXIMUM_RECALCULATION_DELAY = 3000; // ms
+
+    public static final double DEFAULT_MAINNET_FALSE_POSITIVE_RATE = PeerGroup.DEFAULT_BLOOM_FILTER_FP_RATE;
+
+    /**
+     * Privacy matters less on the test networks, so more false positives are allowed.
+     */
+    public static final double DEFAULT_TESTNET_FALSE_POSITIVE_RATE = 0.001;
+
+    /**
+     * The highest false positive rate that can be set - above this the filter hides little and costs a lot.
+     */
+    public static final double MAXIMUM_FALSE_POSITIVE_RATE = 0.1;
+
+    /**
+     * How many of the transactions counted are remembered, so that one seen loose and then again in a block
+     * is only counted once.
+     */
+    static final int MAXIMUM_NUMBER_OF_COUNTED_TRANSACTIONS = 10000;
+
+    private final BitcoinController bitcoinController;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * The matched transactions are counted on their own thread so that the counting (which goes through the
+     * wallets) never holds up a recalculation of the filter.
+     */
+    private ExecutorService statisticsExecutor;
+
+    /**
+     * The transactions counted most recently (only used on the statistics thread).
+     */
+    private final Map<Sha256Hash, Boolean> countedTransactions = new LinkedHashMap<Sha256Hash, Boolean>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Sha256Hash, Boolean> eldest) {
+            return size() > MAXIMUM_NUMBER_OF_COUNTED_TRANSACTIONS;
+        }
+    };
+
+    private ScheduledFuture<?> pendingRecalculation = null;
+    private long firstRequestTime = 0;
+
+    private final AtomicLong numberOfRecalculationsRequested = new AtomicLong();
+    private final AtomicLong numberOfRecalculations = new AtomicLong();
+    private final AtomicLong numberOfMatchedTransactions = new AtomicLong();
+    private final AtomicLong numberOfRelevantTransactions = new AtomicLong();
+
+    private final AbstractPeerEventListener peerEventListener = new AbstractPeerEventListener() {
+        @Override
+        public void onTransaction(Peer peer, Transaction transaction) {
+            recordMatchedTransactions(Collections.singletonList(transaction));
+        }
+    };
+
+    public BloomFilterManager(BitcoinController bitcoinController) {
+        this.bitcoinController = bitcoinController;
+    }
+
+    /**
+     * Use the configured false positive rate for a new PeerGroup and count the transactions that match its filter.
+     */
+    public void attach(PeerGroup peerGroup) {
+        double falsePositiveRate = getFalsePositiveRate();
+        log.debug("Bloom filter false positive rate is " + falsePositiveRate);
+        peerGroup.setBloomFilterFalsePositiveRate(falsePositiveRate);
+        peerGroup.addEventListener(peerEventListener);
+    }
+
+    /**
+     * Ask for the bloom filter to be recalculated and sent to the peers. This returns straight away and the
+     * recalculation is done when there have been no more requests for RECALCULATION_DELAY.
+     */
+    public synchronized void requestRecalculation() {
+        numberOfRecalculationsRequested.incrementAndGet();
+        long now = System.currentTimeMillis();
+        if (pendingRecalculation != null && !pendingRecalculation.isDone()) {
+            if (now - firstRequestTime >= MAXIMUM_RECALCULATION_DELAY - RECALCULATION_DELAY) {
+                // Put off long enough - let the pending recalculation happen.
+                return;
+            }
+            if (!pendingRecalculation.cancel(false)) {
+                // Already running - recalculate again afterwards for this request.
+                firstRequestTime = now;
+            }
+        } else {
+            firstRequestTime = now;
+        }
+        pendingRecalculation = getExecutor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    recalculate();
+                } catch (RuntimeException re) {
+                    log.error("Could not recalculate the bloom filter. " + re.getClass().getCanonicalName() + " " + re.getMessage());
+                }
+            }
+        }, RECALCULATION_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Recalculate the bloom filter and send it to the peers.
+     */
+    void recalculate() {
+        numberOfRecalculations.incrementAndGet();
+        PeerGroup peerGroup = bitcoinController.getMultiBitService().getPeerGroup();
+        if (peerGroup != null) {
+            log.debug("Recalculating the bloom filter");
+            peerGroup.recalculateFastCatchupAndFilter(PeerGroup.FilterRecalculateMode.FORCE_SEND);
+        }
+    }
+
+    /**
+     * @return The false positive rate for the network - set by the preference for the network, otherwise by the
+     * preference for all networks, otherwise the default for the network
+     */
+    public double getFalsePositiveRate() {
+        NetworkParameters networkParameters = bitcoinController.getModel().getNetworkParameters();
+        double defaultFalsePositiveRate = NetworkParameters.ID_MAINNET.equals(networkParameters.getId())
+                ? DEFAULT_MAINNET_FALSE_POSITIVE_RATE : DEFAULT_TESTNET_FALSE_POSITIVE_RATE;
+
+        String falsePositiveRateText = bitcoinController.getModel().getUserPreference(
+                BitcoinModel.BLOOM_FILTER_FALSE_POSITIVE_RATE + "." + networkParameters.getId());
+        if (falsePositiveRateText == null || "".equals(falsePositiveRateText.trim())) {
+            falsePositiveRateText = bitcoinController.getModel().getUserPreference(BitcoinModel.BLOOM_FILTER_FALSE_POSITIVE_RATE);
+        }
+        if (falsePositiveRateText == null || "".equals(falsePositiveRateText.trim())) {
+            return defaultFalsePositiveRate;
+        }
+        try {
+            double falsePositiveRate = Double.parseDouble(falsePositiveRateText.trim());
+            if (falsePositiveRate > 0 && falsePositiveRate <= MAXIMUM_FALSE_POSITIVE_RATE) {
+                return falsePositiveRate;
+            }
+            log.error("Bloom filter false positive rate " + falsePositiveRate + " is out of range - using " + defaultFalsePositiveRate);
+        } catch (NumberFormatException nfe) {
+            log.error("Bloom filter false positive rate '" + falsePositiveRateText + "' is not a number - using " + defaultFalsePositiveRate);
+        }
+        return defaultFalsePositiveRate;
+    }
+
+    @Override
+    public void onFilteredBlockAdded(FilteredBlock filteredBlock) {
+        recordMatchedTransactions(filteredBlock.getAssociatedTransactions().values());
+    }
+
+    /**
+     * Count transactions that matched the filter, and how many of them are for the wallets (off the calling thread).
+     * A transaction is only counted the first time it is seen.
+     */
+    void recordMatchedTransactions(Collection<Transaction> transactions) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        final List<Transaction> matchedTransactions = new ArrayList<Transaction>(transactions);
+        getStatisticsExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Transaction transaction : matchedTransactions) {
+                    if (countedTransactions.put(transaction.getHash(), Boolean.TRUE) != null) {
+                        continue;
+                    }
+                    numberOfMatchedTransactions.incrementAndGet();
+                    if (isRelevant(transaction)) {
+                        numberOfRelevantTransactions.incrementAndGet();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return true if the transaction is for one of the wallets, including those only loaded as a summary
+     */
+    boolean isRelevant(Transaction transaction) {
+        // Only the wallets with a key or an outpoint the transaction uses need to be asked.
+        for (WalletData perWalletModelData : bitcoinController.getModel().getPerWalletModelDataForTransaction(transaction)) {
+            try {
+                if (perWalletModelData.getWallet() != null) {
+                    if (perWalletModelData.getWallet().isTransactionRelevant(transaction)) {
+                        return true;
+                    }
+                } else if (perWalletModelData.isSummaryOnly() && perWalletModelData.getWalletSummary() != null) {
+                    if (perWalletModelData.getWalletSummary().isTransactionRelevant(transaction)) {
+                        return true;
+                    }
+                }
+            } catch (ScriptException se) {
+                // Cannot tell - count it as not relevant.
+                log.debug("Could not check transaction " + transaction.getHashAsString() + ". " + se.getMessage());
+            }
+        }
+        return false;
+    }
+
+    public long getNumberOfMatchedTransactions() {
+        return numberOfMatchedTransactions.get();
+    }
+
+    public long getNumberOfRelevantTransactions() {
+        return numberOfRelevantTransactions.get();
+    }
+
+    /**
+     * @return The fraction of the transactions that matched the filter that were for the wallets
+     * (1 if none have matched yet). The lower this is, the more bandwidth is spent on privacy.
+     */
+    public double getRelevantTransactionRatio() {
+        long matched = numberOfMatchedTransactions.get();
+        return matched == 0 ? 1.0 : (double) numberOfRelevantTransactions.get() / matched;
+    }
+
+    public long getNumberOfRecalculationsRequested() {
+        return numberOfRecalculationsRequested.get();
+    }
+
+    public long getNumberOfRecalculations() {
+        return numberOfRecalculations.get();
+    }
+
+    private synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("BloomFilterManager-%d").setDaemon(true).build());
+        }
+        return executor;
+    }
+
+    private synchronized ExecutorService getStatisticsExecutor() {
+        if (statisticsExecutor == null) {
+            statisticsExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("BloomFilterStatistics-%d").setDaemon(true).build());
+        }
+        return statisticsExecutor;
+    }
+}
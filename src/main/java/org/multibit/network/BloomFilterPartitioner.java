@@ -0,0 +1,822 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import com.google.bitcoin.core.AbstractBlockChain;
+import com.google.bitcoin.core.AbstractPeerEventListener;
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.BloomFilter;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.FilteredBlock;
+import com.google.bitcoin.core.GetDataMessage;
+import com.google.bitcoin.core.InventoryItem;
+import com.google.bitcoin.core.Message;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Peer;
+import com.google.bitcoin.core.PeerGroup;
+import com.google.bitcoin.core.Ping;
+import com.google.bitcoin.core.PrunedException;
+import com.google.bitcoin.core.ScriptException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionOutPoint;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.core.VerificationException;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.script.Script;
+import com.google.bitcoin.store.BlockStoreException;
+import com.google.bitcoin.utils.Threading;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.multibit.controller.bitcoin.BitcoinController;
+import org.multibit.model.bitcoin.WalletData;
+import org.multibit.model.bitcoin.WalletSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits the bloom filter across the peers when the wallets have so many keys that one filter would have to be
+ * bigger than peers accept (and so would match far more than it should). The keys are divided into partitions, each
+ * with its own filter that is given to some of the peers - the download peer always has the first. Every block the
+ * download peer delivers is then asked for from a peer with each of the other filters, and the transactions they
+ * match are merged into the wallets by the MultiBitBlockChain. Only the download peer downloads (so new blocks are not
+ * fetched from every peer) - the blocks asked of the other peers are taken from them as they arrive. A block a peer
+ * does not deliver in time, or that was asked of a peer that has gone, is asked for again from another peer with the
+ * filter, and the last blocks seen written for the wallets are held back until every partition has delivered it.
+ * Whilst the filter is partitioned new peers are not sent the PeerGroup's single filter. The partitions are
+ * rebalanced as keys are added and peers come and go.
+ */
+public class BloomFilterPartitioner {
+
+    private static final Logger log = LoggerFactory.getLogger(BloomFilterPartitioner.class);
+
+    /**
+     * The biggest bloom filter peers accept, in bytes.
+     */
+    public static final int MAXIMUM_FILTER_SIZE = 36000;
+
+    /**
+     * The most filters the keys are split into (each needs at least one peer).
+     */
+    public static final int MAXIMUM_NUMBER_OF_PARTITIONS = 12;
+
+    /**
+     * Room for elements added between recalculations, as the PeerGroup allows for its filter.
+     */
+    private static final int ELEMENT_COUNT_SLACK = 100;
+
+    /**
+     * The number of block hashes remembered as having been asked for with the other filters.
+     */
+    private static final int MAXIMUM_NUMBER_OF_REQUESTED_BLOCKS = 5000;
+
+    /**
+     * How long a peer has to deliver a block asked for with its filter before another peer with the filter is asked.
+     */
+    public static final long RESPONSE_TIMEOUT = 20000; // ms
+
+    private static final long RESPONSE_CHECK_INTERVAL = 5000; // ms
+
+    private final MultiBitPeerGroup peerGroup;
+    private final BitcoinController bitcoinController;
+    private final NetworkParameters networkParameters;
+    private final AbstractBlockChain chain;
+
+    private final long bloomFilterTweak = (long) (Math.random() * Long.MAX_VALUE);
+
+    private volatile double falsePositiveRate = PeerGroup.DEFAULT_BLOOM_FILTER_FP_RATE;
+
+    /**
+     * The filter of each partition, or empty when the bloom filter is not partitioned.
+     */
+    private volatile List<BloomFilter> partitionFilters = Collections.emptyList();
+
+    /**
+     * The partition each peer has been given the filter of, and the filter it was sent
+     * (the lock on peerPartitions is held to change either, and the PeerGroup lock is never taken whilst it is).
+     */
+    private final Map<Peer, Integer> peerPartitions = new IdentityHashMap<Peer, Integer>();
+    private final Map<Peer, BloomFilter> peerFilters = new IdentityHashMap<Peer, BloomFilter>();
+
+    private final Map<Sha256Hash, Boolean> requestedBlocks = new LinkedHashMap<Sha256Hash, Boolean>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Sha256Hash, Boolean> eldest) {
+            return size() > MAXIMUM_NUMBER_OF_REQUESTED_BLOCKS;
+        }
+    };
+
+    /**
+     * The blocks the download peer has delivered that some of the other partitions have still to deliver, in the
+     * order they were delivered (the lock on peerPartitions is held to use them).
+     */
+    private final Map<Sha256Hash, OutstandingBlock> outstandingBlocks = new LinkedHashMap<Sha256Hash, OutstandingBlock>();
+
+    /**
+     * The filtered block each peer other than the download peer is part way through delivering (a filtered block is
+     * followed by the transactions it matched). Each peer's entry is only used on the network thread of the peer.
+     */
+    private final Map<Peer, FilteredBlock> filteredBlocksBeingDelivered = Collections.synchronizedMap(new IdentityHashMap<Peer, FilteredBlock>());
+
+    private ScheduledExecutorService executor;
+    private boolean stopped = false;
+
+    /**
+     * The recalculation waiting to be done, which later requests are folded into (null if there is none).
+     */
+    private PeerGroup.FilterRecalculateMode pendingMode = null;
+    private int pendingNumberOfPartitionsNeeded = 0;
+
+    private final AbstractPeerEventListener peerEventListener = new AbstractPeerEventListener() {
+        @Override
+        public void onPeerConnected(Peer peer, int peerCount) {
+            requestRebalance();
+        }
+
+        @Override
+        public void onPeerDisconnected(Peer peer, int peerCount) {
+            // The blocks the peer had been asked for are asked for again from the peers left.
+            requestRebalance();
+        }
+
+        @Override
+        public void onBlocksDownloaded(Peer peer, Block block, int blocksLeft) {
+            blockDownloaded(peer, block.getHash());
+        }
+    };
+
+    /**
+     * Takes the filtered blocks asked for from peers that are not downloading, which the Peer would otherwise throw
+     * away. Runs on the network thread of the peer, before the Peer sees the message.
+     */
+    private final AbstractPeerEventListener filteredBlockReceiver = new AbstractPeerEventListener() {
+        @Override
+        public Message onPreMessageReceived(Peer peer, Message message) {
+            return receiveMessage(peer, message);
+        }
+
+        @Override
+        public void onPeerDisconnected(Peer peer, int peerCount) {
+            filteredBlocksBeingDelivered.remove(peer);
+        }
+    };
+
+    public BloomFilterPartitioner(MultiBitPeerGroup peerGroup, BitcoinController bitcoinController, NetworkParameters networkParameters,
+                                  AbstractBlockChain chain) {
+        this.peerGroup = peerGroup;
+        this.bitcoinController = bitcoinController;
+        this.networkParameters = networkParameters;
+        this.chain = chain;
+    }
+
+    public void start() {
+        peerGroup.addEventListener(peerEventListener);
+        peerGroup.addEventListener(filteredBlockReceiver, Threading.SAME_THREAD);
+        ScheduledExecutorService executor = getExecutor();
+        if (executor == null) {
+            return;
+        }
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    requestOutstandingBlocks();
+                } catch (RuntimeException re) {
+                    log.error("Could not ask for the outstanding blocks. " + re.getClass().getCanonicalName() + " " + re.getMessage());
+                }
+            }
+        }, RESPONSE_CHECK_INTERVAL, RESPONSE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        peerGroup.removeEventListener(peerEventListener);
+        peerGroup.removeEventListener(filteredBlockReceiver);
+        filteredBlocksBeingDelivered.clear();
+        synchronized (this) {
+            stopped = true;
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+            pendingMode = null;
+        }
+        synchronized (peerPartitions) {
+            partitionFilters = Collections.emptyList();
+            peerPartitions.clear();
+            peerFilters.clear();
+        }
+    }
+
+    public void setFalsePositiveRate(double falsePositiveRate) {
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    public boolean isPartitioned() {
+        return !partitionFilters.isEmpty();
+    }
+
+    /**
+     * @return The number of filters the keys are currently split into (0 if the bloom filter is not partitioned)
+     */
+    public int getNumberOfPartitions() {
+        return partitionFilters.size();
+    }
+
+    /**
+     * @return The number of blocks that some of the partitions have still to deliver
+     */
+    public int getNumberOfOutstandingBlocks() {
+        synchronized (peerPartitions) {
+            return outstandingBlocks.size();
+        }
+    }
+
+    /**
+     * @return The height below which every partition has delivered every block (Integer.MAX_VALUE if none are outstanding)
+     */
+    public int getCompleteHeight() {
+        OutstandingBlock lowestOutstandingBlock = getLowestOutstandingBlock();
+        return lowestOutstandingBlock == null ? Integer.MAX_VALUE : lowestOutstandingBlock.height - 1;
+    }
+
+    /**
+     * Work out the last block seen to write for a wallet, so that the wallet is never saved (or checkpointed) as
+     * having seen transactions it may not have been given. Only what is written is held back - the wallet itself
+     * is not changed.
+     *
+     * @param lastBlockSeen The last block seen of the wallet, as it is about to be written
+     * @return The block before the lowest block that not every partition has delivered if lastBlockSeen is at or
+     * past it, otherwise lastBlockSeen itself
+     */
+    public LastBlockSeen holdBackLastBlockSeen(LastBlockSeen lastBlockSeen) {
+        OutstandingBlock lowestOutstandingBlock = getLowestOutstandingBlock();
+        if (lowestOutstandingBlock == null || lastBlockSeen.getHeight() < lowestOutstandingBlock.height) {
+            return lastBlockSeen;
+        }
+        log.debug("Holding the last block seen back to height " + (lowestOutstandingBlock.height - 1)
+                + " until all the partitions have delivered block " + lowestOutstandingBlock.hash);
+        return new LastBlockSeen(lowestOutstandingBlock.height - 1, lowestOutstandingBlock.previousHash,
+                lowestOutstandingBlock.previousTimeSecs);
+    }
+
+    private OutstandingBlock getLowestOutstandingBlock() {
+        synchronized (peerPartitions) {
+            OutstandingBlock lowestOutstandingBlock = null;
+            for (OutstandingBlock outstandingBlock : outstandingBlocks.values()) {
+                if (lowestOutstandingBlock == null || outstandingBlock.height < lowestOutstandingBlock.height) {
+                    lowestOutstandingBlock = outstandingBlock;
+                }
+            }
+            return lowestOutstandingBlock;
+        }
+    }
+
+    /**
+     * @return The number of filters the keys of the open wallets need to be split into (1 if one filter will do)
+     */
+    public int getNumberOfPartitionsNeeded() {
+        List<WalletData> perWalletModelDataList = bitcoinController.getModel().getPerWalletModelDataList();
+        if (perWalletModelDataList == null) {
+            return 1;
+        }
+        int elementCount = 0;
+        for (WalletData perWalletModelData : new ArrayList<WalletData>(perWalletModelDataList)) {
+            if (perWalletModelData.getWallet() != null) {
+                elementCount += perWalletModelData.getWallet().getBloomFilterElementCount();
+            } else if (perWalletModelData.isSummaryOnly() && perWalletModelData.getWalletSummary() != null) {
+                // The public key and its hash, as for a loaded wallet.
+                elementCount += perWalletModelData.getWalletSummary().getPublicKeys().size() * 2;
+            }
+        }
+        return getNumberOfPartitions(elementCount + ELEMENT_COUNT_SLACK, falsePositiveRate);
+    }
+
+    /**
+     * Split the keys of the wallets into partitions in the background and send each peer the filter of its partition.
+     *
+     * @param numberOfPartitionsNeeded The number of filters the keys need to be split into
+     * @param mode                     Whether to send the filters to the peers that already have a filter for their partition
+     */
+    public void requestRecalculation(int numberOfPartitionsNeeded, PeerGroup.FilterRecalculateMode mode) {
+        // Each partition needs a peer to have its filter.
+        peerGroup.getPeerPerformanceManager().setMinimumNumberOfPeers(numberOfPartitionsNeeded + 1);
+        synchronized (this) {
+            pendingNumberOfPartitionsNeeded = numberOfPartitionsNeeded;
+            if (pendingMode != null) {
+                // Fold this request into the one waiting, sending the filters if either would.
+                if (mode == PeerGroup.FilterRecalculateMode.FORCE_SEND || pendingMode == PeerGroup.FilterRecalculateMode.DONT_SEND) {
+                    pendingMode = mode;
+                }
+                return;
+            }
+            pendingMode = mode;
+        }
+        ScheduledExecutorService executor = getExecutor();
+        if (executor == null) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int numberOfPartitionsNeeded;
+                    PeerGroup.FilterRecalculateMode mode;
+                    synchronized (BloomFilterPartitioner.this) {
+                        numberOfPartitionsNeeded = pendingNumberOfPartitionsNeeded;
+                        mode = pendingMode;
+                        pendingMode = null;
+                    }
+                    recalculate(numberOfPartitionsNeeded, mode);
+                } catch (RuntimeException re) {
+                    log.error("Could not partition the bloom filter. " + re.getClass().getCanonicalName() + " " + re.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Work out the filters of the partitions and send them to the peers. Changed filters are always sent, whatever
+     * the mode, as the outstanding blocks are asked for again with them.
+     */
+    private void recalculate(int numberOfPartitionsNeeded, PeerGroup.FilterRecalculateMode mode) {
+        List<WalletData> perWalletModelDataList = bitcoinController.getModel().getPerWalletModelDataList();
+        if (perWalletModelDataList == null) {
+            return;
+        }
+        List<Peer> connectedPeers = peerGroup.getConnectedPeers();
+        Peer downloadPeer = peerGroup.getDownloadPeer();
+        int numberOfPartitions = Math.max(2, Math.min(numberOfPartitionsNeeded, connectedPeers.size()));
+        if (numberOfPartitions < numberOfPartitionsNeeded) {
+            log.debug("Only " + connectedPeers.size() + " peers for " + numberOfPartitionsNeeded + " bloom filter partitions");
+        }
+
+        List<List<byte[]>> partitionElements = createPartitionElements(new ArrayList<WalletData>(perWalletModelDataList), numberOfPartitions);
+        List<BloomFilter> filters = new ArrayList<BloomFilter>();
+        for (List<byte[]> elements : partitionElements) {
+            filters.add(createFilter(elements, falsePositiveRate, bloomFilterTweak));
+        }
+
+        if (!isPartitioned()) {
+            // The filtered blocks received no longer match all the keys, so must not be kept.
+            log.info("Splitting the bloom filter into " + numberOfPartitions + " partitions");
+            bitcoinController.getMultiBitService().stopFilteredBlockCacheRecording();
+        }
+        synchronized (peerPartitions) {
+            if (!filters.equals(partitionFilters)) {
+                // The keys may have moved partition, so every partition is asked for the outstanding blocks again.
+                for (OutstandingBlock outstandingBlock : outstandingBlocks.values()) {
+                    outstandingBlock.waitForPartitions(filters.size(), -1);
+                }
+            }
+            partitionFilters = filters;
+            if (mode == PeerGroup.FilterRecalculateMode.FORCE_SEND) {
+                peerFilters.clear();
+            }
+            rebalance(connectedPeers, downloadPeer);
+        }
+    }
+
+    /**
+     * Go back to one bloom filter for all the peers (which the PeerGroup sends).
+     *
+     * @return The blocks that some partitions had still to deliver, which should be asked for again with the one filter
+     */
+    public List<Sha256Hash> stopPartitioning() {
+        peerGroup.getPeerPerformanceManager().setMinimumNumberOfPeers(0);
+        if (!isPartitioned()) {
+            return Collections.emptyList();
+        }
+        synchronized (peerPartitions) {
+            if (!isPartitioned()) {
+                return Collections.emptyList();
+            }
+            log.info("The bloom filter is no longer partitioned");
+            partitionFilters = Collections.emptyList();
+            peerPartitions.clear();
+            peerFilters.clear();
+            List<Sha256Hash> outstandingBlockHashes = new ArrayList<Sha256Hash>(outstandingBlocks.keySet());
+            outstandingBlocks.clear();
+            return outstandingBlockHashes;
+        }
+    }
+
+    /**
+     * Ask a peer for filtered blocks (with whatever filter it has).
+     */
+    void requestBlocks(Peer peer, List<Sha256Hash> blockHashes) {
+        if (peer == null || blockHashes.isEmpty()) {
+            return;
+        }
+        GetDataMessage getDataMessage = new GetDataMessage(networkParameters);
+        for (Sha256Hash blockHash : blockHashes) {
+            getDataMessage.addItem(new InventoryItem(InventoryItem.Type.FilteredBlock, blockHash));
+        }
+        peer.sendMessage(getDataMessage);
+    }
+
+    private void requestRebalance() {
+        ScheduledExecutorService executor = getExecutor();
+        if (!isPartitioned() || executor == null) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    List<Peer> connectedPeers = peerGroup.getConnectedPeers();
+                    Peer downloadPeer = peerGroup.getDownloadPeer();
+                    synchronized (peerPartitions) {
+                        rebalance(connectedPeers, downloadPeer);
+                    }
+                } catch (RuntimeException re) {
+                    log.error("Could not rebalance the bloom filter partitions. " + re.getClass().getCanonicalName() + " " + re.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Give the download peer the first partition and the other peers the others in turn, sending each peer the
+     * filter of its partition if it does not have it already, then ask again for the outstanding blocks that were
+     * asked of peers that have gone or changed partition (the lock on peerPartitions is held). The other peers are
+     * left not downloading, so each outstanding block is only fetched from the one peer asked for each partition.
+     */
+    private void rebalance(List<Peer> connectedPeers, Peer downloadPeer) {
+        List<BloomFilter> filters = partitionFilters;
+        if (filters.isEmpty()) {
+            return;
+        }
+        List<Peer> peers = new ArrayList<Peer>(connectedPeers);
+        if (downloadPeer != null && peers.remove(downloadPeer)) {
+            peers.add(0, downloadPeer);
+        }
+
+        peerPartitions.clear();
+        peerFilters.keySet().retainAll(peers);
+        for (int peerIndex = 0; peerIndex < peers.size(); peerIndex++) {
+            Peer peer = peers.get(peerIndex);
+            int partition = peerIndex % filters.size();
+            BloomFilter filter = filters.get(partition);
+            peerPartitions.put(peer, partition);
+            if (!filter.equals(peerFilters.get(peer))) {
+                peer.setBloomFilter(filter);
+                peerFilters.put(peer, filter);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        for (OutstandingBlock outstandingBlock : outstandingBlocks.values()) {
+            for (Map.Entry<Integer, PartitionRequest> waitingPartition : outstandingBlock.waitingPartitions.entrySet()) {
+                PartitionRequest partitionRequest = waitingPartition.getValue();
+                if (partitionRequest != null && !waitingPartition.getKey().equals(peerPartitions.get(partitionRequest.peer))) {
+                    waitingPartition.setValue(null);
+                }
+            }
+            request(outstandingBlock, now);
+        }
+    }
+
+    /**
+     * A block has been delivered. If it is outstanding it is the answer of the partition of the peer that delivered
+     * it, otherwise if it came from the download peer it is asked for from a peer with each of the other filters.
+     */
+    private void blockDownloaded(Peer peer, Sha256Hash blockHash) {
+        if (!isPartitioned()) {
+            return;
+        }
+        synchronized (peerPartitions) {
+            OutstandingBlock outstandingBlock = outstandingBlocks.get(blockHash);
+            if (outstandingBlock != null || peer != peerGroup.getDownloadPeer()) {
+                Integer partition = peerPartitions.get(peer);
+                if (outstandingBlock != null && partition != null) {
+                    outstandingBlock.waitingPartitions.remove(partition);
+                    if (outstandingBlock.waitingPartitions.isEmpty()) {
+                        outstandingBlocks.remove(blockHash);
+                    }
+                }
+                return;
+            }
+        }
+
+        synchronized (requestedBlocks) {
+            if (requestedBlocks.put(blockHash, Boolean.TRUE) != null) {
+                return;
+            }
+        }
+        StoredBlock storedBlock;
+        StoredBlock previousStoredBlock;
+        try {
+            storedBlock = chain.getBlockStore().get(blockHash);
+            previousStoredBlock = storedBlock == null ? null : storedBlock.getPrev(chain.getBlockStore());
+        } catch (BlockStoreException bse) {
+            log.error("Could not look up block " + blockHash + ". " + bse.getMessage());
+            return;
+        }
+        if (previousStoredBlock == null) {
+            return;
+        }
+
+        synchronized (peerPartitions) {
+            Integer downloadPeerPartition = peerPartitions.get(peer);
+            if (downloadPeerPartition == null || downloadPeerPartition != 0) {
+                // The download peer has changed - give it the first partition.
+                requestRebalance();
+            }
+            OutstandingBlock outstandingBlock = new OutstandingBlock(blockHash, storedBlock.getHeight(),
+                    previousStoredBlock.getHeader().getHash(), previousStoredBlock.getHeader().getTimeSeconds());
+            outstandingBlock.waitForPartitions(partitionFilters.size(), downloadPeerPartition == null ? -1 : downloadPeerPartition);
+            if (!outstandingBlock.waitingPartitions.isEmpty()) {
+                outstandingBlocks.put(blockHash, outstandingBlock);
+                request(outstandingBlock, System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * Take a filtered block (and the transactions that follow it) that a peer that is not downloading was asked for,
+     * and add it to the chain once a message that is not one of its transactions arrives.
+     *
+     * @return The message for the Peer to process, or null if it has been taken
+     */
+    Message receiveMessage(Peer peer, Message message) {
+        FilteredBlock filteredBlock = filteredBlocksBeingDelivered.get(peer);
+        if (filteredBlock != null) {
+            try {
+                if (message instanceof Transaction && filteredBlock.provideTransaction((Transaction) message)) {
+                    return null;
+                }
+            } catch (VerificationException ve) {
+                // The block is asked for again once it has not been delivered in time.
+                log.warn("Filtered block " + filteredBlock.getHash() + " from '" + peer.getAddress() + "' is not valid. " + ve.getMessage());
+                filteredBlocksBeingDelivered.remove(peer);
+                return null;
+            }
+            filteredBlocksBeingDelivered.remove(peer);
+            addFilteredBlock(peer, filteredBlock);
+        }
+        if (message instanceof FilteredBlock && peer != peerGroup.getDownloadPeer()
+                && isWaitingFor(peer, ((FilteredBlock) message).getHash())) {
+            filteredBlocksBeingDelivered.put(peer, (FilteredBlock) message);
+            return null;
+        }
+        return message;
+    }
+
+    /**
+     * @return true if the partition of the peer has still to deliver the block
+     */
+    private boolean isWaitingFor(Peer peer, Sha256Hash blockHash) {
+        synchronized (peerPartitions) {
+            OutstandingBlock outstandingBlock = outstandingBlocks.get(blockHash);
+            Integer partition = peerPartitions.get(peer);
+            return outstandingBlock != null && partition != null && outstandingBlock.waitingPartitions.containsKey(partition);
+        }
+    }
+
+    private void addFilteredBlock(Peer peer, FilteredBlock filteredBlock) {
+        try {
+            // The block is already on the chain, so its transactions are merged into the wallets.
+            chain.add(filteredBlock);
+        } catch (VerificationException | PrunedException e) {
+            log.warn("Could not add filtered block " + filteredBlock.getHash() + " from '" + peer.getAddress() + "'. " + e.getMessage());
+            return;
+        }
+        blockDownloaded(peer, filteredBlock.getHash());
+    }
+
+    /**
+     * Ask again for the blocks that have not been delivered in time, by another peer with the partition if there is one.
+     */
+    private void requestOutstandingBlocks() {
+        boolean partitionWithoutPeer = false;
+        int numberOfPeers;
+        synchronized (peerPartitions) {
+            if (outstandingBlocks.isEmpty()) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (OutstandingBlock outstandingBlock : outstandingBlocks.values()) {
+                partitionWithoutPeer |= !request(outstandingBlock, now);
+            }
+            numberOfPeers = peerPartitions.size();
+        }
+        if (partitionWithoutPeer && numberOfPeers > 0 && isPartitioned()) {
+            // There are fewer peers than partitions now - split the keys into fewer.
+            peerGroup.recalculateFastCatchupAndFilter(PeerGroup.FilterRecalculateMode.FORCE_SEND);
+        }
+    }
+
+    /**
+     * Ask for a block from a peer with each partition it is waiting for that has not been asked, or has not
+     * answered in RESPONSE_TIMEOUT (the lock on peerPartitions is held).
+     *
+     * @return false if a partition has no peer to ask
+     */
+    private boolean request(OutstandingBlock outstandingBlock, long now) {
+        boolean everyPartitionHasAPeer = true;
+        for (Map.Entry<Integer, PartitionRequest> waitingPartition : outstandingBlock.waitingPartitions.entrySet()) {
+            PartitionRequest partitionRequest = waitingPartition.getValue();
+            if (partitionRequest != null && now - partitionRequest.requestTime < RESPONSE_TIMEOUT) {
+                continue;
+            }
+            Peer peer = choosePeer(waitingPartition.getKey(), partitionRequest == null ? null : partitionRequest.peer);
+            if (peer == null) {
+                everyPartitionHasAPeer = false;
+                continue;
+            }
+            if (partitionRequest != null) {
+                log.debug("Block " + outstandingBlock.hash + " was not delivered for partition " + waitingPartition.getKey()
+                        + " in time - asking '" + peer.getAddress() + "'");
+            }
+            GetDataMessage getDataMessage = new GetDataMessage(networkParameters);
+            getDataMessage.addItem(new InventoryItem(InventoryItem.Type.FilteredBlock, outstandingBlock.hash));
+            peer.sendMessage(getDataMessage);
+            // A filtered block ends at the next message that is not one of its transactions - the pong ends this one.
+            peer.sendMessage(new Ping((long) (Math.random() * Long.MAX_VALUE)));
+            waitingPartition.setValue(new PartitionRequest(peer, now));
+        }
+        return everyPartitionHasAPeer;
+    }
+
+    /**
+     * @return A peer with the partition, other than the one that was asked last time if there is another (null if none has it)
+     */
+    private Peer choosePeer(int partition, Peer previouslyAskedPeer) {
+        Peer chosenPeer = null;
+        for (Map.Entry<Peer, Integer> peerPartition : peerPartitions.entrySet()) {
+            if (peerPartition.getValue() == partition) {
+                chosenPeer = peerPartition.getKey();
+                if (chosenPeer != previouslyAskedPeer) {
+                    break;
+                }
+            }
+        }
+        return chosenPeer;
+    }
+
+    /**
+     * @return The number of filters that elements need to be split into so that none is bigger than
+     * MAXIMUM_FILTER_SIZE at the false positive rate (at most MAXIMUM_NUMBER_OF_PARTITIONS)
+     */
+    static int getNumberOfPartitions(int elementCount, double falsePositiveRate) {
+        double maximumElementsPerFilter = -MAXIMUM_FILTER_SIZE * 8 * Math.log(2) * Math.log(2) / Math.log(falsePositiveRate);
+        int numberOfPartitions = (int) Math.ceil(elementCount / maximumElementsPerFilter);
+        return Math.max(1, Math.min(MAXIMUM_NUMBER_OF_PARTITIONS, numberOfPartitions));
+    }
+
+    /**
+     * @return The partition a public key is in - the same for the same number of partitions every time
+     */
+    static int getPartition(byte[] publicKey, int numberOfPartitions) {
+        return new BigInteger(1, Utils.sha256hash160(publicKey)).mod(BigInteger.valueOf(numberOfPartitions)).intValue();
+    }
+
+    /**
+     * The elements of the filter of each partition. Each public key, its hash and the outpoints of the outputs paying
+     * directly to it are all in the partition of the key, so that every transaction for a key matches one filter.
+     */
+    List<List<byte[]>> createPartitionElements(List<WalletData> perWalletModelDataList, int numberOfPartitions) {
+        List<List<byte[]>> partitionElements = createEmptyPartitions(numberOfPartitions);
+        for (WalletData perWalletModelData : perWalletModelDataList) {
+            Wallet wallet = perWalletModelData.getWallet();
+            if (wallet != null) {
+                List<byte[]> publicKeys = new ArrayList<byte[]>();
+                for (ECKey key : wallet.getKeys()) {
+                    publicKeys.add(key.getPubKey());
+                }
+                addPartitionElements(partitionElements, publicKeys, wallet.getTransactions(false));
+            } else if (perWalletModelData.isSummaryOnly() && perWalletModelData.getWalletSummary() != null) {
+                WalletSummary walletSummary = perWalletModelData.getWalletSummary();
+                addPartitionElements(partitionElements, walletSummary.getPublicKeys(), Collections.<Transaction>emptyList());
+            }
+        }
+        return partitionElements;
+    }
+
+    static List<List<byte[]>> createEmptyPartitions(int numberOfPartitions) {
+        List<List<byte[]>> partitionElements = new ArrayList<List<byte[]>>();
+        for (int partition = 0; partition < numberOfPartitions; partition++) {
+            partitionElements.add(new ArrayList<byte[]>());
+        }
+        return partitionElements;
+    }
+
+    void addPartitionElements(List<List<byte[]>> partitionElements, Collection<byte[]> publicKeys, Collection<Transaction> transactions) {
+        int numberOfPartitions = partitionElements.size();
+        Map<String, Integer> publicKeyPartitions = new LinkedHashMap<String, Integer>();
+        for (byte[] publicKey : publicKeys) {
+            int partition = getPartition(publicKey, numberOfPartitions);
+            publicKeyPartitions.put(Utils.bytesToHexString(publicKey), partition);
+            partitionElements.get(partition).add(publicKey);
+            partitionElements.get(partition).add(Utils.sha256hash160(publicKey));
+        }
+        for (Transaction transaction : transactions) {
+            List<TransactionOutput> outputs = transaction.getOutputs();
+            for (int i = 0; i < outputs.size(); i++) {
+                try {
+                    Script script = outputs.get(i).getScriptPubKey();
+                    if (script.isSentToRawPubKey()) {
+                        Integer partition = publicKeyPartitions.get(Utils.bytesToHexString(script.getPubKey()));
+                        if (partition != null) {
+                            partitionElements.get(partition).add(new TransactionOutPoint(networkParameters, i, transaction).bitcoinSerialize());
+                        }
+                    }
+                } catch (ScriptException e) {
+                    // Not a script that can be for the wallet.
+                }
+            }
+        }
+    }
+
+    static BloomFilter createFilter(List<byte[]> elements, double falsePositiveRate, long bloomFilterTweak) {
+        BloomFilter filter = new BloomFilter(elements.size() + ELEMENT_COUNT_SLACK, falsePositiveRate, bloomFilterTweak,
+                BloomFilter.BloomUpdate.UPDATE_P2PUBKEY_ONLY);
+        for (byte[] element : elements) {
+            filter.insert(element);
+        }
+        return filter;
+    }
+
+    /**
+     * @return The executor, or null once the partitioner has been stopped
+     */
+    private synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null && !stopped) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("BloomFilterPartitioner-%d").setDaemon(true).build());
+        }
+        return executor;
+    }
+
+    /**
+     * A block the download peer delivered, and the partitions that have still to deliver it.
+     */
+    private static class OutstandingBlock {
+        private final Sha256Hash hash;
+        private final int height;
+        private final Sha256Hash previousHash;
+        private final long previousTimeSecs;
+
+        /**
+         * The request made of a peer for each partition, or null if no peer has been asked.
+         */
+        private final Map<Integer, PartitionRequest> waitingPartitions = new HashMap<Integer, PartitionRequest>();
+
+        private OutstandingBlock(Sha256Hash hash, int height, Sha256Hash previousHash, long previousTimeSecs) {
+            this.hash = hash;
+            this.height = height;
+            this.previousHash = previousHash;
+            this.previousTimeSecs = previousTimeSecs;
+        }
+
+        /**
+         * Wait for every partition but the one that has delivered the block (-1 if none has).
+         */
+        private void waitForPartitions(int numberOfPartitions, int deliveredPartition) {
+            waitingPartitions.clear();
+            for (int partition = 0; partition < numberOfPartitions; partition++) {
+                if (partition != deliveredPartition) {
+                    waitingPartitions.put(partition, null);
+                }
+            }
+        }
+    }
+
+    private static class PartitionRequest {
+        private final Peer peer;
+        private final long requestTime;
+
+        private PartitionRequest(Peer peer, long requestTime) {
+            this.peer = peer;
+            this.requestTime = requestTime;
+        }
+    }
+}
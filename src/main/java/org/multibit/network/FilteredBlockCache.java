@@ -0,0 +1,522 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import com.google.bitcoin.core.AbstractBlockChain;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.FilteredBlock;
+import com.google.bitcoin.core.MultiBitBlockChain;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.PrunedException;
+import com.google.bitcoin.core.ScriptException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.core.VerificationException;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.script.Script;
+import org.multibit.model.bitcoin.WalletData;
+import org.multibit.model.bitcoin.WalletSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An on-disk cache of the filtered blocks (header, partial merkle tree and matched transactions) received from peers,
+ * so that a replay of blocks that have been received before is served from disk rather than the network.
+ * <p/>
+ * The blocks are kept by the bloom filter generation they were received with: the public keys and outpoints the
+ * filter was made from. A bloom filter never misses an element it was made from, so blocks received with a
+ * generation can be replayed for any wallets whose keys and outpoints are all in that generation.
+ * Each generation is kept in its own file in the .filteredblocks directory beside the block store.
+ */
+public class FilteredBlockCache implements MultiBitBlockChain.FilteredBlockListener {
+
+    private static final Logger log = LoggerFactory.getLogger(FilteredBlockCache.class);
+
+    public static final String FILTERED_BLOCK_CACHE_SUFFIX = ".filteredblocks";
+    public static final String GENERATION_FILE_SUFFIX = ".fblocks";
+
+    /**
+     * The most bloom filter generations that are kept. The generation written to least recently is removed first.
+     */
+    public static final int MAXIMUM_NUMBER_OF_GENERATIONS = 4;
+
+    /**
+     * Blocks are no longer added to a generation once its file is this long.
+     */
+    public static final long MAXIMUM_GENERATION_FILE_LENGTH = 256L * 1024 * 1024;
+
+    private static final int FILE_VERSION = 1;
+
+    private static final int BLOCK_HEADER_LENGTH = 80;
+
+    private final NetworkParameters networkParameters;
+
+    private final File cacheDirectory;
+
+    /**
+     * The generations on disk (null until they are first needed).
+     */
+    private List<Generation> generations;
+
+    /**
+     * The generation the blocks received are added to (null if they are not being kept).
+     */
+    private Generation recordingGeneration;
+
+    /**
+     * Whether blocks are being replayed from the cache (they are not added to it again).
+     */
+    private volatile boolean replaying = false;
+
+    public FilteredBlockCache(NetworkParameters networkParameters, File cacheDirectory) {
+        this.networkParameters = networkParameters;
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * @param blockchainFilename The filename of the block store
+     * @return The name of the filtered block cache directory kept beside it
+     */
+    public static String createFilteredBlockCacheDirectoryName(String blockchainFilename) {
+        if (blockchainFilename.endsWith(MultiBitService.SPV_BLOCKCHAIN_SUFFIX)) {
+            blockchainFilename = blockchainFilename.substring(0, blockchainFilename.length() - MultiBitService.SPV_BLOCKCHAIN_SUFFIX.length());
+        }
+        return blockchainFilename + FILTERED_BLOCK_CACHE_SUFFIX;
+    }
+
+    /**
+     * The elements the bloom filter for some wallets is made from - the public key of each key
+     * (the filter also has its hash) and the outpoints of the outputs paying directly to a public key.
+     */
+    public static Set<ByteBuffer> getFilterElements(List<WalletData> perWalletModelDataList) {
+        Set<ByteBuffer> filterElements = new HashSet<ByteBuffer>();
+        for (WalletData perWalletModelData : perWalletModelDataList) {
+            Wallet wallet = perWalletModelData.getWallet();
+            if (wallet != null) {
+                Set<ByteBuffer> publicKeys = new HashSet<ByteBuffer>();
+                for (ECKey key : wallet.getKeys()) {
+                    publicKeys.add(ByteBuffer.wrap(key.getPubKey()));
+                }
+                filterElements.addAll(publicKeys);
+                for (Transaction transaction : wallet.getTransactions(false)) {
+                    List<TransactionOutput> outputs = transaction.getOutputs();
+                    for (int i = 0; i < outputs.size(); i++) {
+                        try {
+                            Script script = outputs.get(i).getScriptPubKey();
+                            if (script.isSentToRawPubKey() && publicKeys.contains(ByteBuffer.wrap(script.getPubKey()))) {
+                                filterElements.add(createOutPointElement(transaction.getHash(), i));
+                            }
+                        } catch (ScriptException e) {
+                            // Not a script that can be for the wallet.
+                        }
+                    }
+                }
+            } else if (perWalletModelData.isSummaryOnly() && perWalletModelData.getWalletSummary() != null) {
+                WalletSummary walletSummary = perWalletModelData.getWalletSummary();
+                for (byte[] publicKey : walletSummary.getPublicKeys()) {
+                    filterElements.add(ByteBuffer.wrap(publicKey));
+                }
+            }
+        }
+        return filterElements;
+    }
+
+    static ByteBuffer createOutPointElement(Sha256Hash hash, long index) {
+        ByteBuffer outPoint = ByteBuffer.allocate(36);
+        outPoint.put(hash.getBytes());
+        outPoint.putInt((int) index);
+        outPoint.flip();
+        return outPoint;
+    }
+
+    /**
+     * Keep the filtered blocks received from now on, as received with a bloom filter made from the filter elements.
+     */
+    public synchronized void startRecording(Set<ByteBuffer> filterElements) {
+        stopRecording();
+
+        loadGenerations();
+        for (Generation generation : generations) {
+            if (generation.filterElements.equals(filterElements)) {
+                recordingGeneration = generation;
+                break;
+            }
+        }
+
+        if (recordingGeneration == null) {
+            if (!cacheDirectory.exists() && !cacheDirectory.mkdirs()) {
+                log.error("Could not create the filtered block cache directory '" + cacheDirectory.getAbsolutePath() + "'");
+                return;
+            }
+            try {
+                recordingGeneration = Generation.create(new File(cacheDirectory, createGenerationName(filterElements) + GENERATION_FILE_SUFFIX), filterElements);
+                generations.add(recordingGeneration);
+            } catch (IOException e) {
+                log.error("Could not create a filtered block cache generation. " + e.getClass().getName() + " " + e.getMessage());
+                return;
+            }
+            removeOldestGenerations();
+        }
+        log.debug("Keeping filtered blocks in '" + recordingGeneration.file.getAbsolutePath() + "'");
+    }
+
+    /**
+     * Stop keeping the filtered blocks received (used when the bloom filter no longer has all the generation's elements).
+     */
+    public synchronized void stopRecording() {
+        if (recordingGeneration != null) {
+            recordingGeneration.close();
+            recordingGeneration = null;
+        }
+    }
+
+    public synchronized boolean isRecording() {
+        return recordingGeneration != null;
+    }
+
+    @Override
+    public void onFilteredBlockAdded(FilteredBlock filteredBlock) {
+        if (replaying) {
+            return;
+        }
+        synchronized (this) {
+            if (recordingGeneration == null) {
+                return;
+            }
+            try {
+                byte[] filteredBlockBytes = filteredBlock.bitcoinSerialize();
+                Sha256Hash prevBlockHash = getPrevBlockHash(filteredBlockBytes);
+                CachedBlock cachedBlock = recordingGeneration.cachedBlocksByPrevHash.get(prevBlockHash);
+                if (cachedBlock != null && cachedBlock.hash.equals(filteredBlock.getHash())) {
+                    // Already kept.
+                    return;
+                }
+                if (recordingGeneration.length >= MAXIMUM_GENERATION_FILE_LENGTH) {
+                    log.debug("The filtered block cache generation '" + recordingGeneration.file.getAbsolutePath() + "' is full");
+                    stopRecording();
+                    return;
+                }
+                recordingGeneration.append(prevBlockHash, filteredBlock.getHash(), createRecord(filteredBlockBytes, filteredBlock));
+            } catch (IOException e) {
+                log.error("Could not keep filtered block " + filteredBlock.getHash() + ". " + e.getClass().getName() + " " + e.getMessage());
+                stopRecording();
+            }
+        }
+    }
+
+    /**
+     * Add the blocks following the chainhead to the chain from the cache, for as long as they have been received
+     * with a bloom filter that has all the filter elements. The peers are then only asked for the blocks after that.
+     * The peers should not be adding blocks to the chain at the same time.
+     *
+     * @return The number of blocks added from the cache
+     */
+    public int replay(AbstractBlockChain blockChain, Set<ByteBuffer> filterElements) {
+        List<Generation> coveringGenerations = new ArrayList<Generation>();
+        synchronized (this) {
+            loadGenerations();
+            for (Generation generation : generations) {
+                if (generation.filterElements.containsAll(filterElements)) {
+                    coveringGenerations.add(generation);
+                }
+            }
+        }
+        if (coveringGenerations.isEmpty()) {
+            return 0;
+        }
+
+        int numberOfBlocksReplayed = 0;
+        replaying = true;
+        try {
+            while (true) {
+                FilteredBlock filteredBlock = null;
+                synchronized (this) {
+                    Sha256Hash chainHeadHash = blockChain.getChainHead().getHeader().getHash();
+                    for (Generation generation : coveringGenerations) {
+                        CachedBlock cachedBlock = generation.cachedBlocksByPrevHash.get(chainHeadHash);
+                        if (cachedBlock != null) {
+                            filteredBlock = readFilteredBlock(generation, cachedBlock);
+                            if (filteredBlock != null) {
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (filteredBlock == null || !blockChain.add(filteredBlock)) {
+                    break;
+                }
+                numberOfBlocksReplayed++;
+            }
+        } catch (VerificationException e) {
+            log.error("A filtered block in the cache could not be added to the chain. " + e.getClass().getName() + " " + e.getMessage());
+        } catch (PrunedException e) {
+            log.error("A filtered block in the cache could not be added to the chain. " + e.getClass().getName() + " " + e.getMessage());
+        } finally {
+            replaying = false;
+        }
+        log.debug("Replayed " + numberOfBlocksReplayed + " filtered blocks from the cache");
+        return numberOfBlocksReplayed;
+    }
+
+    public synchronized void close() {
+        stopRecording();
+    }
+
+    private void loadGenerations() {
+        if (generations != null) {
+            return;
+        }
+        generations = new ArrayList<Generation>();
+        File[] generationFiles = cacheDirectory.listFiles();
+        if (generationFiles == null) {
+            return;
+        }
+        for (File generationFile : generationFiles) {
+            if (!generationFile.getName().endsWith(GENERATION_FILE_SUFFIX)) {
+                continue;
+            }
+            try {
+                generations.add(Generation.load(generationFile));
+            } catch (IOException e) {
+                log.error("Ignoring filtered block cache generation '" + generationFile.getAbsolutePath() + "'. " + e.getClass().getName() + " " + e.getMessage());
+                if (!generationFile.delete()) {
+                    log.error("Could not delete '" + generationFile.getAbsolutePath() + "'");
+                }
+            }
+        }
+    }
+
+    private void removeOldestGenerations() {
+        if (generations.size() <= MAXIMUM_NUMBER_OF_GENERATIONS) {
+            return;
+        }
+        List<Generation> oldestFirst = new ArrayList<Generation>(generations);
+        Collections.sort(oldestFirst, new Comparator<Generation>() {
+            @Override
+            public int compare(Generation generation1, Generation generation2) {
+                long lastModified1 = generation1.file.lastModified();
+                long lastModified2 = generation2.file.lastModified();
+                return lastModified1 < lastModified2 ? -1 : (lastModified1 == lastModified2 ? 0 : 1);
+            }
+        });
+        for (Generation generation : oldestFirst) {
+            if (generations.size() <= MAXIMUM_NUMBER_OF_GENERATIONS) {
+                break;
+            }
+            if (generation == recordingGeneration) {
+                continue;
+            }
+            generations.remove(generation);
+            if (!generation.file.delete()) {
+                log.error("Could not delete filtered block cache generation '" + generation.file.getAbsolutePath() + "'");
+            }
+        }
+    }
+
+    private FilteredBlock readFilteredBlock(Generation generation, CachedBlock cachedBlock) {
+        try {
+            DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(generation.read(cachedBlock)));
+            byte[] filteredBlockBytes = new byte[inputStream.readInt()];
+            inputStream.readFully(filteredBlockBytes);
+            FilteredBlock filteredBlock = new FilteredBlock(networkParameters, filteredBlockBytes);
+            int numberOfTransactions = inputStream.readInt();
+            for (int i = 0; i < numberOfTransactions; i++) {
+                byte[] transactionBytes = new byte[inputStream.readInt()];
+                inputStream.readFully(transactionBytes);
+                filteredBlock.provideTransaction(new Transaction(networkParameters, transactionBytes));
+            }
+            return filteredBlock;
+        } catch (Exception e) {
+            log.error("Could not read filtered block " + cachedBlock.hash + " from the cache. " + e.getClass().getName() + " " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static byte[] createRecord(byte[] filteredBlockBytes, FilteredBlock filteredBlock) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream outputStream = new DataOutputStream(record);
+        outputStream.writeInt(filteredBlockBytes.length);
+        outputStream.write(filteredBlockBytes);
+        Map<Sha256Hash, Transaction> transactions = filteredBlock.getAssociatedTransactions();
+        outputStream.writeInt(transactions.size());
+        for (Transaction transaction : transactions.values()) {
+            byte[] transactionBytes = transaction.bitcoinSerialize();
+            outputStream.writeInt(transactionBytes.length);
+            outputStream.write(transactionBytes);
+        }
+        outputStream.close();
+        return record.toByteArray();
+    }
+
+    private static Sha256Hash getPrevBlockHash(byte[] filteredBlockBytes) {
+        return new Sha256Hash(Utils.reverseBytes(Arrays.copyOfRange(filteredBlockBytes, 4, 36)));
+    }
+
+    private static Sha256Hash getBlockHash(byte[] filteredBlockBytes) {
+        return new Sha256Hash(Utils.reverseBytes(Utils.doubleDigest(filteredBlockBytes, 0, BLOCK_HEADER_LENGTH)));
+    }
+
+    private static String createGenerationName(Set<ByteBuffer> filterElements) {
+        List<ByteBuffer> sortedFilterElements = new ArrayList<ByteBuffer>(filterElements);
+        Collections.sort(sortedFilterElements);
+        ByteArrayOutputStream elementBytes = new ByteArrayOutputStream();
+        for (ByteBuffer filterElement : sortedFilterElements) {
+            elementBytes.write(filterElement.array(), filterElement.arrayOffset() + filterElement.position(), filterElement.remaining());
+        }
+        return Utils.bytesToHexString(Sha256Hash.create(elementBytes.toByteArray()).getBytes()).substring(0, 16)
+                + "-" + Long.toHexString(System.currentTimeMillis());
+    }
+
+    /**
+     * Where a block is in a generation file.
+     */
+    private static final class CachedBlock {
+        private final Sha256Hash hash;
+        private final long offset;
+        private final int length;
+
+        private CachedBlock(Sha256Hash hash, long offset, int length) {
+            this.hash = hash;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The blocks received with one bloom filter generation, and the file they are kept in.
+     * The file has the filter elements followed by the blocks, each as a length and a record.
+     */
+    private static final class Generation {
+        private final File file;
+        private final Set<ByteBuffer> filterElements;
+        private final Map<Sha256Hash, CachedBlock> cachedBlocksByPrevHash = new HashMap<Sha256Hash, CachedBlock>();
+        private long length;
+        private RandomAccessFile appendFile;
+
+        private Generation(File file, Set<ByteBuffer> filterElements) {
+            this.file = file;
+            this.filterElements = filterElements;
+        }
+
+        private static Generation create(File file, Set<ByteBuffer> filterElements) throws IOException {
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                outputStream.writeInt(FILE_VERSION);
+                outputStream.writeInt(filterElements.size());
+                for (ByteBuffer filterElement : filterElements) {
+                    outputStream.writeInt(filterElement.remaining());
+                    outputStream.write(filterElement.array(), filterElement.arrayOffset() + filterElement.position(), filterElement.remaining());
+                }
+            } finally {
+                outputStream.close();
+            }
+            Generation generation = new Generation(file, new HashSet<ByteBuffer>(filterElements));
+            generation.length = file.length();
+            return generation;
+        }
+
+        private static Generation load(File file) throws IOException {
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                long position = 0;
+                if (inputStream.readInt() != FILE_VERSION) {
+                    throw new IOException("Unknown version");
+                }
+                int numberOfFilterElements = inputStream.readInt();
+                position += 8;
+                Set<ByteBuffer> filterElements = new HashSet<ByteBuffer>();
+                for (int i = 0; i < numberOfFilterElements; i++) {
+                    byte[] filterElement = new byte[inputStream.readInt()];
+                    inputStream.readFully(filterElement);
+                    filterElements.add(ByteBuffer.wrap(filterElement));
+                    position += 4 + filterElement.length;
+                }
+
+                Generation generation = new Generation(file, filterElements);
+                // Index the blocks, stopping at a record that was not written in full.
+                long fileLength = file.length();
+                while (position + 4 <= fileLength) {
+                    int recordLength = inputStream.readInt();
+                    if (recordLength < 4 + BLOCK_HEADER_LENGTH || position + 4 + recordLength > fileLength) {
+                        break;
+                    }
+                    byte[] record = new byte[recordLength];
+                    inputStream.readFully(record);
+                    byte[] header = Arrays.copyOfRange(record, 4, 4 + BLOCK_HEADER_LENGTH);
+                    generation.cachedBlocksByPrevHash.put(getPrevBlockHash(header),
+                            new CachedBlock(getBlockHash(header), position + 4, recordLength));
+                    position += 4 + recordLength;
+                }
+                generation.length = position;
+                return generation;
+            } finally {
+                inputStream.close();
+            }
+        }
+
+        private void append(Sha256Hash prevBlockHash, Sha256Hash hash, byte[] record) throws IOException {
+            if (appendFile == null) {
+                appendFile = new RandomAccessFile(file, "rw");
+                // Drop any record that was not written in full.
+                appendFile.setLength(length);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(4 + record.length);
+            buffer.putInt(record.length);
+            buffer.put(record);
+            appendFile.seek(length);
+            appendFile.write(buffer.array());
+            cachedBlocksByPrevHash.put(prevBlockHash, new CachedBlock(hash, length + 4, record.length));
+            length += 4 + record.length;
+        }
+
+        private byte[] read(CachedBlock cachedBlock) throws IOException {
+            RandomAccessFile readFile = new RandomAccessFile(file, "r");
+            try {
+                byte[] record = new byte[cachedBlock.length];
+                readFile.seek(cachedBlock.offset);
+                readFile.readFully(record);
+                return record;
+            } finally {
+                readFile.close();
+            }
+        }
+
+        private void close() {
+            if (appendFile != null) {
+                try {
+                    appendFile.close();
+                } catch (IOException e) {
+                    log.error("Could not close '" + file.getAbsolutePath() + "'. " + e.getMessage());
+                }
+                appendFile = null;
+            }
+        }
+    }
+}
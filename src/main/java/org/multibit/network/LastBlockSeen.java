@@ -0,0 +1,68 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Wallet;
+
+/**
+ * The last block seen of a wallet (height, hash and time) as one value, for writing to disk.
+ */
+public final class LastBlockSeen {
+
+    private final int height;
+    private final Sha256Hash hash;
+    private final long timeSecs;
+
+    public LastBlockSeen(int height, Sha256Hash hash, long timeSecs) {
+        this.height = height;
+        this.hash = hash;
+        this.timeSecs = timeSecs;
+    }
+
+    /**
+     * Read the last block seen of a wallet. A new best block sets the hash, height and time one after the other, so
+     * they are read again until the hash is the same before and after (and so all three are for the same block).
+     */
+    public static LastBlockSeen of(Wallet wallet) {
+        while (true) {
+            Sha256Hash hash = wallet.getLastBlockSeenHash();
+            int height = wallet.getLastBlockSeenHeight();
+            long timeSecs = wallet.getLastBlockSeenTimeSecs();
+            Sha256Hash hashAfter = wallet.getLastBlockSeenHash();
+            if (hash == null ? hashAfter == null : hash.equals(hashAfter)) {
+                return new LastBlockSeen(height, hash, timeSecs);
+            }
+        }
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Sha256Hash getHash() {
+        return hash;
+    }
+
+    public long getTimeSecs() {
+        return timeSecs;
+    }
+
+    @Override
+    public String toString() {
+        return "LastBlockSeen [height=" + height + ", hash=" + hash + ", timeSecs=" + timeSecs + "]";
+    }
+}
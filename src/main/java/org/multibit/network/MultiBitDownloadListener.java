@@ -109,6 +109,7 @@ public class MultiBitDownloadListener extends DownloadListener {
                         double denominator = Math.max(blocksToDownloadAtStart, ReplayManager.INSTANCE.getActualLastChainHeight() - currentReplayTask.getStartHeight());
                         pct = (int)(100 * ( 1.0 - (double)blocksSoFar/denominator));
                     }
+                    ReplayManager.INSTANCE.replayProgress((long) pct, blocksSoFar);
                     //log.debug("blocksSoFar = " + blocksSoFar + ", actualLastChainHeight = " + ReplayManager.INSTANCE.getActualLastChainHeight() +
                     //        ", startHeight = " + currentReplayTask.getStartHeight() + ", percent = " + pct);
                 }
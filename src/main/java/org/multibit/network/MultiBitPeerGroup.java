@@ -18,16 +18,50 @@ package org.multibit.network;
 import org.multibit.controller.Controller;
 import org.multibit.controller.bitcoin.BitcoinController;
 
+import com.google.bitcoin.core.AbstractPeerEventListener;
 import com.google.bitcoin.core.BlockChain;
 import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Peer;
 import com.google.bitcoin.core.PeerGroup;
+import com.google.bitcoin.core.Sha256Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.util.List;
 
 
 public class MultiBitPeerGroup extends PeerGroup {
+    private static final Logger log = LoggerFactory.getLogger(MultiBitPeerGroup.class);
+
     private final Controller controller;
     private final BitcoinController bitcoinController;
     MultiBitDownloadListener multiBitDownloadListener = null;
 
+    /**
+     * Pings the connected peers in the background whilst the PeerGroup is running.
+     */
+    private final PeerHealthMonitor peerHealthMonitor;
+
+    /**
+     * Chooses the download peer and the number of peers from how well the peers perform.
+     */
+    private final PeerPerformanceManager peerPerformanceManager;
+
+    /**
+     * Remembers the peers connected to for the next start (null if they are not remembered).
+     */
+    private volatile PeerAddressCache peerAddressCache;
+
+    /**
+     * Splits the bloom filter across the peers when the wallets have too many keys for one filter.
+     * (Not initialised where it is declared as the PeerGroup recalculates the filter whilst it is constructed).
+     */
+    private BloomFilterPartitioner bloomFilterPartitioner;
+
+    /**
+     * The number of peers connected to at first (after that it follows the sync state).
+     */
     public static final int MAXIMUM_NUMBER_OF_PEERS = 6;
 
         
@@ -38,6 +72,26 @@ public class MultiBitPeerGroup extends PeerGroup {
         multiBitDownloadListener = new MultiBitDownloadListener(this.bitcoinController);
 
         setMaxConnections(MAXIMUM_NUMBER_OF_PEERS);
+        peerHealthMonitor = new PeerHealthMonitor(this);
+        peerPerformanceManager = new PeerPerformanceManager(this, peerHealthMonitor);
+        bloomFilterPartitioner = new BloomFilterPartitioner(this, bitcoinController, params, chain);
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        super.startUp();
+        peerHealthMonitor.start();
+        peerPerformanceManager.start();
+        bloomFilterPartitioner.start();
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        savePeerAddressCache();
+        bloomFilterPartitioner.stop();
+        peerPerformanceManager.stop();
+        peerHealthMonitor.stop();
+        super.shutDown();
     }
     
     /**
@@ -51,7 +105,116 @@ public class MultiBitPeerGroup extends PeerGroup {
         startBlockChainDownload(multiBitDownloadListener);
     }
 
+    @Override
+    protected Peer selectDownloadPeer(List<Peer> peers) {
+        return peerPerformanceManager.selectDownloadPeer(peers, super.selectDownloadPeer(peers));
+    }
+
+    /**
+     * Partition the bloom filter across the peers if the wallets have too many keys for one filter. The PeerGroup
+     * still works out its single filter (without sending it) so that the fast catchup time is kept up to date, but
+     * then forgets it so that it is not sent to new peers either (they are given the filter of their partition).
+     */
+    @Override
+    public void recalculateFastCatchupAndFilter(FilterRecalculateMode mode) {
+        if (bloomFilterPartitioner == null) {
+            super.recalculateFastCatchupAndFilter(mode);
+            return;
+        }
+        int numberOfPartitionsNeeded = bloomFilterPartitioner.getNumberOfPartitionsNeeded();
+        if (numberOfPartitionsNeeded > 1) {
+            lock.lock();
+            try {
+                super.recalculateFastCatchupAndFilter(FilterRecalculateMode.DONT_SEND);
+                clearBloomFilter();
+            } finally {
+                lock.unlock();
+            }
+            bloomFilterPartitioner.requestRecalculation(numberOfPartitionsNeeded, mode);
+        } else {
+            boolean wasPartitioned = bloomFilterPartitioner.isPartitioned();
+            List<Sha256Hash> outstandingBlockHashes = bloomFilterPartitioner.stopPartitioning();
+            super.recalculateFastCatchupAndFilter(wasPartitioned ? FilterRecalculateMode.FORCE_SEND : mode);
+
+            // Ask for the blocks not every partition delivered again, now with the one filter.
+            bloomFilterPartitioner.requestBlocks(getDownloadPeer(), outstandingBlockHashes);
+        }
+    }
+
+    /**
+     * Forget the single filter of the PeerGroup (the lock is held), which it would otherwise send to each new peer.
+     * The PeerGroup has no way of doing this itself. The next recalculation when the filter is not partitioned
+     * works it out again and sends it to every peer.
+     */
+    private void clearBloomFilter() {
+        try {
+            Field bloomFilterField = PeerGroup.class.getDeclaredField("bloomFilter");
+            bloomFilterField.setAccessible(true);
+            bloomFilterField.set(this, null);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            log.error("Could not clear the bloom filter of the PeerGroup. " + e.getClass().getCanonicalName() + " " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void setBloomFilterFalsePositiveRate(double bloomFilterFPRate) {
+        if (bloomFilterPartitioner != null) {
+            bloomFilterPartitioner.setFalsePositiveRate(bloomFilterFPRate);
+        }
+        super.setBloomFilterFalsePositiveRate(bloomFilterFPRate);
+    }
+
+    /**
+     * Connect to a fixed number of peers rather than varying it with the sync state.
+     */
+    public void setFixedNumberOfPeers(int numberOfPeers) {
+        peerPerformanceManager.setAdaptivePeerCount(false);
+        setMaxConnections(numberOfPeers);
+    }
+
+    /**
+     * Remember the peers that are connected to, with their scores, in the peer address cache.
+     */
+    public void setPeerAddressCache(final PeerAddressCache peerAddressCache) {
+        this.peerAddressCache = peerAddressCache;
+        addEventListener(new AbstractPeerEventListener() {
+            @Override
+            public void onPeerConnected(Peer peer, int peerCount) {
+                peerAddressCache.recordConnected(peer.getAddress().toSocketAddress(), System.currentTimeMillis());
+            }
+
+            @Override
+            public void onPeerDisconnected(Peer peer, int peerCount) {
+                if (peer != null) {
+                    peerAddressCache.updateScore(peer.getAddress().toSocketAddress(), peerPerformanceManager.getScore(peer));
+                }
+            }
+        });
+    }
+
+    private void savePeerAddressCache() {
+        if (peerAddressCache == null) {
+            return;
+        }
+        for (Peer peer : getConnectedPeers()) {
+            peerAddressCache.updateScore(peer.getAddress().toSocketAddress(), peerPerformanceManager.getScore(peer));
+        }
+        peerAddressCache.save();
+    }
+
     public MultiBitDownloadListener getMultiBitDownloadListener() {
         return multiBitDownloadListener;
     }
+
+    public PeerHealthMonitor getPeerHealthMonitor() {
+        return peerHealthMonitor;
+    }
+
+    public PeerPerformanceManager getPeerPerformanceManager() {
+        return peerPerformanceManager;
+    }
+
+    public BloomFilterPartitioner getBloomFilterPartitioner() {
+        return bloomFilterPartitioner;
+    }
 }
@@ -20,10 +20,12 @@ import com.google.bitcoin.core.Wallet.SendRequest;
 import com.google.bitcoin.crypto.KeyCrypterException;
 import com.google.bitcoin.net.discovery.DnsDiscovery;
 import com.google.bitcoin.net.discovery.IrcDiscovery;
+import com.google.bitcoin.net.discovery.PeerDiscovery;
+import com.google.bitcoin.net.discovery.PeerDiscoveryException;
 import com.google.bitcoin.store.BlockStore;
 import com.google.bitcoin.store.BlockStoreException;
 import com.google.bitcoin.store.SPVBlockStore;
-import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.bitcoinj.wallet.Protos.Wallet.EncryptionType;
 import org.multibit.ApplicationDataDirectoryLocator;
 import org.multibit.MultiBit;
@@ -31,6 +33,8 @@ import org.multibit.controller.Controller;
 import org.multibit.controller.bitcoin.BitcoinController;
 import org.multibit.file.BackupManager;
 import org.multibit.file.FileHandlerException;
+import org.multibit.file.LoadedWallet;
+import org.multibit.file.WalletLoadException;
 import org.multibit.file.WalletSaveException;
 import org.multibit.message.Message;
 import org.multibit.message.MessageManager;
@@ -51,14 +55,18 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.security.SecureRandom;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 
 /**
@@ -89,6 +97,26 @@ public class MultiBitService {
   public static final String IRC_CHANNEL_TEST = "#bitcoinTEST";
   public static final String IRC_CHANNEL_TESTNET3 = "#bitcoinTEST3";
 
+  /**
+   * When rewinding the chainhead to a date, go back this much further to allow for block times drifting.
+   */
+  private static final long REPLAY_REWIND_TIME_MARGIN_SECS = 86400;
+
+  /**
+   * How long to wait for a peer to answer a ping before sending, when the peer health is stale.
+   */
+  private static final long SEND_PING_TIMEOUT = 4000; // ms
+
+  /**
+   * The most peers from the peer address cache that are tried before those from peer discovery.
+   */
+  private static final int MAXIMUM_NUMBER_OF_CACHED_PEERS_TO_TRY = 16;
+
+  /**
+   * How long peer discovery run alongside the cached peers is given.
+   */
+  private static final long PEER_DISCOVERY_TIMEOUT = 10000; // ms
+
   public Logger logger = LoggerFactory.getLogger(MultiBitService.class.getName());
 
   private MultiBitPeerGroup peerGroup;
@@ -109,6 +137,41 @@ public class MultiBitService {
   private MultiBitCheckpointManager checkpointManager;
   private String checkpointsFilename;
 
+  private final WalletSummaryFilterProvider walletSummaryFilterProvider;
+
+  /**
+   * The times of the blocks that wallet transactions appear in.
+   */
+  private final BlockTimestampCache blockTimestampCache = new BlockTimestampCache();
+
+  /**
+   * The filtered blocks received from peers, kept so that replays can be served from disk (null until the block store is created).
+   */
+  private FilteredBlockCache filteredBlockCache;
+
+  /**
+   * Reads in full, one at a time, the wallets that were opened from their summary (when they are selected or a
+   * transaction for them arrives).
+   */
+  private final ExecutorService walletPromotionExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("WalletPromotion-%d").setDaemon(true).build());
+
+  /**
+   * The peers connected to before, with their scores (null until the block store is created).
+   */
+  private PeerAddressCache peerAddressCache;
+
+  /**
+   * Batches the recalculations of the bloom filter and counts how many matched transactions are relevant.
+   */
+  private BloomFilterManager bloomFilterManager;
+
+  /**
+   * Runs peer discovery whilst the cached peers are being connected to.
+   */
+  private final ExecutorService peerDiscoveryExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("PeerDiscovery-%d").setDaemon(true).build());
+
   public static Date genesisBlockCreationDate;
 
 
@@ -150,14 +213,25 @@ public class MultiBitService {
     networkParameters = this.bitcoinController.getModel().getNetworkParameters();
     log.debug("Network parameters = " + networkParameters);
 
+    walletSummaryFilterProvider = new WalletSummaryFilterProvider(this.bitcoinController);
+    bloomFilterManager = new BloomFilterManager(this.bitcoinController);
+
     try {
       // Load or create the blockStore..
       log.debug("Loading/ creating blockstore ...");
       blockStore = createBlockStore(null, false);
       log.debug("Blockstore is '" + blockStore + "'");
 
+      blockTimestampCache.loadFromFile(new File(BlockTimestampCache.createBlockTimestampCacheFilename(blockchainFilename)));
+      filteredBlockCache = new FilteredBlockCache(networkParameters, new File(FilteredBlockCache.createFilteredBlockCacheDirectoryName(blockchainFilename)));
+      peerAddressCache = new PeerAddressCache(new File(PeerAddressCache.createPeerAddressCacheFilename(blockchainFilename)));
+      peerAddressCache.load();
+
       log.debug("Creating blockchain ...");
       blockChain = new MultiBitBlockChain(networkParameters, blockStore);
+      blockChain.addListener(blockTimestampCache);
+      blockChain.addFilteredBlockListener(filteredBlockCache);
+      blockChain.addFilteredBlockListener(bloomFilterManager);
       log.debug("Created blockchain '" + blockChain + "' with height " + blockChain.getBestChainHeight());
 
       log.debug("Creating peergroup ...");
@@ -315,7 +389,7 @@ public class MultiBitService {
     if (singleNodeConnection != null && !singleNodeConnection.equals("")) {
       try {
         peerGroup.addAddress(new PeerAddress(InetAddress.getByName(singleNodeConnection.trim())));
-        peerGroup.setMaxConnections(1);
+        peerGroup.setFixedNumberOfPeers(1);
         peersSpecified = true;
       } catch (UnknownHostException e) {
         log.error(e.getMessage(), e);
@@ -334,24 +408,48 @@ public class MultiBitService {
             log.error(e.getMessage(), e);
           }
         }
-        peerGroup.setMaxConnections(numberOfPeersAdded);
+        peerGroup.setFixedNumberOfPeers(numberOfPeersAdded);
         peersSpecified = true;
       }
     }
 
     if (!peersSpecified) {
       // Use DNS for production, IRC for test.
+      PeerDiscovery peerDiscovery;
       if (TESTNET3_GENESIS_HASH.equals(bitcoinController.getModel().getNetworkParameters().getGenesisBlock().getHashAsString())) {
-        peerGroup.addPeerDiscovery(new IrcDiscovery(IRC_CHANNEL_TESTNET3));
+        peerDiscovery = new IrcDiscovery(IRC_CHANNEL_TESTNET3);
       } else if (NetworkParameters.testNet().equals(bitcoinController.getModel().getNetworkParameters())) {
-        peerGroup.addPeerDiscovery(new IrcDiscovery(IRC_CHANNEL_TEST));
+        peerDiscovery = new IrcDiscovery(IRC_CHANNEL_TEST);
       } else {
-        peerGroup.addPeerDiscovery(new DnsDiscovery(networkParameters));
+        peerDiscovery = new DnsDiscovery(networkParameters);
+      }
+      peerGroup.addPeerDiscovery(peerDiscovery);
+
+      if (peerAddressCache != null) {
+        peerGroup.setPeerAddressCache(peerAddressCache);
+
+        // Connect to the peers used last time straight away, discovering more at the same time
+        // (the PeerGroup only discovers peers itself once it has run out of addresses to try).
+        List<InetSocketAddress> cachedAddresses = peerAddressCache.getAddressesToTry(MAXIMUM_NUMBER_OF_CACHED_PEERS_TO_TRY,
+                System.currentTimeMillis());
+        for (InetSocketAddress cachedAddress : cachedAddresses) {
+          peerGroup.addAddress(new PeerAddress(cachedAddress));
+        }
+        if (!cachedAddresses.isEmpty()) {
+          log.debug("Trying " + cachedAddresses.size() + " cached peers");
+          discoverPeersInBackground(peerGroup, peerDiscovery);
+        }
       }
     }
     // Add the controller as a PeerEventListener.
     peerGroup.addEventListener(bitcoinController.getPeerEventListener());
 
+    // Wallets opened from their summary still need their transactions.
+    peerGroup.addPeerFilterProvider(walletSummaryFilterProvider);
+
+    // Use the configured bloom filter false positive rate.
+    bloomFilterManager.attach(peerGroup);
+
     // Add all existing wallets to the PeerGroup.
     if (controller != null && controller.getModel() != null) {
       List<WalletData> perWalletDataModels = bitcoinController.getModel().getPerWalletModelDataList();
@@ -369,10 +467,34 @@ public class MultiBitService {
     }
   }
 
+  /**
+   * Add the peers found by peer discovery to the PeerGroup, without holding up the connections to the cached peers.
+   */
+  private void discoverPeersInBackground(final MultiBitPeerGroup peerGroupToAddTo, final PeerDiscovery peerDiscovery) {
+    peerDiscoveryExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          InetSocketAddress[] discoveredAddresses = peerDiscovery.getPeers(PEER_DISCOVERY_TIMEOUT, TimeUnit.MILLISECONDS);
+          if (discoveredAddresses != null) {
+            for (InetSocketAddress discoveredAddress : discoveredAddresses) {
+              peerGroupToAddTo.addAddress(new PeerAddress(discoveredAddress));
+            }
+            log.debug("Discovered " + discoveredAddresses.length + " peers alongside the cached peers");
+          }
+        } catch (PeerDiscoveryException pde) {
+          log.warn("Peer discovery failed. " + pde.getMessage());
+        }
+      }
+    });
+  }
+
+  /**
+   * Recalculate the bloom filter and send it to the peers, once any other requests that come in at the same time
+   * (for instance whilst keys are being added) have been made.
+   */
   public void recalculateFastCatchupAndFilter() {
-    if (peerGroup != null) {
-      peerGroup.recalculateFastCatchupAndFilter(PeerGroup.FilterRecalculateMode.FORCE_SEND);
-    }
+    bloomFilterManager.requestRecalculation();
   }
 
   public static String getFilePrefix() {
@@ -468,45 +590,278 @@ public class MultiBitService {
     }
 
     if (wallet != null) {
-      // Add the keys for this wallet to the address book as receiving
-      // addresses.
-      List<ECKey> keys = wallet.getKeychain();
-      if (keys != null) {
-        if (!newWalletCreated) {
-          perWalletModelDataToReturn = bitcoinController.getModel().getPerWalletModelDataByWalletFilename(walletFilename);
+      if (!newWalletCreated) {
+        perWalletModelDataToReturn = bitcoinController.getModel().getPerWalletModelDataByWalletFilename(walletFilename);
+      }
+      addWalletToAddressBookAndNetwork(perWalletModelDataToReturn, wallet, walletFilename);
+    }
+
+    return perWalletModelDataToReturn;
+  }
+
+  /**
+   * Add a wallet that has already been read from disk (see FileHandler#readWalletsFromFiles)
+   * to the model, the blockchain and the peergroup.
+   *
+   * @param loadedWallet The wallet read from disk
+   * @return WalletData - the walletData for the wallet, or null if loadedWallet is null
+   */
+  public WalletData addLoadedWallet(LoadedWallet loadedWallet) {
+    WalletData perWalletModelData = bitcoinController.getFileHandler().addLoadedWalletToModel(loadedWallet);
+    if (perWalletModelData != null && perWalletModelData.getWallet() != null) {
+      addWalletToAddressBookAndNetwork(perWalletModelData, perWalletModelData.getWallet(), perWalletModelData.getWalletFilename());
+    }
+    return perWalletModelData;
+  }
+
+  /**
+   * Read in full a wallet that was opened from its summary, add it to the blockchain and peergroup
+   * and catch it up with the blocks it has missed. Wallets that are already loaded are left as they are.
+   * The wallet is read on the wallet promotion thread and this waits for it, so it must not be called on
+   * the Swing thread (see PromoteWalletWorker).
+   *
+   * @param perWalletModelData The wallet to load
+   * @return true if the wallet is now loaded in full
+   */
+  public boolean promoteWallet(final WalletData perWalletModelData) {
+    if (perWalletModelData == null || perWalletModelData.getWallet() != null) {
+      return true;
+    }
+    if (!perWalletModelData.isSummaryOnly()) {
+      return false;
+    }
+    Future<Boolean> promotion = walletPromotionExecutor.submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return promoteWalletOnPromotionThread(perWalletModelData);
+      }
+    });
+    try {
+      return promotion.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      log.error("Could not read wallet '" + perWalletModelData.getWalletFilename() + "' in full. "
+              + e.getCause().getClass().getCanonicalName() + " " + e.getCause().getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Promote a wallet (on the wallet promotion thread, so that only one wallet is promoted at a time).
+   */
+  private boolean promoteWalletOnPromotionThread(WalletData perWalletModelData) {
+    if (perWalletModelData.getWallet() != null) {
+      return true;
+    }
+    if (!perWalletModelData.isSummaryOnly()) {
+      return false;
+    }
+
+    String walletFilename = perWalletModelData.getWalletFilename();
+    log.debug("Reading wallet '{}' in full", walletFilename);
+    try {
+      // Keep any change to the wallet info, e.g. a new description.
+      bitcoinController.getFileHandler().savePerWalletModelData(perWalletModelData, false);
+
+      LoadedWallet loadedWallet = bitcoinController.getFileHandler().readWalletFromFile(new File(walletFilename));
+      if (addLoadedWallet(loadedWallet) == null) {
+        // The FileHandler has already told the user why.
+        return false;
+      }
+    } catch (WalletLoadException | WalletVersionException | WalletSaveException e) {
+      String message = controller.getLocaliser().getString("openWalletSubmitAction.walletNotLoaded",
+              new Object[]{walletFilename, e.getMessage()});
+      log.error(message);
+      MessageManager.INSTANCE.addMessage(new Message(message));
+      return false;
+    }
+
+    // The wallet saw no blocks whilst it was not loaded.
+    int lastBlockSeenHeight = perWalletModelData.getWallet().getLastBlockSeenHeight();
+    if (blockChain != null && lastBlockSeenHeight > 0 && lastBlockSeenHeight < blockChain.getBestChainHeight()) {
+      List<WalletData> walletsToReplay = new ArrayList<WalletData>();
+      walletsToReplay.add(perWalletModelData);
+      ReplayManager.INSTANCE.offerReplayTask(createSyncReplayTask(walletsToReplay, lastBlockSeenHeight));
+    }
+    return true;
+  }
+
+  /**
+   * A transaction has arrived for a wallet that was opened from its summary.
+   * The wallet is read in full on a background thread and then given the transaction.
+   *
+   * @param perWalletModelData The wallet the transaction is for
+   * @param transaction The transaction
+   */
+  public void promoteWalletForTransaction(final WalletData perWalletModelData, final Transaction transaction) {
+    walletPromotionExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (!promoteWalletOnPromotionThread(perWalletModelData)) {
+          return;
         }
-        if (perWalletModelDataToReturn != null) {
-          WalletInfoData walletInfo = perWalletModelDataToReturn.getWalletInfo();
-          if (walletInfo != null) {
-            for (ECKey key : keys) {
-              if (key != null) {
-                Address address = key.toAddress(networkParameters);
-                walletInfo.addReceivingAddressOfKey(address);
-              }
-            }
+        Wallet wallet = perWalletModelData.getWallet();
+        try {
+          if (wallet.isTransactionRelevant(transaction) && wallet.getTransaction(transaction.getHash()) == null) {
+            log.debug("MultiBit adding a new pending transaction for the wallet '"
+                    + perWalletModelData.getWalletDescription() + "'\n" + transaction.toString());
+            wallet.receivePending(transaction, null);
           }
+        } catch (VerificationException e) {
+          log.error(e.getMessage(), e);
         }
+        controller.fireDataChangedUpdateLater();
       }
+    });
+  }
 
-      // Add wallet to blockchain.
-      if (blockChain != null) {
-        blockChain.addWallet(wallet);
-      } else {
-        log.error("Could not add wallet '" + walletFilename + "' to the blockChain as the blockChain is missing.\n"
-                + "This is bad. MultiBit is currently looking for a blockChain at '" + blockchainFilename + "'");
+  /**
+   * Create a replay task that syncs the wallets from the checkpoint at or before a height.
+   *
+   * @param perWalletModelDataToReplay The wallets to sync
+   * @param syncFromHeight The height the wallets need to sync from
+   */
+  public ReplayTask createSyncReplayTask(List<WalletData> perWalletModelDataToReplay, int syncFromHeight) {
+    StoredBlock syncFromStoredBlock = null;
+    if (checkpointManager != null) {
+      syncFromStoredBlock = checkpointManager.getCheckpointBeforeOrAtHeight(syncFromHeight);
+    }
+
+    if (syncFromStoredBlock == null) {
+      // Sync from genesis block.
+      return new ReplayTask(perWalletModelDataToReplay, null, 0);
+    } else {
+      Date syncDate = null;
+      if (syncFromStoredBlock.getHeader() != null) {
+        syncDate = new Date(syncFromStoredBlock.getHeader().getTimeSeconds() * 1000);
       }
+      return new ReplayTask(perWalletModelDataToReplay, syncDate, syncFromStoredBlock.getHeight());
+    }
+  }
 
-      // Add wallet to peergroup.
-      if (peerGroup != null) {
-        peerGroup.addWallet(wallet);
-        peerGroup.addEventListener(bitcoinController.getPeerEventListener());
-      } else {
-        log.error("Could not add wallet '" + walletFilename + "' to the peerGroup as the peerGroup is null. This is bad. ");
+  private void addWalletToAddressBookAndNetwork(WalletData perWalletModelData, Wallet wallet, String walletFilename) {
+    // Add the keys for this wallet to the address book as receiving
+    // addresses.
+    List<ECKey> keys = wallet.getKeychain();
+    if (keys != null) {
+      if (perWalletModelData != null) {
+        WalletInfoData walletInfo = perWalletModelData.getWalletInfo();
+        if (walletInfo != null) {
+          for (ECKey key : keys) {
+            if (key != null) {
+              Address address = key.toAddress(networkParameters);
+              walletInfo.addReceivingAddressOfKey(address);
+            }
+          }
+        }
       }
+    }
 
+    // Add wallet to blockchain.
+    if (blockChain != null) {
+      blockChain.addWallet(wallet);
+    } else {
+      log.error("Could not add wallet '" + walletFilename + "' to the blockChain as the blockChain is missing.\n"
+              + "This is bad. MultiBit is currently looking for a blockChain at '" + blockchainFilename + "'");
     }
 
-    return perWalletModelDataToReturn;
+    // Add wallet to peergroup.
+    if (peerGroup != null) {
+      peerGroup.addWallet(wallet);
+      peerGroup.addEventListener(bitcoinController.getPeerEventListener());
+    } else {
+      log.error("Could not add wallet '" + walletFilename + "' to the peerGroup as the peerGroup is null. This is bad. ");
+    }
+  }
+
+  /**
+   * Move the chainhead of the existing block store back for a replay, keeping the headers already downloaded.
+   * Only the filtered blocks from the new chainhead onwards then need to be downloaded.
+   *
+   * @param heightToReplayFrom The height to start the replay task from, or ReplayTask.UNKNOWN_START_HEIGHT
+   * @param dateToReplayFrom The date to start the replay task from (null for the genesis block)
+   * @return height of the block chain after the rewind, or -1 if the block store does not hold the headers
+   * back to the start of the replay (a new block store is needed)
+   * @throws BlockStoreException
+   */
+  public int rewindBlockStoreForReplay(int heightToReplayFrom, Date dateToReplayFrom) throws BlockStoreException {
+    if (blockChain == null || (heightToReplayFrom == ReplayTask.UNKNOWN_START_HEIGHT && dateToReplayFrom == null)) {
+      return -1;
+    }
+
+    long timeToReplayFromSecs = -1;
+    if (dateToReplayFrom != null) {
+      timeToReplayFromSecs = dateToReplayFrom.getTime() / 1000 - REPLAY_REWIND_TIME_MARGIN_SECS;
+    }
+    StoredBlock newChainHead = blockChain.rewindChainHead(heightToReplayFrom, timeToReplayFromSecs);
+    if (newChainHead == null) {
+      log.debug("The block store does not go back to height " + heightToReplayFrom + ", date " + dateToReplayFrom);
+      return -1;
+    }
+    log.debug("Rewound the chainhead to height " + newChainHead.getHeight() + " for the replay from height "
+            + heightToReplayFrom + ", date " + dateToReplayFrom);
+    return newChainHead.getHeight();
+  }
+
+  /**
+   * Add the blocks after the chainhead that were received before, with a bloom filter covering all the wallets,
+   * to the chain from the filtered block cache. The PeerGroup should be stopped.
+   *
+   * @return The number of blocks added from the cache (0 if the cache is not enabled)
+   */
+  public int replayFromFilteredBlockCache() {
+    if (!isFilteredBlockCacheEnabled() || blockChain == null) {
+      return 0;
+    }
+    List<WalletData> perWalletModelDataList = new ArrayList<WalletData>(bitcoinController.getModel().getPerWalletModelDataList());
+    return filteredBlockCache.replay(blockChain, FilteredBlockCache.getFilterElements(perWalletModelDataList));
+  }
+
+  /**
+   * Keep the filtered blocks received from now on in the filtered block cache, as received with a bloom filter
+   * made from the wallets that are open. The PeerGroup should be stopped so that the bloom filter is made afresh.
+   */
+  public void startFilteredBlockCacheRecording() {
+    if (!isFilteredBlockCacheEnabled()) {
+      return;
+    }
+    if (peerGroup != null && peerGroup.getBloomFilterPartitioner().isPartitioned()) {
+      // Each filtered block only matches one partition of the keys.
+      return;
+    }
+    List<WalletData> perWalletModelDataList = new ArrayList<WalletData>(bitcoinController.getModel().getPerWalletModelDataList());
+    filteredBlockCache.startRecording(FilteredBlockCache.getFilterElements(perWalletModelDataList));
+  }
+
+  /**
+   * A wallet has been taken out of the bloom filter so blocks received from now on may not match it.
+   */
+  public void stopFilteredBlockCacheRecording() {
+    if (filteredBlockCache != null) {
+      filteredBlockCache.stopRecording();
+    }
+  }
+
+  /**
+   * Keep the last block seen written for a wallet from passing a block that not every bloom filter partition has
+   * delivered (so that the wallet is never saved as having seen transactions it may not have been given).
+   *
+   * @param lastBlockSeen The last block seen about to be written
+   * @return The last block seen to write instead (lastBlockSeen itself if it does not need holding back)
+   */
+  public LastBlockSeen holdBackLastBlockSeen(LastBlockSeen lastBlockSeen) {
+    MultiBitPeerGroup currentPeerGroup = peerGroup;
+    if (currentPeerGroup == null) {
+      return lastBlockSeen;
+    }
+    return currentPeerGroup.getBloomFilterPartitioner().holdBackLastBlockSeen(lastBlockSeen);
+  }
+
+  private boolean isFilteredBlockCacheEnabled() {
+    return filteredBlockCache != null
+            && Boolean.TRUE.toString().equalsIgnoreCase(controller.getModel().getUserPreference(BitcoinModel.FILTERED_BLOCK_CACHE_ENABLED));
   }
 
   /**
@@ -544,6 +899,11 @@ public class MultiBitService {
 
     log.debug("Creating blockchain ...");
     blockChain = new MultiBitBlockChain(bitcoinController.getModel().getNetworkParameters(), blockStore);
+    blockChain.addListener(blockTimestampCache);
+    if (filteredBlockCache != null) {
+      blockChain.addFilteredBlockListener(filteredBlockCache);
+    }
+    blockChain.addFilteredBlockListener(bloomFilterManager);
     log.debug("Created blockchain '" + blockChain + "'");
 
     // Hook up the wallets to the new blockchain.
@@ -561,6 +921,8 @@ public class MultiBitService {
   /**
    * Send bitcoins from the active wallet.
    *
+   * The wallet is not saved here - the caller saves it (and waits for the save) once the send is done.
+   *
    * @return The sent transaction (may be null if there were insufficient
    *         funds for send)
    * @throws KeyCrypterException
@@ -571,27 +933,17 @@ public class MultiBitService {
   public Transaction sendCoins(WalletData perWalletModelData, SendRequest sendRequest,
                                CharSequence password) throws java.io.IOException, AddressFormatException, KeyCrypterException {
 
-    // Ping the peers to check the bitcoin network connection
-    List<Peer> connectedPeers = peerGroup.getConnectedPeers();
-    boolean atLeastOnePingWorked = false;
-    if (connectedPeers != null) {
-      for (Peer peer : connectedPeers) {
-
-        log.debug("Ping: {}", peer.getAddress().toString());
-
-        try {
-
-          ListenableFuture<Long> result = peer.ping();
-          result.get(4, TimeUnit.SECONDS);
-          atLeastOnePingWorked = true;
-          break;
-        } catch (ProtocolException | InterruptedException | ExecutionException | TimeoutException e) {
-          log.warn("Peer '" + peer.getAddress().toString() + "' failed ping test. Message was " + e.getMessage());
-        }
-      }
+    // Check the bitcoin network connection. The peers are pinged in the background so this normally
+    // does not wait - only if the ping results are stale are the peers pinged again (all at once).
+    boolean networkIsResponsive;
+    try {
+      networkIsResponsive = peerGroup.getPeerHealthMonitor().isNetworkResponsive(SEND_PING_TIMEOUT);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      networkIsResponsive = false;
     }
 
-    if (!atLeastOnePingWorked) {
+    if (!networkIsResponsive) {
       throw new IllegalStateException("All peers failed ping test (check network)");
     }
 
@@ -648,22 +1000,20 @@ public class MultiBitService {
         log.debug("Cannot add bitcoinController as listener to tx = " + sendTransaction.getHashAsString() + " no transactionConfidence");
       }
 
-      try {
-        bitcoinController.getFileHandler().savePerWalletModelData(perWalletModelData, false);
-      } catch (WalletSaveException | WalletVersionException wse) {
-        log.error(wse.getClass().getCanonicalName() + " " + wse.getMessage());
-        MessageManager.INSTANCE.addMessage(new Message(wse.getClass().getCanonicalName() + " " + wse.getMessage()));
-      }
-
       try {
         // Notify other wallets of the send (it might be a send to or from them).
-        List<WalletData> perWalletModelDataList = bitcoinController.getModel().getPerWalletModelDataList();
+        List<WalletData> perWalletModelDataList = bitcoinController.getModel().getPerWalletModelDataForTransaction(sendTransaction);
 
         if (perWalletModelDataList != null) {
           for (WalletData loopPerWalletModelData : perWalletModelDataList) {
             if (!perWalletModelData.getWalletFilename().equals(loopPerWalletModelData.getWalletFilename())) {
               Wallet loopWallet = loopPerWalletModelData.getWallet();
-              if (loopWallet.isPendingTransactionRelevant(sendTransaction)) {
+              if (loopWallet == null) {
+                if (loopPerWalletModelData.isSummaryOnly()
+                        && loopPerWalletModelData.getWalletSummary().isTransactionRelevant(sendTransaction)) {
+                  promoteWalletForTransaction(loopPerWalletModelData, sendTransaction);
+                }
+              } else if (loopWallet.isPendingTransactionRelevant(sendTransaction)) {
                 // The loopPerWalletModelData is marked as dirty.
                 if (loopPerWalletModelData.getWalletInfo() != null) {
                   synchronized (loopPerWalletModelData.getWalletInfo()) {
@@ -700,6 +1050,18 @@ public class MultiBitService {
     return blockStore;
   }
 
+  public FilteredBlockCache getFilteredBlockCache() {
+    return filteredBlockCache;
+  }
+
+  public BloomFilterManager getBloomFilterManager() {
+    return bloomFilterManager;
+  }
+
+  public BlockTimestampCache getBlockTimestampCache() {
+    return blockTimestampCache;
+  }
+
   public SecureRandom getSecureRandom() {
     return secureRandom;
   }
@@ -0,0 +1,266 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Remembers the peers MultiBit last connected to, with their scores, so that on the next start they can be
+ * connected to straight away rather than waiting for peer discovery.
+ */
+public class PeerAddressCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PeerAddressCache.class);
+
+    public static final String PEER_ADDRESS_CACHE_SUFFIX = ".peers";
+
+    /**
+     * The most peers that are remembered.
+     */
+    public static final int MAXIMUM_NUMBER_OF_PEERS = 64;
+
+    /**
+     * Peers not connected to for longer than this are forgotten.
+     */
+    public static final long MAXIMUM_AGE = 14L * 24 * 60 * 60 * 1000; // ms
+
+    private static final String PEER_ADDRESS_CACHE_HEADER_TEXT = "multiBit.peers";
+    private static final String VERSION_TEXT = "1";
+
+    private static final String VERSION_PROPERTY = "version";
+    private static final String NUMBER_OF_PEERS_PROPERTY = "numberOfPeers";
+    private static final String PEER_PREFIX = "peer.";
+    private static final String ADDRESS_SUFFIX = ".address";
+    private static final String PORT_SUFFIX = ".port";
+    private static final String SCORE_SUFFIX = ".score";
+    private static final String LAST_CONNECTED_SUFFIX = ".lastConnected";
+
+    private final File peerAddressCacheFile;
+
+    private final Map<InetSocketAddress, CachedPeer> cachedPeers = new HashMap<InetSocketAddress, CachedPeer>();
+
+    public PeerAddressCache(File peerAddressCacheFile) {
+        this.peerAddressCacheFile = peerAddressCacheFile;
+    }
+
+    public static String createPeerAddressCacheFilename(String blockchainFilename) {
+        if (blockchainFilename.endsWith(MultiBitService.SPV_BLOCKCHAIN_SUFFIX)) {
+            blockchainFilename = blockchainFilename.substring(0, blockchainFilename.length() - MultiBitService.SPV_BLOCKCHAIN_SUFFIX.length());
+        }
+        return blockchainFilename + PEER_ADDRESS_CACHE_SUFFIX;
+    }
+
+    /**
+     * A connection was made to the peer.
+     */
+    public synchronized void recordConnected(InetSocketAddress address, long now) {
+        CachedPeer cachedPeer = cachedPeers.get(address);
+        if (cachedPeer == null) {
+            cachedPeers.put(address, new CachedPeer(address, 0, now));
+        } else {
+            cachedPeer.lastConnectedTime = now;
+        }
+    }
+
+    /**
+     * Update the score of a peer that has been connected to.
+     */
+    public synchronized void updateScore(InetSocketAddress address, double score) {
+        CachedPeer cachedPeer = cachedPeers.get(address);
+        if (cachedPeer != null) {
+            cachedPeer.score = score;
+        }
+    }
+
+    /**
+     * @param maximumNumberOfAddresses The most addresses to return
+     * @return The addresses of the peers to try first - the best scoring, most recently connected to first
+     */
+    public synchronized List<InetSocketAddress> getAddressesToTry(int maximumNumberOfAddresses, long now) {
+        List<CachedPeer> recentPeers = getRecentPeers(now);
+        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+        for (CachedPeer cachedPeer : recentPeers) {
+            if (addresses.size() >= maximumNumberOfAddresses) {
+                break;
+            }
+            addresses.add(cachedPeer.address);
+        }
+        return addresses;
+    }
+
+    /**
+     * Read the peers written when MultiBit last ran, adding them to those already known.
+     */
+    public synchronized void load() {
+        if (!peerAddressCacheFile.exists()) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(peerAddressCacheFile);
+            properties.load(new InputStreamReader(inputStream, "UTF8"));
+        } catch (IOException ioe) {
+            log.error("Could not read the peer address cache '" + peerAddressCacheFile.getAbsolutePath() + "'. "
+                    + ioe.getClass().getCanonicalName() + " " + ioe.getMessage());
+            return;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException ioe) {
+                    log.error("Could not close the peer address cache '" + peerAddressCacheFile.getAbsolutePath() + "'");
+                }
+            }
+        }
+
+        if (!VERSION_TEXT.equals(properties.getProperty(VERSION_PROPERTY))) {
+            log.error("The peer address cache '" + peerAddressCacheFile.getAbsolutePath() + "' is not a version that is understood");
+            return;
+        }
+
+        try {
+            int numberOfPeers = Integer.parseInt(properties.getProperty(NUMBER_OF_PEERS_PROPERTY));
+            for (int peerIndex = 0; peerIndex < numberOfPeers; peerIndex++) {
+                String peerPrefix = PEER_PREFIX + peerIndex;
+                String hostAddress = properties.getProperty(peerPrefix + ADDRESS_SUFFIX);
+                if (hostAddress == null) {
+                    continue;
+                }
+                int port = Integer.parseInt(properties.getProperty(peerPrefix + PORT_SUFFIX));
+                double score = Double.parseDouble(properties.getProperty(peerPrefix + SCORE_SUFFIX));
+                long lastConnectedTime = Long.parseLong(properties.getProperty(peerPrefix + LAST_CONNECTED_SUFFIX));
+                try {
+                    // The address is an IP address so this does not look anything up.
+                    InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(hostAddress), port);
+                    if (!cachedPeers.containsKey(address)) {
+                        cachedPeers.put(address, new CachedPeer(address, score, lastConnectedTime));
+                    }
+                } catch (UnknownHostException uhe) {
+                    log.debug("Ignoring cached peer '" + hostAddress + "'. " + uhe.getMessage());
+                }
+            }
+        } catch (NumberFormatException nfe) {
+            log.error("The peer address cache '" + peerAddressCacheFile.getAbsolutePath() + "' could not be understood. " + nfe.getMessage());
+        }
+    }
+
+    /**
+     * Write the best of the recently connected to peers to disk.
+     */
+    public synchronized void save() {
+        List<CachedPeer> recentPeers = getRecentPeers(System.currentTimeMillis());
+        if (recentPeers.size() > MAXIMUM_NUMBER_OF_PEERS) {
+            recentPeers = recentPeers.subList(0, MAXIMUM_NUMBER_OF_PEERS);
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty(VERSION_PROPERTY, VERSION_TEXT);
+        properties.setProperty(NUMBER_OF_PEERS_PROPERTY, Integer.toString(recentPeers.size()));
+        int peerIndex = 0;
+        for (CachedPeer cachedPeer : recentPeers) {
+            String peerPrefix = PEER_PREFIX + peerIndex;
+            properties.setProperty(peerPrefix + ADDRESS_SUFFIX, cachedPeer.address.getAddress().getHostAddress());
+            properties.setProperty(peerPrefix + PORT_SUFFIX, Integer.toString(cachedPeer.address.getPort()));
+            properties.setProperty(peerPrefix + SCORE_SUFFIX, Double.toString(cachedPeer.score));
+            properties.setProperty(peerPrefix + LAST_CONNECTED_SUFFIX, Long.toString(cachedPeer.lastConnectedTime));
+            peerIndex++;
+        }
+
+        // Write a new file and then swap it in, so that the peers are never half written.
+        File temporaryFile = new File(peerAddressCacheFile.getAbsolutePath() + ".tmp");
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(temporaryFile);
+            properties.store(new OutputStreamWriter(outputStream, "UTF8"), PEER_ADDRESS_CACHE_HEADER_TEXT);
+            outputStream.close();
+            outputStream = null;
+            if (!temporaryFile.renameTo(peerAddressCacheFile)) {
+                // Windows will not rename over an existing file.
+                if (!peerAddressCacheFile.delete() || !temporaryFile.renameTo(peerAddressCacheFile)) {
+                    log.error("Could not replace the peer address cache '" + peerAddressCacheFile.getAbsolutePath() + "'");
+                }
+            }
+        } catch (IOException ioe) {
+            log.error("Could not write the peer address cache '" + peerAddressCacheFile.getAbsolutePath() + "'. "
+                    + ioe.getClass().getCanonicalName() + " " + ioe.getMessage());
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException ioe) {
+                    log.error("Could not close the peer address cache '" + temporaryFile.getAbsolutePath() + "'");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The peers connected to within MAXIMUM_AGE, best scoring and then most recent first (the lock on this is held)
+     */
+    private List<CachedPeer> getRecentPeers(long now) {
+        List<CachedPeer> recentPeers = new ArrayList<CachedPeer>();
+        for (CachedPeer cachedPeer : cachedPeers.values()) {
+            if (now - cachedPeer.lastConnectedTime <= MAXIMUM_AGE) {
+                recentPeers.add(cachedPeer);
+            }
+        }
+        Collections.sort(recentPeers, new Comparator<CachedPeer>() {
+            @Override
+            public int compare(CachedPeer peer1, CachedPeer peer2) {
+                int compareScore = Double.compare(peer2.score, peer1.score);
+                if (compareScore != 0) {
+                    return compareScore;
+                }
+                return Long.valueOf(peer2.lastConnectedTime).compareTo(peer1.lastConnectedTime);
+            }
+        });
+        return recentPeers;
+    }
+
+    private static class CachedPeer {
+        private final InetSocketAddress address;
+        private double score;
+        private long lastConnectedTime;
+
+        private CachedPeer(InetSocketAddress address, double score, long lastConnectedTime) {
+            this.address = address;
+            this.score = score;
+            this.lastConnectedTime = lastConnectedTime;
+        }
+    }
+}
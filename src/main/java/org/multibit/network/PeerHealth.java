@@ -0,0 +1,115 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+/**
+ * The rolling ping statistics of one connected peer, as kept by the PeerHealthMonitor.
+ */
+public class PeerHealth {
+
+    /**
+     * The weight given to the latest round trip time in the rolling average.
+     */
+    static final double ROUND_TRIP_TIME_WEIGHT = 0.3;
+
+    public static final long UNKNOWN_ROUND_TRIP_TIME = -1;
+
+    private double averageRoundTripTime = UNKNOWN_ROUND_TRIP_TIME;
+    private long lastRoundTripTime = UNKNOWN_ROUND_TRIP_TIME;
+    private int numberOfPings = 0;
+    private int numberOfFailures = 0;
+    private int consecutiveFailures = 0;
+    private long lastSuccessTime = 0;
+    private long lastResultTime = 0;
+
+    /**
+     * A ping was answered.
+     *
+     * @param roundTripTime The round trip time in milliseconds
+     * @param now           The time the answer was received
+     */
+    public synchronized void recordSuccess(long roundTripTime, long now) {
+        numberOfPings++;
+        consecutiveFailures = 0;
+        lastRoundTripTime = roundTripTime;
+        if (averageRoundTripTime < 0) {
+            averageRoundTripTime = roundTripTime;
+        } else {
+            averageRoundTripTime = ROUND_TRIP_TIME_WEIGHT * roundTripTime + (1 - ROUND_TRIP_TIME_WEIGHT) * averageRoundTripTime;
+        }
+        lastSuccessTime = now;
+        lastResultTime = now;
+    }
+
+    /**
+     * A ping failed or was not answered in time.
+     *
+     * @param now The time the ping was given up on
+     */
+    public synchronized void recordFailure(long now) {
+        numberOfPings++;
+        numberOfFailures++;
+        consecutiveFailures++;
+        lastResultTime = now;
+    }
+
+    /**
+     * @return true if the last ping was answered no longer than maximumAge milliseconds ago
+     */
+    public synchronized boolean isResponsive(long now, long maximumAge) {
+        return consecutiveFailures == 0 && lastSuccessTime > 0 && now - lastSuccessTime <= maximumAge;
+    }
+
+    /**
+     * @return true if there has been no ping result for longer than maximumAge milliseconds
+     */
+    public synchronized boolean isStale(long now, long maximumAge) {
+        return lastResultTime == 0 || now - lastResultTime > maximumAge;
+    }
+
+    /**
+     * @return The rolling average round trip time in milliseconds, or UNKNOWN_ROUND_TRIP_TIME if no ping has been answered
+     */
+    public synchronized long getAverageRoundTripTime() {
+        return averageRoundTripTime < 0 ? UNKNOWN_ROUND_TRIP_TIME : Math.round(averageRoundTripTime);
+    }
+
+    public synchronized long getLastRoundTripTime() {
+        return lastRoundTripTime;
+    }
+
+    public synchronized int getNumberOfPings() {
+        return numberOfPings;
+    }
+
+    public synchronized int getNumberOfFailures() {
+        return numberOfFailures;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized long getLastSuccessTime() {
+        return lastSuccessTime;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PeerHealth [averageRoundTripTime=" + getAverageRoundTripTime() + ", numberOfPings=" + numberOfPings
+                + ", numberOfFailures=" + numberOfFailures + ", consecutiveFailures=" + consecutiveFailures + "]";
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import com.google.bitcoin.core.AbstractPeerEventListener;
+import com.google.bitcoin.core.Peer;
+import com.google.bitcoin.core.PeerGroup;
+import com.google.bitcoin.core.ProtocolException;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pings all the connected peers of a PeerGroup at the same time in the background and keeps their rolling
+ * round trip times and failures, so that whether the bitcoin network can be reached is known without waiting.
+ */
+public class PeerHealthMonitor {
+
+    private static final Logger log = LoggerFactory.getLogger(PeerHealthMonitor.class);
+
+    /**
+     * How often the peers are pinged.
+     */
+    public static final long PING_INTERVAL = 15000; // ms
+
+    /**
+     * How long a ping has to be answered in before it counts as failed.
+     */
+    public static final long PING_TIMEOUT = 4000; // ms
+
+    /**
+     * How old the last ping result can be before the state is too stale to rely on.
+     */
+    public static final long MAXIMUM_RESULT_AGE = 3 * PING_INTERVAL;
+
+    private final PeerGroup peerGroup;
+
+    private final Map<Peer, PeerHealth> peerHealths = new ConcurrentHashMap<Peer, PeerHealth>();
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * A stopped monitor stays stopped (a new one is created with each PeerGroup).
+     */
+    private boolean stopped = false;
+
+    private final AbstractPeerEventListener peerEventListener = new AbstractPeerEventListener() {
+        @Override
+        public void onPeerConnected(Peer peer, int peerCount) {
+            pingPeer(peer);
+        }
+
+        @Override
+        public void onPeerDisconnected(Peer peer, int peerCount) {
+            if (peer != null) {
+                peerHealths.remove(peer);
+            }
+        }
+    };
+
+    public PeerHealthMonitor(PeerGroup peerGroup) {
+        this.peerGroup = peerGroup;
+    }
+
+    /**
+     * Start pinging the peers.
+     */
+    public void start() {
+        ScheduledExecutorService executor = getExecutor();
+        if (executor == null) {
+            log.debug("Peer health monitor has been stopped - not starting it again");
+            return;
+        }
+        peerGroup.addEventListener(peerEventListener);
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                pingAllPeers();
+            }
+        }, 0, PING_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop pinging the peers and forget their statistics. The monitor cannot be started again.
+     */
+    public void stop() {
+        peerGroup.removeEventListener(peerEventListener);
+        synchronized (this) {
+            stopped = true;
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+        peerHealths.clear();
+    }
+
+    /**
+     * Ping every connected peer without waiting for the answers.
+     */
+    public void pingAllPeers() {
+        List<Peer> connectedPeers = peerGroup.getConnectedPeers();
+        if (connectedPeers != null) {
+            for (Peer peer : connectedPeers) {
+                pingPeer(peer);
+            }
+        }
+    }
+
+    /**
+     * Ping a peer, recording the result in its statistics.
+     *
+     * @return A future with the round trip time, which fails if the peer does not answer within PING_TIMEOUT
+     * (or straight away if the monitor has been stopped)
+     */
+    ListenableFuture<Long> pingPeer(final Peer peer) {
+        final SettableFuture<Long> result = SettableFuture.create();
+        final ScheduledExecutorService timeoutExecutor = getExecutor();
+        if (timeoutExecutor == null) {
+            result.setException(new IllegalStateException("Peer health monitor has been stopped"));
+            return result;
+        }
+        final PeerHealth peerHealth = getOrCreatePeerHealth(peer);
+
+        ListenableFuture<Long> ping;
+        try {
+            ping = peer.ping();
+        } catch (ProtocolException pe) {
+            // The peer is too old to understand pings.
+            peerHealth.recordFailure(System.currentTimeMillis());
+            result.setException(pe);
+            return result;
+        }
+
+        Futures.addCallback(ping, new FutureCallback<Long>() {
+            @Override
+            public void onSuccess(Long roundTripTime) {
+                if (result.set(roundTripTime)) {
+                    peerHealth.recordSuccess(roundTripTime, System.currentTimeMillis());
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                if (result.setException(throwable)) {
+                    peerHealth.recordFailure(System.currentTimeMillis());
+                }
+            }
+        });
+
+        timeoutExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (result.setException(new TimeoutException("Ping not answered in " + PING_TIMEOUT + " ms"))) {
+                    log.debug("Peer '" + peer.getAddress() + "' failed to answer a ping in time");
+                    peerHealth.recordFailure(System.currentTimeMillis());
+                }
+            }
+        }, PING_TIMEOUT, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    /**
+     * See if the bitcoin network can be reached. The ping statistics are used if they are recent, otherwise all the
+     * connected peers are pinged at the same time and the first to answer is waited for.
+     *
+     * @param timeout How long to wait for a peer to answer when the statistics are stale, in milliseconds
+     * @return true if at least one connected peer is answering pings
+     */
+    public boolean isNetworkResponsive(long timeout) throws InterruptedException {
+        List<Peer> connectedPeers = peerGroup.getConnectedPeers();
+        if (connectedPeers == null || connectedPeers.isEmpty()) {
+            return false;
+        }
+        if (!isStale(connectedPeers)) {
+            return getNumberOfResponsivePeers(connectedPeers) > 0;
+        }
+
+        log.debug("Peer health is stale - pinging " + connectedPeers.size() + " peers");
+        final CountDownLatch firstAnswer = new CountDownLatch(1);
+        final AtomicBoolean answered = new AtomicBoolean(false);
+        final AtomicInteger outstandingPings = new AtomicInteger(connectedPeers.size());
+        for (Peer peer : connectedPeers) {
+            Futures.addCallback(pingPeer(peer), new FutureCallback<Long>() {
+                @Override
+                public void onSuccess(Long roundTripTime) {
+                    answered.set(true);
+                    firstAnswer.countDown();
+                }
+
+                @Override
+                public void onFailure(Throwable throwable) {
+                    if (outstandingPings.decrementAndGet() == 0) {
+                        firstAnswer.countDown();
+                    }
+                }
+            });
+        }
+        firstAnswer.await(timeout, TimeUnit.MILLISECONDS);
+        return answered.get();
+    }
+
+    /**
+     * @return The statistics of the peer, or null if it has not been pinged
+     */
+    public PeerHealth getPeerHealth(Peer peer) {
+        return peerHealths.get(peer);
+    }
+
+    /**
+     * @return The statistics of each peer that has been pinged
+     */
+    public Map<Peer, PeerHealth> getPeerHealths() {
+        return new HashMap<Peer, PeerHealth>(peerHealths);
+    }
+
+    /**
+     * @return The number of connected peers that answered their last ping recently
+     */
+    public int getNumberOfResponsivePeers() {
+        return getNumberOfResponsivePeers(peerGroup.getConnectedPeers());
+    }
+
+    /**
+     * @return The average of the rolling round trip times of the responsive peers, in milliseconds,
+     * or PeerHealth.UNKNOWN_ROUND_TRIP_TIME if none are responsive
+     */
+    public long getAverageRoundTripTime() {
+        long now = System.currentTimeMillis();
+        long totalRoundTripTime = 0;
+        int numberOfPeers = 0;
+        for (PeerHealth peerHealth : peerHealths.values()) {
+            if (peerHealth.isResponsive(now, MAXIMUM_RESULT_AGE)) {
+                totalRoundTripTime += peerHealth.getAverageRoundTripTime();
+                numberOfPeers++;
+            }
+        }
+        return numberOfPeers == 0 ? PeerHealth.UNKNOWN_ROUND_TRIP_TIME : totalRoundTripTime / numberOfPeers;
+    }
+
+    private int getNumberOfResponsivePeers(List<Peer> connectedPeers) {
+        if (connectedPeers == null) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        int numberOfResponsivePeers = 0;
+        for (Peer peer : connectedPeers) {
+            PeerHealth peerHealth = peerHealths.get(peer);
+            if (peerHealth != null && peerHealth.isResponsive(now, MAXIMUM_RESULT_AGE)) {
+                numberOfResponsivePeers++;
+            }
+        }
+        return numberOfResponsivePeers;
+    }
+
+    /**
+     * @return true if none of the connected peers has a recent ping result
+     */
+    private boolean isStale(List<Peer> connectedPeers) {
+        long now = System.currentTimeMillis();
+        for (Peer peer : connectedPeers) {
+            PeerHealth peerHealth = peerHealths.get(peer);
+            if (peerHealth != null && !peerHealth.isStale(now, MAXIMUM_RESULT_AGE)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private PeerHealth getOrCreatePeerHealth(Peer peer) {
+        synchronized (peerHealths) {
+            PeerHealth peerHealth = peerHealths.get(peer);
+            if (peerHealth == null) {
+                peerHealth = new PeerHealth();
+                peerHealths.put(peer, peerHealth);
+            }
+            return peerHealth;
+        }
+    }
+
+    /**
+     * @return The executor, or null if the monitor has been stopped
+     */
+    private synchronized ScheduledExecutorService getExecutor() {
+        if (stopped) {
+            return null;
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("PeerHealthMonitor-%d").setDaemon(true).build());
+        }
+        return executor;
+    }
+}
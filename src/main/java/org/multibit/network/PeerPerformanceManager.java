@@ -0,0 +1,324 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import com.google.bitcoin.core.AbstractPeerEventListener;
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.Peer;
+import com.google.bitcoin.core.PeerGroup;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scores the peers of a PeerGroup on their ping round trip time, how fast they deliver blocks and how often they
+ * disconnect. The best scoring peer is chosen to download the blockchain from, a download peer that is too slow is
+ * swapped for another that has been (or may be) faster, and more peers are connected to whilst catching up than
+ * when the blockchain is up to date.
+ */
+public class PeerPerformanceManager {
+
+    private static final Logger log = LoggerFactory.getLogger(PeerPerformanceManager.class);
+
+    /**
+     * How often the peers are assessed.
+     */
+    public static final long EVALUATION_INTERVAL = 10000; // ms
+
+    /**
+     * The shortest time the block throughput of the download peer is measured over.
+     */
+    public static final long MINIMUM_MEASUREMENT_WINDOW = 10000; // ms
+
+    /**
+     * How long a peer is left to download before it can be swapped.
+     */
+    public static final long MINIMUM_DOWNLOAD_TIME = 30000; // ms
+
+    /**
+     * A download peer delivering fewer blocks per second than this whilst catching up is swapped, if another peer
+     * can do better.
+     */
+    public static final double MINIMUM_DOWNLOAD_THROUGHPUT = 5.0;
+
+    /**
+     * How many times faster than the download peer another peer has to have delivered blocks for the download
+     * peer to be swapped for it. (When every peer is about as slow it is MultiBit processing the blocks that is
+     * holding the download up, and swapping would only lose the blocks in flight).
+     */
+    public static final double SWAP_THROUGHPUT_RATIO = 2.0;
+
+    /**
+     * With more blocks than this to download MultiBit is catching up (this is about a day of blocks).
+     */
+    public static final int CATCH_UP_BLOCKS_LEFT = 144;
+
+    public static final int CATCH_UP_NUMBER_OF_PEERS = 8;
+    public static final int IDLE_NUMBER_OF_PEERS = 4;
+
+    /**
+     * The number of peer addresses whose scores are remembered.
+     */
+    private static final int MAXIMUM_NUMBER_OF_SCORES = 1000;
+
+    private final PeerGroup peerGroup;
+    private final PeerHealthMonitor peerHealthMonitor;
+
+    private final Map<InetSocketAddress, PeerScore> peerScores = new LinkedHashMap<InetSocketAddress, PeerScore>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, PeerScore> eldest) {
+            return size() > MAXIMUM_NUMBER_OF_SCORES;
+        }
+    };
+
+    /**
+     * Peers MultiBit has disconnected itself, whose disconnects do not count against them.
+     */
+    private final Set<Peer> closingPeers = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Peer, Boolean>()));
+
+    private volatile boolean adaptivePeerCount = true;
+
+    private volatile int minimumNumberOfPeers = 0;
+
+    private volatile int blocksLeft = 0;
+
+    private Peer measuredDownloadPeer = null;
+    private long measuredDownloadPeerSince = 0;
+
+    /**
+     * The throughput of the last download peer swapped out whilst catching up, or PeerScore.UNKNOWN_THROUGHPUT.
+     */
+    private double swappedPeerBlocksPerSecond = PeerScore.UNKNOWN_THROUGHPUT;
+
+    private ScheduledExecutorService executor;
+
+    private final AbstractPeerEventListener peerEventListener = new AbstractPeerEventListener() {
+        @Override
+        public void onPeerConnected(Peer peer, int peerCount) {
+            getPeerScore(peer).recordConnected();
+        }
+
+        @Override
+        public void onPeerDisconnected(Peer peer, int peerCount) {
+            if (peer != null && !closingPeers.remove(peer)) {
+                getPeerScore(peer).recordDisconnected();
+            }
+        }
+
+        @Override
+        public void onChainDownloadStarted(Peer peer, int blocksLeft) {
+            PeerPerformanceManager.this.blocksLeft = blocksLeft;
+        }
+
+        @Override
+        public void onBlocksDownloaded(Peer peer, Block block, int blocksLeft) {
+            getPeerScore(peer).recordBlock();
+            PeerPerformanceManager.this.blocksLeft = blocksLeft;
+        }
+    };
+
+    public PeerPerformanceManager(PeerGroup peerGroup, PeerHealthMonitor peerHealthMonitor) {
+        this.peerGroup = peerGroup;
+        this.peerHealthMonitor = peerHealthMonitor;
+    }
+
+    public void start() {
+        peerGroup.addEventListener(peerEventListener);
+        synchronized (this) {
+            if (executor == null) {
+                executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("PeerPerformanceManager-%d").setDaemon(true).build());
+                executor.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            evaluate(System.currentTimeMillis());
+                        } catch (RuntimeException re) {
+                            log.error("Could not assess the peers. " + re.getClass().getCanonicalName() + " " + re.getMessage());
+                        }
+                    }
+                }, EVALUATION_INTERVAL, EVALUATION_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    public void stop() {
+        peerGroup.removeEventListener(peerEventListener);
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+    }
+
+    /**
+     * Set whether the number of peers connected to follows whether MultiBit is catching up.
+     * (This is switched off when the user has said which peers to connect to).
+     */
+    public void setAdaptivePeerCount(boolean adaptivePeerCount) {
+        this.adaptivePeerCount = adaptivePeerCount;
+    }
+
+    /**
+     * Set the fewest peers to connect to whatever the sync state (for instance so that each bloom filter partition
+     * has a peer). This has no effect when the number of peers is fixed.
+     */
+    public void setMinimumNumberOfPeers(int minimumNumberOfPeers) {
+        this.minimumNumberOfPeers = minimumNumberOfPeers;
+    }
+
+    public boolean isCatchingUp() {
+        return blocksLeft > CATCH_UP_BLOCKS_LEFT;
+    }
+
+    /**
+     * Choose the peer to download the blockchain from: the best scoring peer that is as far along the
+     * blockchain as the one the PeerGroup would have chosen.
+     *
+     * @param peers       The connected peers
+     * @param defaultPeer The peer the PeerGroup would choose
+     */
+    public Peer selectDownloadPeer(List<Peer> peers, Peer defaultPeer) {
+        if (defaultPeer == null) {
+            return null;
+        }
+        Peer bestPeer = defaultPeer;
+        double bestScore = getScore(defaultPeer);
+        for (Peer peer : peers) {
+            if (peer == defaultPeer || closingPeers.contains(peer) || peer.getBestHeight() < defaultPeer.getBestHeight()) {
+                continue;
+            }
+            double score = getScore(peer);
+            if (score > bestScore) {
+                bestPeer = peer;
+                bestScore = score;
+            }
+        }
+        if (bestPeer != defaultPeer) {
+            log.debug("Chose download peer '" + bestPeer.getAddress() + "' with score " + bestScore);
+        }
+        return bestPeer;
+    }
+
+    /**
+     * @return The score of a peer - higher is better
+     */
+    public double getScore(Peer peer) {
+        PeerHealth peerHealth = peerHealthMonitor.getPeerHealth(peer);
+        long averageRoundTripTime = peerHealth == null ? PeerHealth.UNKNOWN_ROUND_TRIP_TIME : peerHealth.getAverageRoundTripTime();
+        return getPeerScore(peer).getScore(averageRoundTripTime);
+    }
+
+    /**
+     * Adjust the number of peers to the sync state and swap the download peer if it is too slow.
+     */
+    void evaluate(long now) {
+        boolean catchingUp = isCatchingUp();
+        if (adaptivePeerCount) {
+            int numberOfPeers = Math.max(minimumNumberOfPeers, catchingUp ? CATCH_UP_NUMBER_OF_PEERS : IDLE_NUMBER_OF_PEERS);
+            if (peerGroup.getMaxConnections() != numberOfPeers) {
+                log.debug("Changing the number of peers to " + numberOfPeers + (catchingUp ? " to catch up" : " as up to date"));
+                peerGroup.setMaxConnections(numberOfPeers);
+            }
+        }
+
+        Peer downloadPeer = peerGroup.getDownloadPeer();
+        if (downloadPeer != measuredDownloadPeer) {
+            // A new download peer - start measuring it.
+            measuredDownloadPeer = downloadPeer;
+            measuredDownloadPeerSince = now;
+            if (downloadPeer != null) {
+                getPeerScore(downloadPeer).startMeasuring(now);
+            }
+            return;
+        }
+        if (downloadPeer == null) {
+            return;
+        }
+
+        PeerScore downloadPeerScore = getPeerScore(downloadPeer);
+        if (!catchingUp) {
+            // New blocks trickle in when up to date, which says nothing about the throughput.
+            downloadPeerScore.startMeasuring(now);
+            swappedPeerBlocksPerSecond = PeerScore.UNKNOWN_THROUGHPUT;
+            return;
+        }
+        if (!downloadPeerScore.measure(now, MINIMUM_MEASUREMENT_WINDOW) || now - measuredDownloadPeerSince < MINIMUM_DOWNLOAD_TIME) {
+            return;
+        }
+        double blocksPerSecond = downloadPeerScore.getBlocksPerSecond();
+        if (blocksPerSecond < MINIMUM_DOWNLOAD_THROUGHPUT && isFasterPeerAvailable(downloadPeer, blocksPerSecond)) {
+            // Disconnecting the download peer makes the PeerGroup carry on the download from the best of the others.
+            log.info("Download peer '" + downloadPeer.getAddress() + "' is only delivering "
+                    + String.format("%.1f", blocksPerSecond) + " blocks per second - swapping it");
+            swappedPeerBlocksPerSecond = blocksPerSecond;
+            closingPeers.add(downloadPeer);
+            downloadPeer.close();
+        }
+    }
+
+    /**
+     * @return true if another connected peer has delivered blocks SWAP_THROUGHPUT_RATIO times as fast as the
+     * download peer. If none of the other peers has been measured, one that might be faster is worth a try -
+     * unless the download peer is itself no faster than the peer it was swapped in for.
+     */
+    private boolean isFasterPeerAvailable(Peer downloadPeer, double blocksPerSecond) {
+        boolean anotherPeerMeasured = false;
+        boolean unmeasuredPeerAvailable = false;
+        for (Peer peer : peerGroup.getConnectedPeers()) {
+            if (peer == downloadPeer || closingPeers.contains(peer) || peer.getBestHeight() < downloadPeer.getBestHeight()) {
+                continue;
+            }
+            double peerBlocksPerSecond = getPeerScore(peer).getBlocksPerSecond();
+            if (peerBlocksPerSecond == PeerScore.UNKNOWN_THROUGHPUT) {
+                unmeasuredPeerAvailable = true;
+            } else if (peerBlocksPerSecond >= SWAP_THROUGHPUT_RATIO * blocksPerSecond && peerBlocksPerSecond > 0) {
+                return true;
+            } else {
+                anotherPeerMeasured = true;
+            }
+        }
+        boolean lastSwapHelped = swappedPeerBlocksPerSecond == PeerScore.UNKNOWN_THROUGHPUT
+                || blocksPerSecond >= SWAP_THROUGHPUT_RATIO * swappedPeerBlocksPerSecond;
+        return unmeasuredPeerAvailable && !anotherPeerMeasured && lastSwapHelped;
+    }
+
+    PeerScore getPeerScore(Peer peer) {
+        InetSocketAddress address = peer.getAddress().toSocketAddress();
+        synchronized (peerScores) {
+            PeerScore peerScore = peerScores.get(address);
+            if (peerScore == null) {
+                peerScore = new PeerScore();
+                peerScores.put(address, peerScore);
+            }
+            return peerScore;
+        }
+    }
+}
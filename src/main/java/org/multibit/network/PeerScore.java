@@ -0,0 +1,138 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+/**
+ * How well a peer address has served MultiBit: how quickly it delivers blocks when it is the download peer
+ * and how often its connections drop. Combined with the ping round trip time this gives the peer's score.
+ */
+public class PeerScore {
+
+    /**
+     * The weight given to the latest measurement of the block throughput in the rolling average.
+     */
+    static final double THROUGHPUT_WEIGHT = 0.5;
+
+    /**
+     * Points for a peer that answers pings instantly, falling off as the round trip time grows.
+     */
+    static final double LATENCY_POINTS = 10;
+
+    /**
+     * The round trip time, in milliseconds, at which a peer gets half the latency points.
+     */
+    static final double HALF_LATENCY_POINTS_ROUND_TRIP_TIME = 250;
+
+    /**
+     * Points taken off a peer whose every connection has dropped.
+     */
+    static final double DISCONNECT_PENALTY = 20;
+
+    public static final double UNKNOWN_THROUGHPUT = -1;
+
+    private double blocksPerSecond = UNKNOWN_THROUGHPUT;
+    private long windowStartTime = 0;
+    private int blocksInWindow = 0;
+
+    private int numberOfConnections = 0;
+    private int numberOfDisconnects = 0;
+
+    public synchronized void recordConnected() {
+        numberOfConnections++;
+    }
+
+    /**
+     * The connection dropped (connections closed by MultiBit itself are not recorded).
+     */
+    public synchronized void recordDisconnected() {
+        numberOfDisconnects++;
+    }
+
+    /**
+     * The peer has started serving the blockchain download.
+     */
+    public synchronized void startMeasuring(long now) {
+        windowStartTime = now;
+        blocksInWindow = 0;
+    }
+
+    /**
+     * A block (or filtered block) was received from the peer.
+     */
+    public synchronized void recordBlock() {
+        blocksInWindow++;
+    }
+
+    /**
+     * Fold the blocks received since the last measurement into the rolling throughput and start another.
+     *
+     * @param minimumWindow The shortest time, in milliseconds, that gives a meaningful measurement
+     * @return true if the throughput was updated
+     */
+    public synchronized boolean measure(long now, long minimumWindow) {
+        long windowLength = now - windowStartTime;
+        if (windowStartTime == 0 || windowLength < minimumWindow) {
+            return false;
+        }
+        double windowBlocksPerSecond = 1000.0 * blocksInWindow / windowLength;
+        if (blocksPerSecond < 0) {
+            blocksPerSecond = windowBlocksPerSecond;
+        } else {
+            blocksPerSecond = THROUGHPUT_WEIGHT * windowBlocksPerSecond + (1 - THROUGHPUT_WEIGHT) * blocksPerSecond;
+        }
+        windowStartTime = now;
+        blocksInWindow = 0;
+        return true;
+    }
+
+    /**
+     * @return The rolling number of blocks received per second whilst downloading, or UNKNOWN_THROUGHPUT
+     */
+    public synchronized double getBlocksPerSecond() {
+        return blocksPerSecond;
+    }
+
+    /**
+     * @return The fraction of the connections to the peer that dropped
+     */
+    public synchronized double getDisconnectRate() {
+        return numberOfConnections == 0 ? 0 : Math.min(1.0, (double) numberOfDisconnects / numberOfConnections);
+    }
+
+    /**
+     * The score of the peer - higher is better. Throughput counts one point per block per second, latency up to
+     * LATENCY_POINTS and a peer that always disconnects loses DISCONNECT_PENALTY. Anything unknown scores nothing.
+     *
+     * @param averageRoundTripTime The rolling ping round trip time of the peer, or PeerHealth.UNKNOWN_ROUND_TRIP_TIME
+     */
+    public synchronized double getScore(long averageRoundTripTime) {
+        double score = 0;
+        if (blocksPerSecond >= 0) {
+            score += blocksPerSecond;
+        }
+        if (averageRoundTripTime >= 0) {
+            score += LATENCY_POINTS * HALF_LATENCY_POINTS_ROUND_TRIP_TIME / (HALF_LATENCY_POINTS_ROUND_TRIP_TIME + averageRoundTripTime);
+        }
+        score -= DISCONNECT_PENALTY * getDisconnectRate();
+        return score;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PeerScore [blocksPerSecond=" + blocksPerSecond + ", numberOfConnections=" + numberOfConnections
+                + ", numberOfDisconnects=" + numberOfDisconnects + "]";
+    }
+}
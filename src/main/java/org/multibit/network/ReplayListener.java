@@ -0,0 +1,39 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+/**
+ * Interface to implement if you are interested in hearing about the progress of blockchain replays.
+ * The methods are called on the thread that caused the change and should not block.
+ */
+public interface ReplayListener {
+    /**
+     * The ReplayManager has changed state.
+     *
+     * @param replayTask The task the state applies to (null when idle)
+     * @param state      The new state
+     */
+    public void replayStateChanged(ReplayTask replayTask, ReplayState state);
+
+    /**
+     * More of the current replay task has been downloaded.
+     *
+     * @param replayTask      The task being replayed
+     * @param percentComplete The percentage of the task that is complete
+     * @param blocksToGo      The number of blocks still to download
+     */
+    public void replayProgress(ReplayTask replayTask, long percentComplete, int blocksToGo);
+}
@@ -20,6 +20,7 @@ import com.google.bitcoin.core.CheckpointManager;
 import com.google.bitcoin.core.PeerGroup;
 import com.google.bitcoin.core.StoredBlock;
 import com.google.bitcoin.store.BlockStoreException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.multibit.controller.bitcoin.BitcoinController;
 import org.multibit.message.Message;
 import org.multibit.message.MessageManager;
@@ -34,7 +35,9 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.util.*;
-import java.util.Timer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 /**
@@ -44,13 +47,14 @@ import java.util.Timer;
  * date wallet is opened 4) Encrypted wallets are opened when the user has used
  * an older version of MultiBit that does not understand them (they then get out
  * of date).
+ *
+ * Replay tasks are started, restarted and finished by events (a task being offered, the download completing, a task
+ * being cancelled) which are handled one at a time on the ReplayManager's own thread.
  */
 public enum ReplayManager {
   INSTANCE;
 
   private static final Logger log = LoggerFactory.getLogger(ReplayManager.class);
-  private ReplayManagerTimerTask replayManagerTimerTask;
-  private Timer replayManagerTimer;
 
   /**
    * The actual chain height prior to any replay
@@ -58,25 +62,129 @@ public enum ReplayManager {
    */
   private int actualLastChainHeight;
 
-  private static final int REPLAY_MANAGER_DELAY_TIME = 0; // ms
-  private static final int REPLAY_MANAGER_REPEAT_TIME = 333; // ms
-
   private BitcoinController controller;
 
   private final Queue<ReplayTask> replayTaskQueue = new LinkedList<ReplayTask>();
 
+  /**
+   * The state of the task at the head of the queue (only changed with the lock on the queue held).
+   */
+  private volatile ReplayState state = ReplayState.IDLE;
+
+  /**
+   * The task the state applies to, so that progress can be reported without taking the lock on the queue.
+   */
+  private volatile ReplayTask stateTask = null;
+
+  /**
+   * Starts, restarts and finishes replay tasks, one event at a time.
+   */
+  private final ExecutorService replayExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("ReplayManager").setDaemon(true).build());
+
+  private final List<ReplayListener> replayListeners = new CopyOnWriteArrayList<ReplayListener>();
+
   private static boolean regularDownloadIsRunning = false;
 
+  /**
+   * Keeps the replay tasks that have not completed on disk so that they can be resumed.
+   */
+  private ReplayTaskStore replayTaskStore;
+
 
   public void initialise(BitcoinController controller, boolean clearQueue) {
     this.controller = controller;
 
-    if (clearQueue) {
-      replayTaskQueue.clear();
+    synchronized (replayTaskQueue) {
+      if (clearQueue) {
+        replayTaskQueue.clear();
+        setState(null, ReplayState.IDLE);
+      }
+    }
+    startNextTask();
+  }
+
+  public void addReplayListener(ReplayListener replayListener) {
+    replayListeners.add(replayListener);
+  }
+
+  public void removeReplayListener(ReplayListener replayListener) {
+    replayListeners.remove(replayListener);
+  }
+
+  public ReplayState getState() {
+    return state;
+  }
+
+  /**
+   * Change state (the lock on the queue is held) and tell the listeners.
+   */
+  private void setState(ReplayTask replayTask, ReplayState newState) {
+    log.debug("ReplayManager state " + state + " -> " + newState);
+    state = newState;
+    stateTask = replayTask;
+    for (ReplayListener replayListener : replayListeners) {
+      try {
+        replayListener.replayStateChanged(replayTask, newState);
+      } catch (RuntimeException re) {
+        log.error("ReplayListener failed. " + re.getClass().getCanonicalName() + " " + re.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Start the task at the head of the queue if nothing is running.
+   */
+  private void startNextTask() {
+    replayExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (replayTaskQueue) {
+          ReplayTask nextTask = replayTaskQueue.peek();
+          if (state != ReplayState.IDLE || nextTask == null || controller == null) {
+            return;
+          }
+          setState(nextTask, ReplayState.STARTING);
+          runReplayTask(nextTask);
+        }
+      }
+    });
+  }
+
+  /**
+   * Start the current task again if other wallets have been merged into it that need an earlier start.
+   */
+  private void restartTask(final ReplayTask replayTask) {
+    replayExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (replayTaskQueue) {
+          if (state != ReplayState.REPLAYING || replayTaskQueue.peek() != replayTask || !replayTask.isRestartRequired()) {
+            return;
+          }
+          log.debug("Restarting ReplayTask " + replayTask.toString());
+          setState(replayTask, ReplayState.STARTING);
+          runReplayTask(replayTask);
+        }
+      }
+    });
+  }
+
+  /**
+   * Run the replay task (on the replay thread with the lock on the queue held) - it is replaying until the
+   * download completes.
+   */
+  private void runReplayTask(ReplayTask replayTask) {
+    try {
+      syncWallet(replayTask);
+      setState(replayTask, ReplayState.REPLAYING);
+    } catch (IOException ioe) {
+      log.error(ioe.getClass().getCanonicalName() + " " + ioe.getMessage());
+      finishTask(replayTask, ioe, false);
+    } catch (BlockStoreException bse) {
+      log.error(bse.getClass().getCanonicalName() + " " + bse.getMessage());
+      finishTask(replayTask, bse, false);
     }
-    replayManagerTimerTask = new ReplayManagerTimerTask(controller, replayTaskQueue);
-    replayManagerTimer = new Timer();
-    replayManagerTimer.scheduleAtFixedRate(replayManagerTimerTask, REPLAY_MANAGER_DELAY_TIME, REPLAY_MANAGER_REPEAT_TIME);
   }
 
   /**
@@ -87,21 +195,17 @@ public enum ReplayManager {
     log.info("Starting replay task : " + replayTask.toString());
 
     // Remember the chain height.
+    // (When a task is restarted part way through the chain is not as long as it was).
     if (controller.getMultiBitService().getChain() != null) {
-      actualLastChainHeight = controller.getMultiBitService().getChain().getBestChainHeight();
+      int chainHeight = controller.getMultiBitService().getChain().getBestChainHeight();
+      actualLastChainHeight = replayTask.isStarted() ? Math.max(actualLastChainHeight, chainHeight) : chainHeight;
     }
+    replayTask.setStarted(true);
+    replayTask.clearRestartRequired();
 
     // Mark the wallets as busy and set the replay task uuid into the model
     List<WalletData> perWalletModelDataList = replayTask.getPerWalletModelDataToReplay();
-    if (perWalletModelDataList != null) {
-      for (WalletData perWalletModelData : perWalletModelDataList) {
-        perWalletModelData.setBusy(true);
-        perWalletModelData.setBusyTaskKey("multiBitDownloadListener.downloadingText");
-        perWalletModelData.setBusyTaskVerbKey("multiBitDownloadListener.downloadingTextShort");
-        perWalletModelData.setReplayTaskUUID(replayTask.getUuid());
-      }
-      controller.fireWalletBusyChange(true);
-    }
+    markWalletsAsReplaying(replayTask, perWalletModelDataList);
 
     Date dateToReplayFrom = replayTask.getStartDate();
 
@@ -139,11 +243,24 @@ public enum ReplayManager {
     // Reset UI to zero peers.
     controller.getPeerEventListener().onPeerDisconnected(null, 0);
 
-    // Close the blockstore and recreate a new one.
-    int newChainHeightAfterTruncate = controller.getMultiBitService().createNewBlockStoreForReplay(dateToReplayFrom);
+    // Move the chainhead back over the headers already downloaded if they go back far enough,
+    // otherwise close the blockstore and recreate a new one from the checkpoints.
+    int newChainHeightAfterTruncate = controller.getMultiBitService().rewindBlockStoreForReplay(replayTask.getStartHeight(), dateToReplayFrom);
+    if (newChainHeightAfterTruncate < 0) {
+      newChainHeightAfterTruncate = controller.getMultiBitService().createNewBlockStoreForReplay(dateToReplayFrom);
+    }
     log.debug("dateToReplayFrom = " + dateToReplayFrom + ", newChainHeightAfterTruncate = " + newChainHeightAfterTruncate);
     replayTask.setStartHeight(newChainHeightAfterTruncate);
 
+    // Blocks that have been received before for all the wallets are replayed from disk,
+    // and the peers are only asked for the rest.
+    int numberOfBlocksFromCache = controller.getMultiBitService().replayFromFilteredBlockCache();
+    if (numberOfBlocksFromCache > 0) {
+      log.debug("Replayed " + numberOfBlocksFromCache + " blocks from the filtered block cache");
+      controller.fireBlockDownloaded();
+    }
+    controller.getMultiBitService().startFilteredBlockCacheRecording();
+
     // Create a new PeerGroup.
     controller.getMultiBitService().createNewPeerGroup();
     log.debug("Recreated PeerGroup.");
@@ -161,6 +278,33 @@ public enum ReplayManager {
     log.debug("Blockchain download started.");
   }
 
+  /**
+   * Wallets that have joined a running replay task are replayed from the blocks it has got to.
+   */
+  private void startReplayingWallets(ReplayTask replayTask, List<WalletData> perWalletModelDataList) {
+    if (perWalletModelDataList.isEmpty()) {
+      return;
+    }
+    markWalletsAsReplaying(replayTask, perWalletModelDataList);
+    addDownloadListeners(perWalletModelDataList);
+  }
+
+  private void markWalletsAsReplaying(ReplayTask replayTask, List<WalletData> perWalletModelDataList) {
+    if (perWalletModelDataList == null) {
+      return;
+    }
+    for (WalletData perWalletModelData : perWalletModelDataList) {
+      perWalletModelData.setBusy(true);
+      perWalletModelData.setBusyTaskKey("multiBitDownloadListener.downloadingText");
+      perWalletModelData.setBusyTaskVerbKey("multiBitDownloadListener.downloadingTextShort");
+      perWalletModelData.setReplayTaskUUID(replayTask.getUuid());
+    }
+    controller.fireWalletBusyChange(true);
+
+    // Whilst replaying, the wallets are only saved at checkpoints.
+    controller.getWalletSaveScheduler().replayStarted(perWalletModelDataList);
+  }
+
   public void addDownloadListeners(List<WalletData> perWalletModelDataList) {
     PeerGroup peerGroup = controller.getMultiBitService().getPeerGroup();
     if (peerGroup instanceof MultiBitPeerGroup) {
@@ -201,6 +345,22 @@ public enum ReplayManager {
 
     log.debug("Received ReplayTask of " + replayTask.toString());
 
+    // A wallet that was opened from its summary has nothing to replay the blocks into. It is caught up
+    // with the blocks it has missed when it is read in full (see MultiBitService#promoteWallet).
+    List<WalletData> perWalletModelDataToReplay = replayTask.getPerWalletModelDataToReplay();
+    if (perWalletModelDataToReplay != null && !perWalletModelDataToReplay.isEmpty()) {
+      for (WalletData perWalletModelData : perWalletModelDataToReplay) {
+        if (perWalletModelData != null && perWalletModelData.getWallet() == null) {
+          log.debug("Not replaying wallet '" + perWalletModelData.getWalletFilename()
+                  + "' as it has not been read in full - it is synced when it is");
+          perWalletModelDataToReplay.remove(perWalletModelData);
+        }
+      }
+      if (perWalletModelDataToReplay.isEmpty()) {
+        return false;
+      }
+    }
+
     // Work out for this replay task where the blockchain will be truncated to.
     int startHeight = replayTask.getStartHeight();
     if (startHeight == ReplayTask.UNKNOWN_START_HEIGHT) {
@@ -236,7 +396,6 @@ public enum ReplayManager {
     }
     log.debug("Actual replayTask offered = " + replayTask.toString());
     synchronized (replayTaskQueue) {
-      replayTaskQueue.offer(replayTask);
       String waitingText = "singleWalletPanel.waiting.text";
       String waitingVerb = "singleWalletPanel.waiting.verb";
 
@@ -254,6 +413,46 @@ public enum ReplayManager {
           perWalletModelData.setDirty(true);
         }
       }
+
+      // Every replay is a pass from its start to the end of the blockchain that all the wallets see,
+      // so tasks are merged rather than queued one after another.
+      ReplayTask runningTask = null;
+      ReplayTask waitingTask = null;
+      for (ReplayTask queuedTask : replayTaskQueue) {
+        if (!queuedTask.isStarted()) {
+          waitingTask = queuedTask;
+        } else if (!queuedTask.isCompleted() && state != ReplayState.TIDYING_UP) {
+          runningTask = queuedTask;
+        }
+      }
+
+      if (waitingTask != null) {
+        // Not started yet - start it from whichever start is earlier.
+        waitingTask.merge(replayTask);
+        log.debug("Merged replayTask into waiting replay task " + waitingTask.toString());
+      } else if (runningTask != null) {
+        int progressHeight = -1;
+        if (controller.getMultiBitService().getChain() != null) {
+          progressHeight = controller.getMultiBitService().getChain().getBestChainHeight();
+        }
+        if (startHeight != ReplayTask.UNKNOWN_START_HEIGHT && progressHeight >= 0 && startHeight >= progressHeight) {
+          // The running pass has not reached the blocks these wallets need yet - they join it.
+          List<WalletData> joiningWallets = runningTask.join(replayTask);
+          log.debug("Joined " + joiningWallets.size() + " wallets to running replay task " + runningTask.toString());
+          startReplayingWallets(runningTask, joiningWallets);
+        } else {
+          // The running pass is past the start of these wallets. Start it again from the earlier
+          // start so that one pass replays them all, rather than finishing it and then doing another.
+          runningTask.merge(replayTask);
+          runningTask.requestRestart();
+          log.debug("Restarting running replay task to include replayTask " + runningTask.toString());
+          restartTask(runningTask);
+        }
+      } else {
+        replayTaskQueue.offer(replayTask);
+        startNextTask();
+      }
+      persistReplayTasks(null);
     }
     return true;
   }
@@ -261,46 +460,240 @@ public enum ReplayManager {
   /**
    * Called by the downloadlistener when the synchronise completes.
    *
-   * @param replayTaskUUID TODO
+   * @param replayTaskUUID The UUID of the replay task the download was for (ignored unless it is the current task)
    */
-  public void taskHasCompleted(UUID replayTaskUUID) {
+  public void taskHasCompleted(final UUID replayTaskUUID) {
     log.debug("ReplayTask with UUID " + replayTaskUUID + " has completed.");
-    // Check the UUID matches the current task.
-    ReplayTask currentTask = replayTaskQueue.peek();
-    if (currentTask == null) {
+    if (replayTaskUUID == null) {
       return;
-    } else {
-      // Not relevant - ignore.
-      if (!currentTask.getUuid().equals(replayTaskUUID)) {
-        return;
+    }
+    replayExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (replayTaskQueue) {
+          // Check the UUID matches the current task - a restarted task has a new one.
+          ReplayTask currentTask = replayTaskQueue.peek();
+          if (state != ReplayState.REPLAYING || currentTask == null || !currentTask.getUuid().equals(replayTaskUUID)) {
+            return;
+          }
+          finishTask(currentTask, null, false);
+        }
+      }
+    });
+  }
+
+  /**
+   * Cancel a replay task. A task that is waiting is removed from the queue. The wallets of a running task are
+   * released and the blocks still to come are downloaded as a regular catch up.
+   *
+   * @return true if the task was cancelled, false if it had already finished
+   */
+  public boolean cancelReplayTask(final ReplayTask replayTask) {
+    synchronized (replayTaskQueue) {
+      if (!replayTaskQueue.contains(replayTask) || replayTask.isCompleted()) {
+        return false;
+      }
+      if (replayTaskQueue.peek() != replayTask || !replayTask.isStarted()) {
+        log.debug("Cancelling waiting ReplayTask " + replayTask.toString());
+        removeFromQueue(replayTask);
+        releaseWallets(replayTask);
+        persistReplayTasks(null);
+        replayTask.replayCancelled();
+        return true;
       }
     }
 
-    // Tell the ReplayTimerTask that we are cleaning up.
-    replayManagerTimerTask.currentTaskIsTidyingUp(true);
+    replayExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (replayTaskQueue) {
+          if (replayTaskQueue.peek() == replayTask && !replayTask.isCompleted()) {
+            log.debug("Cancelling running ReplayTask " + replayTask.toString());
+            removeDownloadListeners(replayTask.getPerWalletModelDataToReplay());
+            finishTask(replayTask, null, true);
+          }
+        }
+      }
+    });
+    return true;
+  }
 
+  /**
+   * Tidy up after the current task (on the replay thread with the lock on the queue held), then start the next.
+   *
+   * @param failure The reason the task could not be done, or null
+   * @param cancelled True if the task was cancelled
+   */
+  private void finishTask(ReplayTask currentTask, Throwable failure, boolean cancelled) {
+    setState(currentTask, ReplayState.TIDYING_UP);
     try {
-      if (currentTask != null) {
-        // This task is complete. Inform the UI.
-        List<WalletData> perWalletModelDataList = currentTask.getPerWalletModelDataToReplay();
-        if (perWalletModelDataList != null) {
-          for (WalletData perWalletModelData : perWalletModelDataList) {
-            perWalletModelData.setBusyTaskVerbKey(null);
-            perWalletModelData.setBusyTaskKey(null);
-            perWalletModelData.setBusy(false);
-            perWalletModelData.setReplayTaskUUID(null);
+      // The task does not need resuming any more.
+      currentTask.setCompleted(true);
+      persistReplayTasks(currentTask);
+
+      // This task is complete. Inform the UI.
+      releaseWallets(currentTask);
+    } finally {
+      removeFromQueue(currentTask);
+      log.debug("ReplayTask " + currentTask.toString() + " has completed.");
+      setState(null, ReplayState.IDLE);
+
+      if (failure != null) {
+        currentTask.replayFailed(failure);
+      } else if (cancelled) {
+        currentTask.replayCancelled();
+      } else {
+        currentTask.replayCompleted();
+      }
+
+      // Clear to start the next task.
+      startNextTask();
+    }
+  }
+
+  private void releaseWallets(ReplayTask replayTask) {
+    List<WalletData> perWalletModelDataList = replayTask.getPerWalletModelDataToReplay();
+    if (perWalletModelDataList != null) {
+      for (WalletData perWalletModelData : perWalletModelDataList) {
+        perWalletModelData.setBusyTaskVerbKey(null);
+        perWalletModelData.setBusyTaskKey(null);
+        perWalletModelData.setBusy(false);
+        perWalletModelData.setReplayTaskUUID(null);
+      }
+
+      // Save the replayed wallets and go back to saving them as they change.
+      controller.getWalletSaveScheduler().replayCompleted(perWalletModelDataList);
+    }
+    controller.fireWalletBusyChange(false);
+  }
+
+  /**
+   * Remove the task itself from the queue (tasks compare equal by value).
+   */
+  private void removeFromQueue(ReplayTask replayTask) {
+    Iterator<ReplayTask> iterator = replayTaskQueue.iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next() == replayTask) {
+        iterator.remove();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Called by the downloadlistener as the current replay task progresses.
+   */
+  public void replayProgress(long percentComplete, int blocksToGo) {
+    ReplayTask currentTask = stateTask;
+    if (currentTask == null || state != ReplayState.REPLAYING) {
+      return;
+    }
+    currentTask.setPercentComplete(percentComplete);
+    for (ReplayListener replayListener : replayListeners) {
+      try {
+        replayListener.replayProgress(currentTask, percentComplete, blocksToGo);
+      } catch (RuntimeException re) {
+        log.error("ReplayListener failed. " + re.getClass().getCanonicalName() + " " + re.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Called by the WalletSaveScheduler when a wallet being replayed has been checkpointed.
+   * The checkpoint is recorded on the replay thread: the save thread must not wait for the lock on the queue,
+   * as the replay thread holds it whilst starting a task and waits for the wallets to be saved.
+   *
+   * @param perWalletModelData The wallet that was saved
+   * @param lastBlockSeenHeight The last block seen height of the wallet when it was saved
+   */
+  public void walletCheckpointed(final WalletData perWalletModelData, final int lastBlockSeenHeight) {
+    replayExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (replayTaskQueue) {
+          ReplayTask currentTask = replayTaskQueue.peek();
+          if (currentTask == null || perWalletModelData.getReplayTaskUUID() == null
+                  || !perWalletModelData.getReplayTaskUUID().equals(currentTask.getUuid())) {
+            return;
+          }
+          int processedHeight = currentTask.getProcessedHeight();
+          currentTask.walletCheckpointed(perWalletModelData, lastBlockSeenHeight);
+          if (currentTask.getProcessedHeight() != processedHeight) {
+            persistReplayTasks(null);
           }
         }
-        // TODO - does not look quite right.
-        controller.fireWalletBusyChange(false);
       }
-    } finally {
-      // No longer tidying up.
-      replayManagerTimerTask.currentTaskIsTidyingUp(false);
+    });
+  }
+
+  /**
+   * Offer the replay tasks that had not completed when MultiBit last ran again, each starting from the height
+   * its wallets had been checkpointed at. Wallets that are no longer open are left out.
+   *
+   * @return The number of replay tasks resumed
+   */
+  public int resumePersistedReplayTasks() {
+    List<ReplayTaskStore.PersistedReplayTask> persistedReplayTasks = getReplayTaskStore().load();
+    int numberOfReplayTasksResumed = 0;
+    for (ReplayTaskStore.PersistedReplayTask persistedReplayTask : persistedReplayTasks) {
+      List<WalletData> perWalletModelDataToReplay = new ArrayList<WalletData>();
+      int resumeHeight = persistedReplayTask.getProcessedHeight();
+      for (String walletFilename : persistedReplayTask.getWalletFilenames()) {
+        WalletData perWalletModelData = controller.getModel().getPerWalletModelDataByWalletFilename(walletFilename);
+        if (perWalletModelData == null || perWalletModelData.getWallet() == null || getWaitingReplayTask(perWalletModelData) != null) {
+          continue;
+        }
+        perWalletModelDataToReplay.add(perWalletModelData);
 
-      // Everything is completed - clear to start the next task.
-      replayManagerTimerTask.currentTaskHasCompleted();
+        // Never resume past what the wallet itself has seen.
+        int lastBlockSeenHeight = perWalletModelData.getWallet().getLastBlockSeenHeight();
+        if (lastBlockSeenHeight >= 0) {
+          resumeHeight = Math.min(resumeHeight, lastBlockSeenHeight);
+        }
+      }
+      if (perWalletModelDataToReplay.isEmpty()) {
+        continue;
+      }
+
+      log.debug("Resuming replay task that started at height " + persistedReplayTask.getStartHeight() + " from height "
+              + resumeHeight);
+      offerReplayTask(controller.getMultiBitService().createSyncReplayTask(perWalletModelDataToReplay, resumeHeight));
+      numberOfReplayTasksResumed++;
+    }
+    if (numberOfReplayTasksResumed == 0) {
+      // Nothing to resume - forget the tasks.
+      synchronized (replayTaskQueue) {
+        persistReplayTasks(null);
+      }
+    }
+    return numberOfReplayTasksResumed;
+  }
+
+  /**
+   * Write the replay tasks that are queued to disk (the lock on the queue is held).
+   *
+   * @param completedTask A task in the queue that has completed and should not be written, or null
+   */
+  private void persistReplayTasks(ReplayTask completedTask) {
+    List<ReplayTask> replayTasksToPersist = new ArrayList<ReplayTask>();
+    for (ReplayTask replayTask : replayTaskQueue) {
+      if (replayTask != completedTask) {
+        replayTasksToPersist.add(replayTask);
+      }
+    }
+    getReplayTaskStore().save(replayTasksToPersist);
+  }
+
+  private synchronized ReplayTaskStore getReplayTaskStore() {
+    if (replayTaskStore == null) {
+      String applicationDataDirectory = controller.getApplicationDataDirectoryLocator().getApplicationDataDirectory();
+      if ("".equals(applicationDataDirectory)) {
+        replayTaskStore = new ReplayTaskStore(new File(ReplayTaskStore.REPLAY_TASKS_FILE_NAME));
+      } else {
+        replayTaskStore = new ReplayTaskStore(new File(applicationDataDirectory + File.separator + ReplayTaskStore.REPLAY_TASKS_FILE_NAME));
+      }
     }
+    return replayTaskStore;
   }
 
   public ReplayTask getCurrentReplayTask() {
@@ -0,0 +1,41 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+/**
+ * The states of the ReplayManager.
+ */
+public enum ReplayState {
+    /**
+     * No replay task is running. The next task offered is started straight away.
+     */
+    IDLE,
+
+    /**
+     * The block store is being rewound or truncated and the PeerGroup restarted for the current task.
+     */
+    STARTING,
+
+    /**
+     * The blocks for the current task are being downloaded.
+     */
+    REPLAYING,
+
+    /**
+     * The current task has finished and its wallets are being saved and released.
+     */
+    TIDYING_UP
+}
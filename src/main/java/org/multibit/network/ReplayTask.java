@@ -1,9 +1,15 @@
 package org.multibit.network;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.multibit.message.Message;
 import org.multibit.model.bitcoin.WalletData;
 
@@ -20,7 +26,7 @@ public class ReplayTask {
     /**
      * The start date of the replay task.
      */
-    private final Date startDate;
+    private Date startDate;
     
     /**
      * The height the blockchain needs to be truncated to.
@@ -28,17 +34,45 @@ public class ReplayTask {
     private int startHeight;
   
     /**
-     * A UUID identifying this replay task.
+     * A UUID identifying this replay task (a new one each time it is restarted).
      */
-    private final UUID uuid;
+    private UUID uuid;
     
     /**
      * The percent complete as reported by the downloadlistener.
      */
     private long percentComplete;
+
+    /**
+     * The height each wallet was last checkpointed (saved) at during the replay.
+     */
+    private final Map<WalletData, Integer> checkpointedHeights = new IdentityHashMap<WalletData, Integer>();
+
+    /**
+     * Whether the replay has been started (by ReplayManager#syncWallet) and whether it has completed.
+     */
+    private volatile boolean started = false;
+    private volatile boolean completed = false;
+
+    /**
+     * Whether the task has had wallets merged into it that need it to start again from an earlier block.
+     */
+    private volatile boolean restartRequired = false;
+
+    /**
+     * Set when the replay has finished (true), been cancelled or failed.
+     */
+    private final SettableFuture<Boolean> completionFuture = SettableFuture.create();
+
+    /**
+     * The tasks that have been merged into this one, which finish when it does.
+     */
+    private final List<ReplayTask> mergedReplayTasks = new ArrayList<ReplayTask>();
        
     public ReplayTask( List<WalletData> perWalletModelDataToReplay, Date startDate, int startHeight) {
-        this.perWalletModelDataToReplay = perWalletModelDataToReplay;
+        // Wallets can be added to the task whilst it is running.
+        this.perWalletModelDataToReplay = perWalletModelDataToReplay == null ? null
+                : new CopyOnWriteArrayList<WalletData>(perWalletModelDataToReplay);
         this.startDate = startDate;
         this.startHeight = startHeight;
         this.percentComplete = Message.NOT_RELEVANT_PERCENTAGE_COMPLETE;
@@ -49,10 +83,162 @@ public class ReplayTask {
         return perWalletModelDataToReplay;
     }
 
-    public Date getStartDate() {
+    public synchronized Date getStartDate() {
         return startDate;
     }
 
+    /**
+     * Add wallets to the task. (Those already in it are left alone).
+     *
+     * @return The wallets that were added
+     */
+    public synchronized List<WalletData> addWallets(List<WalletData> perWalletModelDataList) {
+        List<WalletData> addedWallets = new ArrayList<WalletData>();
+        if (perWalletModelDataToReplay == null || perWalletModelDataList == null) {
+            return addedWallets;
+        }
+        for (WalletData perWalletModelData : perWalletModelDataList) {
+            if (perWalletModelData != null && !containsWallet(perWalletModelData)) {
+                perWalletModelDataToReplay.add(perWalletModelData);
+                addedWallets.add(perWalletModelData);
+            }
+        }
+        return addedWallets;
+    }
+
+    /**
+     * Merge another task into this one, so that a single pass through the blockchain replays the wallets of both.
+     * The task starts from whichever of the two starts earlier.
+     *
+     * @return true if this task now starts from an earlier block than before
+     */
+    public synchronized boolean merge(ReplayTask otherReplayTask) {
+        join(otherReplayTask);
+        if (startsBefore(otherReplayTask.getStartDate(), otherReplayTask.getStartHeight(), startDate, startHeight)) {
+            startDate = otherReplayTask.getStartDate();
+            startHeight = otherReplayTask.getStartHeight();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Add the wallets of another task to this one, leaving the start alone. The other task finishes when this one does.
+     *
+     * @return The wallets that were added
+     */
+    public synchronized List<WalletData> join(ReplayTask otherReplayTask) {
+        mergedReplayTasks.add(otherReplayTask);
+        return addWallets(otherReplayTask.getPerWalletModelDataToReplay());
+    }
+
+    /**
+     * @return A future that is set to true when the replay has finished, or fails if it is cancelled or cannot be done
+     */
+    public ListenableFuture<Boolean> getCompletionFuture() {
+        return completionFuture;
+    }
+
+    /**
+     * The replay has finished - the task and those merged into it are complete.
+     */
+    public void replayCompleted() {
+        completionFuture.set(Boolean.TRUE);
+        for (ReplayTask mergedReplayTask : getMergedReplayTasks()) {
+            mergedReplayTask.replayCompleted();
+        }
+    }
+
+    /**
+     * The replay could not be done.
+     */
+    public void replayFailed(Throwable throwable) {
+        completionFuture.setException(throwable);
+        for (ReplayTask mergedReplayTask : getMergedReplayTasks()) {
+            mergedReplayTask.replayFailed(throwable);
+        }
+    }
+
+    /**
+     * The replay has been cancelled.
+     */
+    public void replayCancelled() {
+        completionFuture.cancel(false);
+        for (ReplayTask mergedReplayTask : getMergedReplayTasks()) {
+            mergedReplayTask.replayCancelled();
+        }
+    }
+
+    private synchronized List<ReplayTask> getMergedReplayTasks() {
+        return new ArrayList<ReplayTask>(mergedReplayTasks);
+    }
+
+    /**
+     * @return true if the task contains the wallet (compared by wallet filename)
+     */
+    public synchronized boolean containsWallet(WalletData perWalletModelData) {
+        if (perWalletModelDataToReplay == null) {
+            return false;
+        }
+        for (WalletData item : perWalletModelDataToReplay) {
+            if (item == perWalletModelData || (item.getWalletFilename() != null
+                    && item.getWalletFilename().equals(perWalletModelData.getWalletFilename()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    public void setStarted(boolean started) {
+        this.started = started;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(boolean completed) {
+        this.completed = completed;
+    }
+
+    /**
+     * @return true if the task is running and has to be started again from its (earlier) start
+     */
+    public boolean isRestartRequired() {
+        return restartRequired;
+    }
+
+    /**
+     * Ask for the running task to be started again from its start. The task gets a new UUID so that the end of
+     * the pass that is being abandoned is not taken as the end of the task.
+     */
+    public synchronized void requestRestart() {
+        uuid = UUID.randomUUID();
+        restartRequired = true;
+    }
+
+    public void clearRestartRequired() {
+        restartRequired = false;
+    }
+
+    /**
+     * @return true if a replay from the first start replays more of the blockchain than one from the second.
+     *         (A null start date is the genesis block).
+     */
+    private static boolean startsBefore(Date startDate, int startHeight, Date otherStartDate, int otherStartHeight) {
+        if (startHeight != UNKNOWN_START_HEIGHT && otherStartHeight != UNKNOWN_START_HEIGHT) {
+            return startHeight < otherStartHeight;
+        }
+        if (startDate == null) {
+            return otherStartDate != null;
+        }
+        return otherStartDate != null && startDate.before(otherStartDate);
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -97,7 +283,7 @@ public class ReplayTask {
                 + ", percentComplete=" + percentComplete + "]";
     }
 
-    public UUID getUuid() {
+    public synchronized UUID getUuid() {
         return uuid;
     }
 
@@ -109,11 +295,34 @@ public class ReplayTask {
         this.percentComplete = percentComplete;
     }
 
-    public int getStartHeight() {
+    public synchronized int getStartHeight() {
         return startHeight;
     }
 
-    public void setStartHeight(int startHeight) {
+    public synchronized void setStartHeight(int startHeight) {
         this.startHeight = startHeight;
     }
+
+    /**
+     * Note that a wallet being replayed has been saved with the given last block seen height.
+     */
+    public synchronized void walletCheckpointed(WalletData perWalletModelData, int lastBlockSeenHeight) {
+        checkpointedHeights.put(perWalletModelData, lastBlockSeenHeight);
+    }
+
+    /**
+     * @return The height that all the wallets have been replayed and saved up to, which the task can be
+     *         resumed from (the start height until they have all been checkpointed)
+     */
+    public synchronized int getProcessedHeight() {
+        if (perWalletModelDataToReplay == null || perWalletModelDataToReplay.isEmpty()) {
+            return startHeight;
+        }
+        int processedHeight = Integer.MAX_VALUE;
+        for (WalletData perWalletModelData : perWalletModelDataToReplay) {
+            Integer checkpointedHeight = checkpointedHeights.get(perWalletModelData);
+            processedHeight = Math.min(processedHeight, checkpointedHeight == null ? startHeight : checkpointedHeight);
+        }
+        return processedHeight;
+    }
 }
@@ -0,0 +1,216 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import org.multibit.model.bitcoin.WalletData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Keeps the replay tasks that have not completed on disk, so that a replay interrupted by MultiBit exiting
+ * (or crashing) is resumed on the next start from the height its wallets were last checkpointed at,
+ * rather than from the beginning.
+ */
+public class ReplayTaskStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplayTaskStore.class);
+
+    public static final String REPLAY_TASKS_FILE_NAME = "multibit.replaytasks";
+
+    private static final String REPLAY_TASKS_HEADER_TEXT = "multiBit.replayTasks";
+    private static final String VERSION_TEXT = "1";
+
+    private static final String VERSION_PROPERTY = "version";
+    private static final String NUMBER_OF_TASKS_PROPERTY = "numberOfTasks";
+    private static final String TASK_PREFIX = "task.";
+    private static final String START_HEIGHT_SUFFIX = ".startHeight";
+    private static final String PROCESSED_HEIGHT_SUFFIX = ".processedHeight";
+    private static final String NUMBER_OF_WALLETS_SUFFIX = ".numberOfWallets";
+    private static final String WALLET_SUFFIX = ".wallet.";
+
+    private final File replayTasksFile;
+
+    public ReplayTaskStore(File replayTasksFile) {
+        this.replayTasksFile = replayTasksFile;
+    }
+
+    public File getReplayTasksFile() {
+        return replayTasksFile;
+    }
+
+    /**
+     * Write the replay tasks to disk, replacing those written before. The file is deleted when there are none.
+     */
+    public synchronized void save(Collection<ReplayTask> replayTasks) {
+        if (replayTasks.isEmpty()) {
+            if (replayTasksFile.exists() && !replayTasksFile.delete()) {
+                log.error("Could not delete the replay tasks file '" + replayTasksFile.getAbsolutePath() + "'");
+            }
+            return;
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty(VERSION_PROPERTY, VERSION_TEXT);
+        properties.setProperty(NUMBER_OF_TASKS_PROPERTY, Integer.toString(replayTasks.size()));
+        int taskIndex = 0;
+        for (ReplayTask replayTask : replayTasks) {
+            String taskPrefix = TASK_PREFIX + taskIndex;
+            properties.setProperty(taskPrefix + START_HEIGHT_SUFFIX, Integer.toString(replayTask.getStartHeight()));
+            properties.setProperty(taskPrefix + PROCESSED_HEIGHT_SUFFIX, Integer.toString(replayTask.getProcessedHeight()));
+            List<WalletData> perWalletModelDataList = replayTask.getPerWalletModelDataToReplay();
+            int walletIndex = 0;
+            if (perWalletModelDataList != null) {
+                for (WalletData perWalletModelData : perWalletModelDataList) {
+                    if (perWalletModelData != null && perWalletModelData.getWalletFilename() != null) {
+                        properties.setProperty(taskPrefix + WALLET_SUFFIX + walletIndex, perWalletModelData.getWalletFilename());
+                        walletIndex++;
+                    }
+                }
+            }
+            properties.setProperty(taskPrefix + NUMBER_OF_WALLETS_SUFFIX, Integer.toString(walletIndex));
+            taskIndex++;
+        }
+
+        // Write a new file and then swap it in, so that the tasks are never half written.
+        File temporaryFile = new File(replayTasksFile.getAbsolutePath() + ".tmp");
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(temporaryFile);
+            properties.store(new OutputStreamWriter(outputStream, "UTF8"), REPLAY_TASKS_HEADER_TEXT);
+            outputStream.close();
+            outputStream = null;
+            if (!temporaryFile.renameTo(replayTasksFile)) {
+                // Windows will not rename over an existing file.
+                if (!replayTasksFile.delete() || !temporaryFile.renameTo(replayTasksFile)) {
+                    log.error("Could not replace the replay tasks file '" + replayTasksFile.getAbsolutePath() + "'");
+                }
+            }
+        } catch (IOException ioe) {
+            log.error("Could not write the replay tasks file '" + replayTasksFile.getAbsolutePath() + "'. "
+                    + ioe.getClass().getCanonicalName() + " " + ioe.getMessage());
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException ioe) {
+                    log.error("Could not close the replay tasks file '" + temporaryFile.getAbsolutePath() + "'");
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the replay tasks written when MultiBit last ran.
+     *
+     * @return The replay tasks, in the order they were queued (empty if there are none or they cannot be understood)
+     */
+    public synchronized List<PersistedReplayTask> load() {
+        if (!replayTasksFile.exists()) {
+            return Collections.emptyList();
+        }
+
+        Properties properties = new Properties();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(replayTasksFile);
+            properties.load(new InputStreamReader(inputStream, "UTF8"));
+        } catch (IOException ioe) {
+            log.error("Could not read the replay tasks file '" + replayTasksFile.getAbsolutePath() + "'. "
+                    + ioe.getClass().getCanonicalName() + " " + ioe.getMessage());
+            return Collections.emptyList();
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException ioe) {
+                    log.error("Could not close the replay tasks file '" + replayTasksFile.getAbsolutePath() + "'");
+                }
+            }
+        }
+
+        if (!VERSION_TEXT.equals(properties.getProperty(VERSION_PROPERTY))) {
+            log.error("The replay tasks file '" + replayTasksFile.getAbsolutePath() + "' is not a version that is understood");
+            return Collections.emptyList();
+        }
+
+        List<PersistedReplayTask> persistedReplayTasks = new ArrayList<PersistedReplayTask>();
+        try {
+            int numberOfTasks = Integer.parseInt(properties.getProperty(NUMBER_OF_TASKS_PROPERTY));
+            for (int taskIndex = 0; taskIndex < numberOfTasks; taskIndex++) {
+                String taskPrefix = TASK_PREFIX + taskIndex;
+                int startHeight = Integer.parseInt(properties.getProperty(taskPrefix + START_HEIGHT_SUFFIX));
+                int processedHeight = Integer.parseInt(properties.getProperty(taskPrefix + PROCESSED_HEIGHT_SUFFIX));
+                int numberOfWallets = Integer.parseInt(properties.getProperty(taskPrefix + NUMBER_OF_WALLETS_SUFFIX));
+                List<String> walletFilenames = new ArrayList<String>();
+                for (int walletIndex = 0; walletIndex < numberOfWallets; walletIndex++) {
+                    String walletFilename = properties.getProperty(taskPrefix + WALLET_SUFFIX + walletIndex);
+                    if (walletFilename != null) {
+                        walletFilenames.add(walletFilename);
+                    }
+                }
+                persistedReplayTasks.add(new PersistedReplayTask(walletFilenames, startHeight, processedHeight));
+            }
+        } catch (NumberFormatException nfe) {
+            log.error("The replay tasks file '" + replayTasksFile.getAbsolutePath() + "' could not be understood. " + nfe.getMessage());
+            return Collections.emptyList();
+        }
+        return persistedReplayTasks;
+    }
+
+    /**
+     * A replay task as it was when it was last written.
+     */
+    public static class PersistedReplayTask {
+        private final List<String> walletFilenames;
+        private final int startHeight;
+        private final int processedHeight;
+
+        public PersistedReplayTask(List<String> walletFilenames, int startHeight, int processedHeight) {
+            this.walletFilenames = walletFilenames;
+            this.startHeight = startHeight;
+            this.processedHeight = processedHeight;
+        }
+
+        public List<String> getWalletFilenames() {
+            return walletFilenames;
+        }
+
+        public int getStartHeight() {
+            return startHeight;
+        }
+
+        /**
+         * @return The height all the task's wallets had been checkpointed at
+         */
+        public int getProcessedHeight() {
+            return processedHeight;
+        }
+    }
+}
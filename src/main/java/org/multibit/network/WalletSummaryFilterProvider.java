@@ -0,0 +1,89 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import com.google.bitcoin.core.BloomFilter;
+import com.google.bitcoin.core.PeerFilterProvider;
+import com.google.bitcoin.core.Utils;
+import org.multibit.controller.bitcoin.BitcoinController;
+import org.multibit.model.bitcoin.WalletData;
+import org.multibit.model.bitcoin.WalletSummary;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adds the keys of the wallets that have only been opened from their summary to the bloom filter,
+ * so that their transactions are still sent to MultiBit (and the wallet can be loaded in full when one arrives).
+ * Wallets that have been loaded in full provide their own keys.
+ */
+public class WalletSummaryFilterProvider implements PeerFilterProvider {
+    private final BitcoinController bitcoinController;
+
+    public WalletSummaryFilterProvider(BitcoinController bitcoinController) {
+        this.bitcoinController = bitcoinController;
+    }
+
+    @Override
+    public long getEarliestKeyCreationTime() {
+        long earliestKeyCreationTime = Long.MAX_VALUE;
+        for (WalletSummary walletSummary : getWalletSummaries()) {
+            earliestKeyCreationTime = Math.min(earliestKeyCreationTime, walletSummary.getEarliestKeyCreationTime());
+        }
+        return earliestKeyCreationTime;
+    }
+
+    @Override
+    public int getBloomFilterElementCount() {
+        int elementCount = 0;
+        for (WalletSummary walletSummary : getWalletSummaries()) {
+            // The public key and its hash, as for a loaded wallet.
+            elementCount += walletSummary.getPublicKeys().size() * 2;
+        }
+        return elementCount;
+    }
+
+    @Override
+    public BloomFilter getBloomFilter(int size, double falsePositiveRate, long nTweak) {
+        BloomFilter filter = new BloomFilter(size, falsePositiveRate, nTweak, BloomFilter.BloomUpdate.UPDATE_P2PUBKEY_ONLY);
+        for (WalletSummary walletSummary : getWalletSummaries()) {
+            for (byte[] publicKey : walletSummary.getPublicKeys()) {
+                filter.insert(publicKey);
+                filter.insert(Utils.sha256hash160(publicKey));
+            }
+        }
+        return filter;
+    }
+
+    @Override
+    public boolean isRequiringUpdateAllBloomFilter() {
+        return false;
+    }
+
+    private List<WalletSummary> getWalletSummaries() {
+        List<WalletSummary> walletSummaries = new ArrayList<WalletSummary>();
+        if (bitcoinController.getModel() == null || bitcoinController.getModel().getPerWalletModelDataList() == null) {
+            return walletSummaries;
+        }
+        for (WalletData perWalletModelData : new ArrayList<WalletData>(bitcoinController.getModel().getPerWalletModelDataList())) {
+            WalletSummary walletSummary = perWalletModelData.getWalletSummary();
+            if (walletSummary != null && perWalletModelData.isSummaryOnly()) {
+                walletSummaries.add(walletSummary);
+            }
+        }
+        return walletSummaries;
+    }
+}
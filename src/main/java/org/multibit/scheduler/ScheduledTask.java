@@ -0,0 +1,199 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A named, repeating task run by the {@link TaskScheduler}, together with the time it has taken to run.
+ * <p/>
+ * The task is rescheduled after each run, so a change of interval (e.g. when the application goes idle)
+ * takes effect from the next run. Runs are never overlapped - a run that takes longer than the interval
+ * is counted as an overrun and the next run starts straight after it.
+ */
+public class ScheduledTask {
+
+    private static final Logger log = LoggerFactory.getLogger(ScheduledTask.class);
+
+    private final TaskScheduler taskScheduler;
+    private final String name;
+    private final Runnable runnable;
+    private final long interval;
+    private final long idleInterval;
+
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> future;
+    private boolean running = false;
+    private boolean cancelled = false;
+
+    private long runCount = 0;
+    private long overrunCount = 0;
+    private long totalRunTime = 0; // nanoseconds
+    private long maximumRunTime = 0; // nanoseconds
+
+    ScheduledTask(TaskScheduler taskScheduler, String name, Runnable runnable, long interval, long idleInterval) {
+        this.taskScheduler = taskScheduler;
+        this.name = name;
+        this.runnable = runnable;
+        this.interval = interval;
+        this.idleInterval = idleInterval;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The time between runs, in milliseconds, when the application is in use
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return The time between runs, in milliseconds, when the application is idle
+     */
+    public long getIdleInterval() {
+        return idleInterval;
+    }
+
+    /**
+     * Stop the task. A run that is in progress is allowed to finish.
+     */
+    public void cancel() {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+                future = null;
+            }
+        }
+        taskScheduler.taskCancelled(this);
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public synchronized long getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * @return The number of runs that took longer than the interval
+     */
+    public synchronized long getOverrunCount() {
+        return overrunCount;
+    }
+
+    /**
+     * @return The total time spent running the task, in milliseconds
+     */
+    public synchronized long getTotalRunTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totalRunTime);
+    }
+
+    /**
+     * @return The longest single run of the task, in milliseconds
+     */
+    public synchronized long getMaximumRunTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maximumRunTime);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ScheduledTask [name=" + name + ", interval=" + interval + ", idleInterval=" + idleInterval + ", runCount="
+                + runCount + ", overrunCount=" + overrunCount + ", totalRunTime=" + getTotalRunTime() + ", maximumRunTime="
+                + getMaximumRunTime() + "]";
+    }
+
+    synchronized void start(ScheduledExecutorService executor, long initialDelay) {
+        this.executor = executor;
+        scheduleNextRun(initialDelay);
+    }
+
+    /**
+     * The application has stopped being idle - bring the next run forward if it is further off than the interval.
+     */
+    synchronized void wake() {
+        if (cancelled || running || future == null || interval >= idleInterval) {
+            return;
+        }
+        if (future.getDelay(TimeUnit.MILLISECONDS) > interval && future.cancel(false)) {
+            scheduleNextRun(interval);
+        }
+    }
+
+    private void run() {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            running = true;
+        }
+
+        long startTime = System.nanoTime();
+        try {
+            runnable.run();
+        } catch (RuntimeException e) {
+            // Keep the task going - a java.util.Timer would have silently died here.
+            log.error("Scheduled task '" + name + "' failed. " + e.getClass().getName() + " " + e.getMessage(), e);
+        }
+        long runTime = System.nanoTime() - startTime;
+
+        synchronized (this) {
+            running = false;
+            runCount++;
+            totalRunTime += runTime;
+            maximumRunTime = Math.max(maximumRunTime, runTime);
+
+            long currentInterval = taskScheduler.isIdle() ? idleInterval : interval;
+            long runTimeInMilliseconds = TimeUnit.NANOSECONDS.toMillis(runTime);
+            if (runTimeInMilliseconds > currentInterval) {
+                overrunCount++;
+                log.debug("Scheduled task '" + name + "' took " + runTimeInMilliseconds + " ms, longer than its interval of " + currentInterval + " ms");
+            }
+
+            if (!cancelled) {
+                scheduleNextRun(Math.max(0, currentInterval - runTimeInMilliseconds));
+            }
+        }
+    }
+
+    private void scheduleNextRun(long delay) {
+        try {
+            future = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    ScheduledTask.this.run();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The scheduler has been shut down.
+            future = null;
+            cancelled = true;
+        }
+    }
+}
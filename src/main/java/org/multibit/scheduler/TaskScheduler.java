@@ -0,0 +1,165 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.scheduler;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Runs all of MultiBit's periodic work (the ticker, the UI update ticks, the replay manager, the status bar)
+ * on a small shared pool of threads instead of a java.util.Timer thread each.
+ * <p/>
+ * Each task has a name, an interval and an idle interval. Whilst the application is idle (e.g. the main window
+ * is minimised) tasks run at their idle interval, and they are brought forward again as soon as it is not.
+ * The run time and overruns of each task are recorded so that the cost of the periodic work can be seen -
+ * they are logged on shutdown.
+ */
+public enum TaskScheduler {
+    INSTANCE;
+
+    private static final Logger log = LoggerFactory.getLogger(TaskScheduler.class);
+
+    /**
+     * Enough threads that a slow task (e.g. a ticker waiting on an exchange) does not hold up the UI ticks.
+     */
+    public static final int NUMBER_OF_THREADS = 3;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    /**
+     * The tasks that are scheduled, by name.
+     */
+    private final Map<String, ScheduledTask> tasks = new LinkedHashMap<String, ScheduledTask>();
+
+    private volatile boolean idle = false;
+
+    private boolean shutdown = false;
+
+    /**
+     * Run a task repeatedly at the same interval whether or not the application is idle.
+     *
+     * @see #schedule(String, Runnable, long, long, long)
+     */
+    public ScheduledTask schedule(String name, Runnable runnable, long initialDelay, long interval) {
+        return schedule(name, runnable, initialDelay, interval, interval);
+    }
+
+    /**
+     * Run a task repeatedly. A task already scheduled with the same name is cancelled.
+     *
+     * @param name         The name of the task, used in the metrics and to replace an earlier task
+     * @param runnable     The work to do
+     * @param initialDelay The time before the first run, in milliseconds
+     * @param interval     The time between the start of each run, in milliseconds
+     * @param idleInterval The time between the start of each run whilst the application is idle, in milliseconds
+     * @return The scheduled task, which can be cancelled
+     */
+    public ScheduledTask schedule(String name, Runnable runnable, long initialDelay, long interval, long idleInterval) {
+        ScheduledTask scheduledTask = new ScheduledTask(this, name, runnable, interval, idleInterval);
+        ScheduledTask previousTask;
+        synchronized (this) {
+            if (shutdown) {
+                log.debug("Not scheduling task '" + name + "' as the scheduler has been shut down");
+                scheduledTask.cancel();
+                return scheduledTask;
+            }
+            if (executor == null) {
+                executor = new ScheduledThreadPoolExecutor(NUMBER_OF_THREADS,
+                        new ThreadFactoryBuilder().setNameFormat("TaskScheduler-%d").setDaemon(true).build());
+                executor.setRemoveOnCancelPolicy(true);
+            }
+            previousTask = tasks.put(name, scheduledTask);
+            scheduledTask.start(executor, initialDelay);
+        }
+        if (previousTask != null) {
+            previousTask.cancel();
+        }
+        return scheduledTask;
+    }
+
+    /**
+     * @param idle true when nobody is looking at the application, so that tasks run at their idle interval
+     */
+    public void setIdle(boolean idle) {
+        if (this.idle == idle) {
+            return;
+        }
+        this.idle = idle;
+        log.debug("The application is " + (idle ? "idle" : "no longer idle"));
+        if (!idle) {
+            for (ScheduledTask scheduledTask : getTasks()) {
+                scheduledTask.wake();
+            }
+        }
+    }
+
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * @return The tasks that are scheduled
+     */
+    public synchronized List<ScheduledTask> getTasks() {
+        return new ArrayList<ScheduledTask>(tasks.values());
+    }
+
+    public void logMetrics() {
+        for (ScheduledTask scheduledTask : getTasks()) {
+            log.debug(scheduledTask.toString());
+        }
+    }
+
+    /**
+     * Cancel all the tasks and stop the scheduler's threads (used on exit).
+     * Nothing more can be scheduled afterwards.
+     */
+    public void shutdown() {
+        List<ScheduledTask> tasksToCancel;
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            tasksToCancel = new ArrayList<ScheduledTask>(tasks.values());
+        }
+
+        logMetrics();
+        for (ScheduledTask scheduledTask : tasksToCancel) {
+            scheduledTask.cancel();
+        }
+
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+    }
+
+    synchronized void taskCancelled(ScheduledTask scheduledTask) {
+        if (tasks.get(scheduledTask.getName()) == scheduledTask) {
+            tasks.remove(scheduledTask.getName());
+        }
+    }
+}
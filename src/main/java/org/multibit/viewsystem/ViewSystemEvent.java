@@ -0,0 +1,188 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.viewsystem;
+
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Wallet;
+
+import java.math.BigInteger;
+
+/**
+ * An event for the view systems, sent through the {@link ViewSystemEventBus}.
+ * <p/>
+ * Events with the same key are merged whilst they wait to be delivered: the key is the type of event and the
+ * wallet it is for (and the transaction, for confidence changes - the send confirm panel watches one transaction).
+ */
+public class ViewSystemEvent {
+
+    public enum Type {
+        DATA_CHANGED,
+        BLOCK_DOWNLOADED,
+        COINS_RECEIVED,
+        COINS_SENT,
+        TRANSACTION_CONFIDENCE_CHANGED,
+        REORGANIZE
+    }
+
+    private final Type type;
+    private final Wallet wallet;
+    private final Transaction transaction;
+    private final BigInteger prevBalance;
+    private final BigInteger newBalance;
+    private final DisplayHint displayHint;
+
+    private ViewSystemEvent(Type type, Wallet wallet, Transaction transaction, BigInteger prevBalance, BigInteger newBalance,
+            DisplayHint displayHint) {
+        this.type = type;
+        this.wallet = wallet;
+        this.transaction = transaction;
+        this.prevBalance = prevBalance;
+        this.newBalance = newBalance;
+        this.displayHint = displayHint;
+    }
+
+    public static ViewSystemEvent dataChanged(DisplayHint displayHint) {
+        return new ViewSystemEvent(Type.DATA_CHANGED, null, null, null, null, displayHint);
+    }
+
+    public static ViewSystemEvent blockDownloaded() {
+        return new ViewSystemEvent(Type.BLOCK_DOWNLOADED, null, null, null, null, null);
+    }
+
+    public static ViewSystemEvent coinsReceived(Wallet wallet, Transaction transaction, BigInteger prevBalance, BigInteger newBalance) {
+        return new ViewSystemEvent(Type.COINS_RECEIVED, wallet, transaction, prevBalance, newBalance, null);
+    }
+
+    public static ViewSystemEvent coinsSent(Wallet wallet, Transaction transaction, BigInteger prevBalance, BigInteger newBalance) {
+        return new ViewSystemEvent(Type.COINS_SENT, wallet, transaction, prevBalance, newBalance, null);
+    }
+
+    public static ViewSystemEvent transactionConfidenceChanged(Wallet wallet, Transaction transaction) {
+        return new ViewSystemEvent(Type.TRANSACTION_CONFIDENCE_CHANGED, wallet, transaction, null, null, null);
+    }
+
+    public static ViewSystemEvent reorganize(Wallet wallet) {
+        return new ViewSystemEvent(Type.REORGANIZE, wallet, null, null, null, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Wallet getWallet() {
+        return wallet;
+    }
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    /**
+     * @return The key that events are merged on
+     */
+    Key getKey() {
+        Sha256Hash transactionHash = null;
+        if (type == Type.TRANSACTION_CONFIDENCE_CHANGED && transaction != null) {
+            transactionHash = transaction.getHash();
+        }
+        return new Key(type, wallet, transactionHash, displayHint);
+    }
+
+    /**
+     * Merge a later event with the same key into this one.
+     * A run of coin events keeps the balance from before the first and the latest transaction and balance.
+     *
+     * @return The event to deliver in place of both
+     */
+    ViewSystemEvent merge(ViewSystemEvent laterEvent) {
+        if (type == Type.COINS_RECEIVED || type == Type.COINS_SENT) {
+            return new ViewSystemEvent(type, wallet, laterEvent.transaction, prevBalance, laterEvent.newBalance, displayHint);
+        }
+        return laterEvent;
+    }
+
+    /**
+     * Deliver the event to a view system.
+     */
+    void deliverTo(ViewSystem viewSystem) {
+        switch (type) {
+            case DATA_CHANGED:
+                viewSystem.fireDataChangedUpdateLater(displayHint);
+                break;
+            case BLOCK_DOWNLOADED:
+                viewSystem.blockDownloaded();
+                break;
+            case COINS_RECEIVED:
+                viewSystem.onCoinsReceived(wallet, transaction, prevBalance, newBalance);
+                break;
+            case COINS_SENT:
+                viewSystem.onCoinsSent(wallet, transaction, prevBalance, newBalance);
+                break;
+            case TRANSACTION_CONFIDENCE_CHANGED:
+                viewSystem.onTransactionConfidenceChanged(wallet, transaction);
+                break;
+            case REORGANIZE:
+                viewSystem.onReorganize(wallet);
+                break;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ViewSystemEvent [type=" + type + ", wallet=" + (wallet == null ? "null" : wallet.hashCode()) + ", transaction="
+                + (transaction == null ? "null" : transaction.getHashAsString()) + "]";
+    }
+
+    /**
+     * The key of an event. Wallets are compared by identity.
+     */
+    static final class Key {
+        private final Type type;
+        private final Wallet wallet;
+        private final Sha256Hash transactionHash;
+        private final DisplayHint displayHint;
+
+        Key(Type type, Wallet wallet, Sha256Hash transactionHash, DisplayHint displayHint) {
+            this.type = type;
+            this.wallet = wallet;
+            this.transactionHash = transactionHash;
+            this.displayHint = displayHint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return type == other.type && wallet == other.wallet && displayHint == other.displayHint
+                    && (transactionHash == null ? other.transactionHash == null : transactionHash.equals(other.transactionHash));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = type.hashCode();
+            result = 31 * result + System.identityHashCode(wallet);
+            result = 31 * result + (transactionHash == null ? 0 : transactionHash.hashCode());
+            result = 31 * result + (displayHint == null ? 0 : displayHint.hashCode());
+            return result;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.viewsystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.EventQueue;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Passes events from the controllers to the view systems on the Swing thread, in batches.
+ * <p/>
+ * The network threads can produce thousands of events a second (e.g. whilst replaying). Rather than calling
+ * every view system for each one, events wait here until the next batch, at most
+ * {@link #MAXIMUM_BATCHES_PER_SECOND} times a second. Whilst waiting, an event is merged with a later one
+ * with the same key (see {@link ViewSystemEvent}), so a view system sees at most one event of each type per
+ * wallet per batch.
+ * <p/>
+ * The number of waiting events is bounded. When it is full, a network thread waits a little for the Swing thread
+ * to catch up, after which transaction confidence changes are dropped. Other events are always kept - there
+ * can only be a few of them for each wallet once merged.
+ */
+public class ViewSystemEventBus {
+
+    private static final Logger log = LoggerFactory.getLogger(ViewSystemEventBus.class);
+
+    public static final int MAXIMUM_BATCHES_PER_SECOND = 10;
+
+    public static final int MAXIMUM_NUMBER_OF_PENDING_EVENTS = 1000;
+
+    /**
+     * How long a thread posting to a full bus waits for it to drain.
+     */
+    public static final long BACKPRESSURE_TIMEOUT = 200; // milliseconds
+
+    private static final long MINIMUM_TIME_BETWEEN_BATCHES = 1000 / MAXIMUM_BATCHES_PER_SECOND; // milliseconds
+
+    private final Collection<ViewSystem> viewSystems;
+
+    /**
+     * The events waiting to be delivered, in the order they were first posted.
+     */
+    private final LinkedHashMap<ViewSystemEvent.Key, ViewSystemEvent> pendingEvents = new LinkedHashMap<ViewSystemEvent.Key, ViewSystemEvent>();
+
+    private boolean deliveryScheduled = false;
+    private long lastDeliveryTime = 0;
+
+    private long postedEventCount = 0;
+    private long mergedEventCount = 0;
+    private long droppedEventCount = 0;
+    private long deliveredEventCount = 0;
+    private long batchCount = 0;
+    private int maximumQueueDepth = 0;
+
+    /**
+     * @param viewSystems The view systems to deliver to (the collection is read at each delivery)
+     */
+    public ViewSystemEventBus(Collection<ViewSystem> viewSystems) {
+        this.viewSystems = viewSystems;
+    }
+
+    /**
+     * Queue an event for delivery to all the view systems on the Swing thread.
+     */
+    public void post(ViewSystemEvent event) {
+        ViewSystemEvent.Key key = event.getKey();
+        long delay;
+        synchronized (this) {
+            postedEventCount++;
+
+            ViewSystemEvent pendingEvent = pendingEvents.get(key);
+            if (pendingEvent != null) {
+                pendingEvents.put(key, pendingEvent.merge(event));
+                mergedEventCount++;
+                return;
+            }
+
+            if (pendingEvents.size() >= MAXIMUM_NUMBER_OF_PENDING_EVENTS && event.getType() == ViewSystemEvent.Type.TRANSACTION_CONFIDENCE_CHANGED) {
+                if (!waitForSpace()) {
+                    droppedEventCount++;
+                    return;
+                }
+                // Another event with the same key may have arrived whilst waiting.
+                pendingEvent = pendingEvents.get(key);
+                if (pendingEvent != null) {
+                    pendingEvents.put(key, pendingEvent.merge(event));
+                    mergedEventCount++;
+                    return;
+                }
+            }
+
+            pendingEvents.put(key, event);
+            maximumQueueDepth = Math.max(maximumQueueDepth, pendingEvents.size());
+
+            if (deliveryScheduled) {
+                return;
+            }
+            deliveryScheduled = true;
+            delay = Math.max(0, lastDeliveryTime + MINIMUM_TIME_BETWEEN_BATCHES - System.currentTimeMillis());
+        }
+
+        scheduleDelivery(delay);
+    }
+
+    /**
+     * @return The number of events waiting to be delivered
+     */
+    public synchronized int getQueueDepth() {
+        return pendingEvents.size();
+    }
+
+    public synchronized int getMaximumQueueDepth() {
+        return maximumQueueDepth;
+    }
+
+    public synchronized long getPostedEventCount() {
+        return postedEventCount;
+    }
+
+    /**
+     * @return The number of events that were merged into an event already waiting
+     */
+    public synchronized long getMergedEventCount() {
+        return mergedEventCount;
+    }
+
+    /**
+     * @return The number of events that were dropped because the bus was full
+     */
+    public synchronized long getDroppedEventCount() {
+        return droppedEventCount;
+    }
+
+    public synchronized long getDeliveredEventCount() {
+        return deliveredEventCount;
+    }
+
+    public synchronized long getBatchCount() {
+        return batchCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ViewSystemEventBus [queueDepth=" + pendingEvents.size() + ", maximumQueueDepth=" + maximumQueueDepth
+                + ", postedEventCount=" + postedEventCount + ", mergedEventCount=" + mergedEventCount + ", droppedEventCount="
+                + droppedEventCount + ", deliveredEventCount=" + deliveredEventCount + ", batchCount=" + batchCount + "]";
+    }
+
+    /**
+     * Wait for the bus to have room for another event (the lock on this is held).
+     * The Swing thread never waits as it is the thread that empties the bus.
+     *
+     * @return true if there is room
+     */
+    private boolean waitForSpace() {
+        if (EventQueue.isDispatchThread()) {
+            return false;
+        }
+        long timeoutTime = System.currentTimeMillis() + BACKPRESSURE_TIMEOUT;
+        try {
+            while (pendingEvents.size() >= MAXIMUM_NUMBER_OF_PENDING_EVENTS) {
+                long timeToWait = timeoutTime - System.currentTimeMillis();
+                if (timeToWait <= 0) {
+                    return false;
+                }
+                wait(timeToWait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    private void scheduleDelivery(long delay) {
+        if (delay <= 0) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    deliver();
+                }
+            });
+        } else {
+            Timer timer = new Timer((int) delay, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    deliver();
+                }
+            });
+            timer.setRepeats(false);
+            timer.start();
+        }
+    }
+
+    /**
+     * Deliver all the waiting events to the view systems (on the Swing thread).
+     */
+    private void deliver() {
+        List<ViewSystemEvent> events;
+        synchronized (this) {
+            events = new ArrayList<ViewSystemEvent>(pendingEvents.values());
+            pendingEvents.clear();
+            deliveryScheduled = false;
+            lastDeliveryTime = System.currentTimeMillis();
+            deliveredEventCount += events.size();
+            batchCount++;
+            notifyAll();
+        }
+
+        for (ViewSystemEvent event : events) {
+            for (ViewSystem viewSystem : viewSystems) {
+                try {
+                    event.deliverTo(viewSystem);
+                } catch (RuntimeException e) {
+                    log.error("Could not deliver " + event + ". " + e.getClass().getName() + " " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package org.multibit.viewsystem.swing;
 
-import java.util.TimerTask;
 
 import javax.swing.SwingUtilities;
 
@@ -11,7 +10,7 @@ import org.multibit.viewsystem.DisplayHint;
  * @author jim
  *
  */
-public class FireDataChangedTimerTask extends TimerTask {
+public class FireDataChangedTimerTask implements Runnable {
     private MultiBitFrame mainFrame;
 
     private boolean fireDataChanged = false;
@@ -41,6 +41,8 @@ import org.multibit.network.ReplayManager;
 import org.multibit.platform.GenericApplication;
 import org.multibit.platform.listener.GenericQuitEventListener;
 import org.multibit.platform.listener.GenericQuitResponse;
+import org.multibit.scheduler.ScheduledTask;
+import org.multibit.scheduler.TaskScheduler;
 import org.multibit.store.MultiBitWalletVersion;
 import org.multibit.utils.ImageLoader;
 import org.multibit.viewsystem.DisplayHint;
@@ -70,7 +72,6 @@ import java.awt.font.TextAttribute;
 import java.math.BigInteger;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
 
 
 /*
@@ -176,11 +177,8 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
 
   private ViewFactory viewFactory;
 
-  private Timer fileChangeTimer;
-  private HealthCheckTimerTask healthCheckTimerTask;
-
-  private Timer tickerTimer1;
-  private Timer tickerTimer2;
+  private ScheduledTask tickerTimer1;
+  private ScheduledTask tickerTimer2;
   private TickerTimerTask tickerTimerTask1;
   private TickerTimerTask tickerTimerTask2;
 
@@ -206,9 +204,9 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
   public static final int FIRE_DATA_CHANGED_UPDATE_LATER_DELAY_TIME = 1000; // milliseconds
 
   /**
-   * Timer used to condense multiple updates
+   * How often the condensed updates are fired whilst MultiBit is minimised.
    */
-  private static Timer fireDataChangedTimer;
+  public static final int FIRE_DATA_CHANGED_UPDATE_LATER_IDLE_DELAY_TIME = 10000; // milliseconds
 
   private static FireDataChangedTimerTask fireDataChangedTimerTask;
 
@@ -254,6 +252,17 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
       public void windowClosing(WindowEvent arg0) {
         quitEventListener.onQuitEvent(null, multiBitFrameQuitResponse);
       }
+
+      @Override
+      public void windowIconified(WindowEvent arg0) {
+        // Nobody is looking - slow down the periodic UI work.
+        TaskScheduler.INSTANCE.setIdle(true);
+      }
+
+      @Override
+      public void windowDeiconified(WindowEvent arg0) {
+        TaskScheduler.INSTANCE.setIdle(false);
+      }
     });
 
     applyComponentOrientation(ComponentOrientation.getOrientation(controller.getLocaliser().getLocale()));
@@ -266,19 +275,14 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
 
     this.bitcoinController.registerWalletBusyListener(this);
 
-    // Initialise the file change timer.
-    fileChangeTimer = new Timer();
-    healthCheckTimerTask = new HealthCheckTimerTask(this.bitcoinController);
-    fileChangeTimer.schedule(healthCheckTimerTask, HealthCheckTimerTask.INITIAL_DELAY, HealthCheckTimerTask.DEFAULT_REPEAT_RATE);
-
     // Initialise the tickers.
-    tickerTimer1 = new Timer();
     tickerTimerTask1 = new TickerTimerTask(this.exchangeController, this, true);
-    tickerTimer1.schedule(tickerTimerTask1, TickerTimerTask.INITIAL_DELAY, TickerTimerTask.DEFAULT_REPEAT_RATE);
+    tickerTimer1 = TaskScheduler.INSTANCE.schedule(TickerTimerTask.FIRST_ROW_TASK_NAME, tickerTimerTask1, TickerTimerTask.INITIAL_DELAY,
+            TickerTimerTask.DEFAULT_REPEAT_RATE);
 
-    tickerTimer2 = new Timer();
     tickerTimerTask2 = new TickerTimerTask(this.exchangeController, this, false);
-    tickerTimer2.schedule(tickerTimerTask2, TickerTimerTask.INITIAL_DELAY + TickerTimerTask.TASK_SEPARATION, TickerTimerTask.DEFAULT_REPEAT_RATE);
+    tickerTimer2 = TaskScheduler.INSTANCE.schedule(TickerTimerTask.SECOND_ROW_TASK_NAME, tickerTimerTask2,
+            TickerTimerTask.INITIAL_DELAY + TickerTimerTask.TASK_SEPARATION, TickerTimerTask.DEFAULT_REPEAT_RATE);
 
     // Initialise status bar.
     statusBar.initialise();
@@ -306,8 +310,9 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
     setVisible(true);
 
     fireDataChangedTimerTask = new FireDataChangedTimerTask(this);
-    fireDataChangedTimer = new Timer();
-    fireDataChangedTimer.scheduleAtFixedRate(fireDataChangedTimerTask, FIRE_DATA_CHANGED_UPDATE_LATER_DELAY_TIME, FIRE_DATA_CHANGED_UPDATE_LATER_DELAY_TIME);
+    // Condense multiple updates into one per tick.
+    TaskScheduler.INSTANCE.schedule("FireDataChanged", fireDataChangedTimerTask, FIRE_DATA_CHANGED_UPDATE_LATER_DELAY_TIME,
+            FIRE_DATA_CHANGED_UPDATE_LATER_DELAY_TIME, FIRE_DATA_CHANGED_UPDATE_LATER_IDLE_DELAY_TIME);
   }
 
   public GenericApplication getApplication() {
@@ -1031,15 +1036,16 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
               tickerTimer2.cancel();
             }
             // Start ticker timer.
-            tickerTimer1 = new Timer();
-            tickerTimer1.schedule(new TickerTimerTask(exchangeController, thisFrame, true), 0, TickerTimerTask.DEFAULT_REPEAT_RATE);
+            tickerTimer1 = TaskScheduler.INSTANCE.schedule(TickerTimerTask.FIRST_ROW_TASK_NAME,
+                    new TickerTimerTask(exchangeController, thisFrame, true), 0, TickerTimerTask.DEFAULT_REPEAT_RATE);
 
             boolean showSecondRow = Boolean.TRUE.toString().equals(
                     controller.getModel().getUserPreference(ExchangeModel.TICKER_SHOW_SECOND_ROW));
 
             if (showSecondRow) {
-              tickerTimer2 = new Timer();
-              tickerTimer2.schedule(new TickerTimerTask(exchangeController, thisFrame, false), TickerTimerTask.TASK_SEPARATION, TickerTimerTask.DEFAULT_REPEAT_RATE);
+              tickerTimer2 = TaskScheduler.INSTANCE.schedule(TickerTimerTask.SECOND_ROW_TASK_NAME,
+                      new TickerTimerTask(exchangeController, thisFrame, false), TickerTimerTask.TASK_SEPARATION,
+                      TickerTimerTask.DEFAULT_REPEAT_RATE);
             }
           }
         }
@@ -1154,6 +1160,9 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
       this.bitcoinController.logNumberOfWalletBusyListeners();
       this.bitcoinController.clearWalletBusyListeners();
 
+      // The Transactions table of the new views listens for row changes afresh.
+      this.bitcoinController.getModel().clearWalletTableDataListeners();
+
       this.localiser = controller.getLocaliser();
       Container contentPane = getContentPane();
       viewFactory.initialise();
@@ -1476,7 +1485,7 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
   }
 
   /**
-   * Mark that the UI needs updating the next time the fireDataChangedTimer fires.
+   * Mark that the UI needs updating the next time the FireDataChanged task runs.
    */
   @Override
   public void fireDataChangedUpdateLater(DisplayHint displayHint) {
@@ -1753,19 +1762,19 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
     updateHeader();
   }
 
-  public Timer getTickerTimer1() {
+  public ScheduledTask getTickerTimer1() {
     return tickerTimer1;
   }
 
-  public void setTickerTimer1(Timer tickerTimer1) {
+  public void setTickerTimer1(ScheduledTask tickerTimer1) {
     this.tickerTimer1 = tickerTimer1;
   }
 
-  public Timer getTickerTimer2() {
+  public ScheduledTask getTickerTimer2() {
     return tickerTimer2;
   }
 
-  public void setTickerTimer2(Timer tickerTimer2) {
+  public void setTickerTimer2(ScheduledTask tickerTimer2) {
     this.tickerTimer2 = tickerTimer2;
   }
 
@@ -1785,10 +1794,6 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
     this.tickerTimerTask2 = tickerTimerTask2;
   }
 
-  public HealthCheckTimerTask getHealthCheckTimerTask() {
-    return healthCheckTimerTask;
-  }
-
   @Override
   public void onKeysAdded(Wallet wallet, List<ECKey> keys) {
   }
@@ -39,6 +39,8 @@ import org.multibit.controller.bitcoin.BitcoinController;
 import org.multibit.message.Message;
 import org.multibit.message.MessageListener;
 import org.multibit.model.core.StatusEnum;
+import org.multibit.scheduler.ScheduledTask;
+import org.multibit.scheduler.TaskScheduler;
 import org.multibit.viewsystem.swing.action.MultiBitAction;
 import org.multibit.viewsystem.swing.view.components.BlinkLabel;
 import org.multibit.viewsystem.swing.view.components.FontSizer;
@@ -58,7 +60,6 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.Timer;
 
 /**
  * StatusBar. <BR>
@@ -92,7 +93,7 @@ public class StatusBar extends JPanel implements MessageListener {
   public static final long TIMER_REPEAT_TIME = 5000; // millisecond
   public static final int NUMBER_OF_REPEATS = 12;
 
-  private Timer statusClearTimer;
+  private ScheduledTask statusClearTask;
   static boolean clearAutomatically = true;
 
   private HashMap<String, Component> idToZones;
@@ -219,8 +220,7 @@ public class StatusBar extends JPanel implements MessageListener {
     addZone("network", statusLabel, "*", "");
     addZone("filler2", filler, "0", "right");
 
-    statusClearTimer = new java.util.Timer();
-    statusClearTimer.schedule(new StatusClearTask(statusLabel), TIMER_REPEAT_TIME, TIMER_REPEAT_TIME);
+    statusClearTask = TaskScheduler.INSTANCE.schedule("StatusClear", new StatusClearTask(statusLabel), TIMER_REPEAT_TIME, TIMER_REPEAT_TIME);
   }
 
   /**
@@ -767,7 +767,7 @@ class PercentLayout implements LayoutManager2 {
 
 }
 
-class StatusClearTask extends TimerTask {
+class StatusClearTask implements Runnable {
   JButton statusLabel;
   private String previousStatusLabelText = null;
   private int previousLabelRepeats = 0;
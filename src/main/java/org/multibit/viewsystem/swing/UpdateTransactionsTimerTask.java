@@ -1,6 +1,5 @@
 package org.multibit.viewsystem.swing;
 
-import java.util.TimerTask;
 import javax.swing.SwingUtilities;
 
 import org.multibit.controller.Controller;
@@ -8,7 +7,7 @@ import org.multibit.viewsystem.DisplayHint;
 import org.multibit.viewsystem.View;
 import org.multibit.viewsystem.swing.view.panels.ShowTransactionsPanel;
 
-public class UpdateTransactionsTimerTask extends TimerTask {
+public class UpdateTransactionsTimerTask implements Runnable {
     private Controller controller;
     private ShowTransactionsPanel transactionsPanel;
     private MultiBitFrame mainFrame;
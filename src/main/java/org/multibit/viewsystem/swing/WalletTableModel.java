@@ -18,7 +18,16 @@ package org.multibit.viewsystem.swing;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.swing.SwingUtilities;
 import javax.swing.table.AbstractTableModel;
 
 import org.joda.money.Money;
@@ -26,13 +35,28 @@ import org.multibit.controller.Controller;
 import org.multibit.controller.bitcoin.BitcoinController;
 import org.multibit.exchange.CurrencyConverter;
 import org.multibit.exchange.CurrencyInfo;
+import org.multibit.model.bitcoin.WalletData;
 import org.multibit.model.bitcoin.WalletTableData;
+import org.multibit.model.bitcoin.WalletTableDataListener;
+import org.multibit.model.bitcoin.WalletTableDataStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 
-public class WalletTableModel extends AbstractTableModel {
+
+/**
+ * The rows of the Transactions table for the active wallet.
+ * <p/>
+ * The rows are read in full when the table is shown and after that are changed a row at a time as the
+ * wallet's transactions change (on the Swing thread).
+ * <p/>
+ * The amount columns hold Amounts, which sort on the amount in satoshi and are only formatted when they are
+ * first painted. The formatted amounts are kept until the exchange rate or currency changes.
+ */
+public class WalletTableModel extends AbstractTableModel implements WalletTableDataListener {
 
     private static final long serialVersionUID = -937886012854496208L;
 
@@ -42,6 +66,42 @@ public class WalletTableModel extends AbstractTableModel {
 
     private ArrayList<WalletTableData> walletData;
 
+    /**
+     * The position of each transaction's row in walletData.
+     */
+    private Map<Sha256Hash, Integer> rowIndex;
+
+    /**
+     * The wallet whose rows are in walletData.
+     */
+    private WalletData shownPerWalletModelData;
+
+    /**
+     * The generation of the wallet's WalletTableDataStore that walletData was copied from
+     * (NOT_FROM_STORE before the rows have been read).
+     */
+    private long shownGeneration;
+
+    private static final long NOT_FROM_STORE = -1;
+
+    /**
+     * The BTC and fiat amounts of the rows that have been asked for.
+     */
+    private final Map<WalletTableData, Amount[]> amounts = new IdentityHashMap<WalletTableData, Amount[]>();
+
+    /**
+     * Works out all the rows of a wallet off the Swing thread.
+     */
+    private static final ExecutorService createWalletDataExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("WalletTableData-%d").setDaemon(true).build());
+
+    /**
+     * Incremented each time the rows are asked to be worked out, so that older requests can be skipped.
+     */
+    private final AtomicLong createWalletDataGeneration = new AtomicLong();
+
+    private Future<?> createWalletDataFuture;
+
     private final Controller controller;
     private final BitcoinController bitcoinController;
 
@@ -51,13 +111,16 @@ public class WalletTableModel extends AbstractTableModel {
 
         createHeaders();
 
-        walletData = this.bitcoinController.getModel().createWalletTableData(this.bitcoinController, this.bitcoinController.getModel().getActiveWalletFilename());
+        this.bitcoinController.getModel().addWalletTableDataListener(this);
+
+        showWalletData(null, new ArrayList<WalletTableData>(), NOT_FROM_STORE);
+        refreshWalletData();
     }
     
     @Override
     public Class<?> getColumnClass(int columnIndex) {
         if (columnIndex == 3 || columnIndex == 4) {
-            return Number.class;
+            return Amount.class;
         } else {
             return super.getColumnClass(columnIndex);
         }
@@ -111,34 +174,96 @@ public class WalletTableModel extends AbstractTableModel {
             return walletDataRow.getDescription();
         case 3:
             // Amount in BTC
+            return getAmounts(walletDataRow)[0];
+        case 4:
+            // Amount in fiat
+            return getAmounts(walletDataRow)[1];
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * @return The BTC and fiat amounts of a row (the BTC amount is null if the row has no credit or debit)
+     */
+    private Amount[] getAmounts(WalletTableData walletDataRow) {
+        Amount[] rowAmounts = amounts.get(walletDataRow);
+        if (rowAmounts == null) {
+            BigInteger amount = null;
             BigInteger debitAmount = walletDataRow.getDebit();
             if (debitAmount != null && debitAmount.compareTo(BigInteger.ZERO) > 0) {
-                return controller.getLocaliser().bitcoinValueToString(debitAmount.negate(), false, true);
+                amount = debitAmount.negate();
+            } else if (walletDataRow.getCredit() != null) {
+                amount = walletDataRow.getCredit();
             }
+            rowAmounts = new Amount[] { amount == null ? null : new Amount(amount, false),
+                    new Amount(amount == null ? BigInteger.ZERO : amount, true) };
+            amounts.put(walletDataRow, rowAmounts);
+        }
+        return rowAmounts;
+    }
 
-            BigInteger creditAmount = walletDataRow.getCredit();
-            if (creditAmount != null) {
-                return controller.getLocaliser().bitcoinValueToString(creditAmount, false, true);
-            }
-            
-            return null;         
-        case 4:
-            // Amount in fiat
-            if (walletDataRow.getDebit() != null  && walletDataRow.getDebit().compareTo(BigInteger.ZERO) > 0) {
-                Money debitAmountFiat = CurrencyConverter.INSTANCE.convertFromBTCToFiat(walletDataRow.getDebit());
-                if (debitAmountFiat != null) {
-                    return CurrencyConverter.INSTANCE.getFiatAsLocalisedString(debitAmountFiat.negated(), false, false);
-                }
-            }
+    /**
+     * Forget the formatted amounts, for instance because the exchange rate has changed.
+     */
+    public void clearFormattedAmounts() {
+        amounts.clear();
+        if (!walletData.isEmpty()) {
+            fireTableRowsUpdated(0, walletData.size() - 1);
+        }
+    }
 
-            Money creditAmountFiat = CurrencyConverter.INSTANCE.convertFromBTCToFiat(walletDataRow.getCredit());
-            if (creditAmountFiat != null) {
-                return CurrencyConverter.INSTANCE.getFiatAsLocalisedString(creditAmountFiat, false, false);
+    private String formatAmount(Amount amount) {
+        if (!amount.fiat) {
+            return controller.getLocaliser().bitcoinValueToString(amount.value, false, true);
+        }
+
+        if (amount.value.signum() < 0) {
+            Money debitAmountFiat = CurrencyConverter.INSTANCE.convertFromBTCToFiat(amount.value.negate());
+            if (debitAmountFiat != null) {
+                return CurrencyConverter.INSTANCE.getFiatAsLocalisedString(debitAmountFiat.negated(), false, false);
             }
-            
             return "";
-        default:
-            return null;
+        }
+
+        Money creditAmountFiat = CurrencyConverter.INSTANCE.convertFromBTCToFiat(amount.value);
+        if (creditAmountFiat != null) {
+            return CurrencyConverter.INSTANCE.getFiatAsLocalisedString(creditAmountFiat, false, false);
+        }
+        return "";
+    }
+
+    /**
+     * An amount in the table. It sorts on the amount in satoshi and is shown as the BTC or fiat text,
+     * which is worked out the first time it is needed.
+     */
+    public final class Amount implements Comparable<Amount> {
+        private final BigInteger value;
+        private final long satoshis;
+        private final boolean fiat;
+        private String text;
+
+        Amount(BigInteger value, boolean fiat) {
+            this.value = value;
+            this.satoshis = value.longValue();
+            this.fiat = fiat;
+        }
+
+        public long getSatoshis() {
+            return satoshis;
+        }
+
+        @Override
+        public int compareTo(Amount other) {
+            return satoshis < other.satoshis ? -1 : (satoshis == other.satoshis ? 0 : 1);
+        }
+
+        @Override
+        public String toString() {
+            if (text == null) {
+                text = formatAmount(this);
+            }
+            return text;
         }
     }
 
@@ -150,10 +275,178 @@ public class WalletTableModel extends AbstractTableModel {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Recreate the wallet data (for instance, the address book labels in the descriptions may have changed).
+     * The rows are worked out in the background and swapped in when they are ready.
+     */
     public void recreateWalletData() {
-        // Recreate the wallet data as the underlying wallet has changed.
-        walletData = this.bitcoinController.getModel().createActiveWalletData(this.bitcoinController);
-        fireTableDataChanged();
+        WalletData activePerWalletModelData = this.bitcoinController.getModel().getActivePerWalletModelData();
+        if (activePerWalletModelData != shownPerWalletModelData) {
+            showWalletData(activePerWalletModelData, new ArrayList<WalletTableData>(), NOT_FROM_STORE);
+            fireTableDataChanged();
+        }
+        createWalletDataInBackground(activePerWalletModelData);
+    }
+
+    /**
+     * Show the rows of the active wallet. The rows are only read again if the active wallet has changed,
+     * otherwise the changes have already been applied to the table row by row.
+     */
+    public void refreshWalletData() {
+        WalletData activePerWalletModelData = this.bitcoinController.getModel().getActivePerWalletModelData();
+        if (activePerWalletModelData != shownPerWalletModelData) {
+            WalletTableDataStore walletTableDataStore = activePerWalletModelData.getWalletTableDataStore();
+            synchronized (walletTableDataStore) {
+                if (walletTableDataStore.isSeeded()) {
+                    showWalletData(activePerWalletModelData, walletTableDataStore.getRows(), walletTableDataStore.getGeneration());
+                    fireTableDataChanged();
+                    return;
+                }
+            }
+            showWalletData(activePerWalletModelData, new ArrayList<WalletTableData>(), NOT_FROM_STORE);
+            fireTableDataChanged();
+            createWalletDataInBackground(activePerWalletModelData);
+        }
+    }
+
+    /**
+     * Work out all the rows of a wallet on the background thread. A recomputation that has not started by the
+     * time another one is asked for is not done.
+     * The rows are swapped in when the model tells its listeners that they have been reset (see walletTableDataReset).
+     */
+    private void createWalletDataInBackground(final WalletData perWalletModelData) {
+        final long generation = createWalletDataGeneration.incrementAndGet();
+        if (createWalletDataFuture != null) {
+            createWalletDataFuture.cancel(false);
+        }
+        createWalletDataFuture = createWalletDataExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != createWalletDataGeneration.get()) {
+                    // A newer recomputation has been asked for.
+                    return;
+                }
+                bitcoinController.getModel().createWalletTableData(bitcoinController, perWalletModelData);
+            }
+        });
+    }
+
+    /**
+     * Swap in a snapshot of all the rows of a wallet (on the Swing thread).
+     * If the snapshot has the same transactions in the same order the rows are updated in place, so that the
+     * selection and sort are kept.
+     * <p/>
+     * A snapshot older than the rows shown is not swapped in. If rows have been added, replaced or removed
+     * since the snapshot was taken the rows now in the store are swapped in instead, so those changes are kept.
+     *
+     * @param generation The generation of the wallet's WalletTableDataStore that the snapshot was taken at
+     */
+    private void swapWalletData(WalletData perWalletModelData, List<WalletTableData> snapshot, long generation) {
+        if (perWalletModelData != shownPerWalletModelData || generation <= shownGeneration) {
+            // Not shown, or the rows shown are as new.
+            return;
+        }
+
+        WalletTableDataStore walletTableDataStore = perWalletModelData.getWalletTableDataStore();
+        synchronized (walletTableDataStore) {
+            if (walletTableDataStore.getGeneration() != generation) {
+                log.debug("Rows changed whilst the Transactions table was being worked out - using the latest rows");
+                snapshot = walletTableDataStore.getRows();
+                generation = walletTableDataStore.getGeneration();
+            }
+        }
+        if (walletData.equals(snapshot)) {
+            // Already up to date row by row.
+            shownGeneration = generation;
+            return;
+        }
+
+        boolean sameTransactions = snapshot.size() == walletData.size();
+        for (int i = 0; sameTransactions && i < snapshot.size(); i++) {
+            Sha256Hash hash = WalletTableDataStore.getHash(snapshot.get(i));
+            sameTransactions = hash != null && hash.equals(WalletTableDataStore.getHash(walletData.get(i)));
+        }
+
+        showWalletData(perWalletModelData, snapshot, generation);
+        if (!sameTransactions) {
+            fireTableDataChanged();
+        } else if (!walletData.isEmpty()) {
+            fireTableRowsUpdated(0, walletData.size() - 1);
+        }
+    }
+
+    private void showWalletData(WalletData perWalletModelData, List<WalletTableData> walletTableDataList, long generation) {
+        amounts.clear();
+        shownPerWalletModelData = perWalletModelData;
+        shownGeneration = generation;
+        walletData = new ArrayList<WalletTableData>(walletTableDataList);
+        rowIndex = new HashMap<Sha256Hash, Integer>();
+        for (int i = 0; i < walletData.size(); i++) {
+            Sha256Hash hash = WalletTableDataStore.getHash(walletData.get(i));
+            if (hash != null) {
+                rowIndex.put(hash, i);
+            }
+        }
+    }
+
+    @Override
+    public void walletTableDataInserted(final WalletData perWalletModelData, final WalletTableData walletTableData) {
+        walletTableDataUpdated(perWalletModelData, walletTableData);
+    }
+
+    @Override
+    public void walletTableDataUpdated(final WalletData perWalletModelData, final WalletTableData walletTableData) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                Sha256Hash hash = WalletTableDataStore.getHash(walletTableData);
+                if (perWalletModelData != shownPerWalletModelData || hash == null) {
+                    return;
+                }
+                Integer row = rowIndex.get(hash);
+                if (row == null) {
+                    walletData.add(walletTableData);
+                    rowIndex.put(hash, walletData.size() - 1);
+                    fireTableRowsInserted(walletData.size() - 1, walletData.size() - 1);
+                } else {
+                    amounts.remove(walletData.set(row, walletTableData));
+                    fireTableRowsUpdated(row, row);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void walletTableDataDeleted(final WalletData perWalletModelData, final WalletTableData walletTableData) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                Sha256Hash hash = WalletTableDataStore.getHash(walletTableData);
+                if (perWalletModelData != shownPerWalletModelData || hash == null) {
+                    return;
+                }
+                Integer row = rowIndex.remove(hash);
+                if (row != null) {
+                    amounts.remove(walletData.remove(row.intValue()));
+                    // The rows after the deleted one have moved up.
+                    for (int i = row; i < walletData.size(); i++) {
+                        rowIndex.put(WalletTableDataStore.getHash(walletData.get(i)), i);
+                    }
+                    fireTableRowsDeleted(row, row);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void walletTableDataReset(final WalletData perWalletModelData, final List<WalletTableData> walletTableDataList,
+            final long generation) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                swapWalletData(perWalletModelData, walletTableDataList, generation);
+            }
+        });
     }
 
     public void createHeaders() {
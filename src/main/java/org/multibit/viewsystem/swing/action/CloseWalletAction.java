@@ -83,6 +83,7 @@ public class CloseWalletAction extends MultiBitSubmitAction {
 
       // Unhook it from the PeerGroup.
       super.bitcoinController.getMultiBitService().getPeerGroup().removeWallet(perWalletModelData.getWallet());
+      super.bitcoinController.getMultiBitService().stopFilteredBlockCacheRecording();
 
       // Save it.
       FileHandler fileHandler = new FileHandler(super.bitcoinController);
@@ -122,7 +123,18 @@ public class CloseWalletAction extends MultiBitSubmitAction {
       // Set the new Wallet to be the active wallet.
       if (!this.bitcoinController.getModel().getPerWalletModelDataList().isEmpty()) {
         WalletData firstPerWalletModelData = this.bitcoinController.getModel().getPerWalletModelDataList().get(newWalletToSelect);
-        this.bitcoinController.getModel().setActiveWalletByFilename(firstPerWalletModelData.getWalletFilename());
+        if (firstPerWalletModelData.getWallet() != null) {
+          this.bitcoinController.getModel().setActiveWalletByFilename(firstPerWalletModelData.getWalletFilename());
+        } else {
+          // A wallet opened from its summary is read in full in the background and selected once it has been.
+          new PromoteWalletWorker(this.bitcoinController, firstPerWalletModelData, null) {
+            @Override
+            protected void walletPromoted(WalletData promotedPerWalletModelData) {
+              bitcoinController.getModel().setActiveWalletByFilename(promotedPerWalletModelData.getWalletFilename());
+              controller.fireRecreateAllViews(true);
+            }
+          }.start();
+        }
       } else {
         // No wallets are selected.
         // Clear all the views.
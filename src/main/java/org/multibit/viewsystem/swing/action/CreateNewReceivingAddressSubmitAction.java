@@ -22,7 +22,6 @@ import org.bitcoinj.wallet.Protos.Wallet.EncryptionType;
 import org.multibit.controller.bitcoin.BitcoinController;
 import org.multibit.file.BackupManager;
 import org.multibit.file.FileHandler;
-import org.multibit.file.WalletSaveException;
 import org.multibit.message.Message;
 import org.multibit.message.MessageManager;
 import org.multibit.model.bitcoin.*;
@@ -261,13 +260,8 @@ public class CreateNewReceivingAddressSubmitAction extends MultiBitSubmitAction
                         finalPerWalletModelData.getWalletInfo().put(BitcoinModel.RECEIVE_ADDRESS, lastAddressString);
                         finalPerWalletModelData.getWalletInfo().put(BitcoinModel.RECEIVE_LABEL, "");
                         
-                        try {
-                            finalController.getFileHandler().savePerWalletModelData(finalPerWalletModelData, false);
-                        } catch (WalletSaveException wse) {
-                            log.error(wse.getClass().getCanonicalName() + " " + wse.getMessage());
-                            MessageManager.INSTANCE.addMessage(new Message(controller.getLocaliser().getString("createNewReceivingAddressesSubmitAction.failure",
-                                    new Object[] { wse.getClass().getCanonicalName() + " " + wse.getMessage() })));
-                        }   
+                        // Save the wallet off the Swing thread - any failure is reported by the WalletSaveScheduler.
+                        finalController.getWalletSaveScheduler().saveNow(finalPerWalletModelData);
                     } else {
                         log.error(longMessage);
                     }
@@ -17,7 +17,6 @@ package org.multibit.viewsystem.swing.action;
 
 import com.google.bitcoin.store.BlockStore;
 import com.google.bitcoin.store.BlockStoreException;
-import com.google.common.util.concurrent.Uninterruptibles;
 import org.multibit.ApplicationInstanceManager;
 import org.multibit.controller.Controller;
 import org.multibit.controller.bitcoin.BitcoinController;
@@ -28,8 +27,8 @@ import org.multibit.file.WalletSaveException;
 import org.multibit.message.Message;
 import org.multibit.message.MessageManager;
 import org.multibit.model.bitcoin.WalletData;
+import org.multibit.scheduler.TaskScheduler;
 import org.multibit.store.WalletVersionException;
-import org.multibit.viewsystem.swing.HealthCheckTimerTask;
 import org.multibit.viewsystem.swing.MultiBitFrame;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,7 +37,6 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Exit the application.
@@ -47,9 +45,6 @@ public class ExitAction extends AbstractExitAction {
 
     private static final long serialVersionUID = 8784284740245520863L;
     
-    private static final int MAXIMUM_TIME_TO_WAIT_FOR_HEALTH_CHECK_TASK = 30000; // ms
-    private static final int TIME_TO_WAIT = 200; // ms
-
     private final MultiBitFrame mainFrame;
     private static final Logger log = LoggerFactory.getLogger(ExitAction.class);
 
@@ -101,20 +96,15 @@ public class ExitAction extends AbstractExitAction {
                     }
                 });
             }
-               
-            // If the HealthCheckTimerTask is running wait until it completes.
-            HealthCheckTimerTask healthCheckTimerTask = mainFrame.getHealthCheckTimerTask();
-            if (healthCheckTimerTask != null) {
-                int timeWaited = 0;
-                
-                while(healthCheckTimerTask.isRunning() && timeWaited < MAXIMUM_TIME_TO_WAIT_FOR_HEALTH_CHECK_TASK) {
-                    log.debug("Waiting for healthCheckTimerTask to complete (waited so far = " + timeWaited + "). . .");
-                    Uninterruptibles.sleepUninterruptibly(TIME_TO_WAIT, TimeUnit.MILLISECONDS);
-                    timeWaited = timeWaited + TIME_TO_WAIT;
-                }
-            }
         }
         
+        // Stop the periodic tasks (ticker, UI updates, replay manager) so that nothing runs whilst shutting down.
+        log.debug("Stopping scheduled tasks...");
+        TaskScheduler.INSTANCE.shutdown();
+        if (bitcoinController != null) {
+            log.debug(bitcoinController.getViewSystemEventBus().toString());
+        }
+
         if (bitcoinController != null && bitcoinController.getMultiBitService() != null) {
             // Stop the peer group so that blocks are notified to wallets correctly.
             if (bitcoinController.getMultiBitService().getPeerGroup() != null) {
@@ -137,9 +127,20 @@ public class ExitAction extends AbstractExitAction {
                     log.error("BlockStoreException on blockstore close. Message was '" + e.getMessage() + "'");
                 }
             }
+
+            // Keep the block times for the next start.
+            bitcoinController.getMultiBitService().getBlockTimestampCache().save();
+            if (bitcoinController.getMultiBitService().getFilteredBlockCache() != null) {
+                bitcoinController.getMultiBitService().getFilteredBlockCache().close();
+            }
         }
 
         if (bitcoinController != null) {
+            // Let any background wallet save or wallet journal compaction finish before the final save.
+            log.debug("Stopping background wallet saves...");
+            bitcoinController.getWalletSaveScheduler().stop();
+            bitcoinController.getFileHandler().stopWalletJournalCompaction();
+
             // Save all the wallets and put their filenames in the user preferences.
             List<WalletData> perWalletModelDataList = bitcoinController.getModel().getPerWalletModelDataList();
             if (perWalletModelDataList != null) {
@@ -183,6 +184,9 @@ public class ExitAction extends AbstractExitAction {
                 }
             }
 
+            // Record how far the wallets that were not saved have got through the chain.
+            bitcoinController.getLastBlockSeenTracker().flush();
+
             // Write the user properties.
             log.debug("Saving user preferences ...");
             FileHandler.writeUserPreferences(bitcoinController);
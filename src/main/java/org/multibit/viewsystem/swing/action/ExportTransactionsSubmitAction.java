@@ -199,7 +199,7 @@ public class ExportTransactionsSubmitAction extends AbstractAction {
     }
     
     public void exportTransactionsDoIt(WalletData walletData, String exportTransactionsFilename) {        
-        List<WalletTableData> walletTableDataList = bitcoinController.getModel().createWalletTableData(bitcoinController, walletData);
+        List<WalletTableData> walletTableDataList = bitcoinController.getModel().getWalletTableData(bitcoinController, walletData);
         
         // Sort by date descending.
         Comparator<WalletTableData> comparator = new Comparator<WalletTableData>() {
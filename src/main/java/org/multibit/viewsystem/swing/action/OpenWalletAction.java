@@ -136,14 +136,13 @@ public class OpenWalletAction extends AbstractAction {
                                     if (perWalletModelData != null && perWalletModelData.getWalletFilename() != null) {
                                         if (perWalletModelData.getWalletFilename().equals(selectedWalletFilename)) {
                                             walletIsAlreadyOpen = true;
-                                            this.bitcoinController.getModel().setActiveWalletByFilename(selectedWalletFilename);
-                                            controller.fireDataChangedUpdateNow();
+                                            activateOpenWallet(perWalletModelData);
                                             break;
                                         } else {
                                             // Check if the file encrypted version of the wallet is already open - if so use it.
                                             if ((perWalletModelData.getWalletFilename() + "." + BackupManager.FILE_ENCRYPTED_WALLET_SUFFIX).equals(selectedWalletFilename)) {
                                                 walletIsAlreadyOpen = true;
-                                                this.bitcoinController.getModel().setActiveWalletByFilename(perWalletModelData.getWalletFilename());                                                    controller.fireDataChangedUpdateNow();
+                                                activateOpenWallet(perWalletModelData);
                                                 break;
                                             }
                                         }
@@ -266,6 +265,20 @@ public class OpenWalletAction extends AbstractAction {
         }
     }
     
+    /**
+     * Make a wallet that is already open the active wallet. A wallet that was opened from its summary is read in
+     * full in the background first.
+     */
+    private void activateOpenWallet(WalletData perWalletModelData) {
+        new PromoteWalletWorker(bitcoinController, perWalletModelData, null) {
+            @Override
+            protected void walletPromoted(WalletData promotedPerWalletModelData) {
+                bitcoinController.getModel().setActiveWalletByFilename(promotedPerWalletModelData.getWalletFilename());
+                controller.fireDataChangedUpdateNow();
+            }
+        }.start();
+    }
+
     /**
      * Open a wallet in a background Swing worker thread.
      * @param selectedWalletFilename Filename of wallet to open
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.viewsystem.swing.action;
+
+import org.multibit.controller.bitcoin.BitcoinController;
+import org.multibit.model.bitcoin.WalletData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reads a wallet that was opened from its summary in full in the background, so that the Swing thread never waits
+ * for the read, and then calls walletPromoted on the Swing thread (e.g. to select the wallet) if it was read.
+ */
+public abstract class PromoteWalletWorker extends SwingWorker<Boolean, Void> {
+
+    private static final Logger log = LoggerFactory.getLogger(PromoteWalletWorker.class);
+
+    private final BitcoinController bitcoinController;
+    private final WalletData perWalletModelData;
+    private final Component component;
+
+    /**
+     * @param bitcoinController  The controller
+     * @param perWalletModelData The wallet to promote
+     * @param component          The component to show the wait cursor on whilst the wallet is read (may be null)
+     */
+    public PromoteWalletWorker(BitcoinController bitcoinController, WalletData perWalletModelData, Component component) {
+        this.bitcoinController = bitcoinController;
+        this.perWalletModelData = perWalletModelData;
+        this.component = component;
+    }
+
+    /**
+     * Call walletPromoted now if the wallet is already loaded in full, otherwise read it in the background first.
+     * Called on the Swing thread.
+     */
+    public void start() {
+        if (perWalletModelData.getWallet() != null) {
+            walletPromoted(perWalletModelData);
+            return;
+        }
+        if (component != null) {
+            component.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        }
+        execute();
+    }
+
+    @Override
+    protected Boolean doInBackground() {
+        return bitcoinController.promoteWallet(perWalletModelData);
+    }
+
+    @Override
+    protected void done() {
+        if (component != null) {
+            component.setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
+        }
+        try {
+            if (get()) {
+                walletPromoted(perWalletModelData);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Could not read wallet '" + perWalletModelData.getWalletFilename() + "' in full. "
+                    + e.getClass().getCanonicalName() + " " + e.getMessage());
+        }
+    }
+
+    /**
+     * The wallet is loaded in full (called on the Swing thread).
+     */
+    protected abstract void walletPromoted(WalletData perWalletModelData);
+}
@@ -35,6 +35,10 @@ import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.io.IOException;
 import java.nio.CharBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * This {@link Action} actually spends bitcoin.
@@ -53,6 +57,11 @@ public class SendBitcoinNowAction extends AbstractAction implements WalletBusyLi
 
   private final static int MAX_LENGTH_OF_ERROR_MESSAGE = 120;
 
+  /**
+   * How long to wait for the wallet to be saved after a send, in seconds.
+   */
+  private final static int MAXIMUM_TIME_TO_WAIT_FOR_SAVE = 30;
+
   /**
    * Boolean to indicate that the test parameters should be used for "sending".
    */
@@ -65,6 +74,11 @@ public class SendBitcoinNowAction extends AbstractAction implements WalletBusyLi
 
   private Transaction transaction;
 
+  /**
+   * Why the last send failed (null if it did not fail).
+   */
+  private String sendMessage;
+
   private SendRequest sendRequest;
 
 
@@ -154,14 +168,50 @@ public class SendBitcoinNowAction extends AbstractAction implements WalletBusyLi
       sendBitcoinConfirmPanel.validate();
       sendBitcoinConfirmPanel.repaint();
 
-      performSend(perWalletModelData, sendRequest, CharBuffer.wrap(walletPassword));
+      performSendInBackground(perWalletModelData, sendRequest, CharBuffer.wrap(walletPassword));
     }
   }
 
+  /**
+   * Send the transaction and save the wallet in a background Swing worker thread, then show the result.
+   */
+  private void performSendInBackground(final WalletData perWalletModelData, final SendRequest sendRequest, final CharSequence walletPassword) {
+    SwingWorker<Boolean, Void> worker = new SwingWorker<Boolean, Void>() {
+      private String message = null;
+      private boolean walletWasSaved = false;
+
+      @Override
+      protected Boolean doInBackground() throws Exception {
+        boolean sendWasSuccessful = performSend(perWalletModelData, sendRequest, walletPassword);
+        message = sendMessage;
+        walletWasSaved = saveWallet(perWalletModelData);
+        return sendWasSuccessful;
+      }
+
+      @Override
+      protected void done() {
+        boolean sendWasSuccessful = false;
+        try {
+          sendWasSuccessful = get();
+        } catch (Exception e) {
+          // Not really used but caught so that SwingWorker shuts down cleanly.
+          log.error(e.getClass() + " " + e.getMessage());
+          message = e.getMessage();
+        } finally {
+          showSendResult(perWalletModelData, sendWasSuccessful, walletWasSaved, message);
+        }
+      }
+    };
+    log.debug("Sending bitcoin in background SwingWorker thread");
+    worker.execute();
+  }
+
   /**
    * Send the transaction directly.
+   *
+   * @return true if the send was successful (otherwise sendMessage says why not)
    */
-  private void performSend(WalletData perWalletModelData, SendRequest sendRequest, CharSequence walletPassword) {
+  private boolean performSend(WalletData perWalletModelData, SendRequest sendRequest, CharSequence walletPassword) {
     String message = null;
 
     boolean sendWasSuccessful = Boolean.FALSE;
@@ -210,49 +260,67 @@ public class SendBitcoinNowAction extends AbstractAction implements WalletBusyLi
       // Really trying to catch anything that goes wrong with the send bitcoin.
       log.error(e.getMessage(), e);
       message = e.getMessage();
-    } finally {
-      // Save the wallet.
-      try {
-        this.bitcoinController.getFileHandler().savePerWalletModelData(perWalletModelData, false);
-      } catch (WalletSaveException e) {
-        log.error(e.getMessage(), e);
-        message = e.getMessage();
-      }
+    }
+    sendMessage = message;
+    return sendWasSuccessful;
+  }
 
-      if (sendWasSuccessful) {
-        String successMessage = controller.getLocaliser().getString("sendBitcoinNowAction.bitcoinSentOk");
-        if (sendBitcoinConfirmPanel != null && (sendBitcoinConfirmPanel.isVisible() || useTestParameters)) {
-          sendBitcoinConfirmPanel.setMessageText(
-                  controller.getLocaliser().getString("sendBitcoinNowAction.bitcoinSentOk"));
-          sendBitcoinConfirmPanel.showOkButton();
-          sendBitcoinConfirmPanel.clearAfterSend();
+  /**
+   * Save the wallet without the save window and wait for it to be on disk (so not on the Swing thread).
+   *
+   * @return true if the wallet was saved
+   */
+  private boolean saveWallet(WalletData perWalletModelData) {
+    Future<Boolean> save = this.bitcoinController.getWalletSaveScheduler().saveNow(perWalletModelData);
+    try {
+      return Boolean.TRUE.equals(save.get(MAXIMUM_TIME_TO_WAIT_FOR_SAVE, TimeUnit.SECONDS));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException | TimeoutException e) {
+      log.error("Wallet save after send did not finish. " + e.getClass().getCanonicalName() + " " + e.getMessage());
+      return false;
+    }
+  }
+
+  private void showSendResult(WalletData perWalletModelData, boolean sendWasSuccessful, boolean walletWasSaved, String message) {
+    if (sendWasSuccessful) {
+      String successMessage = controller.getLocaliser().getString("sendBitcoinNowAction.bitcoinSentOk");
+      String saveMessage = walletWasSaved ? "" : controller.getLocaliser().getString("sendBitcoinNowAction.walletNotSaved");
+      if (sendBitcoinConfirmPanel != null && (sendBitcoinConfirmPanel.isVisible() || useTestParameters)) {
+        if (walletWasSaved) {
+          sendBitcoinConfirmPanel.setMessageText(successMessage);
         } else {
-          MessageManager.INSTANCE.addMessage(new Message(successMessage));
+          sendBitcoinConfirmPanel.setMessageText(successMessage, saveMessage);
         }
+        sendBitcoinConfirmPanel.showOkButton();
+        sendBitcoinConfirmPanel.clearAfterSend();
       } else {
-        log.error(message);
+        MessageManager.INSTANCE.addMessage(new Message((successMessage + " " + saveMessage).trim()));
+      }
+    } else {
+      log.error(message);
 
-        if (message != null && message.length() > MAX_LENGTH_OF_ERROR_MESSAGE) {
-          message = message.substring(0, MAX_LENGTH_OF_ERROR_MESSAGE) + "...";
-        }
+      if (message != null && message.length() > MAX_LENGTH_OF_ERROR_MESSAGE) {
+        message = message.substring(0, MAX_LENGTH_OF_ERROR_MESSAGE) + "...";
+      }
 
-        String errorMessage = controller.getLocaliser().getString("sendBitcoinNowAction.bitcoinSendFailed");
-        if (sendBitcoinConfirmPanel != null && (sendBitcoinConfirmPanel.isVisible() || useTestParameters)) {
-          sendBitcoinConfirmPanel.setMessageText(errorMessage, message);
-        } else {
-          MessageManager.INSTANCE.addMessage(new Message(errorMessage + " " + message));
-        }
+      String errorMessage = controller.getLocaliser().getString("sendBitcoinNowAction.bitcoinSendFailed");
+      if (sendBitcoinConfirmPanel != null && (sendBitcoinConfirmPanel.isVisible() || useTestParameters)) {
+        sendBitcoinConfirmPanel.setMessageText(errorMessage, message);
+      } else {
+        MessageManager.INSTANCE.addMessage(new Message(errorMessage + " " + message));
       }
+    }
 
-      // Declare that wallet is no longer busy with the task.
-      perWalletModelData.setBusyTaskKey(null);
-      perWalletModelData.setBusy(false);
-      this.bitcoinController.fireWalletBusyChange(false);
+    // Declare that wallet is no longer busy with the task.
+    perWalletModelData.setBusyTaskKey(null);
+    perWalletModelData.setBusy(false);
+    this.bitcoinController.fireWalletBusyChange(false);
 
-      log.debug("firing fireRecreateAllViews...");
-      controller.fireRecreateAllViews(false);
-      log.debug("firing fireRecreateAllViews...done");
-    }
+    log.debug("firing fireRecreateAllViews...");
+    controller.fireRecreateAllViews(false);
+    log.debug("firing fireRecreateAllViews...done");
   }
 
   public Transaction getTransaction() {
@@ -26,6 +26,7 @@ import org.multibit.model.bitcoin.BitcoinModel;
 import org.multibit.model.core.CoreModel;
 import org.multibit.model.exchange.ExchangeData;
 import org.multibit.model.exchange.ExchangeModel;
+import org.multibit.scheduler.TaskScheduler;
 import org.multibit.viewsystem.dataproviders.PreferencesDataProvider;
 import org.multibit.viewsystem.swing.ColorAndFontConstants;
 import org.multibit.viewsystem.swing.MultiBitFrame;
@@ -37,7 +38,6 @@ import javax.swing.*;
 import javax.swing.UIManager.LookAndFeelInfo;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import java.util.Timer;
 
 /**
  * This {@link Action} applies changes to the preferences panel.
@@ -312,28 +312,24 @@ public class ShowPreferencesSubmitAction extends AbstractAction {
         if (mainFrame.getTickerTimer2() != null) {
           mainFrame.getTickerTimer2().cancel();
         }                // Start ticker timer.
-        Timer tickerTimer1 = new Timer();
-        mainFrame.setTickerTimer1(tickerTimer1);
-
         TickerTimerTask tickerTimerTask1 = new TickerTimerTask(this.exchangeController, mainFrame, true);
         tickerTimerTask1.createExchangeObjects(controller.getModel().getUserPreference(ExchangeModel.TICKER_FIRST_ROW_EXCHANGE));
         mainFrame.setTickerTimerTask1(tickerTimerTask1);
 
-        tickerTimer1.schedule(tickerTimerTask1, 0, TickerTimerTask.DEFAULT_REPEAT_RATE);
+        mainFrame.setTickerTimer1(TaskScheduler.INSTANCE.schedule(TickerTimerTask.FIRST_ROW_TASK_NAME, tickerTimerTask1, 0,
+                TickerTimerTask.DEFAULT_REPEAT_RATE));
 
         boolean showSecondRow = Boolean.TRUE.toString().equals(
                 controller.getModel().getUserPreference(ExchangeModel.TICKER_SHOW_SECOND_ROW));
 
         if (showSecondRow) {
-          Timer tickerTimer2 = new Timer();
-          mainFrame.setTickerTimer2(tickerTimer2);
-
           TickerTimerTask tickerTimerTask2 = new TickerTimerTask(this.exchangeController, mainFrame, false);
           tickerTimerTask2.createExchangeObjects(controller.getModel().getUserPreference(
                   ExchangeModel.TICKER_SECOND_ROW_EXCHANGE));
           mainFrame.setTickerTimerTask2(tickerTimerTask2);
 
-          tickerTimer2.schedule(tickerTimerTask2, TickerTimerTask.TASK_SEPARATION, TickerTimerTask.DEFAULT_REPEAT_RATE);
+          mainFrame.setTickerTimer2(TaskScheduler.INSTANCE.schedule(TickerTimerTask.SECOND_ROW_TASK_NAME, tickerTimerTask2,
+                  TickerTimerTask.TASK_SEPARATION, TickerTimerTask.DEFAULT_REPEAT_RATE));
         }
       }
 
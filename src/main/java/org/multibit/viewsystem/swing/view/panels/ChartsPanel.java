@@ -251,6 +251,17 @@ public class ChartsPanel extends JPanel implements Viewable, ComponentListener {
     mainPanel.add(chartPanel, constraints);
   }
 
+  /**
+   * The date of a transaction, using the cached block times for transactions without an update time.
+   */
+  private Date getTransactionDate(Transaction transaction) {
+    if (bitcoinController.getMultiBitService() == null) {
+      return transaction.getUpdateTime();
+    }
+    return bitcoinController.getMultiBitService().getBlockTimestampCache().getTransactionDate(transaction,
+            bitcoinController.getMultiBitService().getBlockStore());
+  }
+
   /**
    * Get the transaction data for the chart
    */
@@ -262,14 +273,20 @@ public class ChartsPanel extends JPanel implements Viewable, ComponentListener {
 
     ArrayList<Transaction> allTransactions = new ArrayList<Transaction>(this.bitcoinController.getModel().getActiveWallet().getTransactions(false));
 
+    // Work out the date of each transaction once (transactions without an update time take the time of their block).
+    final Map<Transaction, Date> transactionDates = new HashMap<Transaction, Date>();
+    for (Transaction loop : allTransactions) {
+      transactionDates.put(loop, getTransactionDate(loop));
+    }
+
     // Order by date.
     Collections.sort(allTransactions, new Comparator<Transaction>() {
 
       @Override
       public int compare(Transaction t1, Transaction t2) {
 
-        Date date1 = t1.getUpdateTime();
-        Date date2 = t2.getUpdateTime();
+        Date date1 = transactionDates.get(t1);
+        Date date2 = transactionDates.get(t2);
         if (date1 == null) {
           if (date2 == null) {
             return 0;
@@ -312,7 +329,7 @@ public class ChartsPanel extends JPanel implements Viewable, ComponentListener {
         for (Transaction loop : allTransactions) {
           balance = balance.add(loop.getValue(this.bitcoinController.getModel().getActiveWallet()));
 
-          Date loopUpdateTime = loop.getUpdateTime();
+          Date loopUpdateTime = transactionDates.get(loop);
           if (loopUpdateTime != null) {
             long loopTimeInMillis = loopUpdateTime.getTime();
 
@@ -336,12 +353,12 @@ public class ChartsPanel extends JPanel implements Viewable, ComponentListener {
 
               // Include this transaction as it is in the last
               // NUMBER_OF_DAYS_TO_LOOK_BACK days.
-              chartData.add(new ChartData(loop.getUpdateTime(), previousBalance));
-              chartData.add(new ChartData(loop.getUpdateTime(), balance));
+              chartData.add(new ChartData(loopUpdateTime, previousBalance));
+              chartData.add(new ChartData(loopUpdateTime, balance));
             }
 
             previousBalance = balance;
-            previousDate = loop.getUpdateTime();
+            previousDate = loopUpdateTime;
           }
         }
       }
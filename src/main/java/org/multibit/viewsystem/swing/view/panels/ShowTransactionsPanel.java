@@ -26,6 +26,7 @@ import org.multibit.exchange.CurrencyConverterListener;
 import org.multibit.exchange.ExchangeRate;
 import org.multibit.model.bitcoin.WalletTableData;
 import org.multibit.model.core.CoreModel;
+import org.multibit.scheduler.TaskScheduler;
 import org.multibit.utils.DateUtils;
 import org.multibit.utils.ImageLoader;
 import org.multibit.viewsystem.DisplayHint;
@@ -50,14 +51,10 @@ import javax.swing.event.ListSelectionListener;
 import javax.swing.table.*;
 import javax.swing.text.*;
 import java.awt.*;
-import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.text.DecimalFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.List;
-import java.util.Timer;
 
 public class ShowTransactionsPanel extends JPanel implements Viewable, CurrencyConverterListener {
     private static final long serialVersionUID = 1235108897887842662L;
@@ -107,14 +104,14 @@ public class ShowTransactionsPanel extends JPanel implements Viewable, CurrencyC
     private MultiBitButton exportTransactionsButton;
     
     public static final int UPDATE_TRANSACTIONS_DELAY_TIME = 1000; // milliseconds
+
+    /**
+     * How often the transactions are checked for updates whilst MultiBit is minimised.
+     */
+    public static final int UPDATE_TRANSACTIONS_IDLE_DELAY_TIME = 10000; // milliseconds
     
     private JScrollPane scrollPane;
     
-    /**
-     * Timer used to condense multiple updates
-     */
-    private static Timer updateTransactionsTimer;
-
     private static UpdateTransactionsTimerTask updateTransactionsTimerTask;
     
     public ShowTransactionsPanel(BitcoinController bitcoinController, MultiBitFrame mainFrame) {
@@ -123,8 +120,9 @@ public class ShowTransactionsPanel extends JPanel implements Viewable, CurrencyC
         this.mainFrame = mainFrame;
 
         updateTransactionsTimerTask = new UpdateTransactionsTimerTask(controller, this, mainFrame);
-        updateTransactionsTimer = new Timer();
-        updateTransactionsTimer.scheduleAtFixedRate(updateTransactionsTimerTask, UPDATE_TRANSACTIONS_DELAY_TIME, UPDATE_TRANSACTIONS_DELAY_TIME);
+        // Condense multiple updates into one per tick.
+        TaskScheduler.INSTANCE.schedule("UpdateTransactions", updateTransactionsTimerTask, UPDATE_TRANSACTIONS_DELAY_TIME,
+                UPDATE_TRANSACTIONS_DELAY_TIME, UPDATE_TRANSACTIONS_IDLE_DELAY_TIME);
                
         initUI();
 
@@ -270,42 +268,7 @@ public class ShowTransactionsPanel extends JPanel implements Viewable, CurrencyC
         };
         rowSorter.setComparator(1, comparator);
 
-        Comparator<String> comparatorNumber = new Comparator<String>() {
-            @Override
-            public int compare(String o1, String o2) {
-                try {
-                    if (o1 == null) {
-                        if (o2 == null) {
-                            return 0;
-                        } else {
-                            return 1;
-                        }
-                    } else {
-                        if (o2 == null) {
-                            return -1;
-                        }
-                    }
-                    DecimalFormat formatter = (DecimalFormat) DecimalFormat.getInstance(controller.getLocaliser().getLocale());
-                    formatter.setParseBigDecimal(true);
-
-                    // Convert spaces to non breakable space.
-                    o1 = o1.replaceAll(" ", "\u00A0");
-                    o2 = o2.replaceAll(" ", "\u00A0");
-
-                    BigDecimal parsedO1 = (BigDecimal) formatter.parse(o1);
-                    BigDecimal parsedO2 = (BigDecimal) formatter.parse(o2);
-                    return parsedO1.compareTo(parsedO2);
-                } catch (NumberFormatException nfe) {
-                    return o1.compareTo(o2);
-                } catch (ParseException e) {
-                    return o1.compareTo(o2);
-                }
-            }
-        };
-        rowSorter.setComparator(3, comparatorNumber);
-        if (CurrencyConverter.INSTANCE.isShowingFiat()) {
-            rowSorter.setComparator(4, comparatorNumber);
-        }
+        // The amounts sort on their value in satoshi so they do not need to be parsed from the formatted text.
         
         scrollPane = new JScrollPane(table, JScrollPane.VERTICAL_SCROLLBAR_ALWAYS,
                 JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
@@ -433,7 +396,12 @@ public class ShowTransactionsPanel extends JPanel implements Viewable, CurrencyC
         DecimalAlignRenderer decimalAlignRenderer = new DecimalAlignRenderer();
         table.getColumnModel().getColumn(3).setCellRenderer(decimalAlignRenderer);
 
-        walletTableModel.recreateWalletData();
+        if (DisplayHint.WALLET_TRANSACTIONS_HAVE_CHANGED == displayHint) {
+            // The rows of the transactions that have changed have already been updated.
+            walletTableModel.refreshWalletData();
+        } else {
+            walletTableModel.recreateWalletData();
+        }
 
         if (selectedRow > -1 && selectedRow < table.getRowCount()) {
             table.setRowSelectionInterval(selectedRow, selectedRow);
@@ -1142,6 +1110,12 @@ public class ShowTransactionsPanel extends JPanel implements Viewable, CurrencyC
 
     @Override
     public void updatedExchangeRate(ExchangeRate exchangeRate) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                walletTableModel.clearFormattedAmounts();
+            }
+        });
         ShowTransactionsPanel.updateTransactions();
     }
 }
\ No newline at end of file
@@ -240,6 +240,8 @@ public class SingleWalletPanel extends JPanel implements ActionListener, FocusLi
     walletTypeButton.setBorder(BorderFactory.createEmptyBorder(WALLET_TYPE_TOP_BORDER, WALLET_TYPE_LEFT_BORDER, 0, WALLET_TYPE_LEFT_BORDER));
     if (perWalletModelData.getWallet() != null) {
       setIconForWalletType(perWalletModelData.getWallet().getEncryptionType(), walletTypeButton);
+    } else if (perWalletModelData.isSummaryOnly()) {
+      setIconForWalletType(perWalletModelData.getWalletSummary().getEncryptionType(), walletTypeButton);
     }
 
     constraints.fill = GridBagConstraints.NONE;
@@ -576,7 +578,15 @@ public class SingleWalletPanel extends JPanel implements ActionListener, FocusLi
               ColorAndFontConstants.BACKGROUND_COLOR.getBlue() - COLOR_DELTA), Math.max(0, ColorAndFontConstants.BACKGROUND_COLOR.getGreen() - COLOR_DELTA));
     }
 
-    BigInteger estimatedBalance = perWalletModelData.getWallet().getBalance(BalanceType.ESTIMATED);
+    BigInteger estimatedBalance;
+    if (perWalletModelData.getWallet() != null) {
+      estimatedBalance = perWalletModelData.getWallet().getBalance(BalanceType.ESTIMATED);
+    } else if (perWalletModelData.isSummaryOnly()) {
+      // The balance when the wallet was last saved.
+      estimatedBalance = perWalletModelData.getWalletSummary().getEstimatedBalance();
+    } else {
+      estimatedBalance = BigInteger.ZERO;
+    }
     String balanceTextToShowBTC = controller.getLocaliser().bitcoinValueToString(estimatedBalance, true, false);
     String balanceTextToShowFiat = "";
     if (CurrencyConverter.INSTANCE.getRate() != null && CurrencyConverter.INSTANCE.isShowingFiat()) {
@@ -603,6 +613,8 @@ public class SingleWalletPanel extends JPanel implements ActionListener, FocusLi
 
     if (perWalletModelData.getWallet() != null) {
       setIconForWalletType(perWalletModelData.getWallet().getEncryptionType(), walletTypeButton);
+    } else if (perWalletModelData.isSummaryOnly()) {
+      setIconForWalletType(perWalletModelData.getWalletSummary().getEncryptionType(), walletTypeButton);
     }
 
     invalidate();
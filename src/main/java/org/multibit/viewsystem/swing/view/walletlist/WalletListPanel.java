@@ -54,6 +54,7 @@ import org.multibit.viewsystem.swing.ColorAndFontConstants;
 import org.multibit.viewsystem.swing.MultiBitFrame;
 import org.multibit.viewsystem.swing.MultiBitTabbedPane;
 import org.multibit.viewsystem.swing.action.CreateWalletSubmitAction;
+import org.multibit.viewsystem.swing.action.PromoteWalletWorker;
 import org.multibit.viewsystem.swing.view.components.MultiBitButton;
 
 /**
@@ -243,7 +244,7 @@ public class WalletListPanel extends JPanel implements Viewable, WalletBusyListe
         if (perWalletModelDataList != null) {
             synchronized (walletPanels) {
                 for (WalletData loopPerWalletModelData : perWalletModelDataList) {
-                    if (loopPerWalletModelData.getWallet() != null) {
+                    if (loopPerWalletModelData.getWallet() != null || loopPerWalletModelData.isSummaryOnly()) {
                         JPanel outerPanel = new JPanel();
                         outerPanel.setOpaque(false);
                         outerPanel.setBorder(BorderFactory.createEmptyBorder(TOP_BORDER, LEFT_BORDER, 0, RIGHT_BORDER));
@@ -356,14 +357,27 @@ public class WalletListPanel extends JPanel implements Viewable, WalletBusyListe
                     currentlySelectedWalletIndex++;
                 }
                 if (nextSelectedWalletIndex > -1) {
-                    this.bitcoinController.getModel().setActiveWalletByFilename(walletPanels.get(nextSelectedWalletIndex).getPerWalletModelData().getWalletFilename());
-                    selectWalletPanelByFilename(walletPanels.get(nextSelectedWalletIndex).getPerWalletModelData().getWalletFilename());
-                    controller.fireDataChangedUpdateNow();
+                    selectWallet(walletPanels.get(nextSelectedWalletIndex).getPerWalletModelData());
                 }
             }
         }
     }
     
+    /**
+     * Make a wallet the active wallet and select its panel. A wallet that was opened from its summary is read in
+     * full in the background when it is first selected, and selected once it has been.
+     */
+    private void selectWallet(WalletData perWalletModelData) {
+        new PromoteWalletWorker(bitcoinController, perWalletModelData, mainFrame) {
+            @Override
+            protected void walletPromoted(WalletData promotedPerWalletModelData) {
+                bitcoinController.getModel().setActiveWalletByFilename(promotedPerWalletModelData.getWalletFilename());
+                selectWalletPanelByFilename(promotedPerWalletModelData.getWalletFilename());
+                controller.fireDataChangedUpdateNow();
+            }
+        }.start();
+    }
+
     class WalletMouseListener extends MouseAdapter implements MouseListener {
         public WalletMouseListener() {
             super();
@@ -417,11 +431,7 @@ public class WalletListPanel extends JPanel implements Viewable, WalletBusyListe
 
                 if (!selectedWalletPanel.getPerWalletModelData().getWalletFilename()
                         .equals(bitcoinController.getModel().getActiveWalletFilename())) {
-                    bitcoinController.getModel()
-                            .setActiveWalletByFilename(selectedWalletPanel.getPerWalletModelData().getWalletFilename());
-                    selectWalletPanelByFilename(selectedWalletPanel.getPerWalletModelData().getWalletFilename());
-
-                    controller.fireDataChangedUpdateNow();
+                    selectWallet(selectedWalletPanel.getPerWalletModelData());
                 }
                 
                 if (!originallySelected) {
@@ -235,6 +235,42 @@ public class MultiBitBlockChainTest {
         assertEquals(b3, block[0].getHeader());
     }
 
+    @Test
+    public void rewindChainHead() throws Exception {
+        MultiBitBlockChain multiBitChain = new MultiBitBlockChain(unitTestParams, blockStore);
+        multiBitChain.addListener(new AbstractBlockChainListener() {
+            @Override
+            public void notifyNewBestBlock(StoredBlock storedBlock) throws VerificationException {
+                block[0] = storedBlock;
+            }
+        });
+        long timeSecs = Utils.now().getTime() / 1000 - 3600;
+        Block b1 = unitTestParams.genesisBlock.createNextBlock(coinbaseTo, timeSecs);
+        Block b2 = b1.createNextBlock(coinbaseTo, timeSecs + 600);
+        Block b3 = b2.createNextBlock(coinbaseTo, timeSecs + 1200);
+        assertTrue(multiBitChain.add(b1));
+        assertTrue(multiBitChain.add(b2));
+        assertTrue(multiBitChain.add(b3));
+        assertEquals(3, multiBitChain.getBestChainHeight());
+
+        // Rewind by height and by time.
+        assertEquals(b1.cloneAsHeader(), multiBitChain.rewindChainHead(1, -1).getHeader());
+        assertEquals(1, multiBitChain.getBestChainHeight());
+        assertEquals(b1.cloneAsHeader(), blockStore.getChainHead().getHeader());
+
+        // The blocks after the new chainhead are connected again.
+        assertTrue(multiBitChain.add(b2));
+        assertEquals(b2.cloneAsHeader(), block[0].getHeader());
+        assertTrue(multiBitChain.add(b3));
+        assertEquals(b3, multiBitChain.getChainHead().getHeader());
+
+        assertEquals(b2.cloneAsHeader(), multiBitChain.rewindChainHead(-1, b2.getTimeSeconds()).getHeader());
+
+        // A height before the genesis block cannot be reached so the chainhead is left alone.
+        assertNull(multiBitChain.rewindChainHead(-1, unitTestParams.genesisBlock.getTimeSeconds() - 1));
+        assertEquals(2, multiBitChain.getBestChainHeight());
+    }
+
     @Test
     public void intraBlockDependencies() throws Exception {
         // Covers issue 166 in which transactions that depend on each other inside a block were not always being
@@ -31,6 +31,7 @@ import org.junit.Test;
 import org.multibit.Constants;
 import org.multibit.CreateControllers;
 import org.multibit.controller.bitcoin.BitcoinController;
+import org.multibit.model.bitcoin.BitcoinModel;
 import org.multibit.model.bitcoin.WalletData;
 import org.multibit.model.bitcoin.WalletInfoData;
 import org.multibit.store.MultiBitWalletVersion;
@@ -40,8 +41,11 @@ import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Future;
 
 import static junit.framework.Assert.*;
 
@@ -62,6 +66,10 @@ public class FileHandlerTest {
     private static final String TEST_WALLET_VERSION_2_PREFIX = "testWalletVersion";
 
     private static final String TEST_SCRYPT_PARAMETERS = "testScryptParameters";
+
+    private static final String TEST_READ_IN_PARALLEL_PREFIX = "testReadInParallel";
+
+    private static final String TEST_JOURNAL_GENERATION_PREFIX = "testJournalGeneration";
     
     private final CharSequence WALLET_PASSWORD = "horatio nelson 123";
 
@@ -413,6 +421,67 @@ public class FileHandlerTest {
         }
     }
     
+    @Test
+    public void testFailedSaveKeepsJournalGeneration() throws IOException {
+        controller.getModel().setUserPreference(BitcoinModel.WALLET_JOURNAL_ENABLED, "true");
+
+        File temporaryWallet = File.createTempFile(TEST_JOURNAL_GENERATION_PREFIX, ".wallet");
+        temporaryWallet.deleteOnExit();
+        String newWalletFilename = temporaryWallet.getAbsolutePath();
+        new File(WalletJournal.createWalletJournalFilename(newWalletFilename)).deleteOnExit();
+
+        Wallet newWallet = new Wallet(NetworkParameters.prodNet());
+        newWallet.getKeychain().add(new ECKey());
+        WalletData perWalletModelData = new WalletData();
+        WalletInfoData walletInfo = new WalletInfoData(newWalletFilename, newWallet, MultiBitWalletVersion.PROTOBUF);
+        perWalletModelData.setWalletInfo(walletInfo);
+        perWalletModelData.setWallet(newWallet);
+        perWalletModelData.setWalletFilename(newWalletFilename);
+
+        // The first save starts the journal at generation 1.
+        controller.getFileHandler().savePerWalletModelData(perWalletModelData, true);
+        assertEquals("1", walletInfo.getProperty(WalletJournal.JOURNAL_GENERATION_PROPERTY));
+
+        // A save that fails leaves the wallet info on the generation of the journal.
+        walletInfo.setWalletVersion(MultiBitWalletVersion.FUTURE);
+        try {
+            controller.getFileHandler().savePerWalletModelData(perWalletModelData, true);
+            fail("Could save a wallet version from the future but should not be able to");
+        } catch (WalletVersionException wve) {
+            // Expected result.
+        }
+        assertEquals("1", walletInfo.getProperty(WalletJournal.JOURNAL_GENERATION_PROPERTY));
+    }
+
+    @Test
+    public void testFailedSaveLeavesWalletDirty() throws IOException {
+        File temporaryWallet = File.createTempFile(TEST_WALLET_VERSION_2_PREFIX, ".wallet");
+        temporaryWallet.deleteOnExit();
+        String newWalletFilename = temporaryWallet.getAbsolutePath();
+
+        Wallet newWallet = new Wallet(NetworkParameters.prodNet());
+        newWallet.getKeychain().add(new ECKey());
+        WalletData perWalletModelData = new WalletData();
+        WalletInfoData walletInfo = new WalletInfoData(newWalletFilename, newWallet, MultiBitWalletVersion.FUTURE);
+        perWalletModelData.setWalletInfo(walletInfo);
+        perWalletModelData.setWallet(newWallet);
+        perWalletModelData.setWalletFilename(newWalletFilename);
+        perWalletModelData.setDirty(true);
+
+        try {
+            controller.getFileHandler().savePerWalletModelData(perWalletModelData, false);
+            fail("Could save a wallet version from the future but should not be able to");
+        } catch (WalletVersionException wve) {
+            // Expected result.
+        }
+        assertTrue(perWalletModelData.isDirty());
+
+        // A successful save marks the wallet as saved.
+        walletInfo.setWalletVersion(MultiBitWalletVersion.PROTOBUF);
+        controller.getFileHandler().savePerWalletModelData(perWalletModelData, false);
+        assertFalse(perWalletModelData.isDirty());
+    }
+
     @Test
     public void testWalletVersion2a() throws IOException {
         // Create MultiBit controller.
@@ -487,4 +556,52 @@ public class FileHandlerTest {
         WalletInfoData rebornWalletInfo = perWalletModelDataReborn.getWalletInfo();
         assertEquals("Wallet version was incorrect.", MultiBitWalletVersion.PROTOBUF, rebornWalletInfo.getWalletVersion());;
     }
+
+    @Test
+    public void testReadWalletsFromFilesInParallel() throws Exception {
+        List<String> walletFilenames = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            File temporaryWallet = File.createTempFile(TEST_READ_IN_PARALLEL_PREFIX, ".wallet");
+            temporaryWallet.deleteOnExit();
+            String newWalletFilename = temporaryWallet.getAbsolutePath();
+
+            Wallet newWallet = new Wallet(NetworkParameters.prodNet());
+            newWallet.getKeychain().add(new ECKey());
+            WalletData perWalletModelData = new WalletData();
+            perWalletModelData.setWalletInfo(new WalletInfoData(newWalletFilename, newWallet, MultiBitWalletVersion.PROTOBUF));
+            perWalletModelData.setWallet(newWallet);
+            perWalletModelData.setWalletFilename(newWalletFilename);
+            perWalletModelData.setWalletDescription(TEST_READ_IN_PARALLEL_PREFIX + i);
+            controller.getFileHandler().savePerWalletModelData(perWalletModelData, true);
+
+            walletFilenames.add(newWalletFilename);
+        }
+
+        // A wallet that cannot be read does not stop the others.
+        File missingWallet = File.createTempFile(TEST_READ_IN_PARALLEL_PREFIX, ".wallet");
+        missingWallet.delete();
+        walletFilenames.add(1, missingWallet.getAbsolutePath());
+
+        List<Future<LoadedWallet>> loadedWallets = fileHandler.readWalletsFromFiles(walletFilenames);
+        assertEquals(walletFilenames.size(), loadedWallets.size());
+        assertNull(loadedWallets.get(1).get());
+
+        // The results are in the same order as the filenames and are not yet in the model.
+        int description = 0;
+        for (int i = 0; i < walletFilenames.size(); i++) {
+            if (i == 1) {
+                continue;
+            }
+            LoadedWallet loadedWallet = loadedWallets.get(i).get();
+            assertNotNull(loadedWallet);
+            assertEquals(walletFilenames.get(i), loadedWallet.getWalletFilename());
+            assertEquals(TEST_READ_IN_PARALLEL_PREFIX + description, loadedWallet.getWalletInfo().getProperty(WalletInfoData.DESCRIPTION_PROPERTY));
+            assertNull(controller.getModel().getPerWalletModelDataByWalletFilename(walletFilenames.get(i)));
+            description++;
+        }
+
+        WalletData perWalletModelDataReborn = fileHandler.addLoadedWalletToModel(loadedWallets.get(0).get());
+        assertEquals(walletFilenames.get(0), perWalletModelDataReborn.getWalletFilename());
+        assertFalse(perWalletModelDataReborn.isDirty());
+    }
 }
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Wallet;
+import org.junit.Test;
+import org.multibit.model.bitcoin.BitcoinModel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import static junit.framework.Assert.*;
+
+public class LastBlockSeenTrackerTest {
+
+    private static final int LAST_BLOCK_SEEN_HEIGHT = 250000;
+    private static final long LAST_BLOCK_SEEN_TIME_SECS = 1400000000;
+
+    @Test
+    public void testCreateLastBlockSeenFilename() {
+        assertEquals("/tmp/mywallet.lastblock", LastBlockSeenTracker.createLastBlockSeenFilename("/tmp/mywallet.wallet"));
+        assertEquals("/tmp/mywallet.lastblock", LastBlockSeenTracker.createLastBlockSeenFilename("/tmp/mywallet"));
+    }
+
+    @Test
+    public void testWriteAndApply() throws Exception {
+        NetworkParameters networkParameters = NetworkParameters.prodNet();
+        File walletFile = createWalletFile("testWriteAndApply");
+        File lastBlockSeenFile = new File(LastBlockSeenTracker.createLastBlockSeenFilename(walletFile.getAbsolutePath()));
+        lastBlockSeenFile.deleteOnExit();
+
+        // No file yet.
+        Wallet wallet = new Wallet(networkParameters);
+        assertFalse(LastBlockSeenTracker.applyLastBlockSeen(walletFile.getAbsolutePath(), wallet));
+
+        Sha256Hash hash = Sha256Hash.create(new byte[]{1, 2, 3});
+        LastBlockSeenTracker.writeLastBlockSeen(walletFile.getAbsolutePath(), LAST_BLOCK_SEEN_HEIGHT - 1, null, 0);
+        LastBlockSeenTracker.writeLastBlockSeen(walletFile.getAbsolutePath(), LAST_BLOCK_SEEN_HEIGHT, hash, LAST_BLOCK_SEEN_TIME_SECS);
+        assertEquals(LastBlockSeenTracker.RECORD_LENGTH, lastBlockSeenFile.length());
+
+        assertTrue(LastBlockSeenTracker.applyLastBlockSeen(walletFile.getAbsolutePath(), wallet));
+        assertEquals(LAST_BLOCK_SEEN_HEIGHT, wallet.getLastBlockSeenHeight());
+        assertEquals(hash, wallet.getLastBlockSeenHash());
+        assertEquals(LAST_BLOCK_SEEN_TIME_SECS, wallet.getLastBlockSeenTimeSecs());
+    }
+
+    @Test
+    public void testRecordForAnotherVersionOfTheWalletIsIgnored() throws Exception {
+        NetworkParameters networkParameters = NetworkParameters.prodNet();
+        File walletFile = createWalletFile("testRecordForAnotherVersionOfTheWalletIsIgnored");
+        File lastBlockSeenFile = new File(LastBlockSeenTracker.createLastBlockSeenFilename(walletFile.getAbsolutePath()));
+        lastBlockSeenFile.deleteOnExit();
+
+        LastBlockSeenTracker.writeLastBlockSeen(walletFile.getAbsolutePath(), LAST_BLOCK_SEEN_HEIGHT,
+                Sha256Hash.create(new byte[]{1}), LAST_BLOCK_SEEN_TIME_SECS);
+
+        // The wallet has been saved since the record was written.
+        FileOutputStream fileOutputStream = new FileOutputStream(walletFile, true);
+        fileOutputStream.write(new byte[]{4, 5, 6});
+        fileOutputStream.close();
+
+        Wallet wallet = new Wallet(networkParameters);
+        assertFalse(LastBlockSeenTracker.applyLastBlockSeen(walletFile.getAbsolutePath(), wallet));
+        assertFalse(LAST_BLOCK_SEEN_HEIGHT == wallet.getLastBlockSeenHeight());
+
+        // A damaged record is ignored.
+        LastBlockSeenTracker.writeLastBlockSeen(walletFile.getAbsolutePath(), LAST_BLOCK_SEEN_HEIGHT,
+                Sha256Hash.create(new byte[]{1}), LAST_BLOCK_SEEN_TIME_SECS);
+        RandomAccessFile file = new RandomAccessFile(lastBlockSeenFile, "rw");
+        file.seek(40);
+        file.write(0xff);
+        file.close();
+        assertFalse(LastBlockSeenTracker.applyLastBlockSeen(walletFile.getAbsolutePath(), wallet));
+        assertFalse(LAST_BLOCK_SEEN_HEIGHT == wallet.getLastBlockSeenHeight());
+    }
+
+    private File createWalletFile(String name) throws Exception {
+        File walletFile = File.createTempFile(name, "." + BitcoinModel.WALLET_FILE_EXTENSION);
+        walletFile.deleteOnExit();
+        FileOutputStream fileOutputStream = new FileOutputStream(walletFile);
+        fileOutputStream.write(new byte[]{1, 2, 3});
+        fileOutputStream.close();
+        return walletFile;
+    }
+}
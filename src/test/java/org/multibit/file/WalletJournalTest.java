@@ -0,0 +1,139 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.MultiBitWalletPools;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionConfidence;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.wallet.WalletTransaction;
+import org.junit.Test;
+import org.multibit.model.WalletTestUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static junit.framework.Assert.*;
+
+public class WalletJournalTest {
+
+    private static final int APPEARED_AT_HEIGHT = 100;
+    private static final int LAST_BLOCK_SEEN_HEIGHT = 105;
+
+    @Test
+    public void testAppendAndReplay() throws Exception {
+        NetworkParameters networkParameters = NetworkParameters.prodNet();
+        ECKey key = new ECKey();
+
+        File journalFile = File.createTempFile("testAppendAndReplay", "." + WalletJournal.JOURNAL_FILE_EXTENSION);
+        journalFile.deleteOnExit();
+
+        // Start the journal from an empty wallet.
+        Wallet wallet = new Wallet(networkParameters);
+        wallet.getKeychain().add(key);
+        WalletJournal walletJournal = new WalletJournal(journalFile);
+        walletJournal.reset(wallet, 1);
+        assertEquals(0, walletJournal.getRecordCount());
+
+        // Receive a pending transaction, then see it confirmed.
+        Transaction transaction = WalletTestUtils.createTransactionTo(networkParameters, key);
+        wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.PENDING, transaction));
+        assertTrue(walletJournal.append(wallet));
+        assertEquals(1, walletJournal.getRecordCount());
+
+        MultiBitWalletPools.putInPool(wallet, transaction, WalletTransaction.Pool.UNSPENT);
+        transaction.getConfidence().setConfidenceType(TransactionConfidence.ConfidenceType.BUILDING);
+        transaction.getConfidence().setAppearedAtChainHeight(APPEARED_AT_HEIGHT);
+        wallet.setLastBlockSeenHeight(LAST_BLOCK_SEEN_HEIGHT);
+        wallet.setLastBlockSeenHash(Sha256Hash.create(new byte[]{1, 2, 3}));
+        assertTrue(walletJournal.append(wallet));
+        assertEquals(3, walletJournal.getRecordCount());
+
+        // Nothing has changed so nothing more is journalled.
+        assertTrue(walletJournal.append(wallet));
+        assertEquals(3, walletJournal.getRecordCount());
+
+        // Simulate a partly written record at the end of the journal.
+        FileOutputStream fileOutputStream = new FileOutputStream(journalFile, true);
+        fileOutputStream.write(new byte[]{0, 0, 0, 40, 1, 2});
+        fileOutputStream.close();
+
+        // Replay onto the wallet as it was last saved in full.
+        Wallet rebornWallet = new Wallet(networkParameters);
+        rebornWallet.getKeychain().add(key);
+        WalletJournal rebornJournal = new WalletJournal(journalFile);
+        assertEquals(3, rebornJournal.replay(rebornWallet, networkParameters, 1));
+
+        assertEquals(WalletTransaction.Pool.UNSPENT, MultiBitWalletPools.getPool(rebornWallet, transaction.getHash()));
+        Transaction rebornTransaction = MultiBitWalletPools.getTransaction(rebornWallet, transaction.getHash());
+        assertEquals(TransactionConfidence.ConfidenceType.BUILDING, rebornTransaction.getConfidence().getConfidenceType());
+        assertEquals(APPEARED_AT_HEIGHT, rebornTransaction.getConfidence().getAppearedAtChainHeight());
+        assertEquals(LAST_BLOCK_SEEN_HEIGHT - APPEARED_AT_HEIGHT + 1, rebornTransaction.getConfidence().getDepthInBlocks());
+        assertEquals(LAST_BLOCK_SEEN_HEIGHT, rebornWallet.getLastBlockSeenHeight());
+        assertEquals(wallet.getBalance(), rebornWallet.getBalance());
+
+        // The torn record was dropped so the journal can be appended to again.
+        assertEquals(journalFile.length(), rebornJournal.getLength());
+    }
+
+    @Test
+    public void testJournalFromOtherGenerationIsDiscarded() throws Exception {
+        NetworkParameters networkParameters = NetworkParameters.prodNet();
+        ECKey key = new ECKey();
+
+        File journalFile = File.createTempFile("testJournalFromOtherGeneration", "." + WalletJournal.JOURNAL_FILE_EXTENSION);
+        journalFile.deleteOnExit();
+
+        Wallet wallet = new Wallet(networkParameters);
+        wallet.getKeychain().add(key);
+        WalletJournal walletJournal = new WalletJournal(journalFile);
+        walletJournal.reset(wallet, 1);
+        Transaction transaction = WalletTestUtils.createTransactionTo(networkParameters, key);
+        wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.PENDING, transaction));
+        assertTrue(walletJournal.append(wallet));
+
+        // The wallet has since been saved in full as generation 2.
+        Wallet rebornWallet = new Wallet(networkParameters);
+        rebornWallet.getKeychain().add(key);
+        assertEquals(0, new WalletJournal(journalFile).replay(rebornWallet, networkParameters, 2));
+        assertNull(MultiBitWalletPools.getPool(rebornWallet, transaction.getHash()));
+    }
+
+    @Test
+    public void testNewKeyNeedsFullSave() throws Exception {
+        NetworkParameters networkParameters = NetworkParameters.prodNet();
+
+        File journalFile = File.createTempFile("testNewKeyNeedsFullSave", "." + WalletJournal.JOURNAL_FILE_EXTENSION);
+        journalFile.deleteOnExit();
+
+        Wallet wallet = new Wallet(networkParameters);
+        wallet.getKeychain().add(new ECKey());
+        WalletJournal walletJournal = new WalletJournal(journalFile);
+        walletJournal.reset(wallet, 1);
+
+        wallet.getKeychain().add(new ECKey());
+        assertFalse(walletJournal.append(wallet));
+    }
+
+    @Test
+    public void testCreateWalletJournalFilename() {
+        assertEquals("mywallet.journal", WalletJournal.createWalletJournalFilename("mywallet.wallet"));
+        assertEquals("mywallet.journal", WalletJournal.createWalletJournalFilename("mywallet"));
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Wallet;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.CreateControllers;
+import org.multibit.controller.bitcoin.BitcoinController;
+import org.multibit.model.bitcoin.BitcoinModel;
+import org.multibit.model.bitcoin.WalletData;
+import org.multibit.model.bitcoin.WalletInfoData;
+import org.multibit.network.ReplayManager;
+import org.multibit.store.MultiBitWalletVersion;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.*;
+
+public class WalletSaveSchedulerTest {
+
+    private BitcoinController controller;
+
+    @Before
+    public void setUp() throws Exception {
+        final CreateControllers.Controllers controllers = CreateControllers.createControllers();
+        controller = controllers.bitcoinController;
+    }
+
+    @Test
+    public void testChangesAreCoalescedIntoOneSave() throws Exception {
+        WalletData perWalletModelData = createWalletData("testChangesAreCoalesced");
+        File walletFile = new File(perWalletModelData.getWalletFilename());
+        WalletSaveScheduler walletSaveScheduler = controller.getWalletSaveScheduler();
+
+        // Several changes in quick succession and then a request for the wallet to be durable.
+        perWalletModelData.setDirty(true);
+        perWalletModelData.setDirty(true);
+        perWalletModelData.setDirty(true);
+        Future<Boolean> saved = walletSaveScheduler.saveNow(perWalletModelData);
+
+        assertTrue(saved.get(30, TimeUnit.SECONDS));
+        assertTrue(walletFile.exists());
+        assertFalse(perWalletModelData.isDirty());
+
+        // The changes made before the save do not cause another save.
+        long lastModified = walletFile.lastModified();
+        Thread.sleep(walletSaveScheduler.getSaveWindow() + 500);
+        assertEquals(lastModified, walletFile.lastModified());
+    }
+
+    @Test
+    public void testStopSavesPendingWallets() throws Exception {
+        WalletData perWalletModelData = createWalletData("testStopSavesPendingWallets");
+        File walletFile = new File(perWalletModelData.getWalletFilename());
+
+        perWalletModelData.setDirty(true);
+        assertFalse(walletFile.exists());
+
+        controller.getWalletSaveScheduler().stop();
+        assertTrue(walletFile.exists());
+        assertFalse(perWalletModelData.isDirty());
+    }
+
+    @Test
+    public void testReplayedWalletsAreOnlyCheckpointed() throws Exception {
+        controller.getModel().setUserPreference(BitcoinModel.WALLET_REPLAY_CHECKPOINT_BLOCKS, "3");
+        WalletData perWalletModelData = createWalletData("testReplayedWalletsAreOnlyCheckpointed");
+        File walletFile = new File(perWalletModelData.getWalletFilename());
+        WalletSaveScheduler walletSaveScheduler = controller.getWalletSaveScheduler();
+
+        walletSaveScheduler.replayStarted(Arrays.asList(perWalletModelData));
+        assertTrue(walletSaveScheduler.isReplaying(perWalletModelData));
+
+        // A change during the replay waits for the checkpoint rather than the save window.
+        perWalletModelData.setDirty(true);
+        Thread.sleep(walletSaveScheduler.getSaveWindow() + 500);
+        assertFalse(walletFile.exists());
+
+        walletSaveScheduler.blockDownloaded();
+        walletSaveScheduler.blockDownloaded();
+        assertFalse(walletFile.exists());
+        walletSaveScheduler.blockDownloaded();
+        for (int i = 0; i < 300 && perWalletModelData.isDirty(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(walletFile.exists());
+        assertFalse(perWalletModelData.isDirty());
+
+        // The replay completing saves the wallet and ends the checkpointing.
+        walletSaveScheduler.replayCompleted(Arrays.asList(perWalletModelData));
+        assertFalse(walletSaveScheduler.isReplaying(perWalletModelData));
+    }
+
+    @Test
+    public void testReplayStartDoesNotWaitOnCheckpoint() throws Exception {
+        WalletData perWalletModelData = createWalletData("testReplayStartDoesNotWaitOnCheckpoint");
+        perWalletModelData.setReplayTaskUUID(UUID.randomUUID());
+        WalletSaveScheduler walletSaveScheduler = controller.getWalletSaveScheduler();
+        walletSaveScheduler.replayStarted(Arrays.asList(perWalletModelData));
+
+        // A replay task is restarted whilst its wallet is dirty: the replay thread holds the lock on the
+        // replay queue and waits for the wallet to be saved, and the save is a checkpoint.
+        perWalletModelData.setDirty(true);
+        Field replayTaskQueueField = ReplayManager.class.getDeclaredField("replayTaskQueue");
+        replayTaskQueueField.setAccessible(true);
+        long startTime = System.currentTimeMillis();
+        synchronized (replayTaskQueueField.get(ReplayManager.INSTANCE)) {
+            walletSaveScheduler.replayStarted(Arrays.asList(perWalletModelData));
+        }
+        assertTrue("The replay start waited for the checkpoint", System.currentTimeMillis() - startTime < 10000);
+        assertFalse(perWalletModelData.isDirty());
+
+        walletSaveScheduler.replayCompleted(Arrays.asList(perWalletModelData));
+    }
+
+    private WalletData createWalletData(String prefix) throws Exception {
+        File temporaryWallet = File.createTempFile(prefix, ".wallet");
+        temporaryWallet.delete();
+        temporaryWallet.deleteOnExit();
+        new File(WalletInfoData.createWalletInfoFilename(temporaryWallet.getAbsolutePath())).deleteOnExit();
+
+        String walletFilename = temporaryWallet.getAbsolutePath();
+        Wallet wallet = new Wallet(NetworkParameters.prodNet());
+        wallet.getKeychain().add(new ECKey());
+
+        WalletData perWalletModelData = new WalletData();
+        perWalletModelData.setWalletInfo(new WalletInfoData(walletFilename, wallet, MultiBitWalletVersion.PROTOBUF));
+        perWalletModelData.setWallet(wallet);
+        perWalletModelData.setWalletFilename(walletFilename);
+        perWalletModelData.setWalletSaveScheduler(controller.getWalletSaveScheduler());
+        return perWalletModelData;
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.multibit.model;
 
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Wallet;
 import junit.framework.TestCase;
 import org.junit.Test;
 import org.multibit.ApplicationDataDirectoryLocator;
@@ -22,6 +24,7 @@ import org.multibit.CreateControllers;
 import org.multibit.controller.bitcoin.BitcoinController;
 import org.multibit.file.FileHandler;
 import org.multibit.model.bitcoin.BitcoinModel;
+import org.multibit.model.bitcoin.WalletData;
 import org.multibit.model.core.CoreModel;
 
 import java.io.File;
@@ -70,6 +73,31 @@ public class ModelTest extends TestCase {
         assertTrue(FEE_PER_KB_1.equals(reloadedProperties.getProperty(CoreModel.FEE_PER_KB)));
     }
 
+    @Test
+    public void testWalletDataLookup() throws Exception {
+        final CreateControllers.Controllers controllers = CreateControllers.createControllers();
+        final BitcoinController controller = controllers.bitcoinController;
+        final BitcoinModel model = controller.getModel();
+
+        Wallet wallet = new Wallet(NetworkParameters.prodNet());
+        WalletData perWalletModelData = model.addWallet(controller, wallet, "testWalletDataLookup.wallet");
+        Wallet otherWallet = new Wallet(NetworkParameters.prodNet());
+        WalletData otherPerWalletModelData = model.addWallet(controller, otherWallet, "testWalletDataLookupOther.wallet");
+
+        assertSame(perWalletModelData, model.getPerWalletModelDataByWalletFilename("testWalletDataLookup.wallet"));
+        assertSame(perWalletModelData, model.getPerWalletModelDataByWallet(wallet));
+        assertSame(otherPerWalletModelData, model.getPerWalletModelDataByWallet(otherWallet));
+        assertNull(model.getPerWalletModelDataByWallet(new Wallet(NetworkParameters.prodNet())));
+
+        // Adding the same wallet file again returns the existing wallet data.
+        assertSame(perWalletModelData, model.addWallet(controller, wallet, "testWalletDataLookup.wallet"));
+
+        model.remove(perWalletModelData);
+        assertNull(model.getPerWalletModelDataByWalletFilename("testWalletDataLookup.wallet"));
+        assertNull(model.getPerWalletModelDataByWallet(wallet));
+        assertSame(otherPerWalletModelData, model.getPerWalletModelDataByWalletFilename("testWalletDataLookupOther.wallet"));
+    }
+
     /**
         * Create a working, portable runtime of MultiBit in a temporary directory.
         *
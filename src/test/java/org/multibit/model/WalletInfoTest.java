@@ -152,4 +152,36 @@ public class WalletInfoTest extends TestCase {
         decodedText = WalletInfoData.decodeURLString("abc%d");
         assertEquals("abc%d", decodedText);
     }
+
+    @Test
+    public void testAddressLookupsFollowChangesToTheAddressBook() throws Exception {
+        WalletInfoData walletInfo = new WalletInfoData(NON_EXISTENT_WALLET, null, MultiBitWalletVersion.PROTOBUF);
+
+        walletInfo.addReceivingAddress(new WalletAddressBookData(EXAMPLE_RECEIVING_ADDRESS_LABEL, EXAMPLE_RECEIVING_ADDRESS), true);
+        walletInfo.addSendingAddress(new WalletAddressBookData(EXAMPLE_SENDING_ADDRESS_LABEL, EXAMPLE_SENDING_ADDRESS));
+        assertTrue(walletInfo.containsReceivingAddress(EXAMPLE_RECEIVING_ADDRESS));
+        assertEquals(EXAMPLE_RECEIVING_ADDRESS_LABEL, walletInfo.lookupLabelForReceivingAddress(EXAMPLE_RECEIVING_ADDRESS));
+        assertEquals(EXAMPLE_SENDING_ADDRESS_LABEL, walletInfo.lookupLabelForSendingAddress(EXAMPLE_SENDING_ADDRESS));
+        assertEquals("", walletInfo.lookupLabelForSendingAddress(EXAMPLE_RECEIVING_ADDRESS));
+
+        // Adding an address again relabels it rather than adding a duplicate.
+        walletInfo.addSendingAddress(new WalletAddressBookData("relabelled", EXAMPLE_SENDING_ADDRESS));
+        assertEquals(1, walletInfo.getSendingAddresses().size());
+        assertEquals("relabelled", walletInfo.lookupLabelForSendingAddress(EXAMPLE_SENDING_ADDRESS));
+
+        // Relabelling an entry directly is seen by the lookup.
+        walletInfo.getReceivingAddresses().get(0).setLabel("relabelled");
+        assertEquals("relabelled", walletInfo.lookupLabelForReceivingAddress(EXAMPLE_RECEIVING_ADDRESS));
+
+        // Removing an entry from the list removes it from the lookup.
+        walletInfo.getSendingAddresses().remove(0);
+        assertEquals("", walletInfo.lookupLabelForSendingAddress(EXAMPLE_SENDING_ADDRESS));
+
+        // Replacing the receiving addresses replaces the lookup.
+        ArrayList<WalletAddressBookData> receivingAddresses = new ArrayList<WalletAddressBookData>();
+        receivingAddresses.add(new WalletAddressBookData(EXAMPLE_SENDING_ADDRESS_LABEL, EXAMPLE_SENDING_ADDRESS));
+        walletInfo.setReceivingAddresses(receivingAddresses);
+        assertFalse(walletInfo.containsReceivingAddress(EXAMPLE_RECEIVING_ADDRESS));
+        assertTrue(walletInfo.containsReceivingAddress(EXAMPLE_SENDING_ADDRESS));
+    }
 }
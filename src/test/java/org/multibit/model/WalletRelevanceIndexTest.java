@@ -0,0 +1,94 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutPoint;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.core.Wallet;
+import org.junit.Test;
+import org.multibit.model.bitcoin.WalletData;
+import org.multibit.model.bitcoin.WalletRelevanceIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+public class WalletRelevanceIndexTest {
+
+    @Test
+    public void testTransactionsAreRoutedToTheirWallets() throws Exception {
+        NetworkParameters networkParameters = NetworkParameters.prodNet();
+        ECKey key1 = new ECKey();
+        ECKey key2 = new ECKey();
+
+        WalletData perWalletModelData1 = createWalletData(networkParameters, key1);
+        WalletData perWalletModelData2 = createWalletData(networkParameters, key2);
+        List<WalletData> perWalletModelDataList = Arrays.asList(perWalletModelData1, perWalletModelData2);
+
+        WalletRelevanceIndex walletRelevanceIndex = new WalletRelevanceIndex();
+
+        Transaction transactionTo1 = WalletTestUtils.createTransactionTo(networkParameters, key1, new byte[]{1});
+        assertEquals(Arrays.asList(perWalletModelData1),
+                walletRelevanceIndex.getPerWalletModelDataForTransaction(transactionTo1, perWalletModelDataList));
+        assertEquals(2, walletRelevanceIndex.size());
+
+        // A transaction for neither wallet.
+        Transaction transactionToOther = WalletTestUtils.createTransactionTo(networkParameters, new ECKey(), new byte[]{2});
+        assertTrue(walletRelevanceIndex.getPerWalletModelDataForTransaction(transactionToOther, perWalletModelDataList).isEmpty());
+
+        // A key added to a wallet is picked up.
+        ECKey newKey = new ECKey();
+        perWalletModelData2.getWallet().getKeychain().add(newKey);
+        Transaction transactionToNewKey = WalletTestUtils.createTransactionTo(networkParameters, newKey, new byte[]{3});
+        assertEquals(Arrays.asList(perWalletModelData2),
+                walletRelevanceIndex.getPerWalletModelDataForTransaction(transactionToNewKey, perWalletModelDataList));
+
+        // A transaction spending an output the first wallet received.
+        walletRelevanceIndex.transactionAdded(perWalletModelData1, transactionTo1);
+        Transaction spend = new Transaction(networkParameters);
+        spend.addInput(new TransactionInput(networkParameters, spend, new byte[]{},
+                new TransactionOutPoint(networkParameters, 0, transactionTo1.getHash())));
+        spend.addOutput(Utils.toNanoCoins(1, 0), new ECKey().toAddress(networkParameters));
+        assertEquals(Arrays.asList(perWalletModelData1),
+                walletRelevanceIndex.getPerWalletModelDataForTransaction(spend, perWalletModelDataList));
+
+        // A transaction for both wallets.
+        Transaction transactionToBoth = WalletTestUtils.createTransactionTo(networkParameters, key2, new byte[]{4});
+        transactionToBoth.addOutput(Utils.toNanoCoins(1, 0), key1.toAddress(networkParameters));
+        assertEquals(perWalletModelDataList,
+                walletRelevanceIndex.getPerWalletModelDataForTransaction(transactionToBoth, perWalletModelDataList));
+
+        // Once a wallet is removed its transactions are no longer routed to it.
+        List<WalletData> remainingPerWalletModelDataList = new ArrayList<WalletData>();
+        remainingPerWalletModelDataList.add(perWalletModelData2);
+        assertTrue(walletRelevanceIndex.getPerWalletModelDataForTransaction(transactionTo1, remainingPerWalletModelDataList).isEmpty());
+        assertEquals(1, walletRelevanceIndex.size());
+    }
+
+    private WalletData createWalletData(NetworkParameters networkParameters, ECKey key) {
+        Wallet wallet = new Wallet(networkParameters);
+        wallet.getKeychain().add(key);
+        WalletData perWalletModelData = new WalletData();
+        perWalletModelData.setWallet(wallet);
+        return perWalletModelData;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.wallet.WalletTransaction;
+import org.junit.Test;
+import org.multibit.model.bitcoin.WalletSummary;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.math.BigInteger;
+
+import static junit.framework.Assert.*;
+
+public class WalletSummaryTest {
+
+    private static final int LAST_BLOCK_SEEN_HEIGHT = 250000;
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        NetworkParameters networkParameters = NetworkParameters.prodNet();
+        ECKey key = new ECKey();
+
+        Wallet wallet = new Wallet(networkParameters);
+        wallet.getKeychain().add(key);
+        wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.PENDING, WalletTestUtils.createTransactionTo(networkParameters, key)));
+        wallet.setLastBlockSeenHeight(LAST_BLOCK_SEEN_HEIGHT);
+
+        File walletFile = File.createTempFile("testRoundTrip", ".wallet");
+        walletFile.deleteOnExit();
+        wallet.saveToFile(walletFile);
+        File journalFile = new File(walletFile.getAbsolutePath() + ".journal");
+        String walletSummaryFilename = WalletSummary.createWalletSummaryFilename(walletFile.getAbsolutePath());
+        new File(walletSummaryFilename).deleteOnExit();
+
+        new WalletSummary(wallet, walletFile, journalFile).writeToFile(walletSummaryFilename);
+        WalletSummary walletSummary = WalletSummary.loadFromFile(walletSummaryFilename);
+
+        assertNotNull(walletSummary);
+        assertEquals(Utils.toNanoCoins(1, 0), walletSummary.getEstimatedBalance());
+        assertEquals(BigInteger.ZERO, walletSummary.getAvailableBalance());
+        assertEquals(LAST_BLOCK_SEEN_HEIGHT, walletSummary.getLastBlockSeenHeight());
+        assertEquals(1, walletSummary.getNumberOfTransactions());
+        assertEquals(wallet.getEncryptionType(), walletSummary.getEncryptionType());
+        assertEquals(1, walletSummary.getPublicKeys().size());
+        assertTrue(walletSummary.isCurrent(walletFile, journalFile));
+
+        // Once the wallet changes the summary is out of date.
+        FileOutputStream fileOutputStream = new FileOutputStream(walletFile, true);
+        fileOutputStream.write(new byte[]{1});
+        fileOutputStream.close();
+        assertFalse(walletSummary.isCurrent(walletFile, journalFile));
+    }
+
+    @Test
+    public void testIsTransactionRelevant() throws Exception {
+        NetworkParameters networkParameters = NetworkParameters.prodNet();
+        ECKey key = new ECKey();
+
+        Wallet wallet = new Wallet(networkParameters);
+        wallet.getKeychain().add(key);
+
+        File walletFile = File.createTempFile("testIsTransactionRelevant", ".wallet");
+        walletFile.deleteOnExit();
+        WalletSummary walletSummary = new WalletSummary(wallet, walletFile, new File(walletFile.getAbsolutePath() + ".journal"));
+
+        assertTrue(walletSummary.isTransactionRelevant(WalletTestUtils.createTransactionTo(networkParameters, key)));
+        assertFalse(walletSummary.isTransactionRelevant(WalletTestUtils.createTransactionTo(networkParameters, new ECKey())));
+    }
+
+    @Test
+    public void testMissingSummary() {
+        assertNull(WalletSummary.loadFromFile("nonExistentWallet.summary"));
+    }
+
+    @Test
+    public void testCreateWalletSummaryFilename() {
+        assertEquals("mywallet.summary", WalletSummary.createWalletSummaryFilename("mywallet.wallet"));
+        assertEquals("mywallet.summary", WalletSummary.createWalletSummaryFilename("mywallet"));
+    }
+}
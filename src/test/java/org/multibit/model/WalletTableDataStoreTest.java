@@ -0,0 +1,101 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Utils;
+import org.junit.Test;
+import org.multibit.model.bitcoin.WalletTableData;
+import org.multibit.model.bitcoin.WalletTableDataStore;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+public class WalletTableDataStoreTest {
+
+    @Test
+    public void testRowsArePatchedByTransaction() {
+        NetworkParameters networkParameters = NetworkParameters.prodNet();
+        WalletTableData first = new WalletTableData(createTransaction(networkParameters));
+        WalletTableData second = new WalletTableData(createTransaction(networkParameters));
+
+        WalletTableDataStore walletTableDataStore = new WalletTableDataStore();
+        assertFalse(walletTableDataStore.isSeeded());
+
+        walletTableDataStore.seed(Arrays.asList(first));
+        assertTrue(walletTableDataStore.isSeeded());
+        assertEquals(1, walletTableDataStore.size());
+
+        // A new transaction is inserted.
+        assertTrue(walletTableDataStore.putRow(second));
+        assertEquals(2, walletTableDataStore.size());
+
+        // A changed transaction replaces its row, keeping its position.
+        WalletTableData firstUpdated = new WalletTableData(first.getTransaction());
+        firstUpdated.setDescription("updated");
+        assertFalse(walletTableDataStore.putRow(firstUpdated));
+        List<WalletTableData> rows = walletTableDataStore.getRows();
+        assertEquals(2, rows.size());
+        assertSame(firstUpdated, rows.get(0));
+        assertSame(second, rows.get(1));
+
+        // Removing a transaction removes its row.
+        assertSame(second, walletTableDataStore.removeRow(second.getTransaction().getHash()));
+        assertNull(walletTableDataStore.removeRow(second.getTransaction().getHash()));
+        assertEquals(1, walletTableDataStore.size());
+        assertSame(firstUpdated, walletTableDataStore.getRow(first.getTransaction().getHash()));
+    }
+
+    @Test
+    public void testGenerationMovesOnWithEveryChange() {
+        NetworkParameters networkParameters = NetworkParameters.prodNet();
+        WalletTableData first = new WalletTableData(createTransaction(networkParameters));
+        WalletTableData second = new WalletTableData(createTransaction(networkParameters));
+
+        WalletTableDataStore walletTableDataStore = new WalletTableDataStore();
+        long generation = walletTableDataStore.getGeneration();
+
+        walletTableDataStore.seed(Arrays.asList(first));
+        assertTrue(walletTableDataStore.getGeneration() > generation);
+        generation = walletTableDataStore.getGeneration();
+
+        walletTableDataStore.putRow(second);
+        assertTrue(walletTableDataStore.getGeneration() > generation);
+        generation = walletTableDataStore.getGeneration();
+
+        walletTableDataStore.putRow(new WalletTableData(second.getTransaction()));
+        assertTrue(walletTableDataStore.getGeneration() > generation);
+        generation = walletTableDataStore.getGeneration();
+
+        walletTableDataStore.removeRow(second.getTransaction().getHash());
+        assertTrue(walletTableDataStore.getGeneration() > generation);
+        generation = walletTableDataStore.getGeneration();
+
+        // Nothing changes if there is no row to remove.
+        walletTableDataStore.removeRow(second.getTransaction().getHash());
+        assertEquals(generation, walletTableDataStore.getGeneration());
+    }
+
+    private Transaction createTransaction(NetworkParameters networkParameters) {
+        Transaction transaction = new Transaction(networkParameters);
+        transaction.addOutput(Utils.toNanoCoins(1, 0), new ECKey().toAddress(networkParameters));
+        return transaction;
+    }
+}
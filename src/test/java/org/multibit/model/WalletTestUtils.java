@@ -0,0 +1,53 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutPoint;
+import com.google.bitcoin.core.Utils;
+
+/**
+ * Utility methods for the wallet tests.
+ */
+public class WalletTestUtils {
+
+    private static final byte[] DEFAULT_PREVIOUS_TRANSACTION = new byte[] {4, 5, 6};
+
+    /**
+     * Create a transaction that pays 1 BTC to the address of a key, spending a made up previous transaction.
+     */
+    public static Transaction createTransactionTo(NetworkParameters networkParameters, ECKey key) {
+        return createTransactionTo(networkParameters, key, DEFAULT_PREVIOUS_TRANSACTION);
+    }
+
+    /**
+     * Create a transaction that pays 1 BTC to the address of a key.
+     *
+     * @param previousTransaction the bytes hashed for the transaction that is spent, so that transactions to the
+     *                            same key can be told apart
+     */
+    public static Transaction createTransactionTo(NetworkParameters networkParameters, ECKey key, byte[] previousTransaction) {
+        Transaction transaction = new Transaction(networkParameters);
+        transaction.addInput(new TransactionInput(networkParameters, transaction, new byte[] {},
+                new TransactionOutPoint(networkParameters, 0, Sha256Hash.create(previousTransaction))));
+        transaction.addOutput(Utils.toNanoCoins(1, 0), key.toAddress(networkParameters));
+        return transaction;
+    }
+}
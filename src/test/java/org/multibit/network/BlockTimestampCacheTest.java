@@ -0,0 +1,71 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import com.google.bitcoin.core.Sha256Hash;
+import org.junit.Test;
+
+import java.io.File;
+
+import static junit.framework.Assert.*;
+
+public class BlockTimestampCacheTest {
+
+    @Test
+    public void testBlockTimesSurviveARestart() throws Exception {
+        File cacheFile = File.createTempFile("testBlockTimesSurviveARestart", BlockTimestampCache.BLOCK_TIMESTAMP_CACHE_SUFFIX);
+        cacheFile.delete();
+        cacheFile.deleteOnExit();
+
+        Sha256Hash blockHash = Sha256Hash.create(new byte[]{1, 2, 3});
+        BlockTimestampCache blockTimestampCache = new BlockTimestampCache();
+        blockTimestampCache.loadFromFile(cacheFile);
+        blockTimestampCache.putBlockTime(blockHash, 1234567890L);
+        blockTimestampCache.save();
+        assertTrue(cacheFile.exists());
+
+        BlockTimestampCache reloadedBlockTimestampCache = new BlockTimestampCache();
+        reloadedBlockTimestampCache.loadFromFile(cacheFile);
+        assertEquals(1, reloadedBlockTimestampCache.size());
+        // No block store is needed for a block time that is in the cache.
+        assertEquals(Long.valueOf(1234567890L), reloadedBlockTimestampCache.getBlockTime(blockHash, null));
+        assertNull(reloadedBlockTimestampCache.getBlockTime(Sha256Hash.create(new byte[]{4, 5, 6}), null));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedBlockTimeIsRemoved() {
+        Sha256Hash first = Sha256Hash.create(new byte[]{1});
+        Sha256Hash second = Sha256Hash.create(new byte[]{2});
+        Sha256Hash third = Sha256Hash.create(new byte[]{3});
+
+        BlockTimestampCache blockTimestampCache = new BlockTimestampCache(2);
+        blockTimestampCache.putBlockTime(first, 1);
+        blockTimestampCache.putBlockTime(second, 2);
+        // Use the first block time so that the second one is the least recently used.
+        assertNotNull(blockTimestampCache.getBlockTime(first, null));
+        blockTimestampCache.putBlockTime(third, 3);
+
+        assertEquals(2, blockTimestampCache.size());
+        assertNotNull(blockTimestampCache.getBlockTime(first, null));
+        assertNull(blockTimestampCache.getBlockTime(second, null));
+        assertNotNull(blockTimestampCache.getBlockTime(third, null));
+    }
+
+    @Test
+    public void testCreateBlockTimestampCacheFilename() {
+        assertEquals("multibit.blocktimes", BlockTimestampCache.createBlockTimestampCacheFilename("multibit" + MultiBitService.SPV_BLOCKCHAIN_SUFFIX));
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Utils;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.*;
+
+public class BloomFilterManagerTest {
+
+    @Test
+    public void testBurstOfRequestsIsOneRecalculation() throws Exception {
+        final AtomicInteger numberOfRecalculations = new AtomicInteger();
+        BloomFilterManager bloomFilterManager = new BloomFilterManager(null) {
+            @Override
+            void recalculate() {
+                numberOfRecalculations.incrementAndGet();
+            }
+        };
+
+        // Keys being added one after another.
+        for (int i = 0; i < 20; i++) {
+            bloomFilterManager.requestRecalculation();
+            Thread.sleep(10);
+        }
+        assertEquals(0, numberOfRecalculations.get());
+
+        Thread.sleep(BloomFilterManager.RECALCULATION_DELAY * 3);
+        assertEquals(1, numberOfRecalculations.get());
+        assertEquals(20, bloomFilterManager.getNumberOfRecalculationsRequested());
+
+        // A later request is recalculated again.
+        bloomFilterManager.requestRecalculation();
+        Thread.sleep(BloomFilterManager.RECALCULATION_DELAY * 3);
+        assertEquals(2, numberOfRecalculations.get());
+    }
+
+    @Test
+    public void testLongBurstIsNotPutOffForever() throws Exception {
+        final AtomicInteger numberOfRecalculations = new AtomicInteger();
+        BloomFilterManager bloomFilterManager = new BloomFilterManager(null) {
+            @Override
+            void recalculate() {
+                numberOfRecalculations.incrementAndGet();
+            }
+        };
+
+        long finishTime = System.currentTimeMillis() + BloomFilterManager.MAXIMUM_RECALCULATION_DELAY + 1000;
+        while (System.currentTimeMillis() < finishTime) {
+            bloomFilterManager.requestRecalculation();
+            Thread.sleep(50);
+        }
+        assertTrue(numberOfRecalculations.get() >= 1);
+    }
+
+    @Test
+    public void testTransactionSeenLooseThenInABlockIsCountedOnce() throws Exception {
+        BloomFilterManager bloomFilterManager = new BloomFilterManager(null) {
+            @Override
+            boolean isRelevant(Transaction transaction) {
+                return false;
+            }
+        };
+
+        NetworkParameters params = NetworkParameters.unitTests();
+        Transaction transaction = new Transaction(params);
+        transaction.addOutput(Utils.toNanoCoins(1, 0), new ECKey().toAddress(params));
+        Transaction otherTransaction = new Transaction(params);
+        otherTransaction.addOutput(Utils.toNanoCoins(2, 0), new ECKey().toAddress(params));
+
+        // Loose, then in a block with another transaction.
+        bloomFilterManager.recordMatchedTransactions(Collections.singletonList(transaction));
+        bloomFilterManager.recordMatchedTransactions(Arrays.asList(transaction, otherTransaction));
+
+        long finishTime = System.currentTimeMillis() + 5000;
+        while (bloomFilterManager.getNumberOfMatchedTransactions() < 2 && System.currentTimeMillis() < finishTime) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals(2, bloomFilterManager.getNumberOfMatchedTransactions());
+        assertEquals(0, bloomFilterManager.getNumberOfRelevantTransactions());
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import com.google.bitcoin.core.BloomFilter;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionOutPoint;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.params.MainNetParams;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class BloomFilterPartitionerTest {
+
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+
+    @Test
+    public void testNumberOfPartitions() {
+        assertEquals(1, BloomFilterPartitioner.getNumberOfPartitions(0, 0.0005));
+        assertEquals(1, BloomFilterPartitioner.getNumberOfPartitions(10000, 0.0005));
+
+        // 100,000 keys is 200,000 elements - too many for one filter of at most 36,000 bytes.
+        int numberOfPartitions = BloomFilterPartitioner.getNumberOfPartitions(200000, 0.0005);
+        assertTrue(numberOfPartitions > 1);
+
+        // A higher false positive rate fits more elements in each filter.
+        assertTrue(BloomFilterPartitioner.getNumberOfPartitions(200000, 0.01) < numberOfPartitions);
+
+        assertEquals(BloomFilterPartitioner.MAXIMUM_NUMBER_OF_PARTITIONS, BloomFilterPartitioner.getNumberOfPartitions(Integer.MAX_VALUE, 0.0005));
+    }
+
+    @Test
+    public void testPartitionIsStable() {
+        for (int i = 0; i < 50; i++) {
+            byte[] publicKey = new ECKey().getPubKey();
+            int partition = BloomFilterPartitioner.getPartition(publicKey, 5);
+            assertTrue(partition >= 0 && partition < 5);
+            assertEquals(partition, BloomFilterPartitioner.getPartition(publicKey.clone(), 5));
+        }
+    }
+
+    @Test
+    public void testElementsAreInTheKeyPartition() {
+        BloomFilterPartitioner partitioner = new BloomFilterPartitioner(null, null, PARAMS, null);
+
+        List<byte[]> publicKeys = new ArrayList<byte[]>();
+        for (int i = 0; i < 200; i++) {
+            publicKeys.add(new ECKey().getPubKey());
+        }
+        ECKey payee = new ECKey(null, publicKeys.get(7));
+        Transaction transaction = new Transaction(PARAMS);
+        transaction.addOutput(Utils.toNanoCoins(1, 0), payee);
+
+        int numberOfPartitions = 4;
+        List<List<byte[]>> partitionElements = BloomFilterPartitioner.createEmptyPartitions(numberOfPartitions);
+        partitioner.addPartitionElements(partitionElements, publicKeys, Collections.singletonList(transaction));
+
+        List<BloomFilter> filters = new ArrayList<BloomFilter>();
+        int numberOfElements = 0;
+        for (List<byte[]> elements : partitionElements) {
+            assertTrue("A partition is empty", !elements.isEmpty());
+            filters.add(BloomFilterPartitioner.createFilter(elements, 0.0001, 1234));
+            numberOfElements += elements.size();
+        }
+        // The public key and its hash for every key, and the outpoint paying the key directly.
+        assertEquals(publicKeys.size() * 2 + 1, numberOfElements);
+
+        for (byte[] publicKey : publicKeys) {
+            int partition = BloomFilterPartitioner.getPartition(publicKey, numberOfPartitions);
+            assertTrue(filters.get(partition).contains(publicKey));
+            assertTrue(filters.get(partition).contains(Utils.sha256hash160(publicKey)));
+        }
+        byte[] outPoint = new TransactionOutPoint(PARAMS, 0, transaction).bitcoinSerialize();
+        assertTrue(filters.get(BloomFilterPartitioner.getPartition(publicKeys.get(7), numberOfPartitions)).contains(outPoint));
+    }
+}
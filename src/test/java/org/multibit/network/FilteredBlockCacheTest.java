@@ -0,0 +1,109 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.FilteredBlock;
+import com.google.bitcoin.core.MultiBitBlockChain;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.store.MemoryBlockStore;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static junit.framework.Assert.*;
+
+public class FilteredBlockCacheTest {
+
+    private final NetworkParameters unitTestParams = NetworkParameters.unitTests();
+
+    @Test
+    public void testCreateFilteredBlockCacheDirectoryName() {
+        assertEquals("/tmp/multibit.filteredblocks", FilteredBlockCache.createFilteredBlockCacheDirectoryName("/tmp/multibit.spvchain"));
+    }
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        File cacheDirectory = File.createTempFile("testRecordAndReplay", FilteredBlockCache.FILTERED_BLOCK_CACHE_SUFFIX);
+        cacheDirectory.delete();
+        cacheDirectory.deleteOnExit();
+        assertTrue(cacheDirectory.mkdirs());
+
+        ECKey key1 = new ECKey();
+        ECKey key2 = new ECKey();
+        Set<ByteBuffer> bothKeys = new HashSet<ByteBuffer>(Arrays.asList(ByteBuffer.wrap(key1.getPubKey()), ByteBuffer.wrap(key2.getPubKey())));
+        Set<ByteBuffer> firstKey = new HashSet<ByteBuffer>(Arrays.asList(ByteBuffer.wrap(key1.getPubKey())));
+        Set<ByteBuffer> otherKey = new HashSet<ByteBuffer>(Arrays.asList(ByteBuffer.wrap(new ECKey().getPubKey())));
+
+        // Receive two blocks with a filter for both keys.
+        FilteredBlockCache filteredBlockCache = new FilteredBlockCache(unitTestParams, cacheDirectory);
+        filteredBlockCache.startRecording(bothKeys);
+        MultiBitBlockChain chain = new MultiBitBlockChain(unitTestParams, new MemoryBlockStore(unitTestParams));
+        chain.addFilteredBlockListener(filteredBlockCache);
+        long timeSecs = Utils.now().getTime() / 1000 - 3600;
+        Block b1 = unitTestParams.getGenesisBlock().createNextBlock(key1.toAddress(unitTestParams), timeSecs);
+        Block b2 = b1.createNextBlock(key2.toAddress(unitTestParams), timeSecs + 600);
+        assertTrue(chain.add(createFilteredBlock(b1)));
+        assertTrue(chain.add(createFilteredBlock(b2)));
+        filteredBlockCache.close();
+
+        // A filter with a key that was not in the filter cannot be served.
+        filteredBlockCache = new FilteredBlockCache(unitTestParams, cacheDirectory);
+        MultiBitBlockChain replayChain = new MultiBitBlockChain(unitTestParams, new MemoryBlockStore(unitTestParams));
+        assertEquals(0, filteredBlockCache.replay(replayChain, otherKey));
+        assertEquals(0, replayChain.getBestChainHeight());
+
+        // One that is a subset is served from disk, with the transactions.
+        assertEquals(2, filteredBlockCache.replay(replayChain, firstKey));
+        assertEquals(2, replayChain.getBestChainHeight());
+        assertEquals(b2.getHash(), replayChain.getChainHead().getHeader().getHash());
+        filteredBlockCache.close();
+
+        for (File generationFile : cacheDirectory.listFiles()) {
+            generationFile.delete();
+        }
+    }
+
+    /**
+     * A filtered block matching both the transactions in a block (the coinbase and the payment to the address).
+     */
+    private FilteredBlock createFilteredBlock(Block block) throws Exception {
+        assertEquals(2, block.getTransactions().size());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(block.bitcoinSerialize(), 0, 80);
+        Utils.uint32ToByteStreamLE(2, bytes);
+        bytes.write(2);
+        for (Transaction transaction : block.getTransactions()) {
+            bytes.write(Utils.reverseBytes(transaction.getHash().getBytes()));
+        }
+        // The root and both leaves are matched.
+        bytes.write(1);
+        bytes.write(0x07);
+        FilteredBlock filteredBlock = new FilteredBlock(unitTestParams, bytes.toByteArray());
+        for (Transaction transaction : block.getTransactions()) {
+            assertTrue(filteredBlock.provideTransaction(transaction));
+        }
+        return filteredBlock;
+    }
+}
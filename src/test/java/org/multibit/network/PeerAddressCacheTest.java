@@ -0,0 +1,63 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+public class PeerAddressCacheTest {
+
+    @Test
+    public void testCreatePeerAddressCacheFilename() {
+        assertEquals("/tmp/multibit.peers", PeerAddressCache.createPeerAddressCacheFilename("/tmp/multibit.spvchain"));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File peerAddressCacheFile = File.createTempFile("testSaveAndLoad", PeerAddressCache.PEER_ADDRESS_CACHE_SUFFIX);
+        peerAddressCacheFile.deleteOnExit();
+
+        InetSocketAddress slowPeer = new InetSocketAddress(InetAddress.getByName("10.0.0.1"), 8333);
+        InetSocketAddress fastPeer = new InetSocketAddress(InetAddress.getByName("10.0.0.2"), 8333);
+        InetSocketAddress oldPeer = new InetSocketAddress(InetAddress.getByName("10.0.0.3"), 18333);
+
+        long now = System.currentTimeMillis();
+        PeerAddressCache peerAddressCache = new PeerAddressCache(peerAddressCacheFile);
+        peerAddressCache.recordConnected(slowPeer, now);
+        peerAddressCache.recordConnected(fastPeer, now - 1000);
+        peerAddressCache.recordConnected(oldPeer, now - PeerAddressCache.MAXIMUM_AGE - 1000);
+        peerAddressCache.updateScore(slowPeer, 2.5);
+        peerAddressCache.updateScore(fastPeer, 12.0);
+
+        // Best score first, and peers not connected to recently are forgotten.
+        assertEquals(Arrays.asList(fastPeer, slowPeer), peerAddressCache.getAddressesToTry(10, now));
+        assertEquals(Arrays.asList(fastPeer), peerAddressCache.getAddressesToTry(1, now));
+
+        peerAddressCache.save();
+
+        PeerAddressCache loadedPeerAddressCache = new PeerAddressCache(peerAddressCacheFile);
+        loadedPeerAddressCache.load();
+        List<InetSocketAddress> addressesToTry = loadedPeerAddressCache.getAddressesToTry(10, now);
+        assertEquals(Arrays.asList(fastPeer, slowPeer), addressesToTry);
+    }
+}
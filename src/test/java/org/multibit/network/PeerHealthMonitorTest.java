@@ -0,0 +1,57 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.PeerGroup;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.*;
+
+public class PeerHealthMonitorTest {
+
+    @Test
+    public void testStoppedMonitorStaysStopped() throws Exception {
+        PeerHealthMonitor peerHealthMonitor = new PeerHealthMonitor(new PeerGroup(NetworkParameters.unitTests()));
+        peerHealthMonitor.start();
+        peerHealthMonitor.stop();
+        int numberOfThreads = countMonitorThreads();
+
+        // Neither starting it again nor pinging creates another thread.
+        peerHealthMonitor.start();
+        try {
+            peerHealthMonitor.pingPeer(null).get(1, TimeUnit.SECONDS);
+            fail("A ping from a stopped monitor should fail");
+        } catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(countMonitorThreads() <= numberOfThreads);
+        assertFalse(peerHealthMonitor.isNetworkResponsive(1000));
+    }
+
+    private int countMonitorThreads() {
+        int numberOfThreads = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith("PeerHealthMonitor-")) {
+                numberOfThreads++;
+            }
+        }
+        return numberOfThreads;
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class PeerHealthTest {
+
+    private static final long MAXIMUM_AGE = 45000;
+
+    @Test
+    public void testRecordPings() {
+        PeerHealth peerHealth = new PeerHealth();
+        long now = 1000000;
+
+        // Never pinged - nothing to rely on.
+        assertTrue(peerHealth.isStale(now, MAXIMUM_AGE));
+        assertFalse(peerHealth.isResponsive(now, MAXIMUM_AGE));
+        assertEquals(PeerHealth.UNKNOWN_ROUND_TRIP_TIME, peerHealth.getAverageRoundTripTime());
+
+        // The first answer sets the average, later ones are blended in.
+        peerHealth.recordSuccess(100, now);
+        assertEquals(100, peerHealth.getAverageRoundTripTime());
+        peerHealth.recordSuccess(200, now + 1000);
+        assertEquals(130, peerHealth.getAverageRoundTripTime());
+        assertEquals(200, peerHealth.getLastRoundTripTime());
+        assertTrue(peerHealth.isResponsive(now + 1000, MAXIMUM_AGE));
+        assertFalse(peerHealth.isStale(now + 1000, MAXIMUM_AGE));
+
+        // A failure makes the peer unresponsive but the state is fresh.
+        peerHealth.recordFailure(now + 2000);
+        assertFalse(peerHealth.isResponsive(now + 2000, MAXIMUM_AGE));
+        assertFalse(peerHealth.isStale(now + 2000, MAXIMUM_AGE));
+        assertEquals(1, peerHealth.getConsecutiveFailures());
+        assertEquals(3, peerHealth.getNumberOfPings());
+        assertEquals(1, peerHealth.getNumberOfFailures());
+
+        // An answer clears the run of failures.
+        peerHealth.recordSuccess(100, now + 3000);
+        assertEquals(0, peerHealth.getConsecutiveFailures());
+        assertTrue(peerHealth.isResponsive(now + 3000, MAXIMUM_AGE));
+
+        // Old results are stale.
+        assertTrue(peerHealth.isStale(now + 3000 + MAXIMUM_AGE + 1, MAXIMUM_AGE));
+        assertFalse(peerHealth.isResponsive(now + 3000 + MAXIMUM_AGE + 1, MAXIMUM_AGE));
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class PeerScoreTest {
+
+    private static final double DELTA = 0.0001;
+
+    @Test
+    public void testThroughput() {
+        PeerScore peerScore = new PeerScore();
+        long now = 1000000;
+        assertEquals(PeerScore.UNKNOWN_THROUGHPUT, peerScore.getBlocksPerSecond(), DELTA);
+
+        // Not measuring yet.
+        assertFalse(peerScore.measure(now, 10000));
+
+        peerScore.startMeasuring(now);
+        for (int i = 0; i < 200; i++) {
+            peerScore.recordBlock();
+        }
+        // Too short a window to say anything.
+        assertFalse(peerScore.measure(now + 5000, 10000));
+
+        assertTrue(peerScore.measure(now + 10000, 10000));
+        assertEquals(20.0, peerScore.getBlocksPerSecond(), DELTA);
+
+        // A stalled window halves the rolling throughput.
+        assertTrue(peerScore.measure(now + 20000, 10000));
+        assertEquals(10.0, peerScore.getBlocksPerSecond(), DELTA);
+    }
+
+    @Test
+    public void testScore() {
+        PeerScore fastPeer = new PeerScore();
+        PeerScore slowPeer = new PeerScore();
+
+        // Nothing known scores nothing.
+        assertEquals(0.0, fastPeer.getScore(PeerHealth.UNKNOWN_ROUND_TRIP_TIME), DELTA);
+
+        // A quicker ping scores higher.
+        assertTrue(fastPeer.getScore(50) > slowPeer.getScore(1000));
+        assertEquals(PeerScore.LATENCY_POINTS / 2, fastPeer.getScore((long) PeerScore.HALF_LATENCY_POINTS_ROUND_TRIP_TIME), DELTA);
+
+        // Dropping half its connections costs a peer half the penalty.
+        slowPeer.recordConnected();
+        slowPeer.recordConnected();
+        slowPeer.recordDisconnected();
+        assertEquals(0.5, slowPeer.getDisconnectRate(), DELTA);
+        assertEquals(-PeerScore.DISCONNECT_PENALTY / 2, slowPeer.getScore(PeerHealth.UNKNOWN_ROUND_TRIP_TIME), DELTA);
+    }
+}
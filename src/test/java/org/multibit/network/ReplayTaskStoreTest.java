@@ -0,0 +1,68 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import org.junit.Test;
+import org.multibit.model.bitcoin.WalletData;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+public class ReplayTaskStoreTest {
+
+    private static final int START_HEIGHT = 100000;
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File replayTasksFile = File.createTempFile("testSaveAndLoad", ".replaytasks");
+        replayTasksFile.deleteOnExit();
+
+        WalletData perWalletModelData1 = createWalletData("/tmp/wallet1.wallet");
+        WalletData perWalletModelData2 = createWalletData("/tmp/wallet2.wallet");
+        ReplayTask replayTask = new ReplayTask(Arrays.asList(perWalletModelData1, perWalletModelData2), null, START_HEIGHT);
+
+        // Until every wallet has been checkpointed the task resumes from its start.
+        replayTask.walletCheckpointed(perWalletModelData1, START_HEIGHT + 5000);
+        assertEquals(START_HEIGHT, replayTask.getProcessedHeight());
+        replayTask.walletCheckpointed(perWalletModelData2, START_HEIGHT + 4000);
+        assertEquals(START_HEIGHT + 4000, replayTask.getProcessedHeight());
+
+        ReplayTaskStore replayTaskStore = new ReplayTaskStore(replayTasksFile);
+        replayTaskStore.save(Arrays.asList(replayTask));
+
+        List<ReplayTaskStore.PersistedReplayTask> persistedReplayTasks = new ReplayTaskStore(replayTasksFile).load();
+        assertEquals(1, persistedReplayTasks.size());
+        ReplayTaskStore.PersistedReplayTask persistedReplayTask = persistedReplayTasks.get(0);
+        assertEquals(Arrays.asList("/tmp/wallet1.wallet", "/tmp/wallet2.wallet"), persistedReplayTask.getWalletFilenames());
+        assertEquals(START_HEIGHT, persistedReplayTask.getStartHeight());
+        assertEquals(START_HEIGHT + 4000, persistedReplayTask.getProcessedHeight());
+
+        // Once there are no tasks the file is removed.
+        replayTaskStore.save(new ArrayList<ReplayTask>());
+        assertFalse(replayTasksFile.exists());
+        assertTrue(replayTaskStore.load().isEmpty());
+    }
+
+    private WalletData createWalletData(String walletFilename) {
+        WalletData perWalletModelData = new WalletData();
+        perWalletModelData.setWalletFilename(walletFilename);
+        return perWalletModelData;
+    }
+}
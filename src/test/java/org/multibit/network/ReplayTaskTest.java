@@ -0,0 +1,97 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.network;
+
+import org.junit.Test;
+import org.multibit.model.bitcoin.WalletData;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+import static junit.framework.Assert.*;
+
+public class ReplayTaskTest {
+
+    @Test
+    public void testMerge() {
+        WalletData perWalletModelData1 = createWalletData("/tmp/wallet1.wallet");
+        WalletData perWalletModelData2 = createWalletData("/tmp/wallet2.wallet");
+        WalletData perWalletModelData3 = createWalletData("/tmp/wallet3.wallet");
+
+        Date laterDate = new Date(1400000000000L);
+        Date earlierDate = new Date(1300000000000L);
+        ReplayTask replayTask = new ReplayTask(Arrays.asList(perWalletModelData1), laterDate, 300000);
+
+        // A task starting later only adds its wallets.
+        assertFalse(replayTask.merge(new ReplayTask(Arrays.asList(perWalletModelData1, perWalletModelData2), new Date(), 310000)));
+        assertEquals(Arrays.asList(perWalletModelData1, perWalletModelData2), replayTask.getPerWalletModelDataToReplay());
+        assertEquals(300000, replayTask.getStartHeight());
+        assertEquals(laterDate, replayTask.getStartDate());
+
+        // A task starting earlier moves the start back.
+        assertTrue(replayTask.merge(new ReplayTask(Arrays.asList(perWalletModelData3), earlierDate, 250000)));
+        assertEquals(3, replayTask.getPerWalletModelDataToReplay().size());
+        assertEquals(250000, replayTask.getStartHeight());
+        assertEquals(earlierDate, replayTask.getStartDate());
+
+        // Replaying from the genesis block starts before everything.
+        assertTrue(replayTask.merge(new ReplayTask(Arrays.asList(perWalletModelData1), null, ReplayTask.UNKNOWN_START_HEIGHT)));
+        assertNull(replayTask.getStartDate());
+
+        // Restarting gives the task a new UUID.
+        UUID uuid = replayTask.getUuid();
+        replayTask.requestRestart();
+        assertTrue(replayTask.isRestartRequired());
+        assertFalse(uuid.equals(replayTask.getUuid()));
+    }
+
+    @Test
+    public void testCompletionFuture() throws Exception {
+        ReplayTask replayTask = new ReplayTask(Arrays.asList(createWalletData("/tmp/wallet1.wallet")), null, 300000);
+        ReplayTask joinedTask = new ReplayTask(Arrays.asList(createWalletData("/tmp/wallet2.wallet")), null, 310000);
+        ReplayTask mergedTask = new ReplayTask(Arrays.asList(createWalletData("/tmp/wallet3.wallet")), null, 250000);
+        replayTask.join(joinedTask);
+        replayTask.merge(mergedTask);
+        assertFalse(joinedTask.getCompletionFuture().isDone());
+
+        // The tasks that were folded in finish with the task they were folded into.
+        replayTask.replayCompleted();
+        assertTrue(replayTask.getCompletionFuture().get());
+        assertTrue(joinedTask.getCompletionFuture().get());
+        assertTrue(mergedTask.getCompletionFuture().get());
+
+        ReplayTask failedTask = new ReplayTask(Arrays.asList(createWalletData("/tmp/wallet1.wallet")), null, 300000);
+        failedTask.replayFailed(new IllegalStateException("test"));
+        try {
+            failedTask.getCompletionFuture().get();
+            fail("The replay should have failed");
+        } catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof IllegalStateException);
+        }
+
+        ReplayTask cancelledTask = new ReplayTask(Arrays.asList(createWalletData("/tmp/wallet1.wallet")), null, 300000);
+        cancelledTask.replayCancelled();
+        assertTrue(cancelledTask.getCompletionFuture().isCancelled());
+    }
+
+    private WalletData createWalletData(String walletFilename) {
+        WalletData perWalletModelData = new WalletData();
+        perWalletModelData.setWalletFilename(walletFilename);
+        return perWalletModelData;
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.scheduler;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.*;
+
+public class TaskSchedulerTest {
+
+    private static final int TIMEOUT = 10; // seconds
+
+    @After
+    public void tearDown() {
+        TaskScheduler.INSTANCE.setIdle(false);
+        for (ScheduledTask scheduledTask : TaskScheduler.INSTANCE.getTasks()) {
+            if (scheduledTask.getName().startsWith("test")) {
+                scheduledTask.cancel();
+            }
+        }
+    }
+
+    @Test
+    public void testRepeatsAndRecordsRuns() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(3);
+        ScheduledTask scheduledTask = TaskScheduler.INSTANCE.schedule("testRepeatsAndRecordsRuns", new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+                if (latch.getCount() == 2) {
+                    // A failing run does not stop the task.
+                    throw new IllegalStateException("Failed run");
+                }
+            }
+        }, 0, 10);
+
+        assertTrue(latch.await(TIMEOUT, TimeUnit.SECONDS));
+        assertTrue(TaskScheduler.INSTANCE.getTasks().contains(scheduledTask));
+
+        scheduledTask.cancel();
+        assertTrue(scheduledTask.isCancelled());
+        assertFalse(TaskScheduler.INSTANCE.getTasks().contains(scheduledTask));
+        assertTrue(scheduledTask.getRunCount() >= 2);
+    }
+
+    @Test
+    public void testSameNameReplacesTask() throws Exception {
+        final AtomicInteger firstTaskRuns = new AtomicInteger();
+        ScheduledTask firstTask = TaskScheduler.INSTANCE.schedule("testSameNameReplacesTask", new Runnable() {
+            @Override
+            public void run() {
+                firstTaskRuns.incrementAndGet();
+            }
+        }, 60000, 60000);
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        ScheduledTask secondTask = TaskScheduler.INSTANCE.schedule("testSameNameReplacesTask", new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 0, 60000);
+
+        assertTrue(firstTask.isCancelled());
+        assertFalse(secondTask.isCancelled());
+        assertTrue(latch.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(0, firstTaskRuns.get());
+    }
+
+    @Test
+    public void testOverrunIsCounted() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        ScheduledTask scheduledTask = TaskScheduler.INSTANCE.schedule("testOverrunIsCounted", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                latch.countDown();
+            }
+        }, 0, 5);
+
+        assertTrue(latch.await(TIMEOUT, TimeUnit.SECONDS));
+        scheduledTask.cancel();
+        assertTrue(scheduledTask.getOverrunCount() >= 1);
+        assertTrue(scheduledTask.getMaximumRunTime() >= 20);
+    }
+
+    @Test
+    public void testWakeBringsIdleTaskForward() throws Exception {
+        TaskScheduler.INSTANCE.setIdle(true);
+        final CountDownLatch latch = new CountDownLatch(2);
+        TaskScheduler.INSTANCE.schedule("testWakeBringsIdleTaskForward", new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 0, 10, 60000);
+
+        // Only the first run happens whilst idle.
+        assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, latch.getCount());
+
+        TaskScheduler.INSTANCE.setIdle(false);
+        assertTrue(latch.await(TIMEOUT, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2015 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.viewsystem;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Wallet;
+import org.junit.Test;
+import org.multibit.viewsystem.simple.SimpleViewSystem;
+
+import javax.swing.*;
+import java.awt.EventQueue;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.*;
+
+public class ViewSystemEventBusTest {
+
+    private static final int TIMEOUT = 10; // seconds
+
+    @Test
+    public void testEventsAreMergedAndDeliveredOnTheSwingThread() throws Exception {
+        NetworkParameters networkParameters = NetworkParameters.prodNet();
+        Wallet wallet1 = new Wallet(networkParameters);
+        Wallet wallet2 = new Wallet(networkParameters);
+        Transaction transaction1 = new Transaction(networkParameters);
+        transaction1.addOutput(BigInteger.ONE, new ECKey().toAddress(networkParameters));
+        Transaction transaction2 = new Transaction(networkParameters);
+        transaction2.addOutput(BigInteger.TEN, new ECKey().toAddress(networkParameters));
+
+        RecordingViewSystem viewSystem = new RecordingViewSystem();
+        List<ViewSystem> viewSystems = new CopyOnWriteArrayList<ViewSystem>();
+        viewSystems.add(viewSystem);
+        ViewSystemEventBus viewSystemEventBus = new ViewSystemEventBus(viewSystems);
+
+        // Hold up the Swing thread so that all the events arrive in one batch.
+        final CountDownLatch swingThreadHeld = new CountDownLatch(1);
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    swingThreadHeld.await(TIMEOUT, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        for (int i = 0; i < 100; i++) {
+            viewSystemEventBus.post(ViewSystemEvent.blockDownloaded());
+        }
+        viewSystemEventBus.post(ViewSystemEvent.coinsReceived(wallet1, transaction1, BigInteger.ZERO, BigInteger.ONE));
+        viewSystemEventBus.post(ViewSystemEvent.coinsReceived(wallet1, transaction2, BigInteger.ONE, BigInteger.TEN));
+        viewSystemEventBus.post(ViewSystemEvent.coinsReceived(wallet2, transaction1, BigInteger.ZERO, BigInteger.ONE));
+        viewSystemEventBus.post(ViewSystemEvent.transactionConfidenceChanged(wallet1, transaction1));
+        viewSystemEventBus.post(ViewSystemEvent.transactionConfidenceChanged(wallet1, transaction1));
+        viewSystemEventBus.post(ViewSystemEvent.transactionConfidenceChanged(wallet1, transaction2));
+        assertEquals(5, viewSystemEventBus.getQueueDepth());
+        assertEquals(101, viewSystemEventBus.getMergedEventCount());
+
+        swingThreadHeld.countDown();
+        assertTrue(viewSystem.confidenceChanges.await(TIMEOUT, TimeUnit.SECONDS));
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+
+        assertEquals(1, viewSystem.getNumberOfBlocksDownloaded());
+        assertEquals(2, viewSystem.coinsReceived.size());
+        // The first wallet's coins events were merged - the balance before the first and after the last.
+        assertEquals(BigInteger.ZERO, viewSystem.coinsReceivedPrevBalances.get(0));
+        assertEquals(BigInteger.TEN, viewSystem.coinsReceivedNewBalances.get(0));
+        assertSame(transaction2, viewSystem.coinsReceived.get(0));
+        assertTrue(viewSystem.deliveredOnSwingThread);
+
+        assertEquals(0, viewSystemEventBus.getQueueDepth());
+        assertEquals(5, viewSystemEventBus.getDeliveredEventCount());
+        assertEquals(0, viewSystemEventBus.getDroppedEventCount());
+    }
+
+    static class RecordingViewSystem extends SimpleViewSystem {
+        final List<Transaction> coinsReceived = new ArrayList<Transaction>();
+        final List<BigInteger> coinsReceivedPrevBalances = new ArrayList<BigInteger>();
+        final List<BigInteger> coinsReceivedNewBalances = new ArrayList<BigInteger>();
+        final CountDownLatch confidenceChanges = new CountDownLatch(2);
+        volatile boolean deliveredOnSwingThread = true;
+
+        @Override
+        public void onCoinsReceived(Wallet wallet, Transaction transaction, BigInteger prevBalance, BigInteger newBalance) {
+            deliveredOnSwingThread &= EventQueue.isDispatchThread();
+            coinsReceived.add(transaction);
+            coinsReceivedPrevBalances.add(prevBalance);
+            coinsReceivedNewBalances.add(newBalance);
+        }
+
+        @Override
+        public void onTransactionConfidenceChanged(Wallet wallet, Transaction transaction) {
+            deliveredOnSwingThread &= EventQueue.isDispatchThread();
+            confidenceChanges.countDown();
+        }
+
+        @Override
+        public void blockDownloaded() {
+            deliveredOnSwingThread &= EventQueue.isDispatchThread();
+            super.blockDownloaded();
+        }
+    }
+}